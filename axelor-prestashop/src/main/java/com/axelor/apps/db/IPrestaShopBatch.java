@@ -32,6 +32,8 @@ public interface IPrestaShopBatch {
 
   static final int BATCH_EXPORT = 2;
 
+  static final int BATCH_STOCK_SYNC = 3;
+
   static final String TRACE_ORIGIN_IMPORT = "prestashopImport";
   static final String TRACE_ORIGIN_EXPORT = "prestashopExport";
 
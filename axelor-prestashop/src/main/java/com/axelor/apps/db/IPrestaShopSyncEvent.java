@@ -0,0 +1,36 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.db;
+
+/** Static selects of PrestaShopSyncEvent. */
+public interface IPrestaShopSyncEvent {
+
+  // ACTION
+  static final int ACTION_CREATE = 1;
+
+  static final int ACTION_UPDATE = 2;
+
+  static final int ACTION_SKIP = 3;
+
+  // STATUS
+  static final int STATUS_SUCCESS = 1;
+
+  static final int STATUS_WARNING = 2;
+
+  static final int STATUS_ERROR = 3;
+}
@@ -22,9 +22,11 @@ import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.entities.xlink.ApiContainer;
 import com.axelor.apps.prestashop.entities.xlink.XlinkEntry;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestashopHttpException;
 import com.axelor.i18n.I18n;
 import com.google.common.collect.Sets;
+import com.google.inject.Inject;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -65,6 +67,14 @@ public class AppPrestaShopServiceImpl implements AppPrestaShopService {
           PrestashopResourceType.ORDER_PAYMENTS);
 
   private Logger logger = LoggerFactory.getLogger(getClass());
+
+  private PSWebServiceClientProvider clientProvider;
+
+  @Inject
+  public AppPrestaShopServiceImpl(PSWebServiceClientProvider clientProvider) {
+    this.clientProvider = clientProvider;
+  }
+
   /**
    * Check connection with prestashop
    *
@@ -77,9 +87,8 @@ public class AppPrestaShopServiceImpl implements AppPrestaShopService {
       final List<String> errors,
       final List<String> warnings,
       final List<String> info) {
-    try {
-      PSWebServiceClient ws =
-          new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    // Configuration may not be saved yet, do not mess with the shared client
+    try (PSWebServiceClient ws = clientProvider.createClient(appConfig)) {
       final ApiContainer api = ws.fetch("api");
 
       @SuppressWarnings("unchecked")
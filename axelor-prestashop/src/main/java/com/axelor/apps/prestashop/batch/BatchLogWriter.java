@@ -0,0 +1,313 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.batch;
+
+import com.axelor.apps.base.db.AppPrestashop;
+import com.axelor.meta.MetaFiles;
+import com.axelor.meta.db.MetaFile;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Batch log written to a temporary file as records are processed, so logs of large synchronizations
+ * are never held in memory.
+ *
+ * <p>Log is made of records: a line and the indented lines following it (eg. an order and its
+ * lines). Records are classified according to the most severe tag their lines contain ({@code
+ * [SUCCESS]}, {@code [WARNING]} or {@code [ERROR]}), which allows to write only a sample of the
+ * records of a given level. Records are kept or skipped as a whole.
+ *
+ * <p>When a maximum size is set, log is written in several parts and the oldest part is dropped
+ * when this size is exceeded, so only the most recent lines are kept. Sizes are counted in
+ * uncompressed characters.
+ */
+public class BatchLogWriter extends Writer {
+  public enum Level {
+    INFO,
+    SUCCESS,
+    WARNING,
+    ERROR
+  }
+
+  /** Number of parts a bounded log is split in, the oldest one is dropped when another begins. */
+  private static final int PARTS = 4;
+
+  private static final long MEGABYTE = 1024L * 1024L;
+
+  private final Path directory;
+  private final String fileName;
+  private final boolean compressed;
+  private final long partSize;
+  private final Map<Level, Integer> samplingRates = new EnumMap<>(Level.class);
+  private final Map<Level, Long> recordCounts = new EnumMap<>(Level.class);
+  private final Deque<Path> parts = new ArrayDeque<>();
+  private final StringBuilder line = new StringBuilder();
+  /** Complete lines of the current record, written once next record begins. */
+  private final StringBuilder record = new StringBuilder();
+
+  private Level recordLevel = Level.INFO;
+  private int recordLines;
+  private Writer part;
+  private long size;
+  private long skippedLines;
+  private long droppedParts;
+  private Path result;
+
+  /**
+   * @param fileName Name of the log file, <code>.gz</code> is appended if compressed.
+   * @param compressed Whether log file must be gzipped.
+   * @param maxSize Maximum size in characters, 0 for an unlimited log.
+   * @throws IOException If temporary file cannot be created.
+   */
+  public BatchLogWriter(String fileName, boolean compressed, long maxSize) throws IOException {
+    this.directory = Files.createTempDirectory("prestashop-log");
+    this.fileName = compressed ? fileName + ".gz" : fileName;
+    this.compressed = compressed;
+    this.partSize = maxSize <= 0 ? 0 : Math.max(1, maxSize / PARTS);
+    nextPart();
+  }
+
+  /**
+   * Creates a log writer according to module's configuration.
+   *
+   * @param appConfig Prestashop module's configuration
+   * @param fileName Name of the log file, <code>.gz</code> is appended if compressed.
+   */
+  public static BatchLogWriter create(AppPrestashop appConfig, String fileName) throws IOException {
+    final Integer maxSize = appConfig.getBatchLogMaxSize();
+    final Integer successRate = appConfig.getBatchLogSuccessRate();
+    return new BatchLogWriter(
+            fileName,
+            Boolean.TRUE.equals(appConfig.getBatchLogCompressed()),
+            maxSize == null ? 0 : maxSize * MEGABYTE)
+        .sample(Level.SUCCESS, successRate == null ? 1 : successRate);
+  }
+
+  /**
+   * Writes only a sample of records having the given level.
+   *
+   * @param level Level of the records to sample.
+   * @param rate Write one record out of <code>rate</code>, 0 writes none of them.
+   */
+  public BatchLogWriter sample(Level level, int rate) {
+    samplingRates.put(level, Math.max(0, rate));
+    return this;
+  }
+
+  /**
+   * Creates an independent, unbounded, log sharing this one's sampling rates. Used to log work run
+   * concurrently, see {@link #append(BatchLogWriter)}.
+   */
+  public BatchLogWriter fork() throws IOException {
+    final BatchLogWriter fork = new BatchLogWriter(fileName, false, 0);
+    fork.samplingRates.putAll(samplingRates);
+    return fork;
+  }
+
+  /**
+   * Appends the content of a forked log, then deletes it.
+   *
+   * @param fork Log created by {@link #fork()}.
+   */
+  public void append(BatchLogWriter fork) throws IOException {
+    fork.close();
+    emitRecord();
+    skippedLines += fork.skippedLines;
+    try {
+      for (Path forkPart : fork.parts) {
+        try (BufferedReader reader = Files.newBufferedReader(forkPart, StandardCharsets.UTF_8)) {
+          String forkLine;
+          while ((forkLine = reader.readLine()) != null) {
+            writeText(forkLine + System.lineSeparator());
+          }
+        }
+      }
+    } finally {
+      fork.delete();
+    }
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    if (part == null) throw new IOException("Batch log is closed");
+    for (int i = off; i < off + len; ++i) {
+      line.append(cbuf[i]);
+      if (cbuf[i] == '\n') {
+        emitLine();
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (part != null) part.flush();
+  }
+
+  /** Writes pending record and closes current part, log cannot be written anymore. */
+  @Override
+  public void close() throws IOException {
+    if (part == null) return;
+    if (line.length() > 0) emitLine();
+    emitRecord();
+    part.close();
+    part = null;
+  }
+
+  /**
+   * Closes log and builds the final log file. Number of lines skipped by sampling is written at the
+   * end of the log, unless it has already been closed.
+   *
+   * @return Path of the log file, deleted along with this log.
+   */
+  public Path finish() throws IOException {
+    if (result != null) return result;
+    if (part != null) {
+      if (line.length() > 0) emitLine();
+      emitRecord();
+    }
+    if (part != null && skippedLines > 0) {
+      writeText(
+          String.format("%n%d lines were not written to this log (sampling)%n", skippedLines));
+    }
+    close();
+
+    result = directory.resolve(fileName);
+    try (OutputStream out = Files.newOutputStream(result)) {
+      if (droppedParts > 0) {
+        final String notice =
+            String.format(
+                "[WARNING] Log size limit reached, %d oldest parts were dropped%n%n", droppedParts);
+        final OutputStream noticeOut = compressed ? new GZIPOutputStream(out) : out;
+        noticeOut.write(notice.getBytes(StandardCharsets.UTF_8));
+        if (compressed) ((GZIPOutputStream) noticeOut).finish();
+      }
+      // Concatenated gzip streams are a valid gzip file
+      for (Path logPart : parts) {
+        Files.copy(logPart, out);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Finishes this log, stores it as a meta file and deletes temporary files.
+   *
+   * @param metaFiles Meta files service.
+   * @return Stored log file.
+   */
+  public MetaFile upload(MetaFiles metaFiles) throws IOException {
+    try (InputStream in = Files.newInputStream(finish())) {
+      return metaFiles.upload(in, fileName);
+    } finally {
+      delete();
+    }
+  }
+
+  /** Deletes temporary files, log must not be used afterwards. */
+  public void delete() throws IOException {
+    close();
+    try (Stream<Path> files = Files.walk(directory)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  /** @return Name of the log file, including compression extension. */
+  public String getFileName() {
+    return fileName;
+  }
+
+  /** Adds a complete line to current record, or starts a new record if line is not indented. */
+  private void emitLine() throws IOException {
+    final String text = line.toString();
+    line.setLength(0);
+
+    if (isIndented(text) == false) emitRecord();
+    record.append(text);
+    ++recordLines;
+    final Level level = getLevel(text);
+    if (level.compareTo(recordLevel) > 0) recordLevel = level;
+  }
+
+  /** Writes current record unless it is skipped by sampling. */
+  private void emitRecord() throws IOException {
+    if (recordLines == 0) return;
+    final String text = record.toString();
+    final int lines = recordLines;
+    final Integer rate = samplingRates.get(recordLevel);
+    final long count = recordCounts.merge(recordLevel, 1L, Long::sum);
+    record.setLength(0);
+    recordLines = 0;
+    recordLevel = Level.INFO;
+
+    if (rate != null && (rate == 0 || (count - 1) % rate != 0)) {
+      skippedLines += lines;
+      return;
+    }
+    writeText(text);
+  }
+
+  private void writeText(String text) throws IOException {
+    if (partSize > 0 && size >= partSize) {
+      part.close();
+      nextPart();
+      if (parts.size() > PARTS) {
+        Files.delete(parts.removeFirst());
+        ++droppedParts;
+      }
+    }
+    part.write(text);
+    size += text.length();
+  }
+
+  private void nextPart() throws IOException {
+    final Path path = directory.resolve(String.format("part-%d", parts.size() + droppedParts));
+    OutputStream out = Files.newOutputStream(path);
+    if (compressed) out = new GZIPOutputStream(out, 8192);
+    part = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    parts.addLast(path);
+    size = 0;
+  }
+
+  private static boolean isIndented(String text) {
+    return (text.startsWith("\t") || text.startsWith(" ")) && text.trim().isEmpty() == false;
+  }
+
+  private static Level getLevel(String text) {
+    if (text.contains("[ERROR]")) return Level.ERROR;
+    if (text.contains("[WARNING]")) return Level.WARNING;
+    if (text.contains("[SUCCESS]")) return Level.SUCCESS;
+    return Level.INFO;
+  }
+}
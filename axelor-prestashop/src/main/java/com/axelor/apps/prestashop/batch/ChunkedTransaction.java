@@ -0,0 +1,194 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.batch;
+
+import com.axelor.apps.base.db.Batch;
+import com.axelor.apps.base.service.administration.AbstractBatch;
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.axelor.db.EntityHelper;
+import com.axelor.db.JPA;
+import com.axelor.db.Model;
+import java.util.List;
+import java.util.Objects;
+import javax.persistence.EntityTransaction;
+
+/**
+ * Splits a long running synchronization in several transactions: pending work is committed after
+ * each chunk of records, then the persistence context is cleared so memory usage does not grow with
+ * the number of processed records and a failure only rolls back the current chunk.
+ *
+ * <p>Entities loaded before a commit are detached afterwards, callers must use {@link
+ * #reattach(Model)} on the ones they keep across records.
+ *
+ * <p>When bound to a resource type, the ID of the last committed remote entity is stored on the
+ * current batch so an interrupted import can be resumed, see {@link #getResumeId()}. This requires
+ * entities to be processed by increasing ID.
+ *
+ * <p>If a transaction is already active on creation, it is left to its owner and no intermediate
+ * commit is performed.
+ */
+public class ChunkedTransaction implements AutoCloseable {
+  public static final int DEFAULT_CHUNK_SIZE = 100;
+
+  private final PrestashopResourceType resourceType;
+  private final int chunkSize;
+  private final EntityTransaction transaction;
+  private final boolean owner;
+  private int count = 0;
+  private Integer lastId;
+
+  /**
+   * @param chunkSize Number of records per transaction, {@link #DEFAULT_CHUNK_SIZE} is used if
+   *     <code>null</code> or not strictly positive.
+   */
+  public ChunkedTransaction(Integer chunkSize) {
+    this(null, chunkSize);
+  }
+
+  /**
+   * @param resourceType Type of imported resource, used to store resume information on batch.
+   * @param chunkSize Number of records per transaction, {@link #DEFAULT_CHUNK_SIZE} is used if
+   *     <code>null</code> or not strictly positive.
+   */
+  public ChunkedTransaction(PrestashopResourceType resourceType, Integer chunkSize) {
+    this.resourceType = resourceType;
+    this.chunkSize = chunkSize == null || chunkSize <= 0 ? DEFAULT_CHUNK_SIZE : chunkSize;
+    this.transaction = JPA.em().getTransaction();
+    this.owner = transaction.isActive() == false;
+    if (owner) transaction.begin();
+  }
+
+  /**
+   * Returns the ID after which import should be resumed, if last run was interrupted while
+   * processing this resource.
+   *
+   * @return ID of last committed remote entity or <code>null</code> if import must start over.
+   */
+  public Integer getResumeId() {
+    if (resourceType == null) return null;
+    final Batch batch = AbstractBatch.getCurrentBatch();
+    if (batch == null
+        || Objects.equals(resourceType.getLabel(), batch.getPrestaShopCheckpointResource())
+            == false) {
+      return null;
+    }
+    return batch.getPrestaShopCheckpointId();
+  }
+
+  /**
+   * Must be called before processing each record. Commits pending work if the current chunk is
+   * full.
+   *
+   * @param id Remote ID of the record about to be processed, <code>null</code> for exports.
+   * @return <code>true</code> if a commit occurred, meaning that previously loaded entities are now
+   *     detached.
+   */
+  public boolean next(Integer id) {
+    boolean committed = false;
+    if (isChunkComplete()) {
+      checkpoint(lastId);
+      commit(true);
+      committed = true;
+    }
+    ++count;
+    lastId = id;
+    return committed;
+  }
+
+  /**
+   * @return Whether current chunk is complete, ie. next call to {@link #next(Integer)} will commit.
+   *     Work deferred until commit must be applied before that call.
+   */
+  public boolean isChunkComplete() {
+    return count > 0 && count % chunkSize == 0;
+  }
+
+  /** @return Number of records processed between two commits. */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /** Commits pending work and clears resume information, resource is completely processed. */
+  public void finish() {
+    checkpoint(null);
+    commit(false);
+  }
+
+  /**
+   * Discards work done since last commit and starts a new transaction, used to isolate records
+   * processed one by one. Like a commit, this detaches all loaded entities.
+   *
+   * @return <code>false</code> if nothing could be discarded because transaction belongs to caller.
+   */
+  public boolean rollback() {
+    if (owner == false) return false;
+    transaction.rollback();
+    JPA.clear();
+    transaction.begin();
+    return true;
+  }
+
+  /** Rolls back uncommitted work if {@link #finish()} has not been called. */
+  @Override
+  public void close() {
+    if (owner && transaction.isActive()) transaction.rollback();
+  }
+
+  /**
+   * Gets a managed instance of the given entity, reloading it if it has been detached by a commit.
+   */
+  public static <T extends Model> T reattach(T entity) {
+    if (entity == null || entity.getId() == null || JPA.em().contains(entity)) return entity;
+    return JPA.find(EntityHelper.getEntityClass(entity), entity.getId());
+  }
+
+  /**
+   * Lists IDs of entities matching the given filter, by increasing ID. Unlike a fetch of entities
+   * this does not fill the persistence context and stays valid across commits.
+   *
+   * @param klass Entity class.
+   * @param filter JPQL condition, using <code>self</code> alias.
+   */
+  public static List<Long> fetchIds(Class<? extends Model> klass, String filter) {
+    return JPA.em()
+        .createQuery(
+            String.format(
+                "SELECT self.id FROM %s self WHERE %s ORDER BY self.id",
+                klass.getSimpleName(), filter),
+            Long.class)
+        .getResultList();
+  }
+
+  private void checkpoint(Integer id) {
+    if (resourceType == null) return;
+    final Batch batch = AbstractBatch.getCurrentBatch();
+    if (batch == null || batch.getId() == null) return;
+    // Current batch may have been detached by a previous commit
+    final Batch managed = reattach(batch);
+    managed.setPrestaShopCheckpointResource(id == null ? null : resourceType.getLabel());
+    managed.setPrestaShopCheckpointId(id);
+  }
+
+  private void commit(boolean reopen) {
+    JPA.flush();
+    if (owner == false) return;
+    transaction.commit();
+    JPA.clear();
+    if (reopen) transaction.begin();
+  }
+}
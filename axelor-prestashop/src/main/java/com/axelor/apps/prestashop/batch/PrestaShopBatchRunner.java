@@ -0,0 +1,347 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.batch;
+
+import com.axelor.apps.base.db.Batch;
+import com.axelor.apps.base.service.administration.AbstractBatch;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.db.PrestaShopBatch;
+import com.axelor.apps.prestashop.exception.IExceptionMessage;
+import com.axelor.auth.AuthUtils;
+import com.axelor.db.JPA;
+import com.axelor.exception.AxelorException;
+import com.axelor.exception.db.repo.TraceBackRepository;
+import com.axelor.i18n.I18n;
+import com.axelor.inject.Beans;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Singleton;
+import com.google.inject.persist.UnitOfWork;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import org.apache.shiro.subject.Subject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs PrestaShop batches, making sure a batch definition is never run twice at the same time, and
+ * keeps track of the stage each running batch is at and of the records it has synchronized.
+ *
+ * <p>Batches can either be run in the calling thread (scheduler) or submitted to a dedicated pool
+ * so long synchronizations do not hold a web request. Runs are tracked in memory, so exclusion only
+ * applies to batches run by the same application instance.
+ */
+@Singleton
+public class PrestaShopBatchRunner {
+  /** Maximum time a submission waits for the batch record to be created. */
+  private static final long START_TIMEOUT = 10;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final ExecutorService executor =
+      Executors.newCachedThreadPool(
+          new ThreadFactoryBuilder().setNameFormat("prestashop-batch-%d").setDaemon(true).build());
+
+  /** Running batches, by batch definition ID. */
+  private final Map<Long, Run> runs = new ConcurrentHashMap<>();
+
+  private final ThreadLocal<Run> currentRun = new ThreadLocal<>();
+
+  /**
+   * Runs a batch in the current thread.
+   *
+   * @param definition Batch definition to run.
+   * @param job Actual batch run, usually {@link AbstractBatch#run(com.axelor.db.Model)}.
+   * @return Batch record created by the run.
+   * @throws AxelorException If this batch definition is already running.
+   */
+  public Batch run(PrestaShopBatch definition, Function<PrestaShopBatch, Batch> job)
+      throws AxelorException {
+    final Run current = currentRun.get();
+    if (current != null && current.definitionId.equals(definition.getId())) {
+      // Submitted run, lock is already held
+      return job.apply(definition);
+    }
+    final Run run = acquire(definition);
+    try {
+      return execute(run, definition, job);
+    } finally {
+      runs.remove(run.definitionId, run);
+    }
+  }
+
+  /**
+   * Runs a batch in background, on behalf of the user logged in the calling thread if any.
+   *
+   * @param definition Batch definition to run.
+   * @param job Actual batch run, called with a definition instance loaded in the worker thread.
+   * @return ID of the batch record created by the run, <code>null</code> if it has not been created
+   *     yet after a few seconds.
+   * @throws AxelorException If this batch definition is already running.
+   */
+  public Long submit(PrestaShopBatch definition, Function<PrestaShopBatch, Batch> job)
+      throws AxelorException {
+    final Run run = acquire(definition);
+    // Records created by the batch are audited as created by the requesting user
+    final Subject subject = AuthUtils.getUser() == null ? null : AuthUtils.getSubject();
+    final Runnable task =
+        () -> {
+          // Worker threads are not bound to any request, so open the persistence unit of work
+          final UnitOfWork unitOfWork = Beans.get(UnitOfWork.class);
+          unitOfWork.begin();
+          try {
+            execute(run, JPA.find(PrestaShopBatch.class, run.definitionId), job);
+          } catch (RuntimeException e) {
+            log.error("Background run of PrestaShop batch {} failed", run.definitionId, e);
+          } finally {
+            unitOfWork.end();
+            runs.remove(run.definitionId, run);
+            run.batchId.complete(null);
+          }
+        };
+    try {
+      executor.execute(subject == null ? task : subject.associateWith(task));
+    } catch (RuntimeException e) {
+      runs.remove(run.definitionId, run);
+      throw e;
+    }
+
+    try {
+      return run.batchId.get(START_TIMEOUT, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException | TimeoutException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Records the stage the batch running in the current thread has reached. Does nothing if batch
+   * has not been started through this runner.
+   *
+   * @param stage Name of the stage, displayed to users.
+   */
+  public void setStage(String stage) {
+    setStages(Collections.singletonList(stage));
+  }
+
+  /**
+   * Records the stages being run concurrently by the batch running in the current thread. Does
+   * nothing if batch has not been started through this runner.
+   *
+   * @param stages Names of the stages, displayed to users.
+   */
+  public void setStages(Collection<String> stages) {
+    final Run run = currentRun.get();
+    if (run == null) return;
+    run.stages = Collections.unmodifiableList(new ArrayList<>(stages));
+    run.batchId.complete(AbstractBatch.getCurrentBatchId());
+  }
+
+  /**
+   * Gets the ID of the batch running in the current thread. Unlike {@link
+   * AbstractBatch#getCurrentBatchId()}, this also works in threads running tasks wrapped by {@link
+   * #propagate(Runnable)}.
+   *
+   * @return <code>null</code> if no batch is running in this thread.
+   */
+  public Long getCurrentBatchId() {
+    final Long batchId = AbstractBatch.getCurrentBatchId();
+    if (batchId != null) return batchId;
+    final Run run = currentRun.get();
+    return run == null ? null : run.batchId.getNow(null);
+  }
+
+  /**
+   * Binds the given task to the batch running in the current thread and to the logged user, so they
+   * are known by the thread which will run the task.
+   *
+   * @param task Task run on behalf of current batch.
+   * @return Task to be run instead of the given one.
+   */
+  public Runnable propagate(Runnable task) {
+    final Run run = currentRun.get();
+    if (run == null) return task;
+    final Subject subject = AuthUtils.getUser() == null ? null : AuthUtils.getSubject();
+    final Runnable bound =
+        () -> {
+          final Run previous = currentRun.get();
+          currentRun.set(run);
+          try {
+            task.run();
+          } finally {
+            if (previous == null) {
+              currentRun.remove();
+            } else {
+              currentRun.set(previous);
+            }
+          }
+        };
+    return subject == null ? bound : subject.associateWith(bound);
+  }
+
+  /**
+   * Gets the counter of records synchronized by the batch running in the current thread, creating
+   * it if needed.
+   *
+   * @param resource Label of the synchronized resource type.
+   * @return <code>null</code> if no batch has been started through this runner in this thread.
+   */
+  public RecordCounter getRecordCounter(String resource) {
+    final Run run = currentRun.get();
+    return run == null
+        ? null
+        : run.recordCounters.computeIfAbsent(resource, r -> new RecordCounter());
+  }
+
+  /**
+   * @param definitionId ID of a batch definition.
+   * @return Progress of the running batch, <code>null</code> if this definition is not running.
+   */
+  public Progress getProgress(Long definitionId) {
+    final Run run = definitionId == null ? null : runs.get(definitionId);
+    if (run == null) return null;
+    final Map<String, RecordCounter> recordCounters;
+    synchronized (run.recordCounters) {
+      recordCounters = new LinkedHashMap<>(run.recordCounters);
+    }
+    return new Progress(
+        run.batchId.getNow(null),
+        run.stages,
+        run.startDate,
+        Collections.unmodifiableMap(recordCounters));
+  }
+
+  private Run acquire(PrestaShopBatch definition) throws AxelorException {
+    final Run run = new Run(definition.getId());
+    if (runs.putIfAbsent(run.definitionId, run) != null) {
+      throw new AxelorException(
+          TraceBackRepository.CATEGORY_INCONSISTENCY,
+          I18n.get(IExceptionMessage.PRESTASHOP_BATCH_RUNNING),
+          definition.getCode());
+    }
+    return run;
+  }
+
+  private Batch execute(Run run, PrestaShopBatch definition, Function<PrestaShopBatch, Batch> job) {
+    currentRun.set(run);
+    try {
+      final Batch batch = job.apply(definition);
+      run.batchId.complete(batch == null ? null : batch.getId());
+      return batch;
+    } finally {
+      currentRun.remove();
+    }
+  }
+
+  private static class Run {
+    private final Long definitionId;
+    private final ZonedDateTime startDate = ZonedDateTime.now();
+    private final CompletableFuture<Long> batchId = new CompletableFuture<>();
+    private volatile List<String> stages = Collections.emptyList();
+    /** Counters by resource label, in the order resources have been reached. */
+    private final Map<String, RecordCounter> recordCounters =
+        Collections.synchronizedMap(new LinkedHashMap<>());
+
+    private Run(Long definitionId) {
+      this.definitionId = definitionId;
+    }
+  }
+
+  /** Number of records of a resource type synchronized so far, by outcome. */
+  public static class RecordCounter {
+    private final LongAdder success = new LongAdder();
+    private final LongAdder warning = new LongAdder();
+    private final LongAdder error = new LongAdder();
+
+    /** @param status Outcome of the record, one of IPrestaShopSyncEvent.STATUS_* constants. */
+    public void increment(int status) {
+      if (status == IPrestaShopSyncEvent.STATUS_SUCCESS) {
+        success.increment();
+      } else if (status == IPrestaShopSyncEvent.STATUS_WARNING) {
+        warning.increment();
+      } else {
+        error.increment();
+      }
+    }
+
+    public long getSuccess() {
+      return success.sum();
+    }
+
+    public long getWarning() {
+      return warning.sum();
+    }
+
+    public long getError() {
+      return error.sum();
+    }
+  }
+
+  /** Snapshot of a running batch. Record counters keep being updated while batch runs. */
+  public static class Progress {
+    private final Long batchId;
+    private final List<String> stages;
+    private final ZonedDateTime startDate;
+    private final Map<String, RecordCounter> recordCounters;
+
+    private Progress(
+        Long batchId,
+        List<String> stages,
+        ZonedDateTime startDate,
+        Map<String, RecordCounter> recordCounters) {
+      this.batchId = batchId;
+      this.stages = stages;
+      this.startDate = startDate;
+      this.recordCounters = recordCounters;
+    }
+
+    /** @return ID of the batch record, <code>null</code> if it has not been created yet. */
+    public Long getBatchId() {
+      return batchId;
+    }
+
+    /** @return Stages currently running, empty if none has been reached yet. */
+    public List<String> getStages() {
+      return stages;
+    }
+
+    public ZonedDateTime getStartDate() {
+      return startDate;
+    }
+
+    /** @return Records synchronized so far, by resource label. */
+    public Map<String, RecordCounter> getRecordCounters() {
+      return recordCounters;
+    }
+  }
+}
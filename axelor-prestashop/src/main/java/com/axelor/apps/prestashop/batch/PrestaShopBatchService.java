@@ -23,6 +23,7 @@ import com.axelor.apps.db.IPrestaShopBatch;
 import com.axelor.apps.prestashop.db.PrestaShopBatch;
 import com.axelor.apps.prestashop.exception.IExceptionMessage;
 import com.axelor.apps.prestashop.service.exports.batch.ExportPrestaShop;
+import com.axelor.apps.prestashop.service.exports.batch.SyncStockPrestaShop;
 import com.axelor.apps.prestashop.service.imports.batch.ImportPrestaShop;
 import com.axelor.db.Model;
 import com.axelor.exception.AxelorException;
@@ -62,6 +63,10 @@ public class PrestaShopBatchService extends AbstractBatchService {
           batch = exportPrestaShop(prestaShopBatch);
           break;
 
+        case IPrestaShopBatch.BATCH_STOCK_SYNC:
+          batch = syncStockPrestaShop(prestaShopBatch);
+          break;
+
         default:
           throw new AxelorException(
               TraceBackRepository.CATEGORY_INCONSISTENCY,
@@ -79,14 +84,21 @@ public class PrestaShopBatchService extends AbstractBatchService {
   }
 
   /** Batch run import prestashop to ABS */
-  public Batch importPrestaShop(PrestaShopBatch prestaShopBatch) {
-
-    return Beans.get(ImportPrestaShop.class).run(prestaShopBatch);
+  public Batch importPrestaShop(PrestaShopBatch prestaShopBatch) throws AxelorException {
+    return Beans.get(PrestaShopBatchRunner.class)
+        .run(prestaShopBatch, b -> Beans.get(ImportPrestaShop.class).run(b));
   }
 
   /** Batch run export ABS to prestashop */
-  public Batch exportPrestaShop(PrestaShopBatch prestaShopBatch) {
-    return Beans.get(ExportPrestaShop.class).run(prestaShopBatch);
+  public Batch exportPrestaShop(PrestaShopBatch prestaShopBatch) throws AxelorException {
+    return Beans.get(PrestaShopBatchRunner.class)
+        .run(prestaShopBatch, b -> Beans.get(ExportPrestaShop.class).run(b));
+  }
+
+  /** Batch run stock export ABS to prestashop */
+  public Batch syncStockPrestaShop(PrestaShopBatch prestaShopBatch) throws AxelorException {
+    return Beans.get(PrestaShopBatchRunner.class)
+        .run(prestaShopBatch, b -> Beans.get(SyncStockPrestaShop.class).run(b));
   }
 
   /**
@@ -109,6 +121,24 @@ public class PrestaShopBatchService extends AbstractBatchService {
     return date;
   }
 
+  /**
+   * Finds the most recent run of the given batch definition, the current one excepted.
+   *
+   * @param batchDefinition Batch definition record.
+   * @param current Currently running batch.
+   * @return <code>null</code> if batch has never been run before.
+   */
+  public Batch getPreviousRun(PrestaShopBatch batchDefinition, Batch current) {
+    Batch previous = null;
+    for (Batch b : batchDefinition.getBatchList()) {
+      if (b.getId().equals(current.getId()) == false
+          && (previous == null || previous.getId() < b.getId())) {
+        previous = b;
+      }
+    }
+    return previous;
+  }
+
   @Override
   protected Class<? extends Model> getModelClass() {
     return PrestaShopBatch.class;
@@ -0,0 +1,308 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.batch;
+
+import com.axelor.apps.prestashop.service.library.PSMetricsRegistry;
+import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
+import com.axelor.inject.Beans;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.persist.UnitOfWork;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the steps of a synchronization according to their prerequisites: a stage starts as soon as
+ * all the stages it depends on are completed, so independent stages run concurrently.
+ *
+ * <p>Stages registered with {@link #addLocal(String, Stage, String...)} run in the calling thread,
+ * one at a time. This is required for stages relying on the current batch, such as resumable
+ * imports which store their checkpoint on it. Other stages run in a pool of worker threads, each
+ * with its own persistence context.
+ *
+ * <p>Stages run by workers write to their own log, which is appended to the main log once the stage
+ * is completed. Time taken by each stage is written at the end of the log.
+ */
+public class StageScheduler {
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final Map<String, StageEntry> stages = new LinkedHashMap<>();
+  private final PrestaShopBatchRunner batchRunner;
+  private final PSMetricsRegistry metricsRegistry;
+  private final String batchType;
+  private final Integer concurrency;
+
+  /**
+   * @param batchRunner Runner to which running stages are reported.
+   * @param metricsRegistry Registry recording stage durations.
+   * @param batchType Kind of batch (eg. <code>import</code>), used to tag stage durations.
+   * @param concurrency Maximum number of stages running at the same time, stages are run one after
+   *     the other if <code>null</code> or less than 2.
+   */
+  public StageScheduler(
+      PrestaShopBatchRunner batchRunner,
+      PSMetricsRegistry metricsRegistry,
+      String batchType,
+      Integer concurrency) {
+    this.batchRunner = batchRunner;
+    this.metricsRegistry = metricsRegistry;
+    this.batchType = batchType;
+    this.concurrency = concurrency;
+  }
+
+  /**
+   * Adds a stage which can be run in any thread. Such a stage runs in its own persistence context
+   * and must reload the entities it works on instead of using those of the calling thread.
+   *
+   * @param name Name of the stage, displayed to users.
+   * @param stage Work to perform.
+   * @param prerequisites Names of the stages that must be completed before this one starts.
+   */
+  public StageScheduler add(String name, Stage stage, String... prerequisites) {
+    return add(new StageEntry(name, stage, false, prerequisites));
+  }
+
+  /**
+   * Adds a stage which must be run in the calling thread.
+   *
+   * @param name Name of the stage, displayed to users.
+   * @param stage Work to perform.
+   * @param prerequisites Names of the stages that must be completed before this one starts.
+   */
+  public StageScheduler addLocal(String name, Stage stage, String... prerequisites) {
+    return add(new StageEntry(name, stage, true, prerequisites));
+  }
+
+  /**
+   * Runs all stages. If a stage fails, no other stage is started and running ones are waited for
+   * before the failure is reported.
+   *
+   * @param logWriter Log to be displayed in Axelor.
+   * @return Duration of each stage in milliseconds, by completion order.
+   */
+  public Map<String, Long> run(final BatchLogWriter logWriter)
+      throws IOException, PrestaShopWebserviceException {
+    for (StageEntry entry : stages.values()) {
+      for (String prerequisite : entry.prerequisites) {
+        if (stages.containsKey(prerequisite) == false) {
+          throw new IllegalArgumentException(
+              String.format("Stage %s depends on unknown stage %s", entry.name, prerequisite));
+        }
+      }
+    }
+
+    final Map<String, Long> durations = new LinkedHashMap<>();
+    final List<StageEntry> pending = new ArrayList<>(stages.values());
+    final List<String> running = new ArrayList<>();
+    final ExecutorService executor = createExecutor();
+    final CompletionService<StageEntry> completion = new ExecutorCompletionService<>(executor);
+    final Thread caller = Thread.currentThread();
+    Exception failure = null;
+
+    try {
+      while (pending.isEmpty() == false || running.isEmpty() == false) {
+        StageEntry local = null;
+        if (failure == null) {
+          for (StageEntry entry : new ArrayList<>(pending)) {
+            if (durations.keySet().containsAll(entry.prerequisites) == false) continue;
+            if (entry.local) {
+              if (local == null) local = entry;
+              continue;
+            }
+            pending.remove(entry);
+            entry.logWriter = isParallel() ? logWriter.fork() : logWriter;
+            running.add(entry.name);
+            batchRunner.setStages(running);
+            completion.submit(batchRunner.propagate(() -> runInWorker(entry, caller)), entry);
+          }
+          if (local == null && running.isEmpty() && pending.isEmpty() == false) {
+            throw new IllegalStateException("Circular dependency between stages " + pending);
+          }
+        } else {
+          pending.clear();
+        }
+
+        if (local != null) {
+          pending.remove(local);
+          local.logWriter = logWriter;
+          running.add(local.name);
+          batchRunner.setStages(running);
+          local.run();
+          failure = complete(local, running, durations, logWriter, failure);
+        }
+
+        // Collect stages completed meanwhile, wait for one if nothing else can be started
+        Future<StageEntry> done =
+            local == null && running.isEmpty() == false ? completion.take() : completion.poll();
+        while (done != null) {
+          failure = complete(get(done), running, durations, logWriter, failure);
+          done = completion.poll();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PrestaShopWebserviceException(e.getMessage(), e);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (failure != null) {
+      if (failure instanceof IOException) throw (IOException) failure;
+      if (failure instanceof PrestaShopWebserviceException) {
+        throw (PrestaShopWebserviceException) failure;
+      }
+      if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+      throw new PrestaShopWebserviceException(failure.getMessage(), failure);
+    }
+
+    logWriter.write(String.format("%n====== DURATIONS ======%n"));
+    for (Map.Entry<String, Long> duration : durations.entrySet()) {
+      logWriter.write(String.format("%s: %d ms%n", duration.getKey(), duration.getValue()));
+    }
+    return durations;
+  }
+
+  private StageScheduler add(StageEntry entry) {
+    if (stages.putIfAbsent(entry.name, entry) != null) {
+      throw new IllegalArgumentException("Duplicate stage " + entry.name);
+    }
+    return this;
+  }
+
+  private boolean isParallel() {
+    return concurrency != null && concurrency > 1;
+  }
+
+  private ExecutorService createExecutor() {
+    if (isParallel() == false) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    return Executors.newFixedThreadPool(
+        concurrency,
+        new ThreadFactoryBuilder().setNameFormat("prestashop-stage-%d").setDaemon(true).build());
+  }
+
+  /** Runs a stage, opening a persistence unit of work if not run by the calling thread. */
+  private void runInWorker(StageEntry entry, Thread caller) {
+    if (Thread.currentThread() == caller) {
+      entry.run();
+      return;
+    }
+    final UnitOfWork unitOfWork = Beans.get(UnitOfWork.class);
+    unitOfWork.begin();
+    try {
+      entry.run();
+    } finally {
+      unitOfWork.end();
+    }
+  }
+
+  private Exception complete(
+      StageEntry entry,
+      List<String> running,
+      Map<String, Long> durations,
+      BatchLogWriter logWriter,
+      Exception failure)
+      throws IOException {
+    running.remove(entry.name);
+    batchRunner.setStages(running);
+    if (entry.logWriter != logWriter) logWriter.append(entry.logWriter);
+    metricsRegistry.recordTime(
+        PSMetricsRegistry.BATCH_STAGES,
+        entry.duration,
+        TimeUnit.MILLISECONDS,
+        "batch",
+        batchType,
+        "stage",
+        entry.name,
+        "outcome",
+        entry.failure == null ? "success" : "failure");
+
+    if (entry.failure != null) {
+      log.error("Stage {} failed after {} ms", entry.name, entry.duration, entry.failure);
+      return failure == null ? entry.failure : failure;
+    }
+    log.info("Stage {} completed in {} ms", entry.name, entry.duration);
+    durations.put(entry.name, entry.duration);
+    return failure;
+  }
+
+  private StageEntry get(Future<StageEntry> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      // Stage failures are caught by the entry itself, anything else is a bug
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /** A step of a synchronization. */
+  @FunctionalInterface
+  public interface Stage {
+    /** @param logWriter Buffer used to write log messages to be displayed in Axelor. */
+    void run(Writer logWriter) throws Exception;
+  }
+
+  private static class StageEntry {
+    private final String name;
+    private final Stage stage;
+    private final boolean local;
+    private final List<String> prerequisites;
+    private BatchLogWriter logWriter;
+    private volatile long duration;
+    private volatile Exception failure;
+
+    private StageEntry(String name, Stage stage, boolean local, String[] prerequisites) {
+      this.name = name;
+      this.stage = stage;
+      this.local = local;
+      this.prerequisites = Collections.unmodifiableList(Arrays.asList(prerequisites));
+    }
+
+    private void run() {
+      final long start = System.nanoTime();
+      try {
+        stage.run(logWriter);
+      } catch (Exception e) {
+        failure = e;
+      } finally {
+        duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
@@ -0,0 +1,305 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.batch;
+
+import com.axelor.apps.base.db.Batch;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.PrestaShopBatchRunner.RecordCounter;
+import com.axelor.apps.prestashop.db.PrestaShopBatch;
+import com.axelor.apps.prestashop.db.PrestaShopSyncEvent;
+import com.axelor.apps.prestashop.db.repo.PrestaShopSyncEventRepository;
+import com.axelor.apps.prestashop.entities.PrestashopIdentifiableEntity;
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.axelor.apps.prestashop.service.library.PSMetricsRegistry;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
+import com.axelor.db.JPA;
+import com.axelor.inject.Beans;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.hibernate.Session;
+
+/**
+ * Records the outcome of each synchronized record as a PrestaShopSyncEvent of the current batch.
+ * Events are buffered and saved in the current transaction so they are committed along with the
+ * records they describe. Callers must {@link #flush()} the journal before each commit, see {@link
+ * ChunkedTransaction#isChunkComplete()}.
+ *
+ * <p>Duration of an event is the time elapsed since the previous event, or since the last call to
+ * {@link #start()}. Records are also counted in the progress of the running batch, see {@link
+ * PrestaShopBatchRunner#getProgress(Long)}, and in the metrics registry, along with the number of
+ * records processed per second, updated on each flush.
+ *
+ * <p>When the batch definition is set to retry failed records only, the journal also provides the
+ * records which were not synchronized during the previous run (errors and warnings), see {@link
+ * #isRetryMode()}.
+ */
+public class SyncJournal {
+  public static final int FLUSH_SIZE = 500;
+
+  private final PrestashopResourceType resourceType;
+  private final Long batchId;
+  private final List<PrestaShopSyncEvent> events = new ArrayList<>();
+  private final PSMetricsRegistry metricsRegistry = Beans.get(PSMetricsRegistry.class);
+  private final RecordCounter recordCounter;
+  private final long created = System.nanoTime();
+  private long recorded;
+  private Long previousBatchId;
+  private Set<Long> retryLocalIds;
+  private Set<Integer> retryRemoteIds;
+  private long start = System.nanoTime();
+
+  /** @param resourceType Type of synchronized resource. */
+  public SyncJournal(PrestashopResourceType resourceType) {
+    this.resourceType = resourceType;
+    final PrestaShopBatchRunner batchRunner = Beans.get(PrestaShopBatchRunner.class);
+    this.batchId = batchRunner.getCurrentBatchId();
+    this.recordCounter = batchRunner.getRecordCounter(resourceType.getLabel());
+    loadRetryIds();
+  }
+
+  /** Starts timing a new record. */
+  public void start() {
+    start = System.nanoTime();
+  }
+
+  /**
+   * Records a successfully synchronized record.
+   *
+   * @param action Action performed, one of IPrestaShopSyncEvent.ACTION_* constants.
+   * @param localId ID of the local record, if any.
+   * @param remoteId ID of the PrestaShop record, if any.
+   */
+  public void success(int action, Long localId, Integer remoteId) {
+    record(action, IPrestaShopSyncEvent.STATUS_SUCCESS, localId, remoteId, null);
+  }
+
+  /**
+   * Records a record skipped because it cannot be synchronized yet.
+   *
+   * @param localId ID of the local record, if any.
+   * @param remoteId ID of the PrestaShop record, if any.
+   * @param errorCode Reason why record has been skipped.
+   */
+  public void warning(Long localId, Integer remoteId, String errorCode) {
+    record(
+        IPrestaShopSyncEvent.ACTION_SKIP,
+        IPrestaShopSyncEvent.STATUS_WARNING,
+        localId,
+        remoteId,
+        errorCode);
+  }
+
+  /**
+   * Records a record whose synchronization failed.
+   *
+   * @param localId ID of the local record, if any.
+   * @param remoteId ID of the PrestaShop record, if any.
+   * @param errorCode Cause of the failure.
+   */
+  public void error(Long localId, Integer remoteId, String errorCode) {
+    record(null, IPrestaShopSyncEvent.STATUS_ERROR, localId, remoteId, errorCode);
+  }
+
+  /** Saves buffered events. */
+  public void flush() {
+    final long elapsed = System.nanoTime() - created;
+    if (recorded > 0 && elapsed > 0) {
+      metricsRegistry.setGauge(
+          PSMetricsRegistry.SYNC_THROUGHPUT,
+          recorded * 1e9 / elapsed,
+          "resource",
+          resourceType.getLabel());
+    }
+    if (events.isEmpty()) return;
+    final List<PrestaShopSyncEvent> pending = new ArrayList<>(events);
+    events.clear();
+    if (JPA.em().getTransaction().isActive()) {
+      save(pending);
+    } else {
+      JPA.runInTransaction(() -> save(pending));
+    }
+  }
+
+  /**
+   * @return Whether only records not synchronized by the previous run must be processed, see {@link
+   *     #isRetried(Long, Integer)}.
+   */
+  public boolean isRetryMode() {
+    return retryRemoteIds != null;
+  }
+
+  /**
+   * @param localId ID of the local record, if any.
+   * @param remoteId ID of the PrestaShop record, if any.
+   * @return Whether the record must be synchronized, always <code>true</code> unless in retry mode.
+   */
+  public boolean isRetried(Long localId, Integer remoteId) {
+    if (isRetryMode() == false) return true;
+    return (localId != null && retryLocalIds.contains(localId))
+        || (remoteId != null && retryRemoteIds.contains(remoteId));
+  }
+
+  /** @return Sorted IDs of the local records to retry, empty if not in retry mode. */
+  public Set<Long> getRetryLocalIds() {
+    return isRetryMode() ? retryLocalIds : Collections.emptySet();
+  }
+
+  /** @return Sorted IDs of the PrestaShop records to retry, empty if not in retry mode. */
+  public Set<Integer> getRetryRemoteIds() {
+    return isRetryMode() ? retryRemoteIds : Collections.emptySet();
+  }
+
+  /**
+   * Restricts a JPQL filter to the local records to retry.
+   *
+   * @param filter JPQL condition, using <code>self</code> alias.
+   * @return The given filter if not in retry mode, the filter restricted to records to retry
+   *     otherwise.
+   */
+  public String restrict(String filter) {
+    return restrict(filter, "self.id");
+  }
+
+  /**
+   * Restricts a JPQL filter to the local records to retry.
+   *
+   * @param filter JPQL condition, using <code>self</code> alias.
+   * @param idPath Path to the ID of the journaled record, for filters on a related entity.
+   * @return The given filter if not in retry mode, the filter restricted to records to retry
+   *     otherwise.
+   */
+  public String restrict(String filter, String idPath) {
+    if (isRetryMode() == false) return filter;
+    if (retryLocalIds.isEmpty()) return String.format("(%s) AND 1 = 0", filter);
+    // Join against previous run's events rather than listing IDs, which may be numerous
+    return String.format(
+        "(%s) AND EXISTS (SELECT event.id FROM PrestaShopSyncEvent event "
+            + "WHERE event.batch.id = %d AND event.resourceType = '%s' "
+            + "AND event.statusSelect <> %d AND event.localId = %s)",
+        filter,
+        previousBatchId,
+        resourceType.getLabel(),
+        IPrestaShopSyncEvent.STATUS_SUCCESS,
+        idPath);
+  }
+
+  /**
+   * Fetches the PrestaShop records to retry.
+   *
+   * @param ws Webservice client to use.
+   * @param afterId If not null, only records with an ID greater than this one are fetched.
+   * @return Records to retry, by increasing ID.
+   */
+  public <T extends PrestashopIdentifiableEntity> Iterator<T> fetchRetried(
+      PSWebServiceClient ws, Integer afterId) throws PrestaShopWebserviceException {
+    final List<Integer> ids = new ArrayList<>();
+    for (Integer id : getRetryRemoteIds()) {
+      if (afterId == null || id > afterId) ids.add(id);
+    }
+    if (ids.isEmpty()) return Collections.emptyIterator();
+    final List<T> entities = ws.fetchAny(resourceType, "id", ids);
+    entities.sort(Comparator.comparing(PrestashopIdentifiableEntity::getId));
+    return entities.iterator();
+  }
+
+  private void record(
+      Integer action, int status, Long localId, Integer remoteId, String errorCode) {
+    final long now = System.nanoTime();
+    final long duration = TimeUnit.NANOSECONDS.toMillis(now - start);
+    start = now;
+    ++recorded;
+    metricsRegistry.increment(
+        PSMetricsRegistry.SYNC_RECORDS,
+        1,
+        "resource",
+        resourceType.getLabel(),
+        "status",
+        status == IPrestaShopSyncEvent.STATUS_SUCCESS
+            ? "success"
+            : status == IPrestaShopSyncEvent.STATUS_WARNING ? "warning" : "error");
+    if (recordCounter != null) recordCounter.increment(status);
+    // Nothing to attach events to if not run by a batch
+    if (batchId == null) return;
+    final PrestaShopSyncEvent event = new PrestaShopSyncEvent();
+    event.setResourceType(resourceType.getLabel());
+    event.setLocalId(localId);
+    event.setRemoteId(remoteId);
+    event.setActionSelect(action);
+    event.setStatusSelect(status);
+    event.setDuration(duration);
+    event.setErrorCode(errorCode);
+    events.add(event);
+    if (events.size() >= FLUSH_SIZE) flush();
+  }
+
+  private void save(List<PrestaShopSyncEvent> pending) {
+    // Batch may have been detached by a previous commit, only its reference is needed
+    final Batch batch = JPA.em().getReference(Batch.class, batchId);
+    final PrestaShopSyncEventRepository eventRepo = Beans.get(PrestaShopSyncEventRepository.class);
+    // Events ids come from a sequence, so their inserts can be sent as a single JDBC batch. They
+    // are flushed here, while the batch size applies, rather than on commit.
+    final Session session = JPA.em().unwrap(Session.class);
+    final Integer jdbcBatchSize = session.getJdbcBatchSize();
+    session.setJdbcBatchSize(FLUSH_SIZE);
+    try {
+      for (PrestaShopSyncEvent event : pending) {
+        event.setBatch(batch);
+        eventRepo.save(event);
+      }
+      JPA.flush();
+    } finally {
+      session.setJdbcBatchSize(jdbcBatchSize);
+    }
+  }
+
+  private void loadRetryIds() {
+    final Batch batch = batchId == null ? null : JPA.find(Batch.class, batchId);
+    final PrestaShopBatch definition = batch == null ? null : batch.getPrestaShopBatch();
+    if (definition == null || Boolean.TRUE.equals(definition.getRetryFailed()) == false) return;
+
+    retryLocalIds = new TreeSet<>();
+    retryRemoteIds = new TreeSet<>();
+    final Batch previous =
+        Beans.get(PrestaShopBatchService.class).getPreviousRun(definition, batch);
+    if (previous == null) return;
+    previousBatchId = previous.getId();
+
+    final List<Object[]> failures =
+        JPA.em()
+            .createQuery(
+                "SELECT self.localId, self.remoteId FROM PrestaShopSyncEvent self "
+                    + "WHERE self.batch.id = :batchId AND self.resourceType = :resourceType "
+                    + "AND self.statusSelect <> :status",
+                Object[].class)
+            .setParameter("batchId", previous.getId())
+            .setParameter("resourceType", resourceType.getLabel())
+            .setParameter("status", IPrestaShopSyncEvent.STATUS_SUCCESS)
+            .getResultList();
+    for (Object[] failure : failures) {
+      if (failure[0] != null) retryLocalIds.add((Long) failure[0]);
+      if (failure[1] != null) retryRemoteIds.add((Integer) failure[1]);
+    }
+  }
+}
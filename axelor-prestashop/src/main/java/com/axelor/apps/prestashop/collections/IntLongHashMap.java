@@ -0,0 +1,169 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.collections;
+
+import java.util.Arrays;
+
+/**
+ * Minimal open addressing hash map from <code>int</code> to <code>long</code>, avoiding boxing and
+ * per-entry objects. Used to hold large PrestaShop ID → local ID mappings.
+ *
+ * <p>As entity IDs are always strictly positive, a value of <code>0</code> is used to mark free
+ * slots and cannot be stored. This class is not thread safe.
+ */
+public class IntLongHashMap {
+  /** Value returned by {@link #get(int)} for missing keys */
+  public static final long NO_VALUE = 0L;
+
+  private static final int DEFAULT_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private int[] keys;
+  private long[] values;
+  private int size;
+  private int threshold;
+
+  public IntLongHashMap() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public IntLongHashMap(int expectedSize) {
+    allocate(tableSizeFor(expectedSize));
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean containsKey(int key) {
+    return get(key) != NO_VALUE;
+  }
+
+  /**
+   * @param key Key to look for.
+   * @return The value bound to the key, or {@link #NO_VALUE} if there is none.
+   */
+  public long get(int key) {
+    final int mask = keys.length - 1;
+    for (int slot = hash(key) & mask; values[slot] != NO_VALUE; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) return values[slot];
+    }
+    return NO_VALUE;
+  }
+
+  /**
+   * Binds the given value to the key, replacing any previous binding.
+   *
+   * @return The previous value, or {@link #NO_VALUE} if there was none.
+   */
+  public long put(int key, long value) {
+    if (value == NO_VALUE) {
+      throw new IllegalArgumentException("0 cannot be stored as a value");
+    }
+    final int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    for (; values[slot] != NO_VALUE; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        final long previous = values[slot];
+        values[slot] = value;
+        return previous;
+      }
+    }
+    keys[slot] = key;
+    values[slot] = value;
+    if (++size > threshold) resize(keys.length << 1);
+    return NO_VALUE;
+  }
+
+  /**
+   * Removes binding for the given key.
+   *
+   * @return The removed value, or {@link #NO_VALUE} if key was not bound.
+   */
+  public long remove(int key) {
+    final int mask = keys.length - 1;
+    int slot = hash(key) & mask;
+    for (; values[slot] != NO_VALUE; slot = (slot + 1) & mask) {
+      if (keys[slot] == key) {
+        final long previous = values[slot];
+        shiftBack(slot);
+        --size;
+        return previous;
+      }
+    }
+    return NO_VALUE;
+  }
+
+  public void clear() {
+    Arrays.fill(values, NO_VALUE);
+    size = 0;
+  }
+
+  /** Fills the hole left at the given slot with following entries of the same probe chain. */
+  private void shiftBack(int hole) {
+    final int mask = keys.length - 1;
+    int slot = hole;
+    while (true) {
+      slot = (slot + 1) & mask;
+      if (values[slot] == NO_VALUE) break;
+      final int home = hash(keys[slot]) & mask;
+      // Entry can be moved only if its home slot is not between the hole and its current slot
+      if (hole <= slot ? (home <= hole || home > slot) : (home <= hole && home > slot)) {
+        keys[hole] = keys[slot];
+        values[hole] = values[slot];
+        hole = slot;
+      }
+    }
+    values[hole] = NO_VALUE;
+  }
+
+  private void resize(int capacity) {
+    final int[] oldKeys = keys;
+    final long[] oldValues = values;
+    allocate(capacity);
+    final int mask = capacity - 1;
+    for (int i = 0; i < oldKeys.length; ++i) {
+      if (oldValues[i] == NO_VALUE) continue;
+      int slot = hash(oldKeys[i]) & mask;
+      while (values[slot] != NO_VALUE) slot = (slot + 1) & mask;
+      keys[slot] = oldKeys[i];
+      values[slot] = oldValues[i];
+    }
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    values = new long[capacity];
+    threshold = (int) (capacity * LOAD_FACTOR);
+  }
+
+  private static int tableSizeFor(int expectedSize) {
+    final int needed = (int) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR) + 1;
+    return Math.max(DEFAULT_CAPACITY, Integer.highestOneBit(needed - 1) << 1);
+  }
+
+  private static int hash(int key) {
+    // Spread sequential IDs over the table (Fibonacci hashing)
+    final int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
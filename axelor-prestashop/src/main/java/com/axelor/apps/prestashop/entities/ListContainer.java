@@ -40,6 +40,9 @@ public abstract class ListContainer<T extends PrestashopContainerEntity>
   @XmlRootElement(name = "addresses")
   public static class AddressesContainer extends ListContainer<PrestashopAddress> {}
 
+  @XmlRootElement(name = "stock_availables")
+  public static class AvailableStocksContainer extends ListContainer<PrestashopAvailableStock> {}
+
   @XmlRootElement(name = "carts")
   public static class CartsContainer extends ListContainer<PrestashopCart> {}
 
@@ -26,9 +26,26 @@ public interface IExceptionMessage {
 
   static final String BATCH_EXPORT = /*$$(*/ "Export completed" /*)*/;
 
+  static final String BATCH_STOCK_SYNC = /*$$(*/ "Stock synchronization completed" /*)*/;
+
   /** Base batch service */
   public static final String PRESTASHOP_BATCH_1 = /*$$(*/
       "Unknown action %s for prestashop batch %s" /*)*/;
 
   public static final String PRESTASHOP_BATCH_2 = /*$$(*/ "Batch %s unknown" /*)*/;
+
+  public static final String PRESTASHOP_BATCH_RUNNING = /*$$(*/
+      "Prestashop batch %s is already running" /*)*/;
+
+  public static final String PRESTASHOP_BATCH_STARTED = /*$$(*/
+      "Prestashop batch started (batch #%s)" /*)*/;
+
+  public static final String PRESTASHOP_BATCH_PROGRESS = /*$$(*/
+      "Batch #%s, stage: %s, done: %d, anomalies: %d" /*)*/;
+
+  public static final String PRESTASHOP_BATCH_PROGRESS_RECORDS = /*$$(*/
+      "%s: %d synchronized, %d skipped, %d errors" /*)*/;
+
+  public static final String PRESTASHOP_BATCH_IDLE = /*$$(*/
+      "Prestashop batch is not running" /*)*/;
 }
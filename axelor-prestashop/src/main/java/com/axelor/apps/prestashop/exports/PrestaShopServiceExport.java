@@ -36,4 +36,15 @@ public interface PrestaShopServiceExport {
    */
   public void export(AppPrestashop appConfig, Batch batch)
       throws PrestaShopWebserviceException, IOException;
+
+  /**
+   * Exports stock quantities of synchronized products to prestashop, without any other data.
+   *
+   * @param appConfig Prestashop module's configuration
+   * @param batch Handle to currently running batch
+   * @throws PrestaShopWebserviceException
+   * @throws IOException
+   */
+  public void exportStock(AppPrestashop appConfig, Batch batch)
+      throws PrestaShopWebserviceException, IOException;
 }
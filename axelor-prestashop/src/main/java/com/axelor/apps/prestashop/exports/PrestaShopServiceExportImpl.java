@@ -19,6 +19,9 @@ package com.axelor.apps.prestashop.exports;
 
 import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.base.db.Batch;
+import com.axelor.apps.prestashop.batch.BatchLogWriter;
+import com.axelor.apps.prestashop.batch.PrestaShopBatchRunner;
+import com.axelor.apps.prestashop.batch.StageScheduler;
 import com.axelor.apps.prestashop.exports.service.ExportAddressService;
 import com.axelor.apps.prestashop.exports.service.ExportCategoryService;
 import com.axelor.apps.prestashop.exports.service.ExportCountryService;
@@ -26,19 +29,26 @@ import com.axelor.apps.prestashop.exports.service.ExportCurrencyService;
 import com.axelor.apps.prestashop.exports.service.ExportCustomerService;
 import com.axelor.apps.prestashop.exports.service.ExportOrderService;
 import com.axelor.apps.prestashop.exports.service.ExportProductService;
+import com.axelor.apps.prestashop.exports.service.ExportStockService;
+import com.axelor.apps.prestashop.service.library.PSMetricsRegistry;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
+import com.axelor.db.JPA;
 import com.axelor.meta.MetaFiles;
-import com.axelor.meta.db.MetaFile;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.Writer;
-import org.apache.commons.io.output.StringBuilderWriter;
-import org.apache.tika.io.IOUtils;
 
 @Singleton
 public class PrestaShopServiceExportImpl implements PrestaShopServiceExport {
+  private static final String CURRENCIES = "Currencies";
+  private static final String COUNTRIES = "Countries";
+  private static final String CATEGORIES = "Categories";
+  private static final String CUSTOMERS = "Customers";
+  private static final String ADDRESSES = "Addresses";
+  private static final String PRODUCTS = "Products";
+  private static final String ORDERS = "Orders";
 
   @Inject private MetaFiles metaFiles;
 
@@ -56,41 +66,95 @@ public class PrestaShopServiceExportImpl implements PrestaShopServiceExport {
 
   @Inject private ExportOrderService orderService;
 
+  @Inject private ExportStockService stockService;
+
+  @Inject private PrestaShopBatchRunner batchRunner;
+
+  @Inject private PSMetricsRegistry metricsRegistry;
+
+  @Inject private PSWebServiceClientProvider clientProvider;
+
   /**
-   * Export base elements.
+   * Registers base elements export stages.
    *
+   * @param scheduler Scheduler to which stages are added.
    * @param appConfig Prestashop module's configuration
-   * @param logWriter Buffer used to write log messages to be displayed in Axelor.
-   * @throws PrestaShopWebserviceException If any remote call fails or anything goes wrong on a
-   *     logic point of view
-   * @throws IOException If any underlying I/O fails.
    */
-  public void exportAxelorBase(AppPrestashop appConfig, final Writer logWriter)
-      throws PrestaShopWebserviceException, IOException {
-    currencyService.exportCurrency(appConfig, logWriter);
-    countryService.exportCountry(appConfig, logWriter);
-    customerService.exportCustomer(appConfig, logWriter);
-    addressService.exportAddress(appConfig, logWriter);
-    categoryService.exportCategory(appConfig, logWriter);
-    productService.exportProduct(appConfig, logWriter);
+  public void exportAxelorBase(StageScheduler scheduler, AppPrestashop appConfig) {
+    // Stages run by workers reload configuration in their own persistence context
+    final Long appConfigId = appConfig.getId();
+    scheduler
+        .add(
+            CURRENCIES,
+            stageLog ->
+                currencyService.exportCurrency(
+                    JPA.find(AppPrestashop.class, appConfigId), stageLog))
+        .add(
+            COUNTRIES,
+            stageLog ->
+                countryService.exportCountry(JPA.find(AppPrestashop.class, appConfigId), stageLog))
+        .add(
+            CATEGORIES,
+            stageLog ->
+                categoryService.exportCategory(
+                    JPA.find(AppPrestashop.class, appConfigId), stageLog))
+        .add(
+            CUSTOMERS,
+            stageLog ->
+                customerService.exportCustomer(
+                    JPA.find(AppPrestashop.class, appConfigId), stageLog))
+        .add(
+            ADDRESSES,
+            stageLog ->
+                addressService.exportAddress(JPA.find(AppPrestashop.class, appConfigId), stageLog),
+            CUSTOMERS,
+            COUNTRIES)
+        // Product export traces its errors on current batch
+        .addLocal(
+            PRODUCTS,
+            stageLog -> productService.exportProduct(appConfig, stageLog),
+            CURRENCIES,
+            CATEGORIES);
   }
 
   /** Export Axelor modules (Base, SaleOrder) */
   @Override
   public void export(AppPrestashop appConfig, Batch batch)
       throws PrestaShopWebserviceException, IOException {
-    StringBuilderWriter logWriter = new StringBuilderWriter(1024);
+    BatchLogWriter logWriter = BatchLogWriter.create(appConfig, "export-log.txt");
+    // Export steps get this client from the provider, even if settings change meanwhile
+    final PSWebServiceClient ws = clientProvider.acquireClient(appConfig);
     try {
-      exportAxelorBase(appConfig, logWriter);
+      final StageScheduler scheduler =
+          new StageScheduler(
+              batchRunner, metricsRegistry, "export", appConfig.getStageConcurrency());
+      exportAxelorBase(scheduler, appConfig);
+      scheduler.addLocal(
+          ORDERS,
+          stageLog -> orderService.exportOrder(appConfig, stageLog),
+          CUSTOMERS,
+          ADDRESSES,
+          PRODUCTS);
+      scheduler.run(logWriter);
+      logWriter.write(String.format("%n==== END OF LOG ====%n"));
+    } finally {
+      clientProvider.releaseClient(ws);
+      batch.setPrestaShopBatchLog(logWriter.upload(metaFiles));
+    }
+  }
 
-      orderService.exportOrder(appConfig, logWriter);
+  @Override
+  public void exportStock(AppPrestashop appConfig, Batch batch)
+      throws PrestaShopWebserviceException, IOException {
+    BatchLogWriter logWriter = BatchLogWriter.create(appConfig, "stock-log.txt");
+    final PSWebServiceClient ws = clientProvider.acquireClient(appConfig);
+    try {
+      batchRunner.setStage("Stocks");
+      stockService.exportStock(appConfig, logWriter);
       logWriter.write(String.format("%n==== END OF LOG ====%n"));
     } finally {
-      IOUtils.closeQuietly(logWriter);
-      MetaFile exporMetaFile =
-          metaFiles.upload(
-              new ByteArrayInputStream(logWriter.toString().getBytes()), "export-log.txt");
-      batch.setPrestaShopBatchLog(exporMetaFile);
+      clientProvider.releaseClient(ws);
+      batch.setPrestaShopBatchLog(logWriter.upload(metaFiles));
     }
   }
 }
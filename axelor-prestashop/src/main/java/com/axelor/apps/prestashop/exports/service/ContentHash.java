@@ -0,0 +1,102 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.exports.service;
+
+import com.axelor.db.Model;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digest of the local values sent to PrestaShop for an entity. Exporters store it along with the
+ * synchronized version so they can skip remote saves when an entity has been modified but none of
+ * its exported fields changed. Also used to detect changes of synchronized files (pictures).
+ */
+public class ContentHash {
+  private static final byte SEPARATOR = 0x1f;
+  private static final byte NULL_MARKER = 0x00;
+
+  private final MessageDigest digest;
+
+  public ContentHash() {
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every JRE has to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Adds a value to the digest. Numbers are normalized so that only their value matters (eg. 1.50
+   * and 1.5 give the same digest) and entities are identified by their ID.
+   *
+   * @param value Value to add, may be <code>null</code>.
+   * @return This instance, for chaining.
+   */
+  public ContentHash add(Object value) {
+    if (value == null) {
+      digest.update(NULL_MARKER);
+    } else {
+      final String str;
+      if (value instanceof BigDecimal) {
+        final BigDecimal decimal = (BigDecimal) value;
+        str = decimal.signum() == 0 ? "0" : decimal.stripTrailingZeros().toPlainString();
+      } else if (value instanceof Model) {
+        str = "#" + ((Model) value).getId();
+      } else {
+        str = value.toString();
+      }
+      digest.update(str.getBytes(StandardCharsets.UTF_8));
+    }
+    digest.update(SEPARATOR);
+    return this;
+  }
+
+  /**
+   * Computes digest of a file's content.
+   *
+   * @param file File to read
+   * @return Hexadecimal representation of the digest, 64 characters long.
+   */
+  public static String digest(Path file) throws IOException {
+    final ContentHash hash = new ContentHash();
+    final byte[] buffer = new byte[8192];
+    try (InputStream is = Files.newInputStream(file)) {
+      int read;
+      while ((read = is.read(buffer)) > 0) {
+        hash.digest.update(buffer, 0, read);
+      }
+    }
+    return hash.get();
+  }
+
+  /** @return Hexadecimal representation of the digest, 64 characters long. */
+  public String get() {
+    final StringBuilder sb = new StringBuilder(64);
+    for (byte b : digest.digest()) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+}
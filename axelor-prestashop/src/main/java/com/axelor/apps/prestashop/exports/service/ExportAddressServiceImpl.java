@@ -25,14 +25,17 @@ import com.axelor.apps.base.db.repo.PartnerAddressRepository;
 import com.axelor.apps.base.db.repo.PartnerRepository;
 import com.axelor.apps.base.service.PartnerService;
 import com.axelor.apps.db.IPrestaShopBatch;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopAddress;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.axelor.i18n.I18n;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
 import java.io.IOException;
 import java.io.Writer;
 import java.time.LocalDateTime;
@@ -50,42 +53,59 @@ public class ExportAddressServiceImpl implements ExportAddressService {
 
   protected PartnerAddressRepository partnerAddressRepo;
   protected PartnerService partnerService;
+  protected PSWebServiceClientProvider clientProvider;
 
   @Inject
   public ExportAddressServiceImpl(
-      PartnerAddressRepository partnerAddressRepo, PartnerService partnerService) {
+      PartnerAddressRepository partnerAddressRepo,
+      PartnerService partnerService,
+      PSWebServiceClientProvider clientProvider) {
     this.partnerAddressRepo = partnerAddressRepo;
     this.partnerService = partnerService;
+    this.clientProvider = clientProvider;
   }
 
   @Override
-  @Transactional
   public void exportAddress(AppPrestashop appConfig, Writer logBuffer)
       throws IOException, PrestaShopWebserviceException {
+    try (ChunkedTransaction transaction = new ChunkedTransaction(appConfig.getChunkSize())) {
+      exportAddress(ChunkedTransaction.reattach(appConfig), logBuffer, transaction);
+    }
+  }
+
+  protected void exportAddress(
+      AppPrestashop appConfig, Writer logBuffer, ChunkedTransaction transaction)
+      throws IOException, PrestaShopWebserviceException {
     int done = 0;
     int errors = 0;
 
     logBuffer.write(String.format("%n====== ADDRESSES ======%n"));
 
-    final List<PartnerAddress> addresses =
-        partnerAddressRepo
-            .all()
-            .filter(
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.ADDRESSES);
+    final List<Long> addressIds =
+        ChunkedTransaction.fetchIds(
+            PartnerAddress.class,
+            journal.restrict(
                 "self.partner.prestaShopId is not null and "
-                    + "(self.address.prestaShopVersion is null OR self.address.prestaShopVersion < self.address.version)")
-            .fetch();
+                    + "(self.address.prestaShopVersion is null OR self.address.prestaShopVersion < self.address.version)",
+                "self.address.id"));
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
 
-    final List<PrestashopAddress> remoteAddresses = ws.fetchAll(PrestashopResourceType.ADDRESSES);
     final Map<Integer, PrestashopAddress> addressesById = new HashMap<>();
-    for (PrestashopAddress a : remoteAddresses) {
-      addressesById.put(a.getId(), a);
-    }
+    ws.<PrestashopAddress>fetchEach(
+        PrestashopResourceType.ADDRESSES, a -> addressesById.put(a.getId(), a));
 
-    for (PartnerAddress partnerAddress : addresses) {
+    for (Long partnerAddressId : addressIds) {
+      if (transaction.isChunkComplete()) {
+        journal.flush();
+      }
+      if (transaction.next(null)) {
+        appConfig = ChunkedTransaction.reattach(appConfig);
+      }
+      final PartnerAddress partnerAddress = partnerAddressRepo.find(partnerAddressId);
       final Address localAddress = partnerAddress.getAddress();
+      journal.start();
 
       logBuffer.write(
           String.format(
@@ -103,6 +123,8 @@ public class ExportAddressServiceImpl implements ExportAddressService {
                 "Unable to fetch remote address #{} ({}), something's probably very wrong, skipping",
                 localAddress.getPrestaShopId(),
                 localAddress.getFullName());
+            journal.error(
+                localAddress.getId(), localAddress.getPrestaShopId(), "NOT_FOUND_REMOTELY");
             ++errors;
             continue;
           }
@@ -111,6 +133,7 @@ public class ExportAddressServiceImpl implements ExportAddressService {
             logBuffer.write(
                 String.format(
                     " [WARNING] Address belongs to a not-yet synced customer, skipping%n"));
+            journal.warning(localAddress.getId(), null, "CUSTOMER_NOT_SYNCED");
             continue;
           }
           remoteAddress = new PrestashopAddress();
@@ -140,6 +163,7 @@ public class ExportAddressServiceImpl implements ExportAddressService {
               logBuffer.write(
                   String.format(
                       " [WARNING] No contact filled, required for Pretashop, skipping%n"));
+              journal.warning(localAddress.getId(), null, "NO_CONTACT");
               continue;
             }
           }
@@ -149,6 +173,7 @@ public class ExportAddressServiceImpl implements ExportAddressService {
               logBuffer.write(
                   String.format(
                       " [WARNING] No city filled, it is required for Prestashop, skipping%n"));
+              journal.warning(localAddress.getId(), null, "NO_CITY");
               continue;
             } else {
               // Don't try to split city/zipcode since this can cause more issues than it solves
@@ -165,11 +190,13 @@ public class ExportAddressServiceImpl implements ExportAddressService {
             logBuffer.write(
                 String.format(
                     " [WARNING] No country filled, it is required for Prestashop, skipping%n"));
+            journal.warning(localAddress.getId(), null, "NO_COUNTRY");
             continue;
           }
           if (localAddress.getAddressL7Country().getPrestaShopId() == null) {
             logBuffer.write(
                 String.format(" [WARNING] Bound country has not be synced yet, skipping%n"));
+            journal.warning(localAddress.getId(), null, "COUNTRY_NOT_SYNCED");
             continue;
           }
           remoteAddress.setCountryId(localAddress.getAddressL7Country().getPrestaShopId());
@@ -178,15 +205,22 @@ public class ExportAddressServiceImpl implements ExportAddressService {
         if (IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP.equals(localAddress.getImportOrigin())
             == false) {
           // Don't know if we should actually synchronize something on update…
+          final int action =
+              remoteAddress.getId() == null
+                  ? IPrestaShopSyncEvent.ACTION_CREATE
+                  : IPrestaShopSyncEvent.ACTION_UPDATE;
           remoteAddress.setUpdateDate(LocalDateTime.now());
           remoteAddress = ws.save(PrestashopResourceType.ADDRESSES, remoteAddress);
           logBuffer.write(String.format(" [SUCCESS]%n"));
+          journal.success(action, localAddress.getId(), remoteAddress.getId());
           localAddress.setPrestaShopId(remoteAddress.getId());
           localAddress.setPrestaShopVersion(localAddress.getVersion() + 1);
         } else {
           logBuffer.write(
               String.format(
                   " - address was imported from PrestaShop, leave it untouched [SUCCESS]%n"));
+          journal.success(
+              IPrestaShopSyncEvent.ACTION_SKIP, localAddress.getId(), remoteAddress.getId());
         }
         ++done;
       } catch (PrestaShopWebserviceException e) {
@@ -198,10 +232,14 @@ public class ExportAddressServiceImpl implements ExportAddressService {
                 "Exception while synchronizing address #%d (%s)",
                 localAddress.getId(), localAddress.getFullName()),
             e);
+        journal.error(localAddress.getId(), localAddress.getPrestaShopId(), "EXCEPTION");
         ++errors;
       }
     }
 
+    journal.flush();
+    transaction.finish();
+
     logBuffer.write(
         String.format("%n=== END OF ADDRESSES EXPORT, done: %d, errors: %d ===%n", done, errors));
   }
@@ -20,11 +20,15 @@ package com.axelor.apps.prestashop.exports.service;
 import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.base.db.ProductCategory;
 import com.axelor.apps.base.db.repo.ProductCategoryRepository;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopProductCategory;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.entities.PrestashopTranslatableString;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
+import com.axelor.apps.prestashop.service.library.PrestashopProjection;
 import com.axelor.db.Query;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -34,9 +38,9 @@ import java.io.Writer;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -45,10 +49,13 @@ public class ExportCategoryServiceImpl implements ExportCategoryService {
   private Logger log = LoggerFactory.getLogger(getClass());
 
   private ProductCategoryRepository categoryRepo;
+  private PSWebServiceClientProvider clientProvider;
 
   @Inject
-  public ExportCategoryServiceImpl(ProductCategoryRepository categoryRepo) {
+  public ExportCategoryServiceImpl(
+      ProductCategoryRepository categoryRepo, PSWebServiceClientProvider clientProvider) {
     this.categoryRepo = categoryRepo;
+    this.clientProvider = clientProvider;
   }
 
   @Override
@@ -73,14 +80,13 @@ public class ExportCategoryServiceImpl implements ExportCategoryService {
     q.filter(filter.toString(), params.toArray());
     q.order("-parentProductCategory.id");
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
 
-    final List<PrestashopProductCategory> remoteCategories =
-        ws.fetchAll(PrestashopResourceType.PRODUCT_CATEGORIES);
-    final Map<Integer, PrestashopProductCategory> categoriesById = new HashMap<>();
-    for (PrestashopProductCategory country : remoteCategories) {
-      categoriesById.put(country.getId(), country);
+    // Only IDs are needed to check existence, full categories are loaded when updated
+    final Set<Integer> remoteIds = new HashSet<>();
+    for (PrestashopProjection category :
+        ws.fetchProjection(PrestashopResourceType.PRODUCT_CATEGORIES, Collections.emptyList())) {
+      remoteIds.add(category.getId());
     }
 
     final PrestashopProductCategory defaultCategory =
@@ -100,7 +106,10 @@ public class ExportCategoryServiceImpl implements ExportCategoryService {
       return;
     }
 
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.PRODUCT_CATEGORIES);
     for (ProductCategory localCategory : q.fetch()) {
+      if (journal.isRetried(localCategory.getId(), null) == false) continue;
+      journal.start();
       logBuffer.write(
           String.format(
               "Exporting product category #%d (%s) – ",
@@ -110,13 +119,15 @@ public class ExportCategoryServiceImpl implements ExportCategoryService {
         PrestashopProductCategory remoteCategory;
         if (localCategory.getPrestaShopId() != null) {
           logBuffer.write("prestashop id=" + localCategory.getPrestaShopId());
-          remoteCategory = categoriesById.get(localCategory.getPrestaShopId());
-          if (remoteCategory == null) {
+          remoteCategory = null;
+          if (remoteIds.contains(localCategory.getPrestaShopId()) == false) {
             logBuffer.write(String.format(" [ERROR] Not found remotely%n"));
             log.error(
                 "Unable to fetch remote product category #{} ({}), something's probably very wrong, skipping",
                 localCategory.getPrestaShopId(),
                 localCategory.getName());
+            journal.error(
+                localCategory.getId(), localCategory.getPrestaShopId(), "NOT_FOUND_REMOTELY");
             ++errors;
             continue;
           }
@@ -132,8 +143,30 @@ public class ExportCategoryServiceImpl implements ExportCategoryService {
           remoteCategory.setLinkRewrite(str);
         }
 
-        if (remoteCategory.getId() == null
+        final String hash = computeHash(localCategory, language);
+        int action =
+            localCategory.getPrestaShopId() == null
+                ? IPrestaShopSyncEvent.ACTION_CREATE
+                : IPrestaShopSyncEvent.ACTION_UPDATE;
+        if (localCategory.getPrestaShopId() != null
+            && hash.equals(localCategory.getPrestaShopHash())) {
+          logBuffer.write(", no exported field changed, leaving untouched");
+          localCategory.setPrestaShopVersion(localCategory.getVersion() + 1);
+          action = IPrestaShopSyncEvent.ACTION_SKIP;
+        } else if (localCategory.getPrestaShopId() == null
             || appConfig.getPrestaShopMasterForCategories() == Boolean.FALSE) {
+          if (remoteCategory == null) {
+            remoteCategory =
+                ws.fetch(
+                    PrestashopResourceType.PRODUCT_CATEGORIES, localCategory.getPrestaShopId());
+            if (remoteCategory == null) {
+              logBuffer.write(String.format(" [ERROR] Not found remotely%n"));
+              journal.error(
+                  localCategory.getId(), localCategory.getPrestaShopId(), "NOT_FOUND_REMOTELY");
+              ++errors;
+              continue;
+            }
+          }
           remoteCategory.setUpdateDate(LocalDateTime.now());
           remoteCategory.getName().setTranslation(language, localCategory.getName());
           if (localCategory.getParentProductCategory() == null
@@ -145,11 +178,14 @@ public class ExportCategoryServiceImpl implements ExportCategoryService {
           remoteCategory = ws.save(PrestashopResourceType.PRODUCT_CATEGORIES, remoteCategory);
           localCategory.setPrestaShopId(remoteCategory.getId());
           localCategory.setPrestaShopVersion(localCategory.getVersion() + 1);
+          localCategory.setPrestaShopHash(hash);
         } else {
           logBuffer.write(
               "remote category exists and PrestaShop is master for categories, leaving untouched");
+          action = IPrestaShopSyncEvent.ACTION_SKIP;
         }
         logBuffer.write(String.format(" [SUCCESS]%n"));
+        journal.success(action, localCategory.getId(), localCategory.getPrestaShopId());
         ++done;
       } catch (PrestaShopWebserviceException e) {
         logBuffer.write(
@@ -160,12 +196,26 @@ public class ExportCategoryServiceImpl implements ExportCategoryService {
                 "Exception while synchronizing product category #%d (%s)",
                 localCategory.getId(), localCategory.getName()),
             e);
+        journal.error(localCategory.getId(), localCategory.getPrestaShopId(), "EXCEPTION");
         ++errors;
       }
     }
+    journal.flush();
 
     logBuffer.write(
         String.format(
             "%n=== END OF PRODUCT CATEGORIES EXPORT, done: %d, errors: %d ===%n", done, errors));
   }
+
+  /** Computes digest of local values used to build remote category. */
+  private String computeHash(ProductCategory localCategory, int language) {
+    return new ContentHash()
+        .add(language)
+        .add(localCategory.getName())
+        .add(
+            localCategory.getParentProductCategory() == null
+                ? null
+                : localCategory.getParentProductCategory().getPrestaShopId())
+        .get();
+  }
 }
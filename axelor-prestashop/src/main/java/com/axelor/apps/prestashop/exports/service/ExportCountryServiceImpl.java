@@ -20,10 +20,13 @@ package com.axelor.apps.prestashop.exports.service;
 import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.base.db.Country;
 import com.axelor.apps.base.db.repo.CountryRepository;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopCountry;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.entities.PrestashopTranslatableString.PrestashopTranslationEntry;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
@@ -42,10 +45,13 @@ public class ExportCountryServiceImpl implements ExportCountryService {
   private Logger log = LoggerFactory.getLogger(getClass());
 
   private CountryRepository countryRepo;
+  private PSWebServiceClientProvider clientProvider;
 
   @Inject
-  public ExportCountryServiceImpl(CountryRepository countryRepo) {
+  public ExportCountryServiceImpl(
+      CountryRepository countryRepo, PSWebServiceClientProvider clientProvider) {
     this.countryRepo = countryRepo;
+    this.clientProvider = clientProvider;
   }
 
   @Override
@@ -62,8 +68,7 @@ public class ExportCountryServiceImpl implements ExportCountryService {
             .all()
             .filter("(self.prestaShopVersion is null OR self.prestaShopVersion < self.version)")
             .fetch();
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
 
     // Same as usual, perform a global fetch to speed up process
     final List<PrestashopCountry> remoteCountries = ws.fetchAll(PrestashopResourceType.COUNTRIES);
@@ -80,7 +85,10 @@ public class ExportCountryServiceImpl implements ExportCountryService {
             ? 1
             : appConfig.getTextsLanguage().getPrestaShopId());
 
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.COUNTRIES);
     for (Country localCountry : countries) {
+      if (journal.isRetried(localCountry.getId(), null) == false) continue;
+      journal.start();
       logBuffer.write(
           String.format(
               "Exporting country #%d (%s) – ", localCountry.getId(), localCountry.getName()));
@@ -96,6 +104,8 @@ public class ExportCountryServiceImpl implements ExportCountryService {
                 "Unable to fetch remote country #{} ({}), something's probably very wrong, skipping",
                 localCountry.getPrestaShopId(),
                 localCountry.getName());
+            journal.error(
+                localCountry.getId(), localCountry.getPrestaShopId(), "NOT_FOUND_REMOTELY");
             ++errors;
             continue;
           } else if (localCountry.getAlpha2Code().equals(remoteCountry.getIsoCode()) == false) {
@@ -108,6 +118,8 @@ public class ExportCountryServiceImpl implements ExportCountryService {
                 String.format(
                     " [ERROR] ISO code mismatch: %s vs %s%n",
                     remoteCountry.getIsoCode(), localCountry.getAlpha2Code()));
+            journal.error(
+                localCountry.getId(), localCountry.getPrestaShopId(), "ISO_CODE_MISMATCH");
             ++errors;
             continue;
           }
@@ -127,6 +139,10 @@ public class ExportCountryServiceImpl implements ExportCountryService {
           }
         }
 
+        int action =
+            remoteCountry.getId() == null
+                ? IPrestaShopSyncEvent.ACTION_CREATE
+                : IPrestaShopSyncEvent.ACTION_UPDATE;
         if (remoteCountry.getId() == null
             || appConfig.getPrestaShopMasterForCountries() == Boolean.FALSE) {
           Integer phonePrefix = null;
@@ -145,8 +161,10 @@ public class ExportCountryServiceImpl implements ExportCountryService {
         } else {
           logBuffer.write(
               " — remote country exists and countries are managed on prestashop, skipping");
+          action = IPrestaShopSyncEvent.ACTION_SKIP;
         }
         logBuffer.write(String.format(" [SUCCESS]%n"));
+        journal.success(action, localCountry.getId(), remoteCountry.getId());
         ++done;
       } catch (PrestaShopWebserviceException e) {
         logBuffer.write(
@@ -157,9 +175,11 @@ public class ExportCountryServiceImpl implements ExportCountryService {
                 "Exception while synchronizing country #%d (%s)",
                 localCountry.getId(), localCountry.getAlpha2Code()),
             e);
+        journal.error(localCountry.getId(), localCountry.getPrestaShopId(), "EXCEPTION");
         ++errors;
       }
     }
+    journal.flush();
 
     logBuffer.write(
         String.format("%n=== END OF COUNTRIES EXPORT, done: %d, errors: %d ===%n", done, errors));
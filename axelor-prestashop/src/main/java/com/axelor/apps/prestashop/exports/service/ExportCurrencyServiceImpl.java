@@ -21,9 +21,12 @@ import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.base.db.Currency;
 import com.axelor.apps.base.db.repo.CurrencyRepository;
 import com.axelor.apps.base.service.CurrencyService;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopCurrency;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.axelor.exception.AxelorException;
 import com.google.inject.Inject;
@@ -44,12 +47,16 @@ public class ExportCurrencyServiceImpl implements ExportCurrencyService {
 
   CurrencyRepository currencyRepo;
   CurrencyService currencyService;
+  private PSWebServiceClientProvider clientProvider;
 
   @Inject
   public ExportCurrencyServiceImpl(
-      final CurrencyRepository currencyRepo, final CurrencyService currencyService) {
+      final CurrencyRepository currencyRepo,
+      final CurrencyService currencyService,
+      PSWebServiceClientProvider clientProvider) {
     this.currencyRepo = currencyRepo;
     this.currencyService = currencyService;
+    this.clientProvider = clientProvider;
   }
 
   @Override
@@ -67,8 +74,7 @@ public class ExportCurrencyServiceImpl implements ExportCurrencyService {
             .filter("(self.prestaShopVersion is null OR self.prestaShopVersion < self.version)")
             .fetch();
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
 
     // First, fetch all remote currencies and put them into maps suitable for quick fetching
     // this will avoid round-trips with remote end and considerably speed up performances
@@ -82,7 +88,10 @@ public class ExportCurrencyServiceImpl implements ExportCurrencyService {
     }
     final LocalDate today = LocalDate.now();
 
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.CURRENCIES);
     for (Currency localCurrency : currencies) {
+      if (journal.isRetried(localCurrency.getId(), null) == false) continue;
+      journal.start();
       logBuffer.write("Exporting currency " + localCurrency.getCode() + " – ");
       try {
         PrestashopCurrency remoteCurrency;
@@ -95,6 +104,8 @@ public class ExportCurrencyServiceImpl implements ExportCurrencyService {
                 "Unable to fetch remote currency #{} ({}), something's probably very wrong, skipping",
                 localCurrency.getPrestaShopId(),
                 localCurrency.getCode());
+            journal.error(
+                localCurrency.getId(), localCurrency.getPrestaShopId(), "NOT_FOUND_REMOTELY");
             ++errors;
             continue;
           } else if (localCurrency.getCode().equals(remoteCurrency.getCode()) == false) {
@@ -107,6 +118,8 @@ public class ExportCurrencyServiceImpl implements ExportCurrencyService {
                 String.format(
                     " [ERROR] ISO code mismatch: %s vs %s%n",
                     remoteCurrency.getCode(), localCurrency.getCode()));
+            journal.error(
+                localCurrency.getId(), localCurrency.getPrestaShopId(), "ISO_CODE_MISMATCH");
             ++errors;
             continue;
           }
@@ -122,6 +135,10 @@ public class ExportCurrencyServiceImpl implements ExportCurrencyService {
           }
         }
 
+        int action =
+            remoteCurrency.getId() == null
+                ? IPrestaShopSyncEvent.ACTION_CREATE
+                : IPrestaShopSyncEvent.ACTION_UPDATE;
         if (remoteCurrency.getId() == null
             || appConfig.getPrestaShopMasterForCurrencies() == Boolean.FALSE) {
           remoteCurrency.setName(localCurrency.getName());
@@ -144,8 +161,10 @@ public class ExportCurrencyServiceImpl implements ExportCurrencyService {
         } else {
           logBuffer.write(
               " — remote currency exists and currencies are managed on prestashop, skipping");
+          action = IPrestaShopSyncEvent.ACTION_SKIP;
         }
         logBuffer.write(String.format(" [SUCCESS]%n"));
+        journal.success(action, localCurrency.getId(), remoteCurrency.getId());
         ++done;
       } catch (PrestaShopWebserviceException e) {
         logBuffer.write(
@@ -153,9 +172,11 @@ public class ExportCurrencyServiceImpl implements ExportCurrencyService {
                 " [ERROR] %s (full trace is in application logs)%n", e.getLocalizedMessage()));
         log.error(
             String.format("Exception while synchronizing currency #%d", localCurrency.getId()), e);
+        journal.error(localCurrency.getId(), localCurrency.getPrestaShopId(), "EXCEPTION");
         ++errors;
       }
     }
+    journal.flush();
 
     logBuffer.write(
         String.format("%n=== END OF CURRENCIES EXPORT, done: %d, errors: %d ===%n", done, errors));
@@ -20,21 +20,27 @@ package com.axelor.apps.prestashop.exports.service;
 import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.base.db.Partner;
 import com.axelor.apps.base.db.repo.PartnerRepository;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopCustomer;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
+import com.axelor.apps.prestashop.service.library.PrestashopProjection;
 import com.axelor.i18n.I18n;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
 import java.io.IOException;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -45,16 +51,26 @@ public class ExportCustomerServiceImpl implements ExportCustomerService {
   private Logger log = LoggerFactory.getLogger(getClass());
 
   private PartnerRepository partnerRepo;
+  private PSWebServiceClientProvider clientProvider;
 
   @Inject
-  public ExportCustomerServiceImpl(PartnerRepository partnerRepo) {
+  public ExportCustomerServiceImpl(
+      PartnerRepository partnerRepo, PSWebServiceClientProvider clientProvider) {
     this.partnerRepo = partnerRepo;
+    this.clientProvider = clientProvider;
   }
 
   @Override
-  @Transactional
   public void exportCustomer(AppPrestashop appConfig, Writer logBuffer)
       throws IOException, PrestaShopWebserviceException {
+    try (ChunkedTransaction transaction = new ChunkedTransaction(appConfig.getChunkSize())) {
+      exportCustomer(ChunkedTransaction.reattach(appConfig), logBuffer, transaction);
+    }
+  }
+
+  protected void exportCustomer(
+      AppPrestashop appConfig, Writer logBuffer, ChunkedTransaction transaction)
+      throws IOException, PrestaShopWebserviceException {
     int done = 0;
     int errors = 0;
 
@@ -70,63 +86,72 @@ public class ExportCustomerServiceImpl implements ExportCustomerService {
       filter.append(" AND (self.prestaShopId IS NOT NULL)");
     }
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
-
-    final List<PrestashopCustomer> remoteCustomers = ws.fetchAll(PrestashopResourceType.CUSTOMERS);
-    final Map<Integer, PrestashopCustomer> customersById = new HashMap<>();
-    final Map<String, PrestashopCustomer> customersBySiret = new HashMap<>();
-    final Map<String, PrestashopCustomer> customersByCompany = new HashMap<>();
-    for (PrestashopCustomer c : remoteCustomers) {
-      customersById.put(c.getId(), c);
-      customersBySiret.put(c.getSiret(), c);
-      customersByCompany.put(c.getCompany(), c);
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
+
+    // Only fields needed for lookups are fetched, full customers are loaded when updated
+    final Set<Integer> remoteIds = new HashSet<>();
+    final Map<String, Integer> customersBySiret = new HashMap<>();
+    final Map<String, Integer> customersByCompany = new HashMap<>();
+    for (PrestashopProjection c :
+        ws.fetchProjection(PrestashopResourceType.CUSTOMERS, Arrays.asList("siret", "company"))) {
+      remoteIds.add(c.getId());
+      customersBySiret.put(c.get("siret"), c.getId());
+      customersByCompany.put(c.get("company"), c.getId());
     }
 
     final LocalDateTime now = LocalDateTime.now();
 
-    for (Partner localCustomer : partnerRepo.all().filter(filter.toString()).fetch()) {
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.CUSTOMERS);
+    for (Long localCustomerId :
+        ChunkedTransaction.fetchIds(Partner.class, journal.restrict(filter.toString()))) {
+      if (transaction.isChunkComplete()) {
+        journal.flush();
+      }
+      if (transaction.next(null)) {
+        appConfig = ChunkedTransaction.reattach(appConfig);
+      }
+      journal.start();
+      final Partner localCustomer = partnerRepo.find(localCustomerId);
       logBuffer.write(
           String.format(
               "Exporting customer #%d (%s) - ", localCustomer.getId(), localCustomer.getName()));
       try {
-        PrestashopCustomer remoteCustomer;
+        PrestashopCustomer remoteCustomer = null;
+        Integer remoteId = null;
         if (localCustomer.getPrestaShopId() != null) {
           logBuffer.write("prestashop id=" + localCustomer.getPrestaShopId());
-          remoteCustomer = customersById.get(localCustomer.getPrestaShopId());
-          if (remoteCustomer == null) {
+          remoteId = localCustomer.getPrestaShopId();
+          if (remoteIds.contains(remoteId) == false) {
             logBuffer.write(String.format(" [ERROR] Not found remotely%n"));
             log.error(
                 "Unable to fetch remote customer #{} ({}), something's probably very wrong, skipping",
                 localCustomer.getPrestaShopId(),
                 localCustomer.getName());
+            journal.error(localCustomerId, remoteId, "NOT_FOUND_REMOTELY");
             ++errors;
             continue;
           } // Note: contrary to currencies and products, we don't check that various fields match
           // since customer can edit them
         } else {
-          remoteCustomer = null;
-
           if (StringUtils.isNotBlank(localCustomer.getRegistrationCode())) {
-            remoteCustomer = customersBySiret.get(localCustomer.getRegistrationCode());
-            if (remoteCustomer != null) {
+            remoteId = customersBySiret.get(localCustomer.getRegistrationCode());
+            if (remoteId != null) {
               logBuffer.write(
                   String.format(
                       "remotely found by registration code (%s), remote id: %d",
-                      localCustomer.getRegistrationCode(), remoteCustomer.getId()));
+                      localCustomer.getRegistrationCode(), remoteId));
             }
           }
-          if (remoteCustomer == null
+          if (remoteId == null
               && localCustomer.getPartnerTypeSelect() == PartnerRepository.PARTNER_TYPE_COMPANY) {
-            remoteCustomer = customersByCompany.get(localCustomer.getName());
-            if (remoteCustomer != null) {
+            remoteId = customersByCompany.get(localCustomer.getName());
+            if (remoteId != null) {
               logBuffer.write(
-                  String.format(
-                      "remotely found by company name, remote id: %d", remoteCustomer.getId()));
+                  String.format("remotely found by company name, remote id: %d", remoteId));
             }
           }
 
-          if (remoteCustomer == null) {
+          if (remoteId == null) {
             logBuffer.write("failed to find by registration code or company name, creating");
             remoteCustomer = new PrestashopCustomer();
             remoteCustomer.setNote(I18n.get("Imported from Axelor"));
@@ -149,14 +174,36 @@ public class ExportCustomerServiceImpl implements ExportCustomerService {
                 logBuffer.write(
                     String.format(
                         " [WARNING] No contact filled, required for Pretashop, skipping%n"));
+                journal.warning(localCustomerId, null, "NO_CONTACT");
                 continue;
               }
             }
           }
         }
 
-        if (remoteCustomer.getId() == null
+        final String hash = computeHash(appConfig, localCustomer);
+        int action =
+            remoteId == null
+                ? IPrestaShopSyncEvent.ACTION_CREATE
+                : IPrestaShopSyncEvent.ACTION_UPDATE;
+        if (localCustomer.getPrestaShopId() != null
+            && hash.equals(localCustomer.getPrestaShopHash())) {
+          logBuffer.write(" — no exported field changed, leaving untouched");
+          localCustomer.setPrestaShopVersion(localCustomer.getVersion() + 1);
+          localCustomer.setEmailAddressPrestaShopVersion(
+              localCustomer.getEmailAddress().getVersion());
+          action = IPrestaShopSyncEvent.ACTION_SKIP;
+        } else if (remoteId == null
             || appConfig.getPrestaShopMasterForCustomers() == Boolean.FALSE) {
+          if (remoteCustomer == null) {
+            remoteCustomer = ws.fetch(PrestashopResourceType.CUSTOMERS, remoteId);
+            if (remoteCustomer == null) {
+              logBuffer.write(String.format(" [ERROR] Not found remotely%n"));
+              journal.error(localCustomerId, remoteId, "NOT_FOUND_REMOTELY");
+              ++errors;
+              continue;
+            }
+          }
           // Only push elements that cannot be edited by user
           remoteCustomer.setSiret(localCustomer.getRegistrationCode());
           remoteCustomer.setWebsite(localCustomer.getWebSite());
@@ -180,13 +227,16 @@ public class ExportCustomerServiceImpl implements ExportCustomerService {
           }
           localCustomer.setPrestaShopId(remoteCustomer.getId());
           localCustomer.setPrestaShopVersion(localCustomer.getVersion() + 1);
+          localCustomer.setPrestaShopHash(hash);
           localCustomer.setEmailAddressPrestaShopVersion(
               localCustomer.getEmailAddress().getVersion());
         } else {
           logBuffer.write(
               " — remote customer exists and customers are managed on prestashop, skipping");
+          action = IPrestaShopSyncEvent.ACTION_SKIP;
         }
         logBuffer.write(String.format(" [SUCCESS]%n"));
+        journal.success(action, localCustomerId, localCustomer.getPrestaShopId());
         ++done;
       } catch (PrestaShopWebserviceException | IOException e) {
         logBuffer.write(
@@ -197,11 +247,32 @@ public class ExportCustomerServiceImpl implements ExportCustomerService {
                 "Exception while synchronizing customer #%d (%s)",
                 localCustomer.getId(), localCustomer.getName()),
             e);
+        journal.error(localCustomerId, localCustomer.getPrestaShopId(), "EXCEPTION");
         ++errors;
       }
     }
 
+    journal.flush();
+    transaction.finish();
+
     logBuffer.write(
         String.format("%n=== END OF CUSTOMERS IMPORT, done: %d, errors: %d ===%n", done, errors));
   }
+
+  /** Computes digest of local values pushed on remote customer update. */
+  private String computeHash(AppPrestashop appConfig, Partner localCustomer) {
+    return new ContentHash()
+        .add(appConfig.getExportPriceScale())
+        .add(localCustomer.getRegistrationCode())
+        .add(localCustomer.getWebSite())
+        .add(
+            localCustomer.getPaymentCondition() == null
+                ? null
+                : localCustomer.getPaymentCondition().getPaymentTime())
+        .add(
+            localCustomer.getAccountingSituationList().isEmpty()
+                ? null
+                : localCustomer.getAccountingSituationList().get(0).getAcceptedCredit())
+        .get();
+  }
 }
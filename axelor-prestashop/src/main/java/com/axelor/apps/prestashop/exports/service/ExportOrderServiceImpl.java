@@ -27,6 +27,9 @@ import com.axelor.apps.base.service.AddressService;
 import com.axelor.apps.base.service.CurrencyService;
 import com.axelor.apps.base.service.PartnerService;
 import com.axelor.apps.base.service.UnitConversionService;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.Associations.CartRowsAssociationElement;
 import com.axelor.apps.prestashop.entities.Associations.OrderRowsAssociationElement;
 import com.axelor.apps.prestashop.entities.PrestashopCart;
@@ -36,7 +39,9 @@ import com.axelor.apps.prestashop.entities.PrestashopOrderInvoice;
 import com.axelor.apps.prestashop.entities.PrestashopOrderPayment;
 import com.axelor.apps.prestashop.entities.PrestashopOrderRowDetails;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.axelor.apps.prestashop.service.library.InvoiceNumberAllocator;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.axelor.apps.sale.db.AdvancePayment;
 import com.axelor.apps.sale.db.SaleOrder;
@@ -44,16 +49,17 @@ import com.axelor.apps.sale.db.SaleOrderLine;
 import com.axelor.apps.sale.db.repo.AdvancePaymentRepository;
 import com.axelor.apps.sale.db.repo.SaleOrderRepository;
 import com.axelor.apps.stock.db.StockMove;
+import com.axelor.db.JPA;
 import com.axelor.exception.AxelorException;
 import com.axelor.i18n.I18n;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
 import java.io.IOException;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -67,6 +73,9 @@ import org.slf4j.LoggerFactory;
 
 @Singleton
 public class ExportOrderServiceImpl implements ExportOrderService {
+  /** Maximum number of times invoice numbers are checked and fixed at the end of an export. */
+  private static final int MAX_RENUMBERING_PASSES = 3;
+
   private Logger log = LoggerFactory.getLogger(getClass());
 
   protected InvoiceRepository invoiceRepository;
@@ -76,6 +85,7 @@ public class ExportOrderServiceImpl implements ExportOrderService {
   protected CurrencyService currencyService;
   protected PartnerService partnerService;
   protected UnitConversionService unitConversionService;
+  protected PSWebServiceClientProvider clientProvider;
 
   @Inject
   public ExportOrderServiceImpl(
@@ -84,27 +94,38 @@ public class ExportOrderServiceImpl implements ExportOrderService {
       AddressService addressService,
       CurrencyService currencyService,
       PartnerService partnerService,
-      UnitConversionService unitConversionService) {
+      UnitConversionService unitConversionService,
+      PSWebServiceClientProvider clientProvider) {
     this.invoiceRepository = invoiceRepository;
     this.saleOrderRepo = saleOrderRepo;
     this.addressService = addressService;
     this.currencyService = currencyService;
     this.partnerService = partnerService;
     this.unitConversionService = unitConversionService;
+    this.clientProvider = clientProvider;
   }
 
   @Override
-  @Transactional
   public void exportOrder(AppPrestashop appConfig, Writer logBuffer)
       throws IOException, PrestaShopWebserviceException {
+    try (ChunkedTransaction transaction = new ChunkedTransaction(appConfig.getChunkSize())) {
+      exportOrder(ChunkedTransaction.reattach(appConfig), logBuffer, transaction);
+    }
+  }
+
+  protected void exportOrder(
+      AppPrestashop appConfig, Writer logBuffer, ChunkedTransaction transaction)
+      throws IOException, PrestaShopWebserviceException {
     int done = 0;
     int errors = 0;
 
     log.debug("Starting orders export to prestashop");
     logBuffer.write(String.format("%n====== ORDERS ======%n"));
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
+    final InvoiceNumberAllocator invoiceNumbers = new InvoiceNumberAllocator(ws);
+    // Local order of each invoice numbered by this export, in case number has to be changed
+    final Map<Integer, Long> ordersByInvoiceNumber = new HashMap<>();
 
     final StringBuilder filter = new StringBuilder(128);
 
@@ -115,59 +136,94 @@ public class ExportOrderServiceImpl implements ExportOrderService {
       filter.append("AND (self.prestaShopId IS NOT NULL)");
     }
 
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.ORDERS);
+    final List<Long> localOrderIds =
+        ChunkedTransaction.fetchIds(SaleOrder.class, journal.restrict(filter.toString()));
+    RemoteOrders remoteOrders = null;
+
     orderLoop: // Not very pretty
-    for (SaleOrder localOrder : saleOrderRepo.all().filter(filter.toString()).fetch()) {
+    for (int i = 0; i < localOrderIds.size(); ++i) {
+      final Long localOrderId = localOrderIds.get(i);
+      if (transaction.isChunkComplete()) {
+        errors +=
+            renumberDuplicateInvoices(
+                ws, invoiceNumbers, ordersByInvoiceNumber, journal, logBuffer);
+        journal.flush();
+      }
+      if (transaction.next(null)) {
+        appConfig = ChunkedTransaction.reattach(appConfig);
+      }
+      if (i % transaction.getChunkSize() == 0) {
+        remoteOrders =
+            fetchRemoteOrders(
+                ws,
+                localOrderIds.subList(
+                    i, Math.min(i + transaction.getChunkSize(), localOrderIds.size())));
+      }
+      journal.start();
+      final SaleOrder localOrder = saleOrderRepo.find(localOrderId);
       logBuffer.write(
           String.format(
               "Exporting order #%d (%s) ‑ ", localOrder.getId(), localOrder.getSaleOrderSeq()));
       if (localOrder.getClientPartner().getPrestaShopId() == null) {
         logBuffer.write(String.format(" [WARNING] Customer is not synced yet, skipping%n"));
+        journal.warning(localOrderId, null, "CUSTOMER_NOT_SYNCED");
         continue;
       }
       if (localOrder.getDeliveryAddress() == null) {
         logBuffer.write(
             String.format(
                 " [WARNING] No delivery address filled, required for prestashop, skipping%n"));
+        journal.warning(localOrderId, null, "NO_DELIVERY_ADDRESS");
         continue;
       } else if (localOrder.getDeliveryAddress().getPrestaShopId() == null) {
         logBuffer.write(
             String.format(" [WARNING] Delivery address has not been synced yet, skipping%n"));
+        journal.warning(localOrderId, null, "DELIVERY_ADDRESS_NOT_SYNCED");
         continue;
       }
       if (localOrder.getMainInvoicingAddress() == null) {
         logBuffer.write(
             String.format(
                 " [WARNING] No invoicing address filled, required for prestashop, skipping%n"));
+        journal.warning(localOrderId, null, "NO_INVOICING_ADDRESS");
         continue;
       } else if (localOrder.getMainInvoicingAddress().getPrestaShopId() == null) {
         logBuffer.write(
             String.format(" [WARNING] Invoicing address has not been synced yet, skipping%n"));
+        journal.warning(localOrderId, null, "INVOICING_ADDRESS_NOT_SYNCED");
         continue;
       }
       if (localOrder.getCurrency().getPrestaShopId() == null) {
         logBuffer.write(String.format(" [WARNING] Currency has not been synced yet, skipping%n"));
+        journal.warning(localOrderId, null, "CURRENCY_NOT_SYNCED");
         continue;
       }
 
       PrestashopOrder remoteOrder;
       PrestashopCart remoteCart;
+      final int action =
+          localOrder.getPrestaShopId() == null
+              ? IPrestaShopSyncEvent.ACTION_CREATE
+              : IPrestaShopSyncEvent.ACTION_UPDATE;
 
       // We do not fetch the all remote orders as for other entities since
-      // it could lead to memory issues on heavy databases, tradeoff is that
-      // we'd have a lot of HTTP roundtrips.
+      // it could lead to memory issues on heavy databases, they are fetched
+      // along with their carts for each chunk instead.
       if (localOrder.getPrestaShopId() != null) {
         logBuffer.write("prestashop id=" + localOrder.getPrestaShopId());
-        remoteOrder = ws.fetch(PrestashopResourceType.ORDERS, localOrder.getPrestaShopId());
+        remoteOrder = remoteOrders.orders.get(localOrder.getPrestaShopId());
         if (remoteOrder == null) {
           logBuffer.write(String.format(" [ERROR] Not found remotely%n"));
           log.error(
               "Unable to fetch remote order #{} ({}), something's probably very wrong, skipping",
               localOrder.getPrestaShopId(),
               localOrder.getSaleOrderSeq());
+          journal.error(localOrderId, localOrder.getPrestaShopId(), "NOT_FOUND_REMOTELY");
           ++errors;
           continue;
         }
-        remoteCart = ws.fetch(PrestashopResourceType.CARTS, remoteOrder.getCartId());
+        remoteCart = remoteOrders.carts.get(remoteOrder.getCartId());
         if (remoteCart == null) {
           logBuffer.write(
               String.format(
@@ -177,6 +233,7 @@ public class ExportOrderServiceImpl implements ExportOrderService {
               "Unable to fetch cart #{} (for order {}), something's probably very wrong, skipping",
               remoteOrder.getCartId(),
               localOrder.getSaleOrderSeq());
+          journal.error(localOrderId, localOrder.getPrestaShopId(), "CART_NOT_FOUND_REMOTELY");
           ++errors;
           continue;
         }
@@ -255,6 +312,7 @@ public class ExportOrderServiceImpl implements ExportOrderService {
               String.format(
                   " [WARNING] Product %s has not been synced yet, skipping order%n",
                   localRow.getProduct().getCode()));
+          journal.warning(localOrderId, localOrder.getPrestaShopId(), "PRODUCT_NOT_SYNCED");
           continue orderLoop;
         }
         if (localRow.getProduct().getIsShippingCostsProduct()) {
@@ -334,7 +392,14 @@ public class ExportOrderServiceImpl implements ExportOrderService {
       }
 
       Integer remoteInvoiceId =
-          generateInvoicingEntities(appConfig, ws, localOrder, remoteOrder, logBuffer);
+          generateInvoicingEntities(
+              appConfig,
+              ws,
+              invoiceNumbers,
+              ordersByInvoiceNumber,
+              localOrder,
+              remoteOrder,
+              logBuffer);
 
       if (localOrder.getPrestaShopId() == null) {
         List<SaleOrderLine> rows = new LinkedList<>(localRows);
@@ -350,7 +415,8 @@ public class ExportOrderServiceImpl implements ExportOrderService {
 
       logBuffer.write(String.format(" [SUCCESS]%n\tExporting lines:%n"));
 
-      exportLines(appConfig, ws, localOrder, localRows, remoteInvoiceId, logBuffer);
+      exportLines(
+          appConfig, ws, localOrder, localRows, remoteOrders.rows, remoteInvoiceId, logBuffer);
 
       // We've to save *after* the lines are updated since totalPaid fields are totally ignored and
       // forced
@@ -360,25 +426,87 @@ public class ExportOrderServiceImpl implements ExportOrderService {
       // OK, so we've an order with its lines, but those lines currently have no informations, eg.
       // price was
       // taken from product configuration, so we've to improve them
+      journal.success(action, localOrderId, remoteOrder.getId());
       ++done;
     }
 
+    // Check numbers of the last invoices, which may have been used concurrently, then the new
+    // numbers of renumbered invoices
+    for (int pass = 0; pass < MAX_RENUMBERING_PASSES; ++pass) {
+      invoiceNumbers.verify();
+      if (invoiceNumbers.hasDuplicates() == false) break;
+      errors +=
+          renumberDuplicateInvoices(ws, invoiceNumbers, ordersByInvoiceNumber, journal, logBuffer);
+    }
+    journal.flush();
+    transaction.finish();
+
     logBuffer.write(
         String.format("%n=== END OF ORDERS EXPORT, done: %d, errors: %d ===%n", done, errors));
   }
 
+  /**
+   * Fetches orders which already exist on PrestaShop among the given ones, along with their carts
+   * and rows, in as few requests as possible.
+   */
+  private RemoteOrders fetchRemoteOrders(
+      final PSWebServiceClient ws, final List<Long> localOrderIds)
+      throws PrestaShopWebserviceException {
+    final List<Integer> remoteOrderIds =
+        JPA.em()
+            .createQuery(
+                "SELECT self.prestaShopId FROM SaleOrder self "
+                    + "WHERE self.id IN :ids AND self.prestaShopId IS NOT NULL",
+                Integer.class)
+            .setParameter("ids", localOrderIds)
+            .getResultList();
+    final RemoteOrders remoteOrders = new RemoteOrders();
+
+    final List<Integer> cartIds = new ArrayList<>(remoteOrderIds.size());
+    for (PrestashopOrder remoteOrder :
+        ws.<PrestashopOrder>fetchAny(PrestashopResourceType.ORDERS, "id", remoteOrderIds)) {
+      remoteOrders.orders.put(remoteOrder.getId(), remoteOrder);
+      remoteOrders.rows.put(remoteOrder.getId(), new ArrayList<>());
+      cartIds.add(remoteOrder.getCartId());
+    }
+    for (PrestashopCart remoteCart :
+        ws.<PrestashopCart>fetchAny(PrestashopResourceType.CARTS, "id", cartIds)) {
+      remoteOrders.carts.put(remoteCart.getId(), remoteCart);
+    }
+    for (PrestashopOrderRowDetails row :
+        ws.<PrestashopOrderRowDetails>fetchAny(
+            PrestashopResourceType.ORDER_DETAILS, "id_order", remoteOrders.orders.keySet())) {
+      final List<PrestashopOrderRowDetails> rows = remoteOrders.rows.get(row.getOrderId());
+      if (rows != null) rows.add(row);
+    }
+    return remoteOrders;
+  }
+
+  /** Remote entities of the orders exported in current chunk, by ID. */
+  private static class RemoteOrders {
+    private final Map<Integer, PrestashopOrder> orders = new HashMap<>();
+    private final Map<Integer, PrestashopCart> carts = new HashMap<>();
+    /** Rows by order ID, orders created by the export are absent. */
+    private final Map<Integer, List<PrestashopOrderRowDetails>> rows = new HashMap<>();
+  }
+
   private void exportLines(
       final AppPrestashop appConfig,
       final PSWebServiceClient ws,
       final SaleOrder order,
       final List<SaleOrderLine> lines,
+      final Map<Integer, List<PrestashopOrderRowDetails>> remoteRowsByOrder,
       final Integer remoteInvoiceId,
       final Writer logBuffer)
       throws PrestaShopWebserviceException, IOException {
-    List<PrestashopOrderRowDetails> remoteRows =
-        ws.fetch(
-            PrestashopResourceType.ORDER_DETAILS,
-            Collections.singletonMap("id_order", order.getPrestaShopId().toString()));
+    List<PrestashopOrderRowDetails> remoteRows = remoteRowsByOrder.get(order.getPrestaShopId());
+    if (remoteRows == null) {
+      // Order has been created remotely by this export, its rows could not be fetched beforehand
+      remoteRows =
+          ws.fetch(
+              PrestashopResourceType.ORDER_DETAILS,
+              Collections.singletonMap("id_order", order.getPrestaShopId().toString()));
+    }
 
     final Map<Integer, PrestashopOrderRowDetails> remoteRowsById = new HashMap<>();
     for (PrestashopOrderRowDetails row : remoteRows) {
@@ -534,11 +662,71 @@ public class ExportOrderServiceImpl implements ExportOrderService {
     return payments;
   }
 
+  /**
+   * Gives a new number to the invoices created by this export whose number has also been used by
+   * another invoice meanwhile (eg. created from back-office), see {@link
+   * InvoiceNumberAllocator#takeDuplicates()}. Invoices which cannot be renumbered are journaled as
+   * errors against their order.
+   *
+   * @param ordersByInvoiceNumber Local order of each invoice numbered by this export, updated with
+   *     new numbers.
+   * @return Number of invoices that could not be renumbered.
+   */
+  private int renumberDuplicateInvoices(
+      final PSWebServiceClient ws,
+      final InvoiceNumberAllocator invoiceNumbers,
+      final Map<Integer, Long> ordersByInvoiceNumber,
+      final SyncJournal journal,
+      final Writer logBuffer)
+      throws IOException {
+    int errors = 0;
+    for (Integer number : invoiceNumbers.takeDuplicates()) {
+      final Long localOrderId = ordersByInvoiceNumber.remove(number);
+      // Number handed out to an invoice that has not been saved
+      if (localOrderId == null) continue;
+      final Integer remoteOrderId = saleOrderRepo.find(localOrderId).getPrestaShopId();
+      journal.start();
+      logBuffer.write(
+          String.format(
+              "Invoice number %d of order #%d is also used by another invoice",
+              number, localOrderId));
+      try {
+        final PrestashopOrderInvoice remoteInvoice =
+            ws.fetchOne(
+                PrestashopResourceType.ORDER_INVOICES,
+                Collections.singletonMap("id_order", remoteOrderId.toString()));
+        if (remoteInvoice == null || remoteInvoice.getNumber() != number) {
+          logBuffer.write(String.format(", invoice has been changed meanwhile, leaving it%n"));
+          continue;
+        }
+        remoteInvoice.setNumber(invoiceNumbers.next());
+        ws.save(PrestashopResourceType.ORDER_INVOICES, remoteInvoice);
+        final PrestashopOrder remoteOrder = ws.fetch(PrestashopResourceType.ORDERS, remoteOrderId);
+        if (remoteOrder != null) {
+          remoteOrder.setInvoiceNumber(remoteInvoice.getNumber());
+          ws.save(PrestashopResourceType.ORDERS, remoteOrder);
+        }
+        ordersByInvoiceNumber.put(remoteInvoice.getNumber(), localOrderId);
+        logBuffer.write(String.format(", renumbered %d [SUCCESS]%n", remoteInvoice.getNumber()));
+      } catch (PrestaShopWebserviceException e) {
+        logBuffer.write(String.format(" [ERROR] Unable to renumber invoice: %s%n", e.getMessage()));
+        log.error(
+            String.format("Exception while renumbering invoice of order #%d", localOrderId), e);
+        journal.error(localOrderId, remoteOrderId, "DUPLICATE_INVOICE_NUMBER");
+        ++errors;
+      }
+    }
+    return errors;
+  }
+
   /**
    * Create entities bound to invoicing process (invoices, payments, deliveries).
    *
    * @param appConfig Prestashop module's configuration
    * @param ws Webservice instance used for API calls
+   * @param invoiceNumbers Allocator of numbers for created invoices
+   * @param ordersByInvoiceNumber Local order of each invoice numbered by this export, updated with
+   *     the invoice numbered for this order if any.
    * @param localOrder Local copy of the currently being processed order (fetched from db)
    * @param remoteOrder Remote copy of the order (fetched through Prestashop's WS). Some of its
    *     properties will be updated depending on created/updated entities.
@@ -548,6 +736,8 @@ public class ExportOrderServiceImpl implements ExportOrderService {
   private Integer generateInvoicingEntities(
       final AppPrestashop appConfig,
       final PSWebServiceClient ws,
+      final InvoiceNumberAllocator invoiceNumbers,
+      final Map<Integer, Long> ordersByInvoiceNumber,
       final SaleOrder localOrder,
       final PrestashopOrder remoteOrder,
       final Writer logBuffer)
@@ -591,8 +781,9 @@ public class ExportOrderServiceImpl implements ExportOrderService {
           localOrder.getCompany().getName()
               + "\n"
               + addressService.computeAddressStr(localOrder.getCompany().getAddress()));
-      remoteInvoice.setNumber(ws.getNextInvoiceNumber());
+      remoteInvoice.setNumber(invoiceNumbers.next());
       remoteOrder.setInvoiceNumber(remoteInvoice.getNumber());
+      ordersByInvoiceNumber.put(remoteInvoice.getNumber(), localOrder.getId());
     }
 
     if (remoteInvoice.getTotalPaidTaxExcluded().compareTo(localOrder.getAmountInvoiced()) != 0) {
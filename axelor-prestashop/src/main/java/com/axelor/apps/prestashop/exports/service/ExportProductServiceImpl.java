@@ -24,40 +24,42 @@ import com.axelor.apps.base.db.repo.ProductRepository;
 import com.axelor.apps.base.service.CurrencyService;
 import com.axelor.apps.base.service.UnitConversionService;
 import com.axelor.apps.base.service.administration.AbstractBatch;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.Associations;
-import com.axelor.apps.prestashop.entities.Associations.AvailableStocksAssociationElement;
-import com.axelor.apps.prestashop.entities.Associations.AvailableStocksAssociationsEntry;
-import com.axelor.apps.prestashop.entities.PrestashopAvailableStock;
 import com.axelor.apps.prestashop.entities.PrestashopImage;
 import com.axelor.apps.prestashop.entities.PrestashopProduct;
 import com.axelor.apps.prestashop.entities.PrestashopProductCategory;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.entities.PrestashopTranslatableString;
+import com.axelor.apps.prestashop.service.library.AsyncPSWebServiceClient;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
-import com.axelor.apps.stock.db.repo.StockLocationRepository;
-import com.axelor.apps.stock.db.repo.StockMoveRepository;
-import com.axelor.db.JPA;
+import com.axelor.apps.prestashop.service.library.PrestashopProjection;
 import com.axelor.exception.AxelorException;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
 import com.axelor.meta.MetaFiles;
-import com.google.common.base.Objects;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.text.Normalizer;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -74,15 +76,21 @@ public class ExportProductServiceImpl implements ExportProductService {
   private ProductRepository productRepo;
   private UnitConversionService unitConversionService;
   private CurrencyService currencyService;
+  private PSWebServiceClientProvider clientProvider;
+  private ExportStockService stockService;
 
   @Inject
   public ExportProductServiceImpl(
       ProductRepository productRepo,
       UnitConversionService unitConversionService,
-      CurrencyService currencyService) {
+      CurrencyService currencyService,
+      PSWebServiceClientProvider clientProvider,
+      ExportStockService stockService) {
     this.productRepo = productRepo;
     this.unitConversionService = unitConversionService;
     this.currencyService = currencyService;
+    this.clientProvider = clientProvider;
+    this.stockService = stockService;
   }
 
   @Override
@@ -95,26 +103,34 @@ public class ExportProductServiceImpl implements ExportProductService {
       return;
     }
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
 
-    final List<PrestashopProduct> remoteProducts = ws.fetchAll(PrestashopResourceType.PRODUCTS);
-    final Map<Integer, PrestashopProduct> productsById = new HashMap<>();
-    for (PrestashopProduct p : remoteProducts) {
+    // Only references are needed for lookups, full products are loaded when updated
+    final Map<Integer, PrestashopProjection> productsById = new HashMap<>();
+    for (PrestashopProjection p :
+        ws.fetchProjection(
+            PrestashopResourceType.PRODUCTS, Collections.singletonList("reference"))) {
       productsById.put(p.getId(), p);
     }
 
-    exportProducts(appConfig, ws, productsById, logBuffer);
-    exportStocks(ws, productsById, logBuffer);
-    exportPictures(ws, productsById, logBuffer);
+    try (AsyncPSWebServiceClient async = createProductExportClient(appConfig);
+        ChunkedTransaction transaction = new ChunkedTransaction(appConfig.getChunkSize())) {
+      exportProducts(
+          ChunkedTransaction.reattach(appConfig), ws, async, productsById, logBuffer, transaction);
+    }
+    stockService.exportStock(appConfig, logBuffer);
+    try (ChunkedTransaction transaction = new ChunkedTransaction(appConfig.getChunkSize())) {
+      exportPictures(ws, logBuffer, transaction);
+    }
   }
 
-  @Transactional
   private void exportProducts(
-      final AppPrestashop appConfig,
+      AppPrestashop appConfig,
       final PSWebServiceClient ws,
-      final Map<Integer, PrestashopProduct> productsById,
-      final Writer logBuffer)
+      final AsyncPSWebServiceClient async,
+      final Map<Integer, PrestashopProjection> productsById,
+      final Writer logBuffer,
+      final ChunkedTransaction transaction)
       throws IOException, PrestaShopWebserviceException {
     logBuffer.write(String.format("%n====== PRODUCTS ======%n"));
 
@@ -138,79 +154,109 @@ public class ExportProductServiceImpl implements ExportProductService {
             : appConfig.getTextsLanguage().getPrestaShopId());
 
     final LocalDate today = LocalDate.now();
+    // Workaround Prestashop bug BOOM-5826 (position in category handling in prestashop's
+    // webservices is a joke). Trade-off is that we shuffle categories on each update…
+    final boolean resetPositionInCategory = ws.compareVersion(FIX_POSITION_IN_CATEGORY_VERSION) < 0;
 
-    final Map<String, PrestashopProduct> productsByReference = new HashMap<>();
-    for (PrestashopProduct p : productsById.values()) {
-      productsByReference.put(p.getReference(), p);
+    final Map<String, Integer> productsByReference = new HashMap<>();
+    for (PrestashopProjection p : productsById.values()) {
+      productsByReference.put(p.get("reference"), p.getId());
     }
 
-    for (Product localProduct : productRepo.all().filter(filter.toString()).fetch()) {
+    // Pending exports are applied before each commit, so local products are updated in the
+    // transaction they have been loaded in
+    final List<ProductExportTask> pending = new ArrayList<>(transaction.getChunkSize());
+
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.PRODUCTS);
+    for (Long localProductId :
+        ChunkedTransaction.fetchIds(Product.class, journal.restrict(filter.toString()))) {
+      if (pending.size() >= transaction.getChunkSize()) {
+        final int failed = applyProductExports(pending, logBuffer, journal);
+        done -= failed;
+        errors += failed;
+        journal.flush();
+      }
+      if (transaction.next(null)) {
+        appConfig = ChunkedTransaction.reattach(appConfig);
+      }
+      journal.start();
+      final Product localProduct = productRepo.find(localProductId);
+      final ProductExportTask task = new ProductExportTask(localProductId);
+      final Writer productLog = task.log;
+      pending.add(task);
       try {
         final String cleanedReference =
             localProduct
                 .getCode()
                 .replaceAll("[<>;={}]", ""); // took from Prestashop's ValidateCore::isReference
-        logBuffer.write(
+        productLog.write(
             String.format(
                 "Exporting product %s (%s/%s) – ",
                 localProduct.getName(), localProduct.getCode(), cleanedReference));
 
         if (localProduct.getParentProduct() != null) {
-          logBuffer.write(
+          productLog.write(
               String.format(
                   "[ERROR] Product is a variant, these are not handled right now, skipping%n"));
+          journal.error(localProductId, null, "VARIANT_NOT_SUPPORTED");
           continue;
         } else if (localProduct.getProductVariantConfig() != null) {
-          logBuffer.write(
+          productLog.write(
               String.format(
                   "[ERROR] Product has variants, which are not handled right now, skipping%n"));
+          journal.error(localProductId, null, "VARIANTS_NOT_SUPPORTED");
           continue;
         } else if (localProduct.getProductTypeSelect() == ProductRepository.PRODUCT_TYPE_PACK) {
           // FIXME fairly easy to fix through product_bundle association + set type to pack
-          logBuffer.write(
+          productLog.write(
               String.format(
                   "[ERROR] Product is a pack, these are not handled right now, skipping%n"));
+          journal.error(localProductId, null, "PACK_NOT_SUPPORTED");
           continue;
         }
 
-        PrestashopProduct remoteProduct;
+        PrestashopProduct newProduct = null;
+        Integer remoteId = null;
         if (localProduct.getPrestaShopId() != null) {
-          logBuffer.write("prestashop id=" + localProduct.getPrestaShopId());
-          remoteProduct = productsById.get(localProduct.getPrestaShopId());
-          if (remoteProduct == null) {
-            logBuffer.write(String.format(" [ERROR] Not found remotely%n"));
+          productLog.write("prestashop id=" + localProduct.getPrestaShopId());
+          final PrestashopProjection remote = productsById.get(localProduct.getPrestaShopId());
+          if (remote == null) {
+            productLog.write(String.format(" [ERROR] Not found remotely%n"));
             log.error(
                 "Unable to fetch remote product #{} ({}), something's probably very wrong, skipping",
                 localProduct.getPrestaShopId(),
                 localProduct.getCode());
+            journal.error(localProductId, localProduct.getPrestaShopId(), "NOT_FOUND_REMOTELY");
             ++errors;
             continue;
-          } else if (cleanedReference.equals(remoteProduct.getReference()) == false) {
+          } else if (cleanedReference.equals(remote.get("reference")) == false) {
             log.error(
                 "Remote product #{} has not the same reference as the local one ({} vs {}), skipping",
                 localProduct.getPrestaShopId(),
-                remoteProduct.getReference(),
+                remote.get("reference"),
                 cleanedReference);
-            logBuffer.write(
+            productLog.write(
                 String.format(
                     " [ERROR] reference mismatch: %s vs %s%n",
-                    remoteProduct.getReference(), cleanedReference));
+                    remote.get("reference"), cleanedReference));
+            journal.error(localProductId, localProduct.getPrestaShopId(), "REFERENCE_MISMATCH");
             ++errors;
             continue;
           }
+          remoteId = remote.getId();
         } else {
-          remoteProduct = productsByReference.get(cleanedReference);
-          if (remoteProduct == null) {
-            logBuffer.write("no ID and reference not found, creating");
-            remoteProduct = new PrestashopProduct();
-            remoteProduct.setReference(cleanedReference);
+          remoteId = productsByReference.get(cleanedReference);
+          if (remoteId == null) {
+            productLog.write("no ID and reference not found, creating");
+            newProduct = new PrestashopProduct();
+            newProduct.setReference(cleanedReference);
             PrestashopTranslatableString str = defaultProduct.getName().clone();
             str.clearTranslations(localProduct.getName());
-            remoteProduct.setName(str);
+            newProduct.setName(str);
 
             str = defaultProduct.getDescription().clone();
             str.clearTranslations(localProduct.getDescription());
-            remoteProduct.setDescription(str);
+            newProduct.setDescription(str);
 
             str = defaultProduct.getLinkRewrite().clone();
             // Normalization taken from PrestaShop's JavaScript str2url function
@@ -224,158 +270,148 @@ public class ExportProductServiceImpl implements ExportProductService {
                     .replaceAll("[\\s\\'\\:/\\[\\]-]+", " ")
                     .replaceAll(" ", "-"));
             // TODO Should we update when product name changes?
-            remoteProduct.setLinkRewrite(str);
-            remoteProduct.setPositionInCategory(0);
+            newProduct.setLinkRewrite(str);
+            newProduct.setPositionInCategory(0);
           } else {
-            logBuffer.write(
+            productLog.write(
                 String.format("found remotely using its reference %s", cleanedReference));
           }
         }
 
-        if (remoteProduct.getId() == null
+        final String hash = computeHash(appConfig, localProduct, language);
+        task.action =
+            remoteId == null
+                ? IPrestaShopSyncEvent.ACTION_CREATE
+                : IPrestaShopSyncEvent.ACTION_UPDATE;
+        task.remoteId = remoteId;
+        if (localProduct.getPrestaShopId() != null
+            && hash.equals(localProduct.getPrestaShopHash())) {
+          productLog.write(", no exported field changed, leaving untouched");
+          localProduct.setPrestaShopVersion(localProduct.getVersion() + 1);
+          task.action = IPrestaShopSyncEvent.ACTION_SKIP;
+        } else if (remoteId == null
             || appConfig.getPrestaShopMasterForProducts() == Boolean.FALSE) {
-          // Here comes the real fun…
+          // Only values depending on local data are computed here, remote product is fetched and
+          // built by the task so that remote calls of several products can overlap
+          task.newProduct = newProduct;
           if (localProduct.getProductCategory() != null
               && localProduct.getProductCategory().getPrestaShopId() != null) {
-            remoteProduct.setDefaultCategoryId(localProduct.getProductCategory().getPrestaShopId());
+            task.defaultCategoryId = localProduct.getProductCategory().getPrestaShopId();
           } else {
-            remoteProduct.setDefaultCategoryId(remoteRootCategory.getId());
-          }
-
-          final int defaultCategoryId = remoteProduct.getDefaultCategoryId();
-          if (remoteProduct
-                  .getAssociations()
-                  .getCategories()
-                  .getAssociations()
-                  .stream()
-                  .anyMatch(c -> c.getId() == defaultCategoryId)
-              == false) {
-            Associations.CategoriesAssociationElement e =
-                new Associations.CategoriesAssociationElement();
-            e.setId(defaultCategoryId);
-            remoteProduct.getAssociations().getCategories().getAssociations().add(e);
+            task.defaultCategoryId = remoteRootCategory.getId();
           }
 
           if (localProduct.getSalePrice() != null) {
             if (localProduct.getSaleCurrency() != null) {
               try {
-                remoteProduct.setPrice(
+                task.price =
                     currencyService
                         .getAmountCurrencyConvertedAtDate(
                             localProduct.getSaleCurrency(),
                             appConfig.getPrestaShopCurrency(),
                             localProduct.getSalePrice(),
                             today)
-                        .setScale(appConfig.getExportPriceScale(), BigDecimal.ROUND_HALF_UP));
+                        .setScale(appConfig.getExportPriceScale(), BigDecimal.ROUND_HALF_UP);
               } catch (AxelorException e) {
-                logBuffer.write(
+                productLog.write(
                     " [WARNING] Unable to convert sale price, check your currency convsersion rates");
               }
             } else {
-              remoteProduct.setPrice(
+              task.price =
                   localProduct
                       .getSalePrice()
-                      .setScale(appConfig.getExportPriceScale(), BigDecimal.ROUND_HALF_UP));
+                      .setScale(appConfig.getExportPriceScale(), BigDecimal.ROUND_HALF_UP);
             }
           }
           if (localProduct.getPurchasePrice() != null) {
             if (localProduct.getPurchaseCurrency() != null) {
               try {
-                remoteProduct.setWholesalePrice(
+                task.wholesalePrice =
                     currencyService
                         .getAmountCurrencyConvertedAtDate(
                             localProduct.getPurchaseCurrency(),
                             appConfig.getPrestaShopCurrency(),
                             localProduct.getPurchasePrice(),
                             today)
-                        .setScale(appConfig.getExportPriceScale(), BigDecimal.ROUND_HALF_UP));
+                        .setScale(appConfig.getExportPriceScale(), BigDecimal.ROUND_HALF_UP);
               } catch (AxelorException e) {
-                logBuffer.write(
+                productLog.write(
                     " [WARNING] Unable to convert purchase price, check your currency conversion rates");
               }
             } else {
-              remoteProduct.setWholesalePrice(
+              task.wholesalePrice =
                   localProduct
                       .getPurchasePrice()
-                      .setScale(appConfig.getExportPriceScale(), BigDecimal.ROUND_HALF_UP));
+                      .setScale(appConfig.getExportPriceScale(), BigDecimal.ROUND_HALF_UP);
             }
           }
           if (localProduct.getLengthUnit() != null) {
-            remoteProduct.setWidth(
+            task.width =
                 convert(
                     appConfig.getPrestaShopLengthUnit(),
                     localProduct.getLengthUnit(),
                     localProduct.getWidth(),
-                    localProduct));
-            remoteProduct.setHeight(
+                    localProduct);
+            task.height =
                 convert(
                     appConfig.getPrestaShopLengthUnit(),
                     localProduct.getLengthUnit(),
                     localProduct.getHeight(),
-                    localProduct));
-            remoteProduct.setDepth(
+                    localProduct);
+            task.depth =
                 convert(
                     appConfig.getPrestaShopLengthUnit(),
                     localProduct.getLengthUnit(),
                     localProduct.getLength(),
-                    localProduct));
+                    localProduct);
           } else {
             // assume homogeneous units
-            remoteProduct.setWidth(localProduct.getWidth());
-            remoteProduct.setHeight(localProduct.getHeight());
-            remoteProduct.setDepth(localProduct.getLength());
+            task.width = localProduct.getWidth();
+            task.height = localProduct.getHeight();
+            task.depth = localProduct.getLength();
           }
           BigDecimal weight =
               localProduct.getGrossMass() == null
                   ? localProduct.getNetMass()
                   : localProduct.getGrossMass();
           if (localProduct.getMassUnit() != null && weight != null) {
-            remoteProduct.setWeight(
+            task.weight =
                 unitConversionService.convert(
                     appConfig.getPrestaShopWeightUnit(),
                     localProduct.getMassUnit(),
                     weight,
                     weight.scale(),
-                    localProduct));
+                    localProduct);
           } else {
-            remoteProduct.setWeight(weight);
+            task.weight = weight;
           }
 
-          remoteProduct.getName().setTranslation(language, localProduct.getName());
-          remoteProduct.getDescription().setTranslation(language, localProduct.getDescription());
-          remoteProduct.setTaxRulesGroupId(
-              1); // FIXME Need to have a mapping and use getAccountManagementList
+          task.language = language;
+          task.name = localProduct.getName();
+          task.description = localProduct.getDescription();
           if (localProduct.getSalesUnit() != null) {
-            remoteProduct.setUnity(localProduct.getSalesUnit().getLabelToPrinting());
+            task.unity = localProduct.getSalesUnit().getLabelToPrinting();
           } else if (localProduct.getUnit() != null) {
-            remoteProduct.setUnity(localProduct.getUnit().getLabelToPrinting());
+            task.unity = localProduct.getUnit().getLabelToPrinting();
           }
-          remoteProduct.setVirtual(
-              ProductRepository.PRODUCT_TYPE_SERVICE.equals(localProduct.getProductTypeSelect()));
+          task.virtual =
+              ProductRepository.PRODUCT_TYPE_SERVICE.equals(localProduct.getProductTypeSelect());
+          task.resetPositionInCategory = resetPositionInCategory;
           // TODO Should we handle supplier?
 
-          remoteProduct.setUpdateDate(LocalDateTime.now());
-          if (ws.compareVersion(FIX_POSITION_IN_CATEGORY_VERSION) < 0) {
-            // Workaround Prestashop bug BOOM-5826 (position in category handling in prestashop's
-            // webservices is a joke). Trade-off is that we shuffle categories on each update…
-            remoteProduct.setPositionInCategory(0);
-          }
-          remoteProduct.setLowStockAlert(true);
-          remoteProduct = ws.save(PrestashopResourceType.PRODUCTS, remoteProduct);
-          productsById.put(remoteProduct.getId(), remoteProduct);
-
-          localProduct.setPrestaShopId(remoteProduct.getId());
-          localProduct.setPrestaShopVersion(localProduct.getVersion() + 1);
+          task.export(ws, async);
+          task.hash = hash;
         } else {
-          logBuffer.write(
+          productLog.write(
               "remote product exists and PrestaShop is master for products, leaving untouched");
+          task.action = IPrestaShopSyncEvent.ACTION_SKIP;
         }
-        logBuffer.write(String.format(" [SUCCESS]%n"));
+        task.ready = true;
         ++done;
       } catch (AxelorException | PrestaShopWebserviceException e) {
         TraceBackService.trace(
             e, I18n.get("Prestashop products export"), AbstractBatch.getCurrentBatchId());
-        logBuffer.write(
+        productLog.write(
             String.format(
                 " [ERROR] %s (full trace is in application logs)%n", e.getLocalizedMessage()));
         log.error(
@@ -383,124 +419,299 @@ public class ExportProductServiceImpl implements ExportProductService {
                 "Exception while synchronizing product #%d (%s)",
                 localProduct.getId(), localProduct.getName()),
             e);
+        journal.error(localProductId, localProduct.getPrestaShopId(), "EXCEPTION");
         ++errors;
       }
     }
+    final int failed = applyProductExports(pending, logBuffer, journal);
+    done -= failed;
+    errors += failed;
+
+    journal.flush();
+    transaction.finish();
 
     logBuffer.write(
         String.format("%n=== END OF PRODUCTS EXPORT, done: %d, errors: %d ===%n", done, errors));
   }
 
-  @Transactional
-  private void exportStocks(
-      final PSWebServiceClient ws,
-      final Map<Integer, PrestashopProduct> productsById,
-      final Writer logBuffer)
+  /** Computes digest of all local values used to build remote product. */
+  private String computeHash(AppPrestashop appConfig, Product localProduct, int language) {
+    return new ContentHash()
+        .add(language)
+        .add(appConfig.getPrestaShopCurrency())
+        .add(appConfig.getExportPriceScale())
+        .add(appConfig.getPrestaShopLengthUnit())
+        .add(appConfig.getPrestaShopWeightUnit())
+        .add(localProduct.getCode())
+        .add(localProduct.getName())
+        .add(localProduct.getDescription())
+        .add(
+            localProduct.getProductCategory() == null
+                ? null
+                : localProduct.getProductCategory().getPrestaShopId())
+        .add(localProduct.getSalePrice())
+        .add(localProduct.getSaleCurrency())
+        .add(localProduct.getPurchasePrice())
+        .add(localProduct.getPurchaseCurrency())
+        .add(localProduct.getLengthUnit())
+        .add(localProduct.getWidth())
+        .add(localProduct.getHeight())
+        .add(localProduct.getLength())
+        .add(localProduct.getMassUnit())
+        .add(localProduct.getGrossMass())
+        .add(localProduct.getNetMass())
+        .add(
+            localProduct.getSalesUnit() == null
+                ? null
+                : localProduct.getSalesUnit().getLabelToPrinting())
+        .add(localProduct.getUnit() == null ? null : localProduct.getUnit().getLabelToPrinting())
+        .add(localProduct.getProductTypeSelect())
+        .get();
+  }
+
+  /**
+   * Creates the client used to keep several product exports in flight, each configured concurrent
+   * export getting a connection of its own.
+   *
+   * @return <code>null</code> if products must be exported sequentially.
+   */
+  private AsyncPSWebServiceClient createProductExportClient(AppPrestashop appConfig) {
+    final Integer concurrency = appConfig.getProductExportConcurrency();
+    if (concurrency == null || concurrency <= 1) return null;
+    // Only remote fetches and saves are run asynchronously, everything touching the database
+    // stays on the batch thread
+    return clientProvider.createAsyncClient(appConfig, concurrency);
+  }
+
+  /**
+   * Waits for pending remote saves and applies their result to local products, in the order
+   * products have been processed. Log and journal of each product are written at the same time so
+   * they do not get interleaved.
+   *
+   * @return Number of products whose remote save failed.
+   */
+  private int applyProductExports(
+      final List<ProductExportTask> tasks, final Writer logBuffer, final SyncJournal journal)
       throws IOException {
-    int errors = 0;
-    int done = 0;
-    logBuffer.write(String.format("%n===== STOCKS =====%n"));
-
-    @SuppressWarnings("unchecked")
-    final List<Object[]> stocks =
-        JPA.em()
-            .createQuery(
-                "SELECT product, "
-                    + "("
-                    + "SELECT COALESCE(SUM(CASE WHEN fromLocation.typeSelect = :virtualLocation THEN line.realQty ELSE -line.realQty END), 0) "
-                    + "FROM StockMoveLine line "
-                    + "JOIN line.stockMove move "
-                    + "JOIN move.fromStockLocation fromLocation "
-                    + "JOIN move.toStockLocation toLocation "
-                    + "WHERE line.product = product "
-                    + "AND move.statusSelect != :canceledStatus "
-                    + "AND (fromLocation.typeSelect != :virtualLocation OR toLocation.typeSelect != :virtualLocation) "
-                    + "AND (fromLocation.typeSelect = :virtualLocation OR toLocation.typeSelect = :virtualLocation) "
-                    + ")"
-                    + "FROM Product product "
-                    + "WHERE product.prestaShopId is not null "
-                    + "GROUP BY product")
-            .setParameter("canceledStatus", StockMoveRepository.STATUS_CANCELED)
-            .setParameter("virtualLocation", StockLocationRepository.TYPE_VIRTUAL)
-            .getResultList();
-    for (Object[] row : stocks) {
+    int failed = 0;
+    for (ProductExportTask task : tasks) {
+      logBuffer.write(task.log.toString());
+      if (task.ready == false) continue;
       try {
-        final Product localProduct = (Product) row[0];
-        final int currentStock = ((BigDecimal) row[1]).intValue();
-        logBuffer.write(String.format("Updating stock for %s", localProduct.getCode()));
-        PrestashopProduct remoteProduct = productsById.get(localProduct.getPrestaShopId());
-        if (remoteProduct == null) {
-          logBuffer.write(
-              String.format(
-                  " [ERROR] id %d not found on PrestaShop, skipping%n",
-                  localProduct.getPrestaShopId()));
-          ++errors;
+        final PrestashopProduct remoteProduct = task.getSaved();
+        if (task.notFound) {
+          logBuffer.write(String.format(" [ERROR] Not found remotely%n"));
+          journal.error(task.localProductId, task.remoteId, "NOT_FOUND_REMOTELY");
+          ++failed;
           continue;
         }
-
-        AvailableStocksAssociationsEntry availableStocks =
-            remoteProduct.getAssociations().getAvailableStocks();
-        if (availableStocks == null || availableStocks.getStock().size() == 0) {
-          logBuffer.write(" [WARNING] No stock for this product, skipping stock update%n");
-        } else if (availableStocks.getStock().size() > 1
-            || Objects.equal(availableStocks.getStock().get(0).getProductAttributeId(), 0)
-                == false) {
-          logBuffer.write(" [WARNING] Remote product appears to have variants, skipping%n");
-        } else {
-          AvailableStocksAssociationElement availableStockRef = availableStocks.getStock().get(0);
-          PrestashopAvailableStock availableStock =
-              ws.fetch(PrestashopResourceType.STOCK_AVAILABLES, availableStockRef.getId());
-          if (availableStock.isDependsOnStock()) {
-            logBuffer.write(
-                " [WARNING] Remote product uses advanced stock management features, not updating stock%n");
-          } else if (currentStock != availableStock.getQuantity()) {
-            availableStock.setQuantity(currentStock);
-            ws.save(PrestashopResourceType.STOCK_AVAILABLES, availableStock);
-            logBuffer.write(String.format(", setting stock to %d [SUCCESS]%n", currentStock));
-          } else {
-            logBuffer.write(String.format(", nothing to do [SUCCESS]%n"));
-          }
+        if (remoteProduct != null) {
+          final Product localProduct = productRepo.find(task.localProductId);
+          localProduct.setPrestaShopId(remoteProduct.getId());
+          localProduct.setPrestaShopVersion(localProduct.getVersion() + 1);
+          localProduct.setPrestaShopHash(task.hash);
+          task.remoteId = remoteProduct.getId();
         }
-        ++done;
+        logBuffer.write(String.format(" [SUCCESS]%n"));
+        journal.success(task.action, task.localProductId, task.remoteId);
       } catch (PrestaShopWebserviceException e) {
-        logBuffer.write(String.format(" [ERROR] exception occured: %s%n", e.getMessage()));
         TraceBackService.trace(
-            e, I18n.get("Prestashop stocks export"), AbstractBatch.getCurrentBatchId());
-        ++errors;
+            e, I18n.get("Prestashop products export"), AbstractBatch.getCurrentBatchId());
+        logBuffer.write(
+            String.format(
+                " [ERROR] %s (full trace is in application logs)%n", e.getLocalizedMessage()));
+        log.error(
+            String.format("Exception while synchronizing product #%d", task.localProductId), e);
+        journal.error(task.localProductId, task.remoteId, "EXCEPTION");
+        ++failed;
       }
     }
+    tasks.clear();
+    return failed;
+  }
 
-    logBuffer.write(
-        String.format("%n=== END OF STOCKS EXPORT, done: %d, errors: %d ===%n", done, errors));
+  /** Export of a single product, whose remote save may still be in progress. */
+  private static class ProductExportTask {
+    private final Long localProductId;
+    private final StringWriter log = new StringWriter();
+    /** Product has been handled without error, pending the remote save result. */
+    private boolean ready;
+
+    private PrestashopProduct saved;
+    private Future<PrestashopProduct> pendingSave;
+    /** Product to update has been deleted from PrestaShop meanwhile. */
+    private boolean notFound;
+
+    private String hash;
+    private int action;
+    private Integer remoteId;
+
+    // Values computed from local data by batch thread, applied to remote product by fetchAndSave
+    /** Product to create, <code>null</code> to update product {@link #remoteId}. */
+    private PrestashopProduct newProduct;
+
+    private int defaultCategoryId;
+    /** <code>null</code> to leave remote price untouched. */
+    private BigDecimal price;
+    /** <code>null</code> to leave remote wholesale price untouched. */
+    private BigDecimal wholesalePrice;
+
+    private BigDecimal width;
+    private BigDecimal height;
+    private BigDecimal depth;
+    private BigDecimal weight;
+    private int language;
+    private String name;
+    private String description;
+    /** <code>null</code> to leave remote unity untouched. */
+    private String unity;
+
+    private boolean virtual;
+    private boolean resetPositionInCategory;
+
+    private ProductExportTask(Long localProductId) {
+      this.localProductId = localProductId;
+    }
+
+    /**
+     * Exports product on PrestaShop, asynchronously if a non-blocking client is provided, directly
+     * otherwise.
+     */
+    private void export(final PSWebServiceClient ws, final AsyncPSWebServiceClient async)
+        throws PrestaShopWebserviceException {
+      if (async == null) {
+        saved = fetchAndSave(ws);
+        return;
+      }
+      final CompletableFuture<PrestashopProduct> remoteProduct =
+          newProduct == null
+              ? async.fetch(PrestashopResourceType.PRODUCTS, remoteId)
+              : CompletableFuture.completedFuture(newProduct);
+      pendingSave =
+          remoteProduct.thenCompose(
+              product -> {
+                if (product == null) {
+                  notFound = true;
+                  return CompletableFuture.completedFuture(null);
+                }
+                build(product);
+                return async.save(PrestashopResourceType.PRODUCTS, product);
+              });
+    }
+
+    /**
+     * Loads the full remote product if it is an update, applies local values to it and saves it.
+     * Like {@link #build(PrestashopProduct)}, this must not touch the database.
+     *
+     * @return Saved product, <code>null</code> if product to update no longer exists.
+     */
+    private PrestashopProduct fetchAndSave(final PSWebServiceClient ws)
+        throws PrestaShopWebserviceException {
+      final PrestashopProduct remoteProduct =
+          newProduct == null ? ws.fetch(PrestashopResourceType.PRODUCTS, remoteId) : newProduct;
+      if (remoteProduct == null) {
+        notFound = true;
+        return null;
+      }
+      build(remoteProduct);
+      return ws.save(PrestashopResourceType.PRODUCTS, remoteProduct);
+    }
+
+    /** Applies local values to remote product, run by the client's callback threads if async. */
+    private void build(final PrestashopProduct remoteProduct) {
+      // Here comes the real fun…
+      remoteProduct.setDefaultCategoryId(defaultCategoryId);
+      if (remoteProduct.getAssociations().getCategories().getAssociations().stream()
+              .anyMatch(c -> c.getId() == defaultCategoryId)
+          == false) {
+        Associations.CategoriesAssociationElement e =
+            new Associations.CategoriesAssociationElement();
+        e.setId(defaultCategoryId);
+        remoteProduct.getAssociations().getCategories().getAssociations().add(e);
+      }
+
+      if (price != null) {
+        remoteProduct.setPrice(price);
+      }
+      if (wholesalePrice != null) {
+        remoteProduct.setWholesalePrice(wholesalePrice);
+      }
+      remoteProduct.setWidth(width);
+      remoteProduct.setHeight(height);
+      remoteProduct.setDepth(depth);
+      remoteProduct.setWeight(weight);
+
+      remoteProduct.getName().setTranslation(language, name);
+      remoteProduct.getDescription().setTranslation(language, description);
+      remoteProduct.setTaxRulesGroupId(
+          1); // FIXME Need to have a mapping and use getAccountManagementList
+      if (unity != null) {
+        remoteProduct.setUnity(unity);
+      }
+      remoteProduct.setVirtual(virtual);
+
+      remoteProduct.setUpdateDate(LocalDateTime.now());
+      if (resetPositionInCategory) {
+        remoteProduct.setPositionInCategory(0);
+      }
+      remoteProduct.setLowStockAlert(true);
+    }
+
+    /**
+     * @return Saved remote product, or <code>null</code> if nothing had to be saved or product was
+     *     not found.
+     */
+    private PrestashopProduct getSaved() throws PrestaShopWebserviceException {
+      if (pendingSave == null) return saved;
+      try {
+        return pendingSave.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PrestaShopWebserviceException(e.getMessage(), e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof PrestaShopWebserviceException) {
+          throw (PrestaShopWebserviceException) e.getCause();
+        }
+        throw new PrestaShopWebserviceException(e.getCause().getMessage(), e.getCause());
+      }
+    }
   }
 
   /** Export all pictures that have been modified */
-  @Transactional
   private void exportPictures(
-      final PSWebServiceClient ws,
-      final Map<Integer, PrestashopProduct> productsById,
-      final Writer logBuffer)
+      final PSWebServiceClient ws, final Writer logBuffer, final ChunkedTransaction transaction)
       throws IOException {
     int errors = 0;
     int done = 0;
     logBuffer.write(String.format("%n===== PICTURES EXPORT =====%n"));
 
-    final List<Product> products =
-        productRepo
-            .all()
-            .filter(
-                "self.prestaShopId is not null and self.picture is not null and "
-                    + "(self.prestaShopImageVersion is null "
-                    + "OR self.prestaShopImageId is null "
-                    + "OR self.picture.version != self.prestaShopImageVersion "
-                    + "OR self.picture.id != self.prestaShopImageId)")
-            .order("code")
-            .fetch();
-
-    for (Product localProduct : products) {
+    final List<Long> productIds =
+        ChunkedTransaction.fetchIds(
+            Product.class,
+            "self.prestaShopId is not null and self.picture is not null and "
+                + "(self.prestaShopImageVersion is null "
+                + "OR self.prestaShopImageId is null "
+                + "OR self.picture.version != self.prestaShopImageVersion "
+                + "OR self.picture.id != self.prestaShopImageId)");
+
+    for (Long localProductId : productIds) {
+      transaction.next(null);
+      final Product localProduct = productRepo.find(localProductId);
       try {
         logBuffer.write(String.format("Updating picture for %s", localProduct.getCode()));
-        final PrestashopProduct remoteProduct = productsById.get(localProduct.getPrestaShopId());
+        final Path picturePath = MetaFiles.getPath(localProduct.getPicture());
+        final String digest = ContentHash.digest(picturePath);
+        // Picture record changed (eg. re-uploaded or imported) but content is already on PrestaShop
+        if (localProduct.getPrestaShopRemoteImageId() != null
+            && digest.equals(localProduct.getPrestaShopImageDigest())) {
+          localProduct.setPrestaShopImageId(localProduct.getPicture().getId());
+          localProduct.setPrestaShopImageVersion(localProduct.getPicture().getVersion());
+          logBuffer.write(String.format(" – content unchanged, skipping upload [SUCCESS]%n"));
+          ++done;
+          continue;
+        }
+        final PrestashopProduct remoteProduct =
+            ws.fetch(PrestashopResourceType.PRODUCTS, localProduct.getPrestaShopId());
         if (remoteProduct == null) {
           logBuffer.write(
               String.format(
@@ -510,24 +721,26 @@ public class ExportProductServiceImpl implements ExportProductService {
           continue;
         }
 
-        try (InputStream is =
-            new FileInputStream(MetaFiles.getPath(localProduct.getPicture()).toFile())) {
-          PrestashopImage image = ws.addImage(PrestashopResourceType.PRODUCTS, remoteProduct, is);
-          remoteProduct.setDefaultImageId(image.getId());
-          ws.save(PrestashopResourceType.PRODUCTS, remoteProduct);
-          localProduct.setPrestaShopImageId(localProduct.getPicture().getId());
-          localProduct.setPrestaShopImageVersion(localProduct.getPicture().getVersion());
-          localProduct.setPrestaShopVersion(localProduct.getVersion() + 1);
-          logBuffer.write(String.format(" [SUCCESS]%n"));
-        }
+        PrestashopImage image =
+            ws.addImage(PrestashopResourceType.PRODUCTS, remoteProduct, picturePath);
+        remoteProduct.setDefaultImageId(image.getId());
+        ws.save(PrestashopResourceType.PRODUCTS, remoteProduct);
+        localProduct.setPrestaShopImageId(localProduct.getPicture().getId());
+        localProduct.setPrestaShopImageVersion(localProduct.getPicture().getVersion());
+        localProduct.setPrestaShopImageDigest(digest);
+        localProduct.setPrestaShopRemoteImageId(image.getId());
+        localProduct.setPrestaShopVersion(localProduct.getVersion() + 1);
+        logBuffer.write(String.format(" [SUCCESS]%n"));
         ++done;
-      } catch (PrestaShopWebserviceException e) {
+      } catch (IOException | PrestaShopWebserviceException e) {
         ++errors;
         logBuffer.write(String.format(" [ERROR] exception occured: %s%n", e.getMessage()));
         TraceBackService.trace(
             e, I18n.get("Prestashop product images export"), AbstractBatch.getCurrentBatchId());
       }
     }
+    transaction.finish();
+
     logBuffer.write(
         String.format("%n=== END OF PICTURES EXPORT, done: %d, errors: %d ===%n", done, errors));
   }
@@ -0,0 +1,219 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.exports.service;
+
+import com.axelor.apps.base.db.AppPrestashop;
+import com.axelor.apps.base.service.administration.AbstractBatch;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.SyncJournal;
+import com.axelor.apps.prestashop.entities.PrestashopAvailableStock;
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
+import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
+import com.axelor.db.JPA;
+import com.axelor.exception.service.TraceBackService;
+import com.axelor.i18n.I18n;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Singleton
+public class ExportStockServiceImpl implements ExportStockService {
+  private Logger log = LoggerFactory.getLogger(getClass());
+
+  private PSWebServiceClientProvider clientProvider;
+  private StockSnapshotService snapshotService;
+
+  @Inject
+  public ExportStockServiceImpl(
+      PSWebServiceClientProvider clientProvider, StockSnapshotService snapshotService) {
+    this.clientProvider = clientProvider;
+    this.snapshotService = snapshotService;
+  }
+
+  @Override
+  public void exportStock(AppPrestashop appConfig, Writer logBuffer)
+      throws IOException, PrestaShopWebserviceException {
+    int errors = 0;
+    int done = 0;
+    int unchanged = 0;
+    logBuffer.write(String.format("%n===== STOCKS =====%n"));
+
+    snapshotService.refresh(appConfig);
+
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
+    final Map<Integer, List<PrestashopAvailableStock>> remoteStocksByProduct =
+        fetchRemoteStocks(ws);
+
+    final Map<String, Future<PrestashopAvailableStock>> updates = new LinkedHashMap<>();
+    final Map<String, Integer> updatedProductIds = new HashMap<>();
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.STOCK_AVAILABLES);
+    final ExecutorService executor = createExecutor(appConfig);
+    try {
+      for (Object[] row : fetchLocalStocks()) {
+        final Integer prestaShopId = (Integer) row[0];
+        final String code = (String) row[1];
+        final int currentStock = ((BigDecimal) row[2]).intValue();
+        if (journal.isRetried(null, prestaShopId) == false) continue;
+        journal.start();
+
+        final List<PrestashopAvailableStock> remoteStocks = remoteStocksByProduct.get(prestaShopId);
+        if (remoteStocks == null) {
+          logBuffer.write(
+              String.format(
+                  "Updating stock for %s [WARNING] No stock for this product, skipping%n", code));
+          journal.warning(null, prestaShopId, "NO_REMOTE_STOCK");
+        } else if (remoteStocks.size() > 1 || remoteStocks.get(0).getProductAttributeId() != 0) {
+          logBuffer.write(
+              String.format(
+                  "Updating stock for %s [WARNING] Remote product appears to have variants, skipping%n",
+                  code));
+          journal.warning(null, prestaShopId, "VARIANTS_NOT_SUPPORTED");
+        } else if (remoteStocks.get(0).isDependsOnStock()) {
+          logBuffer.write(
+              String.format(
+                  "Updating stock for %s [WARNING] Remote product uses advanced stock management features, not updating stock%n",
+                  code));
+          journal.warning(null, prestaShopId, "ADVANCED_STOCK_MANAGEMENT");
+        } else if (currentStock != remoteStocks.get(0).getQuantity()) {
+          final PrestashopAvailableStock availableStock = remoteStocks.get(0);
+          availableStock.setQuantity(currentStock);
+          updates.put(
+              code,
+              executor.submit(
+                  () -> ws.save(PrestashopResourceType.STOCK_AVAILABLES, availableStock)));
+          updatedProductIds.put(code, prestaShopId);
+          continue;
+        } else {
+          journal.success(IPrestaShopSyncEvent.ACTION_SKIP, null, prestaShopId);
+          ++unchanged;
+        }
+        ++done;
+      }
+
+      // Results are logged in submission order to keep the log readable
+      for (Map.Entry<String, Future<PrestashopAvailableStock>> update : updates.entrySet()) {
+        logBuffer.write(String.format("Updating stock for %s", update.getKey()));
+        final Integer prestaShopId = updatedProductIds.get(update.getKey());
+        try {
+          final PrestashopAvailableStock availableStock = getResult(update.getValue());
+          logBuffer.write(
+              String.format(", setting stock to %d [SUCCESS]%n", availableStock.getQuantity()));
+          journal.success(IPrestaShopSyncEvent.ACTION_UPDATE, null, prestaShopId);
+          ++done;
+        } catch (PrestaShopWebserviceException e) {
+          logBuffer.write(String.format(" [ERROR] exception occured: %s%n", e.getMessage()));
+          TraceBackService.trace(
+              e, I18n.get("Prestashop stocks export"), AbstractBatch.getCurrentBatchId());
+          journal.error(null, prestaShopId, "EXCEPTION");
+          ++errors;
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    journal.flush();
+
+    logBuffer.write(String.format("%d stocks were already up to date%n", unchanged));
+    logBuffer.write(
+        String.format("%n=== END OF STOCKS EXPORT, done: %d, errors: %d ===%n", done, errors));
+  }
+
+  /**
+   * Fetches all remote stocks, grouped by product.
+   *
+   * @return Map of product ID to its stocks (one per variant and per shop).
+   */
+  private Map<Integer, List<PrestashopAvailableStock>> fetchRemoteStocks(
+      final PSWebServiceClient ws) {
+    final Map<Integer, List<PrestashopAvailableStock>> stocks = new HashMap<>();
+    final Iterator<PrestashopAvailableStock> remoteStocks =
+        ws.fetchPaged(
+            PrestashopResourceType.STOCK_AVAILABLES, PSWebServiceClient.DEFAULT_PAGE_SIZE);
+    while (remoteStocks.hasNext()) {
+      final PrestashopAvailableStock stock = remoteStocks.next();
+      stocks.computeIfAbsent(stock.getProductId(), id -> new ArrayList<>(1)).add(stock);
+    }
+    return stocks;
+  }
+
+  /**
+   * Reads current stock of all synchronized products from their snapshot.
+   *
+   * @return Rows of PrestaShop ID, product code and stock quantity.
+   */
+  @SuppressWarnings("unchecked")
+  private List<Object[]> fetchLocalStocks() {
+    return JPA.em()
+        .createQuery(
+            "SELECT snapshot.product.prestaShopId, snapshot.product.code, snapshot.quantity "
+                + "FROM PrestaShopStockSnapshot snapshot "
+                + "WHERE snapshot.product.prestaShopId is not null "
+                + "ORDER BY snapshot.product.code")
+        .getResultList();
+  }
+
+  /**
+   * Creates the pool used to send stocks to PrestaShop, updates are run directly if parallel export
+   * is disabled.
+   */
+  private ExecutorService createExecutor(AppPrestashop appConfig) {
+    final Integer concurrency = appConfig.getProductExportConcurrency();
+    if (concurrency == null || concurrency <= 1) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    return Executors.newFixedThreadPool(
+        concurrency,
+        new ThreadFactoryBuilder()
+            .setNameFormat("prestashop-stock-export-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  private <T> T getResult(Future<T> future) throws PrestaShopWebserviceException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new PrestaShopWebserviceException(e.getMessage(), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof PrestaShopWebserviceException) {
+        throw (PrestaShopWebserviceException) e.getCause();
+      }
+      log.error("Unexpected error while updating stock", e.getCause());
+      throw new PrestaShopWebserviceException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+}
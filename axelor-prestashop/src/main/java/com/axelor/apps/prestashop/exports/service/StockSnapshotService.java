@@ -0,0 +1,31 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.exports.service;
+
+import com.axelor.apps.base.db.AppPrestashop;
+
+public interface StockSnapshotService {
+
+  /**
+   * Brings stock snapshots of synchronized products up to date. Only products having stock moves
+   * created or modified since last refresh, or without snapshot yet, are recomputed.
+   *
+   * @param appConfig Prestashop module's configuration, holds the refresh watermark.
+   */
+  public void refresh(AppPrestashop appConfig);
+}
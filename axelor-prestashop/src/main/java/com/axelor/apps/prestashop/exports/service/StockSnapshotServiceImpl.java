@@ -0,0 +1,167 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.exports.service;
+
+import com.axelor.apps.base.db.AppPrestashop;
+import com.axelor.apps.base.db.Product;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.db.PrestaShopStockSnapshot;
+import com.axelor.apps.prestashop.db.repo.PrestaShopStockSnapshotRepository;
+import com.axelor.apps.stock.db.repo.StockLocationRepository;
+import com.axelor.apps.stock.db.repo.StockMoveRepository;
+import com.axelor.db.JPA;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Singleton
+public class StockSnapshotServiceImpl implements StockSnapshotService {
+  /**
+   * Stock moves modified just before a refresh may only be committed after it, watermark is moved
+   * back by this amount so they are not missed. Stocks are recomputed as a whole, so processing a
+   * product twice is harmless.
+   */
+  private static final Duration WATERMARK_OVERLAP = Duration.ofMinutes(5);
+
+  private Logger log = LoggerFactory.getLogger(getClass());
+
+  private PrestaShopStockSnapshotRepository snapshotRepo;
+
+  @Inject
+  public StockSnapshotServiceImpl(PrestaShopStockSnapshotRepository snapshotRepo) {
+    this.snapshotRepo = snapshotRepo;
+  }
+
+  @Override
+  public void refresh(AppPrestashop appConfig) {
+    final LocalDateTime start = LocalDateTime.now();
+
+    // Chunk size of 1 as next() is called once per group of products
+    try (ChunkedTransaction transaction = new ChunkedTransaction(1)) {
+      appConfig = ChunkedTransaction.reattach(appConfig);
+      final List<Long> productIds = getOutdatedProducts(appConfig.getStockSnapshotDate());
+      log.debug("Refreshing stock snapshot of {} products", productIds.size());
+
+      final int groupSize =
+          appConfig.getChunkSize() == null || appConfig.getChunkSize() <= 0
+              ? ChunkedTransaction.DEFAULT_CHUNK_SIZE
+              : appConfig.getChunkSize();
+      for (List<Long> ids : Lists.partition(productIds, groupSize)) {
+        transaction.next(null);
+        refresh(ids);
+      }
+
+      appConfig = ChunkedTransaction.reattach(appConfig);
+      appConfig.setStockSnapshotDate(start.minus(WATERMARK_OVERLAP));
+      transaction.finish();
+    }
+  }
+
+  /**
+   * Lists synchronized products whose snapshot may be outdated.
+   *
+   * @param since Date of last refresh, <code>null</code> to get all products.
+   * @return IDs of products, sorted.
+   */
+  @SuppressWarnings("unchecked")
+  protected List<Long> getOutdatedProducts(LocalDateTime since) {
+    if (since == null) {
+      return JPA.em()
+          .createQuery(
+              "SELECT self.id FROM Product self WHERE self.prestaShopId IS NOT NULL ORDER BY self.id")
+          .getResultList();
+    }
+
+    final TreeSet<Long> ids = new TreeSet<>();
+    ids.addAll(
+        JPA.em()
+            .createQuery(
+                "SELECT DISTINCT line.product.id FROM StockMoveLine line "
+                    + "JOIN line.stockMove move "
+                    + "WHERE line.product.prestaShopId IS NOT NULL "
+                    + "AND (move.updatedOn >= :since OR move.createdOn >= :since "
+                    + "OR line.updatedOn >= :since OR line.createdOn >= :since)")
+            .setParameter("since", since)
+            .getResultList());
+    // Newly synchronized products
+    ids.addAll(
+        JPA.em()
+            .createQuery(
+                "SELECT self.id FROM Product self WHERE self.prestaShopId IS NOT NULL "
+                    + "AND NOT EXISTS (SELECT snapshot FROM PrestaShopStockSnapshot snapshot WHERE snapshot.product = self)")
+            .getResultList());
+    return new ArrayList<>(ids);
+  }
+
+  /** Recomputes stocks of given products from stock moves between virtual and real locations. */
+  protected void refresh(List<Long> productIds) {
+    @SuppressWarnings("unchecked")
+    final List<Object[]> stocks =
+        JPA.em()
+            .createQuery(
+                "SELECT product.id, "
+                    + "("
+                    + "SELECT COALESCE(SUM(CASE WHEN fromLocation.typeSelect = :virtualLocation THEN line.realQty ELSE -line.realQty END), 0) "
+                    + "FROM StockMoveLine line "
+                    + "JOIN line.stockMove move "
+                    + "JOIN move.fromStockLocation fromLocation "
+                    + "JOIN move.toStockLocation toLocation "
+                    + "WHERE line.product = product "
+                    + "AND move.statusSelect != :canceledStatus "
+                    + "AND (fromLocation.typeSelect != :virtualLocation OR toLocation.typeSelect != :virtualLocation) "
+                    + "AND (fromLocation.typeSelect = :virtualLocation OR toLocation.typeSelect = :virtualLocation) "
+                    + ")"
+                    + "FROM Product product "
+                    + "WHERE product.id IN (:productIds)")
+            .setParameter("canceledStatus", StockMoveRepository.STATUS_CANCELED)
+            .setParameter("virtualLocation", StockLocationRepository.TYPE_VIRTUAL)
+            .setParameter("productIds", productIds)
+            .getResultList();
+
+    final Map<Long, PrestaShopStockSnapshot> snapshots = new HashMap<>();
+    for (PrestaShopStockSnapshot snapshot :
+        snapshotRepo
+            .all()
+            .filter("self.product.id IN (:productIds)")
+            .bind("productIds", productIds)
+            .fetch()) {
+      snapshots.put(snapshot.getProduct().getId(), snapshot);
+    }
+
+    for (Object[] row : stocks) {
+      final Long productId = (Long) row[0];
+      PrestaShopStockSnapshot snapshot = snapshots.get(productId);
+      if (snapshot == null) {
+        snapshot = new PrestaShopStockSnapshot();
+        snapshot.setProduct(JPA.em().getReference(Product.class, productId));
+      }
+      snapshot.setQuantity((BigDecimal) row[1]);
+      snapshotRepo.save(snapshot);
+    }
+  }
+}
@@ -19,30 +19,41 @@ package com.axelor.apps.prestashop.imports;
 
 import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.base.db.Batch;
+import com.axelor.apps.prestashop.batch.BatchLogWriter;
+import com.axelor.apps.prestashop.batch.PrestaShopBatchRunner;
+import com.axelor.apps.prestashop.batch.StageScheduler;
 import com.axelor.apps.prestashop.imports.service.ImportAddressService;
 import com.axelor.apps.prestashop.imports.service.ImportCategoryService;
 import com.axelor.apps.prestashop.imports.service.ImportCountryService;
 import com.axelor.apps.prestashop.imports.service.ImportCurrencyService;
 import com.axelor.apps.prestashop.imports.service.ImportCustomerService;
+import com.axelor.apps.prestashop.imports.service.ImportIdResolverService;
 import com.axelor.apps.prestashop.imports.service.ImportOrderService;
 import com.axelor.apps.prestashop.imports.service.ImportProductService;
+import com.axelor.apps.prestashop.service.library.PSMetricsRegistry;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
+import com.axelor.db.JPA;
 import com.axelor.meta.MetaFiles;
-import com.axelor.meta.db.MetaFile;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.Writer;
 import java.time.ZonedDateTime;
 import javax.xml.bind.JAXBException;
 import javax.xml.transform.TransformerException;
-import org.apache.commons.io.output.StringBuilderWriter;
-import org.apache.tika.io.IOUtils;
 import wslite.json.JSONException;
 
 @Singleton
 public class PrestaShopServiceImportImpl implements PrestaShopServiceImport {
+  private static final String CURRENCIES = "Currencies";
+  private static final String COUNTRIES = "Countries";
+  private static final String CATEGORIES = "Categories";
+  private static final String CUSTOMERS = "Customers";
+  private static final String ADDRESSES = "Addresses";
+  private static final String PRODUCTS = "Products";
+  private static final String ORDERS = "Orders";
+
   private MetaFiles metaFiles;
   private ImportCurrencyService currencyService;
   private ImportCountryService countryService;
@@ -51,6 +62,10 @@ public class PrestaShopServiceImportImpl implements PrestaShopServiceImport {
   private ImportCategoryService categoryService;
   private ImportProductService productService;
   private ImportOrderService orderService;
+  private ImportIdResolverService idResolver;
+  private PrestaShopBatchRunner batchRunner;
+  private PSMetricsRegistry metricsRegistry;
+  private PSWebServiceClientProvider clientProvider;
 
   @Inject
   public PrestaShopServiceImportImpl(
@@ -61,7 +76,11 @@ public class PrestaShopServiceImportImpl implements PrestaShopServiceImport {
       ImportAddressService addressService,
       ImportCategoryService categoryService,
       ImportProductService productService,
-      ImportOrderService orderService) {
+      ImportOrderService orderService,
+      ImportIdResolverService idResolver,
+      PrestaShopBatchRunner batchRunner,
+      PSMetricsRegistry metricsRegistry,
+      PSWebServiceClientProvider clientProvider) {
     this.metaFiles = metaFiles;
     this.currencyService = currencyService;
     this.countryService = countryService;
@@ -70,18 +89,54 @@ public class PrestaShopServiceImportImpl implements PrestaShopServiceImport {
     this.categoryService = categoryService;
     this.productService = productService;
     this.orderService = orderService;
+    this.idResolver = idResolver;
+    this.batchRunner = batchRunner;
+    this.metricsRegistry = metricsRegistry;
+    this.clientProvider = clientProvider;
   }
 
+  /**
+   * Registers base elements import stages.
+   *
+   * @param scheduler Scheduler to which stages are added.
+   * @param appConfig Prestashop module's configuration
+   * @param endDate Date of last successful import, <code>null</code> to import everything.
+   */
   public void importAxelorBase(
-      AppPrestashop appConfig, ZonedDateTime endDate, final Writer logWriter)
-      throws IOException, PrestaShopWebserviceException, TransformerException, JAXBException,
-          JSONException {
-    currencyService.importCurrency(appConfig, endDate, logWriter);
-    countryService.importCountry(appConfig, endDate, logWriter);
-    customerService.importCustomer(appConfig, endDate, logWriter);
-    addressService.importAddress(appConfig, endDate, logWriter);
-    categoryService.importCategory(appConfig, endDate, logWriter);
-    productService.importProduct(appConfig, endDate, logWriter);
+      StageScheduler scheduler, AppPrestashop appConfig, ZonedDateTime endDate) {
+    // Stages run by workers reload configuration in their own persistence context
+    final Long appConfigId = appConfig.getId();
+    scheduler
+        .add(
+            CURRENCIES,
+            stageLog ->
+                currencyService.importCurrency(
+                    JPA.find(AppPrestashop.class, appConfigId), endDate, stageLog))
+        .add(
+            COUNTRIES,
+            stageLog ->
+                countryService.importCountry(
+                    JPA.find(AppPrestashop.class, appConfigId), endDate, stageLog))
+        .add(
+            CATEGORIES,
+            stageLog ->
+                categoryService.importCategory(
+                    JPA.find(AppPrestashop.class, appConfigId), endDate, stageLog))
+        // Following imports rely on current batch for resume information
+        .addLocal(
+            CUSTOMERS,
+            stageLog -> customerService.importCustomer(appConfig, endDate, stageLog),
+            CURRENCIES)
+        .addLocal(
+            ADDRESSES,
+            stageLog -> addressService.importAddress(appConfig, endDate, stageLog),
+            CUSTOMERS,
+            COUNTRIES)
+        .addLocal(
+            PRODUCTS,
+            stageLog -> productService.importProduct(appConfig, endDate, stageLog),
+            CURRENCIES,
+            CATEGORIES);
   }
 
   /** Import Axelor modules (Base, SaleOrder) */
@@ -89,17 +144,27 @@ public class PrestaShopServiceImportImpl implements PrestaShopServiceImport {
   public void importFromPrestaShop(AppPrestashop appConfig, ZonedDateTime endDate, Batch batch)
       throws IOException, PrestaShopWebserviceException, TransformerException, JAXBException,
           JSONException {
-    StringBuilderWriter logWriter = new StringBuilderWriter(1024);
+    BatchLogWriter logWriter = BatchLogWriter.create(appConfig, "import-log.txt");
+    idResolver.clear();
+    // Import steps get this client from the provider, even if settings change meanwhile
+    final PSWebServiceClient ws = clientProvider.acquireClient(appConfig);
     try {
-      importAxelorBase(appConfig, endDate, logWriter);
-      orderService.importOrder(appConfig, endDate, logWriter);
+      final StageScheduler scheduler =
+          new StageScheduler(
+              batchRunner, metricsRegistry, "import", appConfig.getStageConcurrency());
+      importAxelorBase(scheduler, appConfig, endDate);
+      scheduler.addLocal(
+          ORDERS,
+          stageLog -> orderService.importOrder(appConfig, endDate, stageLog),
+          CUSTOMERS,
+          ADDRESSES,
+          PRODUCTS);
+      scheduler.run(logWriter);
       logWriter.write(String.format("%n==== END OF LOG ====%n"));
     } finally {
-      IOUtils.closeQuietly(logWriter);
-      MetaFile importMetaFile =
-          metaFiles.upload(
-              new ByteArrayInputStream(logWriter.toString().getBytes()), "import-log.txt");
-      batch.setPrestaShopBatchLog(importMetaFile);
+      clientProvider.releaseClient(ws);
+      idResolver.clear();
+      batch.setPrestaShopBatchLog(logWriter.upload(metaFiles));
     }
   }
 }
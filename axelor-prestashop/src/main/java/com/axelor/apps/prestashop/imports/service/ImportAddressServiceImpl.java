@@ -25,81 +25,131 @@ import com.axelor.apps.base.db.Partner;
 import com.axelor.apps.base.db.PartnerAddress;
 import com.axelor.apps.base.db.repo.AddressRepository;
 import com.axelor.apps.base.db.repo.CityRepository;
-import com.axelor.apps.base.db.repo.CountryRepository;
-import com.axelor.apps.base.db.repo.PartnerRepository;
 import com.axelor.apps.base.service.AddressService;
 import com.axelor.apps.db.IPrestaShopBatch;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopAddress;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
 import java.io.IOException;
 import java.io.Writer;
+import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
-import java.util.List;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 import org.apache.shiro.util.CollectionUtils;
 
 @Singleton
 public class ImportAddressServiceImpl implements ImportAddressService {
   private AddressRepository addressRepo;
   private CityRepository cityRepo;
-  private CountryRepository countryRepo;
-  private PartnerRepository partnerRepo;
   private AddressService addressService;
+  private PSWebServiceClientProvider clientProvider;
+  private ImportCursorService cursorService;
+  private ImportIdResolverService idResolver;
 
   @Inject
   public ImportAddressServiceImpl(
       AddressRepository addressRepo,
       CityRepository cityRepo,
-      CountryRepository countryRepo,
-      PartnerRepository partnerRepo,
-      AddressService addressService) {
+      AddressService addressService,
+      PSWebServiceClientProvider clientProvider,
+      ImportCursorService cursorService,
+      ImportIdResolverService idResolver) {
     this.addressRepo = addressRepo;
     this.cityRepo = cityRepo;
-    this.countryRepo = countryRepo;
-    this.partnerRepo = partnerRepo;
     this.addressService = addressService;
+    this.clientProvider = clientProvider;
+    this.cursorService = cursorService;
+    this.idResolver = idResolver;
   }
 
   @Override
-  @Transactional
   public void importAddress(AppPrestashop appConfig, ZonedDateTime endDate, Writer logBuffer)
       throws IOException, PrestaShopWebserviceException {
+    try (ChunkedTransaction transaction =
+        new ChunkedTransaction(PrestashopResourceType.ADDRESSES, appConfig.getChunkSize())) {
+      importAddress(ChunkedTransaction.reattach(appConfig), endDate, logBuffer, transaction);
+    }
+  }
+
+  protected void importAddress(
+      AppPrestashop appConfig,
+      ZonedDateTime endDate,
+      Writer logBuffer,
+      ChunkedTransaction transaction)
+      throws IOException, PrestaShopWebserviceException {
     Integer done = 0;
     Integer errors = 0;
 
     logBuffer.write(String.format("%n====== ADDRESSES ======%n"));
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
-    final List<PrestashopAddress> remoteAddresses = ws.fetchAll(PrestashopResourceType.ADDRESSES);
-
-    for (PrestashopAddress remoteAddress : remoteAddresses) {
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
+    final Map<String, String> filter =
+        new HashMap<>(cursorService.getUpdateFilter(PrestashopResourceType.ADDRESSES, endDate));
+    final Integer resumeId = transaction.getResumeId();
+    if (resumeId != null) {
+      logBuffer.write(String.format("Resuming interrupted import after #%d%n", resumeId));
+      filter.put("id", String.format("[%d,%d]", resumeId + 1, Integer.MAX_VALUE));
+    }
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.ADDRESSES);
+    final Iterator<PrestashopAddress> remoteAddresses =
+        journal.isRetryMode()
+            ? journal.fetchRetried(ws, resumeId)
+            : ws.fetchPaged(
+                PrestashopResourceType.ADDRESSES,
+                filter,
+                Collections.emptyList(),
+                PSWebServiceClient.DEFAULT_PAGE_SIZE);
+    LocalDateTime lastUpdateDate = null;
+
+    while (remoteAddresses.hasNext()) {
+      final PrestashopAddress remoteAddress = remoteAddresses.next();
+      if (transaction.isChunkComplete()) {
+        journal.flush();
+      }
+      if (transaction.next(remoteAddress.getId())) {
+        appConfig = ChunkedTransaction.reattach(appConfig);
+      }
+      if (remoteAddress.getUpdateDate() != null
+          && (lastUpdateDate == null || remoteAddress.getUpdateDate().isAfter(lastUpdateDate))) {
+        lastUpdateDate = remoteAddress.getUpdateDate();
+      }
       logBuffer.write(
           String.format(
               "Importing PrestaShop address #%d (%s %s) – ",
               remoteAddress.getId(), remoteAddress.getAddress1(), remoteAddress.getCity()));
 
-      Address localAddress = addressRepo.findByPrestaShopId(remoteAddress.getId());
+      journal.start();
+      Address localAddress = idResolver.find(Address.class, remoteAddress.getId());
 
       if (remoteAddress.isDeleted()) {
         if (localAddress != null) localAddress.setArchived(Boolean.TRUE);
         logBuffer.write(String.format("[WARNING] Tagged as deleted, skipping%n"));
+        journal.warning(
+            localAddress == null ? null : localAddress.getId(), remoteAddress.getId(), "DELETED");
         continue;
       }
 
       if (remoteAddress.getCustomerId() == null) {
         logBuffer.write(String.format("[WARNING] Address is not bound to a customer, skipping%n"));
+        journal.warning(null, remoteAddress.getId(), "NO_CUSTOMER");
         continue;
       }
 
-      Country country = countryRepo.findByPrestaShopId(remoteAddress.getCountryId());
+      Country country = idResolver.find(Country.class, remoteAddress.getCountryId());
       if (country == null) {
         logBuffer.write(
             String.format(" [WARNING] Address belongs to a not-yet synced country, skipping%n"));
+        journal.warning(null, remoteAddress.getId(), "COUNTRY_NOT_SYNCED");
         continue;
       }
 
@@ -107,10 +157,11 @@ public class ImportAddressServiceImpl implements ImportAddressService {
         localAddress = new Address();
         localAddress.setImportOrigin(IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP);
         localAddress.setPrestaShopId(remoteAddress.getId());
-        Partner customer = partnerRepo.findByPrestaShopId(remoteAddress.getCustomerId());
+        Partner customer = idResolver.find(Partner.class, remoteAddress.getCustomerId());
         if (customer == null) {
           logBuffer.write(
               String.format(" [WARNING] Address belongs to a not-yet synced customer, skipping%n"));
+          journal.warning(null, remoteAddress.getId(), "CUSTOMER_NOT_SYNCED");
           continue;
         }
         PartnerAddress partnerAddress = new PartnerAddress();
@@ -124,6 +175,10 @@ public class ImportAddressServiceImpl implements ImportAddressService {
         }
       }
 
+      int action =
+          localAddress.getId() == null
+              ? IPrestaShopSyncEvent.ACTION_CREATE
+              : IPrestaShopSyncEvent.ACTION_UPDATE;
       if (localAddress == null
           || IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP.equals(localAddress.getImportOrigin())) {
         localAddress.setAddressL4(remoteAddress.getAddress1());
@@ -141,14 +196,25 @@ public class ImportAddressServiceImpl implements ImportAddressService {
         localAddress.setFullName(addressService.computeFullName(localAddress));
 
         addressRepo.save(localAddress);
+        idResolver.register(localAddress);
       } else {
         logBuffer.write("local address exists and wasn't created on PrestaShop, leaving untouched");
+        action = IPrestaShopSyncEvent.ACTION_SKIP;
       }
 
       logBuffer.write(String.format(" [SUCCESS]%n"));
+      journal.success(action, localAddress.getId(), remoteAddress.getId());
       ++done;
     }
 
+    // Records skipped by a resumed import may have been modified since, do not move past them.
+    // Same goes for a retry, which only processes previously failed records.
+    if (errors == 0 && resumeId == null && journal.isRetryMode() == false) {
+      cursorService.updateCursor(PrestashopResourceType.ADDRESSES, lastUpdateDate);
+    }
+    journal.flush();
+    transaction.finish();
+
     logBuffer.write(
         String.format("%n=== END OF ADDRESSES IMPORT, done: %d, errors: %d ===%n", done, errors));
   }
@@ -21,9 +21,12 @@ import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.base.db.ProductCategory;
 import com.axelor.apps.base.db.repo.ProductCategoryRepository;
 import com.axelor.apps.db.IPrestaShopBatch;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopProductCategory;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
@@ -36,10 +39,17 @@ import java.util.Objects;
 
 public class ImportCategoryServiceImpl implements ImportCategoryService {
   private ProductCategoryRepository productCategoryRepo;
+  private PSWebServiceClientProvider clientProvider;
+  private ImportIdResolverService idResolver;
 
   @Inject
-  public ImportCategoryServiceImpl(ProductCategoryRepository productCategoryRepo) {
+  public ImportCategoryServiceImpl(
+      ProductCategoryRepository productCategoryRepo,
+      PSWebServiceClientProvider clientProvider,
+      ImportIdResolverService idResolver) {
     this.productCategoryRepo = productCategoryRepo;
+    this.clientProvider = clientProvider;
+    this.idResolver = idResolver;
   }
 
   @Override
@@ -51,8 +61,7 @@ public class ImportCategoryServiceImpl implements ImportCategoryService {
 
     logWriter.write(String.format("%n====== PRODUCT CATEGORIES ======%n"));
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
     final List<PrestashopProductCategory> remoteCategories =
         ws.fetchAll(
             PrestashopResourceType.PRODUCT_CATEGORIES, Collections.singletonList("id_parent_ASC"));
@@ -72,7 +81,10 @@ public class ImportCategoryServiceImpl implements ImportCategoryService {
       return;
     }
 
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.PRODUCT_CATEGORIES);
     for (PrestashopProductCategory remoteCategory : remoteCategories) {
+      if (journal.isRetried(null, remoteCategory.getId()) == false) continue;
+      journal.start();
       logWriter.write(
           String.format(
               "Importing PrestaShop product category #%d (%s) – ",
@@ -80,6 +92,7 @@ public class ImportCategoryServiceImpl implements ImportCategoryService {
 
       if (remoteCategory.isRootCategory()) {
         logWriter.write(String.format("flagged as root category, ignoring [SUCCESS]%n"));
+        journal.success(IPrestaShopSyncEvent.ACTION_SKIP, null, remoteCategory.getId());
         ++done;
         continue;
       }
@@ -88,12 +101,13 @@ public class ImportCategoryServiceImpl implements ImportCategoryService {
       if (Objects.equals(remoteCategory.getParentId(), remoteRootCategory.getId())) {
         parentCategory = null;
       } else {
-        parentCategory = productCategoryRepo.findByPrestaShopId(remoteCategory.getParentId());
+        parentCategory = idResolver.find(ProductCategory.class, remoteCategory.getParentId());
         if (parentCategory == null) {
           logWriter.write(
               String.format(
                   " [WARNING] Category belongs to a not-yet synced category (%d), skipping%n",
                   remoteCategory.getParentId()));
+          journal.warning(null, remoteCategory.getId(), "PARENT_NOT_SYNCED");
           continue;
         }
       }
@@ -102,7 +116,7 @@ public class ImportCategoryServiceImpl implements ImportCategoryService {
           remoteCategory.getLinkRewrite().getTranslation(language).toUpperCase();
 
       ProductCategory localCategory =
-          productCategoryRepo.findByPrestaShopId(remoteCategory.getId());
+          idResolver.find(ProductCategory.class, remoteCategory.getId());
       if (localCategory == null) {
         localCategory = productCategoryRepo.findByCode(categoryCode);
         if (localCategory != null && localCategory.getPrestaShopId() != null) {
@@ -110,6 +124,7 @@ public class ImportCategoryServiceImpl implements ImportCategoryService {
               String.format(
                   " [ERROR] found a category with code %s but it is already bound to another PrestaShop category, skipping.%n",
                   categoryCode));
+          journal.error(localCategory.getId(), remoteCategory.getId(), "CODE_ALREADY_BOUND");
           ++errors;
           continue;
         }
@@ -119,6 +134,10 @@ public class ImportCategoryServiceImpl implements ImportCategoryService {
         localCategory.setPrestaShopId(remoteCategory.getId());
       }
 
+      int action =
+          localCategory.getId() == null
+              ? IPrestaShopSyncEvent.ACTION_CREATE
+              : IPrestaShopSyncEvent.ACTION_UPDATE;
       if (localCategory.getId() == null
           || appConfig.getPrestaShopMasterForCategories() == Boolean.TRUE) {
         localCategory.setParentProductCategory(parentCategory);
@@ -126,13 +145,17 @@ public class ImportCategoryServiceImpl implements ImportCategoryService {
         localCategory.setCode(categoryCode);
         localCategory.setImportOrigin(IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP);
         productCategoryRepo.save(localCategory);
+        idResolver.register(localCategory);
       } else {
         logWriter.write(
             "local category exists and PrestaShop isn't master for categories, leaving untouched");
+        action = IPrestaShopSyncEvent.ACTION_SKIP;
       }
       logWriter.write(String.format(" [SUCCESS]%n"));
+      journal.success(action, localCategory.getId(), remoteCategory.getId());
       ++done;
     }
+    journal.flush();
 
     logWriter.write(
         String.format(
@@ -20,9 +20,12 @@ package com.axelor.apps.prestashop.imports.service;
 import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.base.db.Country;
 import com.axelor.apps.base.db.repo.CountryRepository;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopCountry;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.google.inject.Inject;
 import com.google.inject.persist.Transactional;
@@ -37,10 +40,17 @@ public class ImportCountryServiceImpl implements ImportCountryService {
   private Logger log = LoggerFactory.getLogger(getClass());
 
   private CountryRepository countryRepo;
+  private PSWebServiceClientProvider clientProvider;
+  private ImportIdResolverService idResolver;
 
   @Inject
-  public ImportCountryServiceImpl(CountryRepository countryRepo) {
+  public ImportCountryServiceImpl(
+      CountryRepository countryRepo,
+      PSWebServiceClientProvider clientProvider,
+      ImportIdResolverService idResolver) {
     this.countryRepo = countryRepo;
+    this.clientProvider = clientProvider;
+    this.idResolver = idResolver;
   }
 
   @Override
@@ -52,21 +62,23 @@ public class ImportCountryServiceImpl implements ImportCountryService {
 
     logBuffer.write(String.format("%n====== COUNTRIES ======%n"));
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
     List<PrestashopCountry> remoteCountries = ws.fetchAll(PrestashopResourceType.COUNTRIES);
     final int language =
         (appConfig.getTextsLanguage().getPrestaShopId() == null
             ? 1
             : appConfig.getTextsLanguage().getPrestaShopId());
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.COUNTRIES);
 
     for (PrestashopCountry remoteCountry : remoteCountries) {
+      if (journal.isRetried(null, remoteCountry.getId()) == false) continue;
+      journal.start();
       logBuffer.write(
           String.format(
               "Importing country #%d (%s) – ",
               remoteCountry.getId(), remoteCountry.getName().getTranslation(language)));
 
-      Country localCountry = countryRepo.findByPrestaShopId(remoteCountry.getId());
+      Country localCountry = idResolver.find(Country.class, remoteCountry.getId());
       if (localCountry == null) {
         localCountry = countryRepo.findByAlpha2Code(remoteCountry.getIsoCode());
         if (localCountry == null) {
@@ -89,6 +101,7 @@ public class ImportCountryServiceImpl implements ImportCountryService {
               String.format(
                   " [ERROR] ISO code mismatch: %s vs %s%n",
                   remoteCountry.getIsoCode(), localCountry.getAlpha2Code()));
+          journal.error(localCountry.getId(), remoteCountry.getId(), "ISO_CODE_MISMATCH");
           ++errors;
           continue;
         }
@@ -97,6 +110,10 @@ public class ImportCountryServiceImpl implements ImportCountryService {
       // As the field is prestashop specific, always update it
       localCountry.setPrestaShopZoneId(remoteCountry.getZoneId());
 
+      int action =
+          localCountry.getId() == null
+              ? IPrestaShopSyncEvent.ACTION_CREATE
+              : IPrestaShopSyncEvent.ACTION_UPDATE;
       if (localCountry.getId() == null
           || appConfig.getPrestaShopMasterForCountries() == Boolean.TRUE) {
         localCountry.setName(remoteCountry.getName().getTranslation(language));
@@ -104,13 +121,17 @@ public class ImportCountryServiceImpl implements ImportCountryService {
           localCountry.setPhonePrefix(remoteCountry.getCallPrefix().toString());
         }
         countryRepo.save(localCountry);
+        idResolver.register(localCountry);
       } else {
         logBuffer.write(
             " – local country exists and PrestaShop isn't master for countries, leaving untouched");
+        action = IPrestaShopSyncEvent.ACTION_SKIP;
       }
       logBuffer.write(String.format(" [SUCCESS]%n"));
+      journal.success(action, localCountry.getId(), remoteCountry.getId());
       ++done;
     }
+    journal.flush();
 
     logBuffer.write(
         String.format("%n=== END OF COUNTRIES IMPORT, done: %d, errors: %d ===%n", done, errors));
@@ -23,9 +23,12 @@ import com.axelor.apps.base.db.repo.CurrencyRepository;
 import com.axelor.apps.base.service.CurrencyConversionService;
 import com.axelor.apps.base.service.CurrencyService;
 import com.axelor.apps.base.service.app.AppBaseService;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopCurrency;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.axelor.exception.AxelorException;
 import com.google.inject.Inject;
@@ -48,17 +51,23 @@ public class ImportCurrencyServiceImpl implements ImportCurrencyService {
   private AppBaseService appBaseService;
   private CurrencyService currencyService;
   private CurrencyConversionService currencyConversionService;
+  private PSWebServiceClientProvider clientProvider;
+  private ImportIdResolverService idResolver;
 
   @Inject
   public ImportCurrencyServiceImpl(
       CurrencyRepository currencyRepo,
       AppBaseService appBaseService,
       CurrencyService currencyService,
-      CurrencyConversionService currencyConversionService) {
+      CurrencyConversionService currencyConversionService,
+      PSWebServiceClientProvider clientProvider,
+      ImportIdResolverService idResolver) {
     this.currencyRepo = currencyRepo;
     this.appBaseService = appBaseService;
     this.currencyService = currencyService;
     this.currencyConversionService = currencyConversionService;
+    this.clientProvider = clientProvider;
+    this.idResolver = idResolver;
   }
 
   @Override
@@ -70,8 +79,7 @@ public class ImportCurrencyServiceImpl implements ImportCurrencyService {
 
     logBuffer.write(String.format("%n====== CURRENCIES ======%n"));
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
     // When endDate is not null, we could add a filter for date_add, date_upd (PS supports >=), but
     // as
     // we've no way of knowing which currencies have already been imported, it would imply that we
@@ -79,10 +87,13 @@ public class ImportCurrencyServiceImpl implements ImportCurrencyService {
     // never miss a run
     final List<PrestashopCurrency> remoteCurrencies =
         ws.fetchAll(PrestashopResourceType.CURRENCIES);
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.CURRENCIES);
 
     for (PrestashopCurrency remoteCurrency : remoteCurrencies) {
+      if (journal.isRetried(null, remoteCurrency.getId()) == false) continue;
+      journal.start();
       logBuffer.write("Importing currency " + remoteCurrency.getCode() + " – ");
-      Currency localCurrency = currencyRepo.findByPrestaShopId(remoteCurrency.getId());
+      Currency localCurrency = idResolver.find(Currency.class, remoteCurrency.getId());
       if (localCurrency == null) {
         localCurrency = currencyRepo.findByCode(remoteCurrency.getCode());
         if (localCurrency == null) {
@@ -105,14 +116,20 @@ public class ImportCurrencyServiceImpl implements ImportCurrencyService {
               String.format(
                   " [ERROR] ISO code mismatch: %s vs %s%n",
                   remoteCurrency.getCode(), localCurrency.getCode()));
+          journal.error(localCurrency.getId(), remoteCurrency.getId(), "ISO_CODE_MISMATCH");
           ++errors;
           continue;
         }
       }
 
+      int action =
+          localCurrency.getId() == null
+              ? IPrestaShopSyncEvent.ACTION_CREATE
+              : IPrestaShopSyncEvent.ACTION_UPDATE;
       if (appConfig.getPrestaShopMasterForCurrencies() || localCurrency.getId() == null) {
         localCurrency.setName(remoteCurrency.getName());
         currencyRepo.save(localCurrency);
+        idResolver.register(localCurrency);
         BigDecimal currentRate;
         try {
           currentRate =
@@ -138,10 +155,13 @@ public class ImportCurrencyServiceImpl implements ImportCurrencyService {
       } else {
         logBuffer.write(
             " – local currency exists and PrestaShop isn't master for currencies, leaving untouched");
+        action = IPrestaShopSyncEvent.ACTION_SKIP;
       }
       logBuffer.write(String.format(" [SUCCESS]%n"));
+      journal.success(action, localCurrency.getId(), remoteCurrency.getId());
       ++done;
     }
+    journal.flush();
 
     logBuffer.write(
         String.format("%n=== END OF CURRENCIES IMPORT, done: %d, errors: %d ===%n", done, errors));
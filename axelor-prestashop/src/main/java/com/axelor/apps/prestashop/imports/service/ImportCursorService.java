@@ -0,0 +1,47 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.imports.service;
+
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.util.Map;
+
+/** Keeps track of the last imported modification for each resource to perform delta imports. */
+public interface ImportCursorService {
+
+  /**
+   * Computes the filter restricting a fetch to entities modified since last import.
+   *
+   * @param resourceType Type of resource that will be fetched.
+   * @param endDate Reference date given to importers, <code>null</code> to request a full import.
+   * @return A filter on <code>date_upd</code>, or an empty map if everything must be imported.
+   */
+  public Map<String, String> getUpdateFilter(
+      PrestashopResourceType resourceType, ZonedDateTime endDate);
+
+  /**
+   * Records the most recent modification date imported for the given resource. Should only be
+   * called if all entities were successfully imported, so failed ones are retried on next run.
+   *
+   * @param resourceType Type of resource that has been imported.
+   * @param lastUpdateDate Most recent <code>date_upd</code> seen, nothing is done if <code>null
+   *     </code>.
+   */
+  public void updateCursor(PrestashopResourceType resourceType, LocalDateTime lastUpdateDate);
+}
@@ -0,0 +1,79 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.imports.service;
+
+import com.axelor.apps.prestashop.db.PrestaShopImportCursor;
+import com.axelor.apps.prestashop.db.repo.PrestaShopImportCursorRepository;
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.google.inject.Inject;
+import com.google.inject.persist.Transactional;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+
+public class ImportCursorServiceImpl implements ImportCursorService {
+  private static final DateTimeFormatter FORMATTER =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+  // PrestaShop has no "greater than" filter on dates, use an interval with an unreachable end
+  private static final String UPPER_BOUND = "9999-12-31 23:59:59";
+
+  private PrestaShopImportCursorRepository cursorRepo;
+
+  @Inject
+  public ImportCursorServiceImpl(PrestaShopImportCursorRepository cursorRepo) {
+    this.cursorRepo = cursorRepo;
+  }
+
+  @Override
+  public Map<String, String> getUpdateFilter(
+      PrestashopResourceType resourceType, ZonedDateTime endDate) {
+    if (endDate == null) return Collections.emptyMap();
+
+    // Cursor holds a remote date so it is not subject to clock or timezone differences. Reference
+    // date is only a fallback when no cursor exists yet and assumes shop shares our timezone.
+    final PrestaShopImportCursor cursor = cursorRepo.findByResourceType(resourceType.getLabel());
+    final LocalDateTime from =
+        cursor != null && cursor.getLastUpdateDate() != null
+            ? cursor.getLastUpdateDate()
+            : endDate.withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+
+    // Bounds are inclusive, entities updated at cursor's second are imported again which is
+    // harmless and avoids missing those modified after last run within the same second.
+    return Collections.singletonMap(
+        "date_upd", String.format("[%s,%s]", FORMATTER.format(from), UPPER_BOUND));
+  }
+
+  @Override
+  @Transactional
+  public void updateCursor(PrestashopResourceType resourceType, LocalDateTime lastUpdateDate) {
+    if (lastUpdateDate == null) return;
+    PrestaShopImportCursor cursor = cursorRepo.findByResourceType(resourceType.getLabel());
+    if (cursor == null) {
+      cursor = new PrestaShopImportCursor();
+      cursor.setResourceType(resourceType.getLabel());
+    } else if (cursor.getLastUpdateDate() != null
+        && cursor.getLastUpdateDate().isAfter(lastUpdateDate)) {
+      return;
+    }
+    cursor.setLastUpdateDate(lastUpdateDate);
+    cursorRepo.save(cursor);
+  }
+}
@@ -26,22 +26,29 @@ import com.axelor.apps.base.service.PartnerService;
 import com.axelor.apps.base.service.administration.AbstractBatch;
 import com.axelor.apps.base.service.administration.SequenceService;
 import com.axelor.apps.base.service.app.AppBaseService;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
 import com.axelor.apps.message.db.EmailAddress;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.PrestashopCustomer;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.axelor.inject.Beans;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
 import java.io.IOException;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Objects;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -51,37 +58,84 @@ public class ImportCustomerServiceImpl implements ImportCustomerService {
   private PartnerRepository partnerRepo;
   private AppBaseService appBaseService;
   private PartnerService partnerService;
+  private PSWebServiceClientProvider clientProvider;
+  private ImportCursorService cursorService;
+  private ImportIdResolverService idResolver;
 
   @Inject
   public ImportCustomerServiceImpl(
       PartnerRepository partnerRepo,
       final AppBaseService appBaseService,
-      final PartnerService partnerService) {
+      final PartnerService partnerService,
+      PSWebServiceClientProvider clientProvider,
+      ImportCursorService cursorService,
+      ImportIdResolverService idResolver) {
     this.partnerRepo = partnerRepo;
     this.appBaseService = appBaseService;
     this.partnerService = partnerService;
+    this.clientProvider = clientProvider;
+    this.cursorService = cursorService;
+    this.idResolver = idResolver;
   }
 
   @Override
-  @Transactional
   public void importCustomer(AppPrestashop appConfig, ZonedDateTime endDate, Writer logBuffer)
       throws IOException, PrestaShopWebserviceException {
+    try (ChunkedTransaction transaction =
+        new ChunkedTransaction(PrestashopResourceType.CUSTOMERS, appConfig.getChunkSize())) {
+      importCustomer(ChunkedTransaction.reattach(appConfig), endDate, logBuffer, transaction);
+    }
+  }
+
+  protected void importCustomer(
+      AppPrestashop appConfig,
+      ZonedDateTime endDate,
+      Writer logBuffer,
+      ChunkedTransaction transaction)
+      throws IOException, PrestaShopWebserviceException {
     int done = 0;
     int errors = 0;
 
     logBuffer.write(String.format("%n====== CUSTOMERS ======%n"));
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
-    final List<PrestashopCustomer> remoteCustomers = ws.fetchAll(PrestashopResourceType.CUSTOMERS);
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
+    final Map<String, String> filter =
+        new HashMap<>(cursorService.getUpdateFilter(PrestashopResourceType.CUSTOMERS, endDate));
+    final Integer resumeId = transaction.getResumeId();
+    if (resumeId != null) {
+      logBuffer.write(String.format("Resuming interrupted import after #%d%n", resumeId));
+      filter.put("id", String.format("[%d,%d]", resumeId + 1, Integer.MAX_VALUE));
+    }
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.CUSTOMERS);
+    final Iterator<PrestashopCustomer> remoteCustomers =
+        journal.isRetryMode()
+            ? journal.fetchRetried(ws, resumeId)
+            : ws.fetchPaged(
+                PrestashopResourceType.CUSTOMERS,
+                filter,
+                Collections.emptyList(),
+                PSWebServiceClient.DEFAULT_PAGE_SIZE);
+    LocalDateTime lastUpdateDate = null;
 
-    for (PrestashopCustomer remoteCustomer : remoteCustomers) {
+    while (remoteCustomers.hasNext()) {
+      final PrestashopCustomer remoteCustomer = remoteCustomers.next();
+      if (transaction.isChunkComplete()) {
+        journal.flush();
+      }
+      if (transaction.next(remoteCustomer.getId())) {
+        appConfig = ChunkedTransaction.reattach(appConfig);
+      }
+      if (remoteCustomer.getUpdateDate() != null
+          && (lastUpdateDate == null || remoteCustomer.getUpdateDate().isAfter(lastUpdateDate))) {
+        lastUpdateDate = remoteCustomer.getUpdateDate();
+      }
       logBuffer.write(
           String.format(
               "Importing customer #%d (%s) - ",
               remoteCustomer.getId(), remoteCustomer.getFullname()));
 
-      Partner localCustomer = partnerRepo.findByPrestaShopId(remoteCustomer.getId());
+      journal.start();
+      Partner localCustomer = idResolver.find(Partner.class, remoteCustomer.getId());
       if (localCustomer == null) {
         localCustomer = partnerRepo.findByRegistrationCode(remoteCustomer.getSiret());
         if (localCustomer != null && localCustomer.getPrestaShopId() != null) {
@@ -110,12 +164,17 @@ public class ImportCustomerServiceImpl implements ImportCustomerService {
               logBuffer.write(
                   String.format(
                       "No sequence configured for partners, unable to create customer, skipping [ERROR]%n"));
+              journal.error(null, remoteCustomer.getId(), "NO_PARTNER_SEQUENCE");
               continue;
             }
           }
         }
       }
 
+      int action =
+          localCustomer.getId() == null
+              ? IPrestaShopSyncEvent.ACTION_CREATE
+              : IPrestaShopSyncEvent.ACTION_UPDATE;
       if (localCustomer.getId() == null || appConfig.getPrestaShopMasterForCustomers()) {
         if (StringUtils.isNotBlank(remoteCustomer.getCompany())) {
           localCustomer.setPartnerTypeSelect(PartnerRepository.PARTNER_TYPE_COMPANY);
@@ -150,6 +209,8 @@ public class ImportCustomerServiceImpl implements ImportCustomerService {
                   logBuffer.write(
                       String.format(
                           "No sequence configured for partners, unable to import main contact, skipping [ERROR]%n"));
+                  journal.error(
+                      localCustomer.getId(), remoteCustomer.getId(), "NO_PARTNER_SEQUENCE");
                   continue;
                 }
               }
@@ -179,6 +240,7 @@ public class ImportCustomerServiceImpl implements ImportCustomerService {
         }
 
         partnerRepo.save(localCustomer);
+        idResolver.register(localCustomer);
 
         if (remoteCustomer.getAllowedOutstandingAmount() != null
             && BigDecimal.ZERO.compareTo(remoteCustomer.getAllowedOutstandingAmount()) != 0
@@ -193,12 +255,22 @@ public class ImportCustomerServiceImpl implements ImportCustomerService {
       } else {
         logBuffer.write(
             "local customer exists and PrestaShop isn't master for customers, leaving untouched");
+        action = IPrestaShopSyncEvent.ACTION_SKIP;
       }
 
       logBuffer.write(String.format(" [SUCCESS]%n"));
+      journal.success(action, localCustomer.getId(), remoteCustomer.getId());
       ++done;
     }
 
+    // Records skipped by a resumed import may have been modified since, do not move past them.
+    // Same goes for a retry, which only processes previously failed records.
+    if (errors == 0 && resumeId == null && journal.isRetryMode() == false) {
+      cursorService.updateCursor(PrestashopResourceType.CUSTOMERS, lastUpdateDate);
+    }
+    journal.flush();
+    transaction.finish();
+
     logBuffer.write(
         String.format("%n=== END OF CUSTOMERS IMPORT, done: %d, errors: %d ===%n", done, errors));
   }
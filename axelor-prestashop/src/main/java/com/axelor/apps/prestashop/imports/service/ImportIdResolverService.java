@@ -0,0 +1,57 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.imports.service;
+
+import com.axelor.db.Model;
+
+/**
+ * Resolves local entities from their PrestaShop ID without issuing a query per lookup. PrestaShop
+ * ID → local ID mappings are loaded once per entity type and batch, then kept up to date with the
+ * entities {@link #register(Model) registered} by the batch until {@link #clear()} is called.
+ * Entities are fetched by primary key which does not trigger a flush of the persistence context and
+ * hits the second level cache for cachable entities.
+ *
+ * <p>Mappings are scoped to the batch running in the current thread, so concurrent batches do not
+ * share them. IDs missing from mappings are looked up with a query, whose result is added to the
+ * mappings, as entities may be bound by someone else meanwhile. Outside of a batch, each lookup
+ * issues a query.
+ */
+public interface ImportIdResolverService {
+
+  /**
+   * Finds the local entity bound to the given PrestaShop ID.
+   *
+   * @param klass Entity class, must have a <code>prestaShopId</code> attribute.
+   * @param prestaShopId ID of the entity on PrestaShop side.
+   * @return The local entity or <code>null</code> if none is bound to this ID.
+   */
+  public <T extends Model> T find(Class<T> klass, Integer prestaShopId);
+
+  /**
+   * Binds a saved entity to its PrestaShop ID, must be called for each entity whose PrestaShop ID
+   * is set by current batch.
+   *
+   * @param entity Saved entity, must have a <code>prestaShopId</code> attribute.
+   */
+  public void register(Model entity);
+
+  /**
+   * Drops mappings of the current batch, should be called at the beginning and end of each batch.
+   */
+  public void clear();
+}
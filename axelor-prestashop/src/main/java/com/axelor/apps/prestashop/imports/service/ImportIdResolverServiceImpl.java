@@ -0,0 +1,139 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.imports.service;
+
+import com.axelor.apps.prestashop.batch.PrestaShopBatchRunner;
+import com.axelor.apps.prestashop.collections.IntLongHashMap;
+import com.axelor.db.EntityHelper;
+import com.axelor.db.JPA;
+import com.axelor.db.Model;
+import com.axelor.db.mapper.Mapper;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Singleton
+public class ImportIdResolverServiceImpl implements ImportIdResolverService {
+  private static final int LOAD_CHUNK_SIZE = 10000;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final PrestaShopBatchRunner batchRunner;
+
+  /** Mappings by batch ID, then by entity class. */
+  private final Map<Long, Map<Class<?>, IntLongHashMap>> mappingsByBatch =
+      new ConcurrentHashMap<>();
+
+  @Inject
+  public ImportIdResolverServiceImpl(PrestaShopBatchRunner batchRunner) {
+    this.batchRunner = batchRunner;
+  }
+
+  @Override
+  public <T extends Model> T find(Class<T> klass, Integer prestaShopId) {
+    if (prestaShopId == null) return null;
+
+    final IntLongHashMap mapping = getMapping(klass);
+    if (mapping == null) return query(klass, prestaShopId);
+
+    long localId;
+    synchronized (mapping) {
+      localId = mapping.get(prestaShopId);
+    }
+    if (localId != IntLongHashMap.NO_VALUE) {
+      final T entity = JPA.find(klass, localId);
+      if (entity != null) return entity;
+    }
+
+    // Entity may have been bound by something else than this batch (user, other batch…) or
+    // removed since mappings were loaded, check the database once and keep mapping up to date
+    final T entity = query(klass, prestaShopId);
+    synchronized (mapping) {
+      if (entity == null) {
+        mapping.remove(prestaShopId);
+      } else {
+        mapping.put(prestaShopId, entity.getId());
+      }
+    }
+    return entity;
+  }
+
+  private <T extends Model> T query(Class<T> klass, Integer prestaShopId) {
+    return JPA.all(klass).filter("self.prestaShopId = ?", prestaShopId).fetchOne();
+  }
+
+  @Override
+  public void register(Model entity) {
+    final Class<? extends Model> klass = EntityHelper.getEntityClass(entity);
+    final Integer prestaShopId = (Integer) Mapper.of(klass).get(entity, "prestaShopId");
+    if (entity.getId() == null || prestaShopId == null) return;
+    final IntLongHashMap mapping = getMapping(klass);
+    if (mapping == null) return;
+    synchronized (mapping) {
+      mapping.put(prestaShopId, entity.getId());
+    }
+  }
+
+  @Override
+  public void clear() {
+    final Long batchId = batchRunner.getCurrentBatchId();
+    if (batchId != null) {
+      mappingsByBatch.remove(batchId);
+    }
+  }
+
+  /** @return Mappings of current batch for the given class, <code>null</code> if not in a batch. */
+  private IntLongHashMap getMapping(Class<?> klass) {
+    final Long batchId = batchRunner.getCurrentBatchId();
+    if (batchId == null) return null;
+    return mappingsByBatch
+        .computeIfAbsent(batchId, id -> new ConcurrentHashMap<>())
+        .computeIfAbsent(klass, this::load);
+  }
+
+  private IntLongHashMap load(Class<?> klass) {
+    final IntLongHashMap mapping = new IntLongHashMap();
+    final String jpql =
+        String.format(
+            "SELECT self.id, self.prestaShopId FROM %s self "
+                + "WHERE self.prestaShopId IS NOT NULL AND self.id > :lastId ORDER BY self.id",
+            klass.getSimpleName());
+
+    long lastId = 0;
+    List<Object[]> rows;
+    do {
+      rows =
+          JPA.em()
+              .createQuery(jpql, Object[].class)
+              .setParameter("lastId", lastId)
+              .setMaxResults(LOAD_CHUNK_SIZE)
+              .getResultList();
+      for (Object[] row : rows) {
+        lastId = (Long) row[0];
+        mapping.put((Integer) row[1], lastId);
+      }
+    } while (rows.size() == LOAD_CHUNK_SIZE);
+
+    log.debug("Loaded {} PrestaShop ID mappings for {}", mapping.size(), klass.getSimpleName());
+    return mapping;
+  }
+}
@@ -29,20 +29,20 @@ import com.axelor.apps.base.db.Currency;
 import com.axelor.apps.base.db.Partner;
 import com.axelor.apps.base.db.PartnerAddress;
 import com.axelor.apps.base.db.Product;
-import com.axelor.apps.base.db.repo.AddressRepository;
-import com.axelor.apps.base.db.repo.CurrencyRepository;
-import com.axelor.apps.base.db.repo.PartnerRepository;
 import com.axelor.apps.base.db.repo.PriceListLineRepository;
 import com.axelor.apps.base.db.repo.ProductRepository;
 import com.axelor.apps.base.service.AddressService;
 import com.axelor.apps.base.service.administration.AbstractBatch;
 import com.axelor.apps.db.IPrestaShopBatch;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.db.PrestashopOrderStatusCacheEntry;
-import com.axelor.apps.prestashop.db.repo.PrestashopOrderStatusCacheEntryRepository;
 import com.axelor.apps.prestashop.entities.PrestashopOrder;
 import com.axelor.apps.prestashop.entities.PrestashopOrderRowDetails;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.axelor.apps.sale.db.SaleOrder;
 import com.axelor.apps.sale.db.SaleOrderLine;
@@ -61,17 +61,30 @@ import com.axelor.exception.AxelorException;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
 import com.axelor.inject.Beans;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
 import java.io.IOException;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -79,12 +92,7 @@ import org.slf4j.LoggerFactory;
 public class ImportOrderServiceImpl implements ImportOrderService {
   private final Logger log = LoggerFactory.getLogger(getClass());
 
-  private AddressRepository addressRepo;
-  private CurrencyRepository currencyRepo;
-  private PartnerRepository partnerRepo;
   private PaymentConditionRepository paymentConditionRepo;
-  private PrestashopOrderStatusCacheEntryRepository statusRepo;
-  private ProductRepository productRepository;
   private SaleOrderRepository saleOrderRepo;
 
   private AccountingSituationService accountingSituationService;
@@ -98,15 +106,13 @@ public class ImportOrderServiceImpl implements ImportOrderService {
   private SaleOrderStockService deliveryService;
   private SaleOrderWorkflowService saleOrderWorkflowService;
   private StockMoveService stockMoveService;
+  private PSWebServiceClientProvider clientProvider;
+  private ImportCursorService cursorService;
+  private ImportIdResolverService idResolver;
 
   @Inject
   public ImportOrderServiceImpl(
-      AddressRepository addressRepo,
-      CurrencyRepository currencyRepo,
-      PartnerRepository partnerRepo,
       PaymentConditionRepository paymentConditionRepo,
-      PrestashopOrderStatusCacheEntryRepository statusRepo,
-      ProductRepository productRepository,
       SaleOrderRepository saleOrderRepo,
       AccountingSituationService accountingSituationService,
       AddressService addressService,
@@ -118,13 +124,11 @@ public class ImportOrderServiceImpl implements ImportOrderService {
       SaleOrderLineService saleOrderLineService,
       SaleOrderStockService deliveryService,
       SaleOrderWorkflowService saleOrderWorkflowService,
-      StockMoveService stockMoveService) {
-    this.addressRepo = addressRepo;
-    this.currencyRepo = currencyRepo;
-    this.partnerRepo = partnerRepo;
+      StockMoveService stockMoveService,
+      PSWebServiceClientProvider clientProvider,
+      ImportCursorService cursorService,
+      ImportIdResolverService idResolver) {
     this.paymentConditionRepo = paymentConditionRepo;
-    this.statusRepo = statusRepo;
-    this.productRepository = productRepository;
     this.saleOrderRepo = saleOrderRepo;
     this.accountingSituationService = accountingSituationService;
     this.addressService = addressService;
@@ -137,12 +141,38 @@ public class ImportOrderServiceImpl implements ImportOrderService {
     this.deliveryService = deliveryService;
     this.saleOrderWorkflowService = saleOrderWorkflowService;
     this.stockMoveService = stockMoveService;
+    this.clientProvider = clientProvider;
+    this.cursorService = cursorService;
+    this.idResolver = idResolver;
   }
 
   @Override
-  @Transactional
   public void importOrder(AppPrestashop appConfig, ZonedDateTime endDate, Writer logWriter)
       throws IOException, PrestaShopWebserviceException {
+    final ExecutorService executor = createPrefetchExecutor(appConfig);
+    // Each order is imported in its own transaction, so a failure only discards this order
+    try (ChunkedTransaction transaction =
+        new ChunkedTransaction(PrestashopResourceType.ORDERS, 1)) {
+      importOrder(
+          ChunkedTransaction.reattach(appConfig),
+          endDate,
+          logWriter,
+          transaction,
+          executor,
+          appConfig.getOrderPrefetchSize() == null ? 0 : appConfig.getOrderPrefetchSize());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  protected void importOrder(
+      AppPrestashop appConfig,
+      ZonedDateTime endDate,
+      Writer logWriter,
+      ChunkedTransaction transaction,
+      ExecutorService executor,
+      int prefetchSize)
+      throws IOException, PrestaShopWebserviceException {
     int done = 0;
     int errors = 0;
 
@@ -156,389 +186,465 @@ public class ImportOrderServiceImpl implements ImportOrderService {
     // - either the option prestaShopMasterForOrders is disabled and we only update the content
     //   of order (only if there is no local payment nor invoice).
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
-
-    // TODO For huge sites, it could be useful to window this as prestashop web services supports
-    // it.
-    final List<PrestashopOrder> remoteOrders = ws.fetchAll(PrestashopResourceType.ORDERS);
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
 
-    for (PrestashopOrder remoteOrder : remoteOrders) {
+    final Map<String, String> filter =
+        new HashMap<>(cursorService.getUpdateFilter(PrestashopResourceType.ORDERS, endDate));
+    final Integer resumeId = transaction.getResumeId();
+    if (resumeId != null) {
+      logWriter.write(String.format("Resuming interrupted import after #%d%n", resumeId));
+      filter.put("id", String.format("[%d,%d]", resumeId + 1, Integer.MAX_VALUE));
+    }
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.ORDERS);
+    final Iterator<PrestashopOrder> remoteOrders =
+        journal.isRetryMode()
+            ? journal.fetchRetried(ws, resumeId)
+            : ws.fetchPaged(
+                PrestashopResourceType.ORDERS,
+                filter,
+                Collections.emptyList(),
+                PSWebServiceClient.DEFAULT_PAGE_SIZE);
+    LocalDateTime lastUpdateDate = null;
+
+    final OrderPrefetcher orders = new OrderPrefetcher(ws, remoteOrders, executor, prefetchSize);
+    while (orders.hasNext()) {
+      final PrefetchedOrder order = orders.next();
+      final PrestashopOrder remoteOrder = order.remoteOrder;
+      if (transaction.isChunkComplete()) {
+        journal.flush();
+      }
+      if (transaction.next(remoteOrder.getId())) {
+        appConfig = ChunkedTransaction.reattach(appConfig);
+      }
+      if (remoteOrder.getUpdateDate() != null
+          && (lastUpdateDate == null || remoteOrder.getUpdateDate().isAfter(lastUpdateDate))) {
+        lastUpdateDate = remoteOrder.getUpdateDate();
+      }
       logWriter.write(
           String.format(
               "Importing order #%d (%s)", remoteOrder.getId(), remoteOrder.getReference()));
 
-      final Partner customer = partnerRepo.findByPrestaShopId(remoteOrder.getCustomerId());
-      if (customer == null) {
-        logWriter.write(
-            String.format(" [WARNING] order belongs to a not yet synced customer, skpping%n"));
-        ++errors;
-        continue;
-      }
-      final Currency localCurrency = currencyRepo.findByPrestaShopId(remoteOrder.getCurrencyId());
-      if (localCurrency == null) {
-        logWriter.write(
-            String.format(" [WARNING] order refers to a not yet synced currency, skpping%n"));
-        ++errors;
-        continue;
+      journal.start();
+      switch (importOrder(appConfig, order, logWriter)) {
+        case DONE:
+          journal.success(
+              order.created
+                  ? IPrestaShopSyncEvent.ACTION_CREATE
+                  : IPrestaShopSyncEvent.ACTION_UPDATE,
+              order.localOrderId,
+              remoteOrder.getId());
+          ++done;
+          break;
+        case FAILED:
+          // Do not keep a half imported order, it will be imported again on next run
+          transaction.rollback();
+          journal.error(null, remoteOrder.getId(), "IMPORT_FAILED");
+          ++errors;
+          break;
+        default:
+          journal.success(IPrestaShopSyncEvent.ACTION_SKIP, null, remoteOrder.getId());
+          break;
       }
+    }
 
-      final PrestashopOrderStatusCacheEntry localStatus =
-          statusRepo.findByPrestaShopId(remoteOrder.getCurrentState());
-      if (localStatus == null) {
-        logWriter.write(String.format(" [WARNING] order status is unknown locally, skipping%n"));
-        ++errors;
-        continue;
-      }
+    // Records skipped by a resumed import may have been modified since, do not move past them.
+    // Same goes for a retry, which only processes previously failed records.
+    if (errors == 0 && resumeId == null && journal.isRetryMode() == false) {
+      cursorService.updateCursor(PrestashopResourceType.ORDERS, lastUpdateDate);
+    }
+    journal.flush();
+    transaction.finish();
 
-      final Address localDeliveryAddress =
-          addressRepo.findByPrestaShopId(remoteOrder.getDeliveryAddressId());
-      if (localDeliveryAddress == null) {
+    logWriter.write(
+        String.format("%n=== END OF ORDERS IMPORT, done: %d, errors: %d ===%n", done, errors));
+  }
+
+  /**
+   * Imports a single order. Caller is responsible for discarding pending work if import failed, as
+   * order may have been partially created or updated.
+   */
+  private OrderImportResult importOrder(
+      final AppPrestashop appConfig, final PrefetchedOrder order, final Writer logWriter)
+      throws IOException, PrestaShopWebserviceException {
+    final PrestashopOrder remoteOrder = order.remoteOrder;
+
+    final Partner customer = idResolver.find(Partner.class, remoteOrder.getCustomerId());
+    if (customer == null) {
+      logWriter.write(
+          String.format(" [WARNING] order belongs to a not yet synced customer, skpping%n"));
+      return OrderImportResult.FAILED;
+    }
+    final Currency localCurrency = idResolver.find(Currency.class, remoteOrder.getCurrencyId());
+    if (localCurrency == null) {
+      logWriter.write(
+          String.format(" [WARNING] order refers to a not yet synced currency, skpping%n"));
+      return OrderImportResult.FAILED;
+    }
+
+    final PrestashopOrderStatusCacheEntry localStatus =
+        idResolver.find(PrestashopOrderStatusCacheEntry.class, remoteOrder.getCurrentState());
+    if (localStatus == null) {
+      logWriter.write(String.format(" [WARNING] order status is unknown locally, skipping%n"));
+      return OrderImportResult.FAILED;
+    }
+
+    final Address localDeliveryAddress =
+        idResolver.find(Address.class, remoteOrder.getDeliveryAddressId());
+    if (localDeliveryAddress == null) {
+      logWriter.write(
+          String.format(" [WARNING] order refers to a not yet synced delivery address, skpping%n"));
+      return OrderImportResult.FAILED;
+    }
+
+    final Address localInvoicingAddress =
+        idResolver.find(Address.class, remoteOrder.getInvoiceAddressId());
+    if (localInvoicingAddress == null) {
+      logWriter.write(
+          String.format(
+              " [WARNING] order refers to a not yet synced invoicing address, skpping%n"));
+      return OrderImportResult.FAILED;
+    }
+
+    SaleOrder localOrder = idResolver.find(SaleOrder.class, remoteOrder.getId());
+    order.created = localOrder == null;
+    if (localOrder == null) {
+      try {
+        localOrder =
+            saleOrderCreateService.createSaleOrder(
+                null,
+                AbstractBatch.getCurrentBatch().getPrestaShopBatch().getCompany(),
+                null,
+                localCurrency,
+                null,
+                null,
+                remoteOrder.getReference(),
+                remoteOrder.getAddDate().toLocalDate(),
+                null,
+                customer,
+                null);
+      } catch (AxelorException ae) {
+        TraceBackService.trace(
+            ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
         logWriter.write(
             String.format(
-                " [WARNING] order refers to a not yet synced delivery address, skpping%n"));
-        ++errors;
-        continue;
+                " [ERROR] An error occured while creating sale order %s: %s%n",
+                remoteOrder.getReference(), ae.getLocalizedMessage()));
+        log.error(
+            String.format(
+                "An error occured while creating sale order %s: %s",
+                remoteOrder.getReference(), ae.getLocalizedMessage()));
+        return OrderImportResult.FAILED;
       }
+      localOrder.setPrestaShopId(remoteOrder.getId());
+      localOrder.setImportOrigin(IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP);
+      localOrder.setPrintingSettings(localOrder.getCompany().getPrintingSettings());
+    }
 
-      final Address localInvoicingAddress =
-          addressRepo.findByPrestaShopId(remoteOrder.getInvoiceAddressId());
-      if (localInvoicingAddress == null) {
-        logWriter.write(
-            String.format(
-                " [WARNING] order refers to a not yet synced invoicing address, skpping%n"));
-        ++errors;
-        continue;
+    if (localOrder.getId() == null || appConfig.getPrestaShopMasterForOrders()) {
+      // Let' populate base data
+      localOrder.setDeliveryAddress(localDeliveryAddress);
+      localOrder.setDeliveryAddressStr(addressService.computeAddressStr(localDeliveryAddress));
+      localOrder.setMainInvoicingAddress(localInvoicingAddress);
+      localOrder.setMainInvoicingAddressStr(
+          addressService.computeAddressStr(localInvoicingAddress));
+
+      boolean deliveryAddressFound = false;
+      boolean invoicingAddressFound = false;
+      for (ListIterator<PartnerAddress> it = customer.getPartnerAddressList().listIterator();
+          deliveryAddressFound == false && invoicingAddressFound && it.hasNext(); ) {
+        PartnerAddress partnerAddress = it.next();
+        if (partnerAddress.getAddress().getId() == localDeliveryAddress.getId()) {
+          partnerAddress.setIsDeliveryAddr(Boolean.TRUE);
+          deliveryAddressFound = true;
+        }
+        if (partnerAddress.getAddress().getId() == localInvoicingAddress.getId()) {
+          partnerAddress.setIsInvoicingAddr(Boolean.TRUE);
+          invoicingAddressFound = true;
+        }
+      }
+      if (deliveryAddressFound == false) {
+        PartnerAddress partnerAddress = new PartnerAddress();
+        partnerAddress.setPartner(customer);
+        partnerAddress.setAddress(localDeliveryAddress);
+        partnerAddress.setIsDeliveryAddr(Boolean.TRUE);
+        customer.addPartnerAddressListItem(partnerAddress);
+        if (localDeliveryAddress.equals(localInvoicingAddress)) {
+          partnerAddress.setIsInvoicingAddr(Boolean.TRUE);
+        }
+      }
+      if (invoicingAddressFound == false
+          && localInvoicingAddress.equals(localDeliveryAddress) == false) {
+        PartnerAddress partnerAddress = new PartnerAddress();
+        partnerAddress.setPartner(customer);
+        partnerAddress.setAddress(localDeliveryAddress);
+        partnerAddress.setIsInvoicingAddr(Boolean.TRUE);
+        customer.addPartnerAddressListItem(partnerAddress);
+      }
+
+      PaymentCondition localPaymentCondition =
+          paymentConditionRepo.findByName(remoteOrder.getPayment());
+      if (localPaymentCondition == null) {
+        localPaymentCondition = paymentConditionRepo.findByCode(remoteOrder.getPayment());
+        if (localPaymentCondition == null)
+          localPaymentCondition = appConfig.getDefaultPaymentCondition();
+      }
+      localOrder.setPaymentCondition(localPaymentCondition);
+
+      // Maybe we should compute this from lines…
+      localOrder.setExTaxTotal(
+          remoteOrder.getTotalPaidTaxExcluded().setScale(2, RoundingMode.HALF_UP));
+      localOrder.setInTaxTotal(
+          remoteOrder.getTotalPaidTaxIncluded().setScale(2, RoundingMode.HALF_UP));
+      localOrder.setTaxTotal(
+          remoteOrder
+              .getTotalDiscountsTaxIncluded()
+              .subtract(remoteOrder.getTotalDiscountsTaxExcluded())
+              .setScale(2, RoundingMode.HALF_UP));
+      if (localOrder.getTaxTotal().compareTo(BigDecimal.ZERO) < 0)
+        localOrder.setTaxTotal(BigDecimal.ZERO);
+      localOrder.setCreationDate(remoteOrder.getAddDate().toLocalDate());
+      localOrder.setOrderDate(remoteOrder.getAddDate().toLocalDate());
+      localOrder.setExternalReference(remoteOrder.getReference());
+      localOrder.setCompanyBankDetails(
+          accountingSituationService.getCompanySalesBankDetails(
+              AbstractBatch.getCurrentBatch().getPrestaShopBatch().getCompany(),
+              localOrder.getClientPartner()));
+
+      // FIXME handle mapping between payment modes and modules (remoteOrder.getModule())
+      localOrder.setPaymentMode(appConfig.getDefaultPaymentMode());
+      localOrder.setCompany(AbstractBatch.getCurrentBatch().getPrestaShopBatch().getCompany());
+      localOrder.setCurrency(localCurrency);
+
+      if (importLines(appConfig, order, localOrder, logWriter) == false) {
+        return OrderImportResult.FAILED;
       }
 
-      SaleOrder localOrder = saleOrderRepo.findByPrestaShopId(remoteOrder.getId());
-      if (localOrder == null) {
+      // Now handle status, this is rather complicated since PrestaShop status also handle
+      // invoicing, payment and delivery
+      if (localOrder.getStatusSelect() == SaleOrderRepository.STATUS_DRAFT_QUOTATION) {
         try {
-          localOrder =
-              saleOrderCreateService.createSaleOrder(
-                  null,
-                  AbstractBatch.getCurrentBatch().getPrestaShopBatch().getCompany(),
-                  null,
-                  localCurrency,
-                  null,
-                  null,
-                  remoteOrder.getReference(),
-                  remoteOrder.getAddDate().toLocalDate(),
-                  null,
-                  customer,
-                  null);
+          // Note that in case of taxes mismatch, this will probably blow everything up
+          saleOrderComputeService.computeSaleOrder(localOrder);
         } catch (AxelorException ae) {
           TraceBackService.trace(
               ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
           logWriter.write(
               String.format(
-                  " [ERROR] An error occured while creating sale order %s: %s%n",
-                  remoteOrder.getReference(), ae.getLocalizedMessage()));
+                  " [ERROR] An error occured while computing sale order elements: %s%n",
+                  ae.getLocalizedMessage()));
           log.error(
               String.format(
-                  "An error occured while creating sale order %s: %s",
-                  remoteOrder.getReference(), ae.getLocalizedMessage()));
-          continue;
-        }
-        localOrder.setPrestaShopId(remoteOrder.getId());
-        localOrder.setImportOrigin(IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP);
-        localOrder.setPrintingSettings(localOrder.getCompany().getPrintingSettings());
-      }
-
-      if (localOrder.getId() == null || appConfig.getPrestaShopMasterForOrders()) {
-        // Let' populate base data
-        localOrder.setDeliveryAddress(localDeliveryAddress);
-        localOrder.setDeliveryAddressStr(addressService.computeAddressStr(localDeliveryAddress));
-        localOrder.setMainInvoicingAddress(localInvoicingAddress);
-        localOrder.setMainInvoicingAddressStr(
-            addressService.computeAddressStr(localInvoicingAddress));
-
-        boolean deliveryAddressFound = false;
-        boolean invoicingAddressFound = false;
-        for (ListIterator<PartnerAddress> it = customer.getPartnerAddressList().listIterator();
-            deliveryAddressFound == false && invoicingAddressFound && it.hasNext(); ) {
-          PartnerAddress partnerAddress = it.next();
-          if (partnerAddress.getAddress().getId() == localDeliveryAddress.getId()) {
-            partnerAddress.setIsDeliveryAddr(Boolean.TRUE);
-            deliveryAddressFound = true;
-          }
-          if (partnerAddress.getAddress().getId() == localInvoicingAddress.getId()) {
-            partnerAddress.setIsInvoicingAddr(Boolean.TRUE);
-            invoicingAddressFound = true;
-          }
-        }
-        if (deliveryAddressFound == false) {
-          PartnerAddress partnerAddress = new PartnerAddress();
-          partnerAddress.setPartner(customer);
-          partnerAddress.setAddress(localDeliveryAddress);
-          partnerAddress.setIsDeliveryAddr(Boolean.TRUE);
-          customer.addPartnerAddressListItem(partnerAddress);
-          if (localDeliveryAddress.equals(localInvoicingAddress)) {
-            partnerAddress.setIsInvoicingAddr(Boolean.TRUE);
-          }
-        }
-        if (invoicingAddressFound == false
-            && localInvoicingAddress.equals(localDeliveryAddress) == false) {
-          PartnerAddress partnerAddress = new PartnerAddress();
-          partnerAddress.setPartner(customer);
-          partnerAddress.setAddress(localDeliveryAddress);
-          partnerAddress.setIsInvoicingAddr(Boolean.TRUE);
-          customer.addPartnerAddressListItem(partnerAddress);
-        }
-
-        PaymentCondition localPaymentCondition =
-            paymentConditionRepo.findByName(remoteOrder.getPayment());
-        if (localPaymentCondition == null) {
-          localPaymentCondition = paymentConditionRepo.findByCode(remoteOrder.getPayment());
-          if (localPaymentCondition == null)
-            localPaymentCondition = appConfig.getDefaultPaymentCondition();
-        }
-        localOrder.setPaymentCondition(localPaymentCondition);
-
-        // Maybe we should compute this from lines…
-        localOrder.setExTaxTotal(
-            remoteOrder.getTotalPaidTaxExcluded().setScale(2, RoundingMode.HALF_UP));
-        localOrder.setInTaxTotal(
-            remoteOrder.getTotalPaidTaxIncluded().setScale(2, RoundingMode.HALF_UP));
-        localOrder.setTaxTotal(
-            remoteOrder
-                .getTotalDiscountsTaxIncluded()
-                .subtract(remoteOrder.getTotalDiscountsTaxExcluded())
-                .setScale(2, RoundingMode.HALF_UP));
-        if (localOrder.getTaxTotal().compareTo(BigDecimal.ZERO) < 0)
-          localOrder.setTaxTotal(BigDecimal.ZERO);
-        localOrder.setCreationDate(remoteOrder.getAddDate().toLocalDate());
-        localOrder.setOrderDate(remoteOrder.getAddDate().toLocalDate());
-        localOrder.setExternalReference(remoteOrder.getReference());
-        localOrder.setCompanyBankDetails(
-            accountingSituationService.getCompanySalesBankDetails(
-                AbstractBatch.getCurrentBatch().getPrestaShopBatch().getCompany(),
-                localOrder.getClientPartner()));
-
-        // FIXME handle mapping between payment modes and modules (remoteOrder.getModule())
-        localOrder.setPaymentMode(appConfig.getDefaultPaymentMode());
-        localOrder.setCompany(AbstractBatch.getCurrentBatch().getPrestaShopBatch().getCompany());
-        localOrder.setCurrency(localCurrency);
-
-        if (importLines(appConfig, ws, remoteOrder, localOrder, logWriter) == false) {
-          continue;
+                  "An error occured while computing sale order #%d elements (PS #%d)",
+                  localOrder.getId(), remoteOrder.getId()),
+              ae);
+          return OrderImportResult.FAILED;
         }
 
-        // Now handle status, this is rather complicated since PrestaShop status also handle
-        // invoicing, payment and delivery
-        if (localOrder.getStatusSelect() == SaleOrderRepository.STATUS_DRAFT_QUOTATION) {
-          try {
-            // Note that in case of taxes mismatch, this will probably blow everything up
-            saleOrderComputeService.computeSaleOrder(localOrder);
-          } catch (AxelorException ae) {
-            TraceBackService.trace(
-                ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
-            logWriter.write(
-                String.format(
-                    " [ERROR] An error occured while computing sale order elements: %s%n",
-                    ae.getLocalizedMessage()));
-            log.error(
-                String.format(
-                    "An error occured while computing sale order #%d elements (PS #%d)",
-                    localOrder.getId(), remoteOrder.getId()),
-                ae);
-            continue;
-          }
-
-          // Consider this as finalized, draft would be a cart without order, unhandled right now
-          localOrder.setManualUnblock(Boolean.TRUE);
-          try {
-            saleOrderWorkflowService.finalizeQuotation(localOrder);
-          } catch (AxelorException ae) {
-            TraceBackService.trace(
-                ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
-            logWriter.write(
-                String.format(
-                    " [ERROR] An error occured while finalizing sale order: %s%n",
-                    ae.getLocalizedMessage()));
-            log.error(
-                String.format(
-                    "An error occured while finalizing sale order #%d (PS #%d)",
-                    localOrder.getId(), remoteOrder.getId()),
-                ae);
-            continue;
-          }
-          // Nothing to deleted as we've a new order
+        // Consider this as finalized, draft would be a cart without order, unhandled right now
+        localOrder.setManualUnblock(Boolean.TRUE);
+        try {
+          saleOrderWorkflowService.finalizeQuotation(localOrder);
+        } catch (AxelorException ae) {
+          TraceBackService.trace(
+              ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
+          logWriter.write(
+              String.format(
+                  " [ERROR] An error occured while finalizing sale order: %s%n",
+                  ae.getLocalizedMessage()));
+          log.error(
+              String.format(
+                  "An error occured while finalizing sale order #%d (PS #%d)",
+                  localOrder.getId(), remoteOrder.getId()),
+              ae);
+          return OrderImportResult.FAILED;
         }
-        saleOrderRepo.save(localOrder);
-        localOrder = saleOrderRepo.find(localOrder.getId());
+        // Nothing to deleted as we've a new order
+      }
+      saleOrderRepo.save(localOrder);
+      idResolver.register(localOrder);
+      localOrder = saleOrderRepo.find(localOrder.getId());
+    } else {
+      if (IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP.equals(localOrder.getImportOrigin()) == false) {
+        // Avoid round trips
+        logWriter.write(
+            String.format(
+                " - PrestaShop isn't master for orders and local order hasn't been imported from it, skipping [SUCCESS]%n"));
+        return OrderImportResult.SKIPPED;
       } else {
-        if (IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP.equals(localOrder.getImportOrigin())
-            == false) {
-          // Avoid round trips
+        // OK so order exists, we've to see if we need to update something
+        if (remoteOrder.getTotalPaidTaxIncluded().compareTo(localOrder.getInTaxTotal()) != 0) {
           logWriter.write(
               String.format(
-                  " - PrestaShop isn't master for orders and local order hasn't been imported from it, skipping [SUCCESS]%n"));
-          continue;
-        } else {
-          // OK so order exists, we've to see if we need to update something
-          if (remoteOrder.getTotalPaidTaxIncluded().compareTo(localOrder.getInTaxTotal()) != 0) {
+                  " - Remote and local order total differs (%f vs %f)",
+                  remoteOrder.getTotalPaidTaxIncluded(), localOrder.getInTaxTotal()));
+          if ((localOrder.getStatusSelect() != SaleOrderRepository.STATUS_DRAFT_QUOTATION
+                  && localOrder.getStatusSelect() != SaleOrderRepository.STATUS_FINALIZED_QUOTATION)
+              || localOrder.getDeliveryState() != SaleOrderRepository.DELIVERY_STATE_DELIVERED
+              || (localOrder.getAmountInvoiced() == null
+                  || BigDecimal.ZERO.compareTo(localOrder.getAmountInvoiced()) != 0)) {
+            final String additionalComment =
+                I18n.get(
+                    "<p>WARNING: Order has been modified on PrestaShop but could not be updated locally.</p>");
+            if (localOrder.getInternalNote() == null
+                || localOrder.getInternalNote().indexOf(additionalComment) < 0) {
+              localOrder.setInternalNote(
+                  (localOrder.getInternalNote() == null ? "" : localOrder.getInternalNote())
+                      + additionalComment);
+            }
             logWriter.write(
                 String.format(
-                    " - Remote and local order total differs (%f vs %f)",
-                    remoteOrder.getTotalPaidTaxIncluded(), localOrder.getInTaxTotal()));
-            if ((localOrder.getStatusSelect() != SaleOrderRepository.STATUS_DRAFT_QUOTATION
-                    && localOrder.getStatusSelect()
-                        != SaleOrderRepository.STATUS_FINALIZED_QUOTATION)
-                || localOrder.getDeliveryState() != SaleOrderRepository.DELIVERY_STATE_DELIVERED
-                || (localOrder.getAmountInvoiced() == null
-                    || BigDecimal.ZERO.compareTo(localOrder.getAmountInvoiced()) != 0)) {
-              final String additionalComment =
-                  I18n.get(
-                      "<p>WARNING: Order has been modified on PrestaShop but could not be updated locally.</p>");
-              if (localOrder.getInternalNote() == null
-                  || localOrder.getInternalNote().indexOf(additionalComment) < 0) {
-                localOrder.setInternalNote(
-                    (localOrder.getInternalNote() == null ? "" : localOrder.getInternalNote())
-                        + additionalComment);
-              }
-              logWriter.write(
-                  String.format(
-                      " - Order status does not allow updates anymore, skipping (status: %d, delivery status: %d, amount invoiced: %f [ERROR]%n",
-                      localOrder.getStatusSelect(),
-                      localOrder.getDeliveryState(),
-                      localOrder.getAmountInvoiced()));
-              continue;
-            } else {
-              // TODO Maybe we should do this more smoothly
-              localOrder.clearSaleOrderLineList();
-              if (importLines(appConfig, ws, remoteOrder, localOrder, logWriter) == false) {
-                continue;
-              }
+                    " - Order status does not allow updates anymore, skipping (status: %d, delivery status: %d, amount invoiced: %f [ERROR]%n",
+                    localOrder.getStatusSelect(),
+                    localOrder.getDeliveryState(),
+                    localOrder.getAmountInvoiced()));
+            return OrderImportResult.SKIPPED;
+          } else {
+            // TODO Maybe we should do this more smoothly
+            localOrder.clearSaleOrderLineList();
+            if (importLines(appConfig, order, localOrder, logWriter) == false) {
+              return OrderImportResult.FAILED;
             }
           }
         }
       }
+    }
 
-      if ((localStatus.getPaid()
-              || localStatus.getDelivered()
-              || localStatus.getInvoiced()
-              || localStatus.getShipped())
-          && localOrder.getStatusSelect() == SaleOrderRepository.STATUS_FINALIZED_QUOTATION) {
-        // Order has been paid or invoiced, it means it's confirmed
-        localOrder.setManualUnblock(Boolean.TRUE);
+    if ((localStatus.getPaid()
+            || localStatus.getDelivered()
+            || localStatus.getInvoiced()
+            || localStatus.getShipped())
+        && localOrder.getStatusSelect() == SaleOrderRepository.STATUS_FINALIZED_QUOTATION) {
+      // Order has been paid or invoiced, it means it's confirmed
+      localOrder.setManualUnblock(Boolean.TRUE);
+      try {
+        saleOrderWorkflowService.confirmSaleOrder(localOrder);
+      } catch (AxelorException ae) {
+        TraceBackService.trace(
+            ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
+        logWriter.write(
+            String.format(
+                " [ERROR] An error occured while confirming sale order: %s%n",
+                ae.getLocalizedMessage()));
+        log.error(
+            String.format(
+                "An error occured while finalizing or confirming sale order #%d (PS #%d)",
+                localOrder.getId(), remoteOrder.getId()),
+            ae);
+        return OrderImportResult.FAILED;
+      }
+    }
+
+    // If we end up here, we've a local sale order with lines matching the remote one
+    // Let's see if we've more to to
+    if (localStatus.getInvoiced()) {
+      if (BigDecimal.ZERO.compareTo(localOrder.getAmountInvoiced()) == 0) {
         try {
-          saleOrderWorkflowService.confirmSaleOrder(localOrder);
+          Invoice invoice =
+              saleOrderInvoiceService.generateInvoice(
+                  localOrder, SaleOrderRepository.INVOICE_ALL, null, false, null);
+          invoice.setImportOrigin(IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP);
+          invoice.setPrintingSettings(localOrder.getPrintingSettings());
+          invoiceService.ventilate(invoice);
         } catch (AxelorException ae) {
           TraceBackService.trace(
               ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
           logWriter.write(
               String.format(
-                  " [ERROR] An error occured while confirming sale order: %s%n",
+                  " [ERROR] An error occured while generating invoice for sale order: %s%n",
                   ae.getLocalizedMessage()));
           log.error(
               String.format(
-                  "An error occured while finalizing or confirming sale order #%d (PS #%d)",
+                  "An error occured while generating invoice for sale order #%d (PS #%d)",
                   localOrder.getId(), remoteOrder.getId()),
               ae);
-          continue;
-        }
-      }
-
-      // If we end up here, we've a local sale order with lines matching the remote one
-      // Let's see if we've more to to
-      if (localStatus.getInvoiced()) {
-        if (BigDecimal.ZERO.compareTo(localOrder.getAmountInvoiced()) == 0) {
-          try {
-            Invoice invoice =
-                saleOrderInvoiceService.generateInvoice(
-                    localOrder, SaleOrderRepository.INVOICE_ALL, null, false, null);
-            invoice.setImportOrigin(IPrestaShopBatch.IMPORT_ORIGIN_PRESTASHOP);
-            invoice.setPrintingSettings(localOrder.getPrintingSettings());
-            invoiceService.ventilate(invoice);
-          } catch (AxelorException ae) {
-            TraceBackService.trace(
-                ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
-            logWriter.write(
-                String.format(
-                    " [ERROR] An error occured while generating invoice for sale order: %s%n",
-                    ae.getLocalizedMessage()));
-            log.error(
-                String.format(
-                    "An error occured while generating invoice for sale order #%d (PS #%d)",
-                    localOrder.getId(), remoteOrder.getId()),
-                ae);
-            continue;
-          }
+          return OrderImportResult.FAILED;
         }
       }
+    }
 
-      // Currently, all statuses with paid mean invoiced too, but to cover all cases
-      // we should register an advance payment in case of paid but not invoiced
-      if (localStatus.getPaid()) {
-        List<Invoice> invoices = saleOrderInvoiceService.getInvoices(localOrder);
-        if (invoices.size() != 1) {
-          logWriter.write(
-              String.format(
-                  " [WARNING] Found %d invoice(s) for this order, cannot record payment (exactly one invoice needed), skipping payment creation%n",
-                  invoices.size()));
-        } else {
-          Invoice invoice = invoices.get(0);
-          if (BigDecimal.ZERO.compareTo(invoice.getAmountPaid()) == 0) {
-            invoicePaymentCreateService.createInvoicePayment(
-                invoice, invoice.getCompanyBankDetails());
-          }
+    // Currently, all statuses with paid mean invoiced too, but to cover all cases
+    // we should register an advance payment in case of paid but not invoiced
+    if (localStatus.getPaid()) {
+      List<Invoice> invoices = saleOrderInvoiceService.getInvoices(localOrder);
+      if (invoices.size() != 1) {
+        logWriter.write(
+            String.format(
+                " [WARNING] Found %d invoice(s) for this order, cannot record payment (exactly one invoice needed), skipping payment creation%n",
+                invoices.size()));
+      } else {
+        Invoice invoice = invoices.get(0);
+        if (BigDecimal.ZERO.compareTo(invoice.getAmountPaid()) == 0) {
+          invoicePaymentCreateService.createInvoicePayment(
+              invoice, invoice.getCompanyBankDetails());
         }
       }
+    }
 
-      if (localStatus.getShipped()) {
-        if (localOrder.getDeliveryState() == SaleOrderRepository.DELIVERY_STATE_NOT_DELIVERED) {
-          localOrder.setDeliveryDate(remoteOrder.getDeliveryDate().toLocalDate());
-          try {
-            List<Long> stockMoveIds = deliveryService.createStocksMovesFromSaleOrder(localOrder);
-
-            for (Long stockMoveId : stockMoveIds) {
-              StockMove delivery = Beans.get(StockMoveRepository.class).find(stockMoveId);
-              stockMoveService.realize(delivery, true);
-              for (SaleOrderLine line : localOrder.getSaleOrderLineList()) {
-                if (ProductRepository.PRODUCT_TYPE_SERVICE.equals(
-                    line.getProduct().getProductTypeSelect())) {
-                  line.setDeliveryState(SaleOrderRepository.DELIVERY_STATE_DELIVERED);
-                }
+    if (localStatus.getShipped()) {
+      if (localOrder.getDeliveryState() == SaleOrderRepository.DELIVERY_STATE_NOT_DELIVERED) {
+        localOrder.setDeliveryDate(remoteOrder.getDeliveryDate().toLocalDate());
+        try {
+          List<Long> stockMoveIds = deliveryService.createStocksMovesFromSaleOrder(localOrder);
+
+          for (Long stockMoveId : stockMoveIds) {
+            StockMove delivery = Beans.get(StockMoveRepository.class).find(stockMoveId);
+            stockMoveService.realize(delivery, true);
+            for (SaleOrderLine line : localOrder.getSaleOrderLineList()) {
+              if (ProductRepository.PRODUCT_TYPE_SERVICE.equals(
+                  line.getProduct().getProductTypeSelect())) {
+                line.setDeliveryState(SaleOrderRepository.DELIVERY_STATE_DELIVERED);
               }
             }
-            localOrder.setDeliveryState(SaleOrderRepository.DELIVERY_STATE_DELIVERED);
-          } catch (AxelorException ae) {
-            TraceBackService.trace(
-                ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
-            logWriter.write(
-                String.format(
-                    " [ERROR] An error occured while generating delivery for sale order: %s%n",
-                    ae.getLocalizedMessage()));
-            log.error(
-                String.format(
-                    "An error occured while generating delivery for sale order #%d (PS #%d)",
-                    localOrder.getId(), remoteOrder.getId()),
-                ae);
-            continue;
           }
+          localOrder.setDeliveryState(SaleOrderRepository.DELIVERY_STATE_DELIVERED);
+        } catch (AxelorException ae) {
+          TraceBackService.trace(
+              ae, I18n.get("Prestashop order import"), AbstractBatch.getCurrentBatchId());
+          logWriter.write(
+              String.format(
+                  " [ERROR] An error occured while generating delivery for sale order: %s%n",
+                  ae.getLocalizedMessage()));
+          log.error(
+              String.format(
+                  "An error occured while generating delivery for sale order #%d (PS #%d)",
+                  localOrder.getId(), remoteOrder.getId()),
+              ae);
+          return OrderImportResult.FAILED;
         }
       }
-
-      logWriter.write(String.format(" [SUCCESS]%n"));
-      ++done;
     }
 
-    logWriter.write(
-        String.format("%n=== END OF ORDERS IMPORT, done: %d, errors: %d ===%n", done, errors));
+    logWriter.write(String.format(" [SUCCESS]%n"));
+    order.localOrderId = localOrder.getId();
+    return OrderImportResult.DONE;
+  }
+
+  /**
+   * Creates the pool used to fetch details of upcoming orders, details are fetched directly if
+   * prefetch is disabled.
+   */
+  private ExecutorService createPrefetchExecutor(AppPrestashop appConfig) {
+    final Integer prefetchSize = appConfig.getOrderPrefetchSize();
+    if (prefetchSize == null || prefetchSize <= 0) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    // Only remote fetches are run by these threads, orders are imported on the batch thread
+    return Executors.newFixedThreadPool(
+        1 + prefetchSize / PSWebServiceClient.MAX_FILTER_VALUES,
+        new ThreadFactoryBuilder()
+            .setNameFormat("prestashop-order-prefetch-%d")
+            .setDaemon(true)
+            .build());
   }
 
   private boolean importLines(
       final AppPrestashop appConfig,
-      final PSWebServiceClient ws,
-      final PrestashopOrder remoteOrder,
+      final PrefetchedOrder order,
       final SaleOrder localOrder,
       final Writer logWriter)
       throws IOException, PrestaShopWebserviceException {
-    List<PrestashopOrderRowDetails> remoteLines =
-        ws.fetch(
-            PrestashopResourceType.ORDER_DETAILS,
-            Collections.singletonMap("id_order", remoteOrder.getId().toString()));
+    final PrestashopOrder remoteOrder = order.remoteOrder;
+    final List<PrestashopOrderRowDetails> remoteLines = order.getDetails();
     // There is absolutely no documentation on the meaning of fields on prestathop side
     // so we compute total from lines, compare it to the total paid and add a discount product
     // if needed
@@ -546,7 +652,7 @@ public class ImportOrderServiceImpl implements ImportOrderService {
 
     for (PrestashopOrderRowDetails remoteLine : remoteLines) {
       try {
-        final Product product = productRepository.findByPrestaShopId(remoteLine.getProductId());
+        final Product product = idResolver.find(Product.class, remoteLine.getProductId());
         if (product == null) {
           logWriter.write(
               String.format(
@@ -695,4 +801,112 @@ public class ImportOrderServiceImpl implements ImportOrderService {
     }
     return true;
   }
+
+  private enum OrderImportResult {
+    /** Order has been imported. */
+    DONE,
+    /** Order has been deliberately left untouched, pending work must be kept. */
+    SKIPPED,
+    /** Order could not be imported, pending work must be discarded. */
+    FAILED
+  }
+
+  /** Remote order along with its details, which may still be being fetched. */
+  private static class PrefetchedOrder {
+    private final PrestashopOrder remoteOrder;
+    /** Details of all orders fetched along with this one, by order ID. */
+    private final Future<Map<Integer, List<PrestashopOrderRowDetails>>> groupDetails;
+    /** Whether local order has been created by import, set once it has been resolved. */
+    private boolean created;
+    /** ID of the local order, set once order has been imported. */
+    private Long localOrderId;
+
+    private PrefetchedOrder(
+        final PrestashopOrder remoteOrder,
+        final Future<Map<Integer, List<PrestashopOrderRowDetails>>> groupDetails) {
+      this.remoteOrder = remoteOrder;
+      this.groupDetails = groupDetails;
+    }
+
+    private List<PrestashopOrderRowDetails> getDetails() throws PrestaShopWebserviceException {
+      try {
+        final List<PrestashopOrderRowDetails> details = groupDetails.get().get(remoteOrder.getId());
+        return details == null ? Collections.emptyList() : details;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PrestaShopWebserviceException(e.getMessage(), e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof PrestaShopWebserviceException) {
+          throw (PrestaShopWebserviceException) e.getCause();
+        }
+        throw new PrestaShopWebserviceException(e.getCause().getMessage(), e.getCause());
+      }
+    }
+  }
+
+  /**
+   * Iterates over remote orders, starting to fetch details of the following ones so they are
+   * available once previous orders have been imported. Details are fetched for groups of orders, in
+   * a single request per group.
+   */
+  private static class OrderPrefetcher implements Iterator<PrefetchedOrder> {
+    private final PSWebServiceClient ws;
+    private final Iterator<PrestashopOrder> remoteOrders;
+    private final ExecutorService executor;
+    private final int prefetchSize;
+    private final Deque<PrefetchedOrder> window = new ArrayDeque<>();
+
+    private OrderPrefetcher(
+        final PSWebServiceClient ws,
+        final Iterator<PrestashopOrder> remoteOrders,
+        final ExecutorService executor,
+        final int prefetchSize) {
+      this.ws = ws;
+      this.remoteOrders = remoteOrders;
+      this.executor = executor;
+      this.prefetchSize = prefetchSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+      fill();
+      return window.isEmpty() == false;
+    }
+
+    @Override
+    public PrefetchedOrder next() {
+      fill();
+      if (window.isEmpty()) throw new NoSuchElementException();
+      return window.poll();
+    }
+
+    private void fill() {
+      while (window.size() <= prefetchSize && remoteOrders.hasNext()) {
+        final List<PrestashopOrder> group = new ArrayList<>(PSWebServiceClient.MAX_FILTER_VALUES);
+        while (group.size() < PSWebServiceClient.MAX_FILTER_VALUES && remoteOrders.hasNext()) {
+          group.add(remoteOrders.next());
+        }
+        final Future<Map<Integer, List<PrestashopOrderRowDetails>>> groupDetails =
+            executor.submit(() -> fetchDetails(group));
+        for (PrestashopOrder remoteOrder : group) {
+          window.add(new PrefetchedOrder(remoteOrder, groupDetails));
+        }
+      }
+    }
+
+    private Map<Integer, List<PrestashopOrderRowDetails>> fetchDetails(
+        final List<PrestashopOrder> group) throws PrestaShopWebserviceException {
+      final List<Integer> orderIds = new ArrayList<>(group.size());
+      for (PrestashopOrder remoteOrder : group) {
+        orderIds.add(remoteOrder.getId());
+      }
+      final Map<Integer, List<PrestashopOrderRowDetails>> detailsByOrder = new HashMap<>();
+      for (PrestashopOrderRowDetails row :
+          ws.<PrestashopOrderRowDetails>fetchAny(
+              PrestashopResourceType.ORDER_DETAILS, "id_order", orderIds)) {
+        detailsByOrder.computeIfAbsent(row.getOrderId(), id -> new ArrayList<>()).add(row);
+      }
+      return detailsByOrder;
+    }
+  }
 }
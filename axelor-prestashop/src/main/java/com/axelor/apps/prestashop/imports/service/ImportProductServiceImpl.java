@@ -22,37 +22,50 @@ import com.axelor.apps.base.db.Currency;
 import com.axelor.apps.base.db.Product;
 import com.axelor.apps.base.db.ProductCategory;
 import com.axelor.apps.base.db.Unit;
-import com.axelor.apps.base.db.repo.ProductCategoryRepository;
 import com.axelor.apps.base.db.repo.ProductRepository;
 import com.axelor.apps.base.service.CurrencyService;
 import com.axelor.apps.base.service.UnitConversionService;
 import com.axelor.apps.base.service.administration.AbstractBatch;
 import com.axelor.apps.base.service.app.AppBaseService;
+import com.axelor.apps.db.IPrestaShopSyncEvent;
+import com.axelor.apps.prestashop.batch.ChunkedTransaction;
+import com.axelor.apps.prestashop.batch.SyncJournal;
 import com.axelor.apps.prestashop.entities.Associations.AvailableStocksAssociationsEntry;
 import com.axelor.apps.prestashop.entities.PrestashopProduct;
 import com.axelor.apps.prestashop.entities.PrestashopProductCategory;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.axelor.apps.prestashop.exports.service.ContentHash;
 import com.axelor.apps.prestashop.exports.service.ExportProductServiceImpl;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.axelor.exception.AxelorException;
 import com.axelor.meta.MetaFiles;
 import com.google.common.base.Objects;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import com.google.inject.persist.Transactional;
-import java.io.ByteArrayInputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import org.apache.commons.io.IOUtils;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,63 +75,119 @@ public class ImportProductServiceImpl implements ImportProductService {
   private Logger log = LoggerFactory.getLogger(getClass());
 
   private MetaFiles metaFiles;
-  private ProductCategoryRepository productCategoryRepo;
   private ProductRepository productRepo;
   private CurrencyService currencyService;
   private UnitConversionService unitConversionService;
+  private PSWebServiceClientProvider clientProvider;
+  private ImportCursorService cursorService;
+  private ImportIdResolverService idResolver;
 
   @Inject
   public ImportProductServiceImpl(
       MetaFiles metaFiles,
-      ProductCategoryRepository productCategoryRepo,
       ProductRepository productRepo,
       CurrencyService currencyService,
-      UnitConversionService unitConversionService) {
+      UnitConversionService unitConversionService,
+      PSWebServiceClientProvider clientProvider,
+      ImportCursorService cursorService,
+      ImportIdResolverService idResolver) {
     this.metaFiles = metaFiles;
-    this.productCategoryRepo = productCategoryRepo;
     this.productRepo = productRepo;
     this.currencyService = currencyService;
     this.unitConversionService = unitConversionService;
+    this.clientProvider = clientProvider;
+    this.cursorService = cursorService;
+    this.idResolver = idResolver;
   }
 
   @Override
-  @Transactional
   public void importProduct(AppPrestashop appConfig, ZonedDateTime endDate, Writer logWriter)
       throws IOException, PrestaShopWebserviceException {
+    final ExecutorService executor = createPictureDownloadExecutor(appConfig);
+    try (ChunkedTransaction transaction =
+        new ChunkedTransaction(PrestashopResourceType.PRODUCTS, appConfig.getChunkSize())) {
+      importProduct(
+          ChunkedTransaction.reattach(appConfig), endDate, logWriter, transaction, executor);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  protected void importProduct(
+      AppPrestashop appConfig,
+      ZonedDateTime endDate,
+      Writer logWriter,
+      ChunkedTransaction transaction,
+      ExecutorService executor)
+      throws IOException, PrestaShopWebserviceException {
     int done = 0;
     int errors = 0;
 
     log.debug("Starting PrestaShop products import");
     logWriter.write(String.format("%n====== PRODUCTS ======%n"));
 
-    final PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
+    final PSWebServiceClient ws = clientProvider.getClient(appConfig);
 
     final PrestashopProductCategory remoteRootCategory =
         ws.fetchOne(
             PrestashopResourceType.PRODUCT_CATEGORIES,
             Collections.singletonMap("is_root_category", "1"));
-    final List<PrestashopProduct> remoteProducts = ws.fetchAll(PrestashopResourceType.PRODUCTS);
+    final Map<String, String> filter =
+        new HashMap<>(cursorService.getUpdateFilter(PrestashopResourceType.PRODUCTS, endDate));
+    final Integer resumeId = transaction.getResumeId();
+    if (resumeId != null) {
+      logWriter.write(String.format("Resuming interrupted import after #%d%n", resumeId));
+      filter.put("id", String.format("[%d,%d]", resumeId + 1, Integer.MAX_VALUE));
+    }
+    final SyncJournal journal = new SyncJournal(PrestashopResourceType.PRODUCTS);
+    final Iterator<PrestashopProduct> remoteProducts =
+        journal.isRetryMode()
+            ? journal.fetchRetried(ws, resumeId)
+            : ws.fetchPaged(
+                PrestashopResourceType.PRODUCTS,
+                filter,
+                Collections.emptyList(),
+                PSWebServiceClient.DEFAULT_PAGE_SIZE);
+    LocalDateTime lastUpdateDate = null;
 
-    final Currency defaultCurrency =
+    Currency defaultCurrency =
         AbstractBatch.getCurrentBatch().getPrestaShopBatch().getCompany().getCurrency();
     final int language =
         (appConfig.getTextsLanguage().getPrestaShopId() == null
             ? 1
             : appConfig.getTextsLanguage().getPrestaShopId());
 
-    for (PrestashopProduct remoteProduct : remoteProducts) {
+    // Pictures are downloaded in background and stored before each commit, so products are
+    // updated in the transaction they have been loaded in
+    final List<PictureDownload> downloads = new ArrayList<>();
+
+    while (remoteProducts.hasNext()) {
+      final PrestashopProduct remoteProduct = remoteProducts.next();
+      if (transaction.isChunkComplete()) {
+        applyPictureDownloads(downloads, logWriter);
+        journal.flush();
+      }
+      if (transaction.next(remoteProduct.getId())) {
+        appConfig = ChunkedTransaction.reattach(appConfig);
+        defaultCurrency = ChunkedTransaction.reattach(defaultCurrency);
+      }
+      if (remoteProduct.getUpdateDate() != null
+          && (lastUpdateDate == null || remoteProduct.getUpdateDate().isAfter(lastUpdateDate))) {
+        lastUpdateDate = remoteProduct.getUpdateDate();
+      }
       logWriter.write(
           String.format(
               "Importing product %s (%s) – ",
               remoteProduct.getReference(), remoteProduct.getName().getTranslation(language)));
 
+      journal.start();
       try {
         if (PrestashopProduct.PRODUCT_TYPE_PACK.equals(remoteProduct.getType())) {
           // Warning, if ever handled, you'll have to handle them in order management too
           logWriter.write(
               String.format(
                   "[ERROR] Product is a pack, this is not handled right now, skipping%n"));
+          journal.error(null, remoteProduct.getId(), "PACK_NOT_SUPPORTED");
           continue;
         }
 
@@ -131,6 +200,7 @@ public class ImportProductServiceImpl implements ImportProductService {
           logWriter.write(
               String.format(
                   "[ERROR] Product seems to have variants, these are not handled right now, skipping%n"));
+          journal.error(null, remoteProduct.getId(), "VARIANTS_NOT_SUPPORTED");
           ++errors;
           continue;
         }
@@ -139,17 +209,18 @@ public class ImportProductServiceImpl implements ImportProductService {
 
         if (remoteProduct.getDefaultCategoryId() != null
             && remoteProduct.getDefaultCategoryId() != remoteRootCategory.getId()) {
-          category = productCategoryRepo.findByPrestaShopId(remoteProduct.getDefaultCategoryId());
+          category = idResolver.find(ProductCategory.class, remoteProduct.getDefaultCategoryId());
           if (category == null) {
             logWriter.write(
                 String.format(
                     "[WARNING] Product belongs to a not yet synced category, skipping%n"));
+            journal.warning(null, remoteProduct.getId(), "CATEGORY_NOT_SYNCED");
             ++errors;
             continue;
           }
         }
 
-        Product localProduct = productRepo.findByPrestaShopId(remoteProduct.getId());
+        Product localProduct = idResolver.find(Product.class, remoteProduct.getId());
         if (localProduct == null) {
           localProduct = productRepo.findByCode(remoteProduct.getReference());
 
@@ -158,6 +229,7 @@ public class ImportProductServiceImpl implements ImportProductService {
                 String.format(
                     "[ERROR] Found product by code (%s) but it already has a PrestaShop ID, skipping%n",
                     remoteProduct.getReference()));
+            journal.error(localProduct.getId(), remoteProduct.getId(), "CODE_ALREADY_BOUND");
             ++errors;
             continue;
           }
@@ -169,6 +241,10 @@ public class ImportProductServiceImpl implements ImportProductService {
           }
         }
 
+        int action =
+            localProduct.getId() == null
+                ? IPrestaShopSyncEvent.ACTION_CREATE
+                : IPrestaShopSyncEvent.ACTION_UPDATE;
         if (localProduct.getId() == null
             || appConfig.getPrestaShopMasterForProducts() == Boolean.TRUE) {
           localProduct.setProductTypeSelect(
@@ -248,25 +324,24 @@ public class ImportProductServiceImpl implements ImportProductService {
                   remoteProduct.getDepth(),
                   localProduct));
 
-          if (remoteProduct.getDefaultImageId() != null && remoteProduct.getDefaultImageId() != 0) {
+          localProduct = productRepo.save(localProduct);
+          idResolver.register(localProduct);
+
+          final Integer remoteImageId = remoteProduct.getDefaultImageId();
+          if (remoteImageId != null && remoteImageId != 0) {
             try {
-              byte[] remoteImage =
-                  ws.fetchImage(
-                      PrestashopResourceType.PRODUCTS,
-                      remoteProduct,
-                      remoteProduct.getDefaultImageId());
-              if (localProduct.getPicture() == null) {
-                localProduct.setPicture(
-                    metaFiles.upload(
-                        new ByteArrayInputStream(remoteImage),
-                        "prestashop-product-" + remoteProduct.getId() + ".png"));
-              } else {
-                // OK so now we've two choices: reading, comparing, writing if different… or just
-                // write
-                File target = MetaFiles.getPath(localProduct.getPicture()).toFile();
-                try (FileOutputStream fos = new FileOutputStream(target)) {
-                  IOUtils.write(remoteImage, fos);
-                }
+              String localDigest = null;
+              if (localProduct.getPicture() != null
+                  && Files.exists(MetaFiles.getPath(localProduct.getPicture()))) {
+                localDigest = ContentHash.digest(MetaFiles.getPath(localProduct.getPicture()));
+              }
+              // Neither side changed since last synchronization, avoid downloading picture again
+              if (localDigest == null
+                  || localDigest.equals(localProduct.getPrestaShopImageDigest()) == false
+                  || remoteImageId.equals(localProduct.getPrestaShopRemoteImageId()) == false) {
+                downloads.add(
+                    new PictureDownload(localProduct, remoteImageId, localDigest)
+                        .start(ws, remoteProduct, executor));
               }
             } catch (IOException ioe) {
               logWriter.write(
@@ -279,13 +354,16 @@ public class ImportProductServiceImpl implements ImportProductService {
               metaFiles.delete(localProduct.getPicture());
               localProduct.setPicture(null);
             }
+            localProduct.setPrestaShopImageDigest(null);
+            localProduct.setPrestaShopRemoteImageId(null);
           }
-          productRepo.save(localProduct);
         } else {
           logWriter.write(
               "local product exists and PrestaShop is not master for products, leaving untouched");
+          action = IPrestaShopSyncEvent.ACTION_SKIP;
         }
         logWriter.write(String.format(" [SUCCESS]%n"));
+        journal.success(action, localProduct.getId(), remoteProduct.getId());
         ++done;
       } catch (AxelorException e) {
         logWriter.write(
@@ -296,14 +374,146 @@ public class ImportProductServiceImpl implements ImportProductService {
                 "Exception while synchronizing product %s (%s)",
                 remoteProduct.getReference(), remoteProduct.getName().getTranslation(language)),
             e);
+        journal.error(null, remoteProduct.getId(), "EXCEPTION");
         ++errors;
       }
     }
 
+    applyPictureDownloads(downloads, logWriter);
+
+    // Records skipped by a resumed import may have been modified since, do not move past them.
+    // Same goes for a retry, which only processes previously failed records.
+    if (errors == 0 && resumeId == null && journal.isRetryMode() == false) {
+      cursorService.updateCursor(PrestashopResourceType.PRODUCTS, lastUpdateDate);
+    }
+    journal.flush();
+    transaction.finish();
+
     logWriter.write(
         String.format("%n=== END OF PRODUCTS Import, done: %d, errors: %d ===%n", done, errors));
   }
 
+  /**
+   * Creates the pool used to download pictures, downloads are run directly if parallel download is
+   * disabled.
+   */
+  private ExecutorService createPictureDownloadExecutor(AppPrestashop appConfig) {
+    final Integer concurrency = appConfig.getImageDownloadConcurrency();
+    if (concurrency == null || concurrency <= 1) {
+      return MoreExecutors.newDirectExecutorService();
+    }
+    return Executors.newFixedThreadPool(
+        concurrency,
+        new ThreadFactoryBuilder()
+            .setNameFormat("prestashop-image-download-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  /**
+   * Waits for pending downloads and stores pictures on their products. Picture file is left
+   * untouched if downloaded content is the same as the local one.
+   */
+  private void applyPictureDownloads(final List<PictureDownload> downloads, final Writer logWriter)
+      throws IOException {
+    for (PictureDownload download : downloads) {
+      final Product localProduct = download.localProduct;
+      Path file = null;
+      try {
+        file = download.get();
+        final String digest = ContentHash.digest(file);
+        if (localProduct.getPicture() == null) {
+          localProduct.setPicture(metaFiles.upload(file.toFile()));
+        } else if (digest.equals(download.localDigest) == false) {
+          // Downloaded next to the picture, so this just renames it
+          Files.move(
+              file,
+              MetaFiles.getPath(localProduct.getPicture()),
+              StandardCopyOption.REPLACE_EXISTING);
+          file = null;
+        }
+        localProduct.setPrestaShopImageDigest(digest);
+        localProduct.setPrestaShopRemoteImageId(download.remoteImageId);
+      } catch (IOException | PrestaShopWebserviceException e) {
+        logWriter.write(
+            String.format(
+                "Fetching picture of product %s – [WARNING] %s%n",
+                localProduct.getCode(), e.getLocalizedMessage()));
+        log.error(
+            String.format("Exception while fetching picture of product %s", localProduct.getCode()),
+            e);
+      } finally {
+        if (file != null) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+    downloads.clear();
+  }
+
+  /** Download of a product picture, which may still be in progress. */
+  private static class PictureDownload {
+    private final Product localProduct;
+    private final int remoteImageId;
+    /** Digest of the local picture when download was requested, <code>null</code> if none. */
+    private final String localDigest;
+    /** Directory to download to, <code>null</code> for the default temporary directory. */
+    private final Path directory;
+
+    private Future<Path> pendingFile;
+
+    private PictureDownload(Product localProduct, int remoteImageId, String localDigest) {
+      this.localProduct = localProduct;
+      this.remoteImageId = remoteImageId;
+      this.localDigest = localDigest;
+      this.directory =
+          localProduct.getPicture() == null
+              ? null
+              : MetaFiles.getPath(localProduct.getPicture()).toAbsolutePath().getParent();
+    }
+
+    private PictureDownload start(
+        final PSWebServiceClient ws,
+        final PrestashopProduct remoteProduct,
+        final ExecutorService executor) {
+      pendingFile = executor.submit(() -> download(ws, remoteProduct));
+      return this;
+    }
+
+    private Path download(final PSWebServiceClient ws, final PrestashopProduct remoteProduct)
+        throws IOException, PrestaShopWebserviceException {
+      final Path file =
+          directory == null
+              ? Files.createTempFile("prestashop-product-" + remoteProduct.getId(), ".png")
+              : Files.createTempFile(directory, ".prestashop-image-", ".tmp");
+      try {
+        ws.fetchImage(PrestashopResourceType.PRODUCTS, remoteProduct, remoteImageId, file);
+      } catch (PrestaShopWebserviceException | RuntimeException e) {
+        Files.deleteIfExists(file);
+        throw e;
+      }
+      return file;
+    }
+
+    /** @return Downloaded file, to be deleted or moved by the caller. */
+    private Path get() throws IOException, PrestaShopWebserviceException {
+      try {
+        return pendingFile.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PrestaShopWebserviceException(e.getMessage(), e);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        if (e.getCause() instanceof PrestaShopWebserviceException) {
+          throw (PrestaShopWebserviceException) e.getCause();
+        }
+        throw new PrestaShopWebserviceException(e.getCause().getMessage(), e.getCause());
+      }
+    }
+  }
+
   /** @see ExportProductServiceImpl#convert */
   private BigDecimal convert(Unit from, Unit to, BigDecimal value, Product product)
       throws AxelorException {
@@ -36,6 +36,10 @@ import com.axelor.apps.prestashop.exports.service.ExportOrderService;
 import com.axelor.apps.prestashop.exports.service.ExportOrderServiceImpl;
 import com.axelor.apps.prestashop.exports.service.ExportProductService;
 import com.axelor.apps.prestashop.exports.service.ExportProductServiceImpl;
+import com.axelor.apps.prestashop.exports.service.ExportStockService;
+import com.axelor.apps.prestashop.exports.service.ExportStockServiceImpl;
+import com.axelor.apps.prestashop.exports.service.StockSnapshotService;
+import com.axelor.apps.prestashop.exports.service.StockSnapshotServiceImpl;
 import com.axelor.apps.prestashop.imports.PrestaShopServiceImport;
 import com.axelor.apps.prestashop.imports.PrestaShopServiceImportImpl;
 import com.axelor.apps.prestashop.imports.service.ImportAddressService;
@@ -46,14 +50,22 @@ import com.axelor.apps.prestashop.imports.service.ImportCountryService;
 import com.axelor.apps.prestashop.imports.service.ImportCountryServiceImpl;
 import com.axelor.apps.prestashop.imports.service.ImportCurrencyService;
 import com.axelor.apps.prestashop.imports.service.ImportCurrencyServiceImpl;
+import com.axelor.apps.prestashop.imports.service.ImportCursorService;
+import com.axelor.apps.prestashop.imports.service.ImportCursorServiceImpl;
 import com.axelor.apps.prestashop.imports.service.ImportCustomerService;
 import com.axelor.apps.prestashop.imports.service.ImportCustomerServiceImpl;
+import com.axelor.apps.prestashop.imports.service.ImportIdResolverService;
+import com.axelor.apps.prestashop.imports.service.ImportIdResolverServiceImpl;
 import com.axelor.apps.prestashop.imports.service.ImportMetaDataService;
 import com.axelor.apps.prestashop.imports.service.ImportMetaDataServiceImpl;
 import com.axelor.apps.prestashop.imports.service.ImportOrderService;
 import com.axelor.apps.prestashop.imports.service.ImportOrderServiceImpl;
 import com.axelor.apps.prestashop.imports.service.ImportProductService;
 import com.axelor.apps.prestashop.imports.service.ImportProductServiceImpl;
+import com.axelor.apps.prestashop.service.library.JmxMetricsRegistry;
+import com.axelor.apps.prestashop.service.library.PSMetricsRegistry;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProviderImpl;
 
 public class PrestaShopModule extends AxelorModule {
 
@@ -68,6 +80,8 @@ public class PrestaShopModule extends AxelorModule {
     bind(ExportAddressService.class).to(ExportAddressServiceImpl.class);
     bind(ExportCategoryService.class).to(ExportCategoryServiceImpl.class);
     bind(ExportProductService.class).to(ExportProductServiceImpl.class);
+    bind(ExportStockService.class).to(ExportStockServiceImpl.class);
+    bind(StockSnapshotService.class).to(StockSnapshotServiceImpl.class);
     bind(ExportOrderService.class).to(ExportOrderServiceImpl.class);
 
     bind(ImportCurrencyService.class).to(ImportCurrencyServiceImpl.class);
@@ -78,5 +92,10 @@ public class PrestaShopModule extends AxelorModule {
     bind(ImportProductService.class).to(ImportProductServiceImpl.class);
     bind(ImportOrderService.class).to(ImportOrderServiceImpl.class);
     bind(ImportMetaDataService.class).to(ImportMetaDataServiceImpl.class);
+    bind(ImportCursorService.class).to(ImportCursorServiceImpl.class);
+    bind(ImportIdResolverService.class).to(ImportIdResolverServiceImpl.class);
+
+    bind(PSWebServiceClientProvider.class).to(PSWebServiceClientProviderImpl.class);
+    bind(PSMetricsRegistry.class).to(JmxMetricsRegistry.class);
   }
 }
@@ -17,6 +17,7 @@
  */
 package com.axelor.apps.prestashop.service.imports.batch;
 
+import com.axelor.apps.base.db.Batch;
 import com.axelor.apps.base.db.repo.AppPrestashopRepository;
 import com.axelor.apps.base.service.administration.AbstractBatch;
 import com.axelor.apps.prestashop.batch.PrestaShopBatchService;
@@ -25,6 +26,7 @@ import com.axelor.apps.prestashop.exception.IExceptionMessage;
 import com.axelor.apps.prestashop.imports.PrestaShopServiceImport;
 import com.axelor.exception.service.TraceBackService;
 import com.axelor.i18n.I18n;
+import com.axelor.meta.db.MetaFile;
 import java.lang.invoke.MethodHandles;
 import java.time.ZonedDateTime;
 import javax.inject.Inject;
@@ -53,16 +55,34 @@ public class ImportPrestaShop extends AbstractBatch {
     try {
       PrestaShopBatch prestaShopBatch = (PrestaShopBatch) model;
 
-      ZonedDateTime referenceDate = batchService.getLastSuccessfullRunStartDate(prestaShopBatch);
+      // No reference date means everything has to be imported
+      ZonedDateTime referenceDate =
+          Boolean.TRUE.equals(prestaShopBatch.getFullResync())
+              ? null
+              : batchService.getLastSuccessfullRunStartDate(prestaShopBatch);
       if (LOG.isDebugEnabled()) {
         LOG.debug("Starting import from PrestaShop to ABS with reference date {}", referenceDate);
       }
+
+      final Batch previousRun = batchService.getPreviousRun(prestaShopBatch, batch);
+      if (previousRun != null && previousRun.getPrestaShopCheckpointResource() != null) {
+        LOG.info(
+            "Previous run was interrupted while importing {}, resuming after #{}",
+            previousRun.getPrestaShopCheckpointResource(),
+            previousRun.getPrestaShopCheckpointId());
+        batch.setPrestaShopCheckpointResource(previousRun.getPrestaShopCheckpointResource());
+        batch.setPrestaShopCheckpointId(previousRun.getPrestaShopCheckpointId());
+        checkPoint();
+      }
+
       prestaShopServiceImport.importFromPrestaShop(
           appRepository.all().fetchOne(), referenceDate, batch);
 
+      reloadBatch();
       checkPoint(); // cannot call save directly as we've no transaction
       incrementDone();
     } catch (Exception e) {
+      reloadBatch();
       TraceBackService.trace(e, "Prestashop import batch", batch.getId());
       LOG.error(
           String.format(
@@ -72,6 +92,16 @@ public class ImportPrestaShop extends AbstractBatch {
     }
   }
 
+  /**
+   * Import commits its work by chunks, which updates resume information on batch and detaches our
+   * instance: reload it so these updates are not overwritten.
+   */
+  private void reloadBatch() {
+    final MetaFile logFile = batch.getPrestaShopBatchLog();
+    findBatch();
+    batch.setPrestaShopBatchLog(logFile);
+  }
+
   @Override
   protected void stop() {
     super.stop();
@@ -0,0 +1,545 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.prestashop.entities.ListContainer;
+import com.axelor.apps.prestashop.entities.Prestashop;
+import com.axelor.apps.prestashop.entities.PrestashopContainerEntity;
+import com.axelor.apps.prestashop.entities.PrestashopIdentifiableEntity;
+import com.axelor.apps.prestashop.entities.PrestashopImage;
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClient.Options;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.http.Consts;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.auth.AuthenticationException;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.impl.auth.BasicScheme;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking counterpart of {@link PSWebServiceClient}: calls return immediately with a future
+ * completed once the shop answered, so a handful of I/O threads can keep many requests in flight.
+ * Entities are mapped the same way as with the blocking client, requests are throttled by the same
+ * kind of {@link RateLimiter} and failed calls are retried according to a {@link RetryPolicy},
+ * without holding any thread while waiting.
+ *
+ * <p>Futures fail with a {@link PrestaShopWebserviceException} (or {@link PrestashopHttpException}
+ * for error statuses). Responses are unmarshalled and futures completed by a callback pool owned by
+ * the client, never by I/O threads, so dependent stages may do some processing, and even issue
+ * further calls, without stalling other requests.
+ */
+public class AsyncPSWebServiceClient implements Closeable {
+  private static final ContentType XML_CONTENT_TYPE = ContentType.create("text/xml", Consts.UTF_8);
+  private static final String RETRY_AFTER = "Retry-After";
+
+  /** Only waits between two attempts, never performs any I/O itself */
+  private static final ScheduledExecutorService RETRY_SCHEDULER =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("prestashop-retry").setDaemon(true).build());
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  private final JAXBContext jaxbContext;
+
+  /** Shop URL */
+  private final String url;
+
+  private final CloseableHttpAsyncClient httpclient;
+  /** Runs response handlers and retries, keeping I/O threads free of any blocking work. */
+  private final ExecutorService callbackExecutor;
+
+  private final Credentials credentials;
+  private volatile RetryPolicy retryPolicy =
+      new RetryPolicy(
+          RetryPolicy.DEFAULT_MAX_RETRIES,
+          RetryPolicy.DEFAULT_BASE_DELAY,
+          RetryPolicy.DEFAULT_MAX_DELAY);
+  private volatile RateLimiter rateLimiter;
+  private volatile PSResponseCache responseCache;
+  private volatile PSMetricsRegistry metricsRegistry = PSMetricsRegistry.NONE;
+
+  /**
+   * @param url Root URL for the shop
+   * @param key Authentification key
+   */
+  public AsyncPSWebServiceClient(String url, String key) {
+    this(
+        url,
+        key,
+        createHttpClient(
+            PSWebServiceClient.DEFAULT_MAX_CONNECTIONS,
+            PSWebServiceClient.DEFAULT_REQUEST_TIMEOUT));
+  }
+
+  /**
+   * Builds a client on top of the given HTTP client, starting it if needed. Client will be closed
+   * along with this instance.
+   *
+   * @param url Root URL for the shop
+   * @param key Authentification key
+   * @param httpclient HTTP client used to perform calls
+   * @see #createHttpClient(int, int)
+   */
+  public AsyncPSWebServiceClient(String url, String key, CloseableHttpAsyncClient httpclient) {
+    this.url = url;
+    this.credentials = new UsernamePasswordCredentials(key, null);
+    this.httpclient = httpclient;
+    this.jaxbContext = PSWebServiceClient.getJaxbContext();
+    // Unmarshalling is CPU bound, no need for more threads than processors
+    this.callbackExecutor =
+        Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(),
+            new ThreadFactoryBuilder()
+                .setNameFormat("prestashop-async-%d")
+                .setDaemon(true)
+                .build());
+    if (httpclient.isRunning() == false) httpclient.start();
+  }
+
+  /**
+   * Creates a non-blocking HTTP client. Requests exceeding the number of connections are queued
+   * until a connection is released, without any time limit.
+   *
+   * @param maxConnections Maximum number of simultaneous connections to the shop.
+   * @param requestTimeout Connection and socket timeout, in seconds.
+   * @return A new HTTP client, not started yet.
+   */
+  public static CloseableHttpAsyncClient createHttpClient(int maxConnections, int requestTimeout) {
+    final int timeoutMillis = requestTimeout * 1000;
+    return HttpAsyncClients.custom()
+        // All calls are made against the same host
+        .setMaxConnTotal(maxConnections)
+        .setMaxConnPerRoute(maxConnections)
+        .setDefaultIOReactorConfig(
+            IOReactorConfig.custom()
+                .setConnectTimeout(timeoutMillis)
+                .setSoTimeout(timeoutMillis)
+                .build())
+        .setDefaultRequestConfig(
+            RequestConfig.custom()
+                .setConnectTimeout(timeoutMillis)
+                .setSocketTimeout(timeoutMillis)
+                .build())
+        .build();
+  }
+
+  /** Releases underlying HTTP client and callback threads, pending calls are aborted. */
+  @Override
+  public void close() throws IOException {
+    try {
+      httpclient.close();
+    } finally {
+      callbackExecutor.shutdownNow();
+    }
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * @param retryPolicy Policy applied to failed requests, {@link RetryPolicy#NONE} to never retry
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /**
+   * @param rateLimiter Limiter each request has to acquire a permit from before being sent, <code>
+   *     null</code> for no limit. Share the limiter of the blocking client talking to the same shop
+   *     so that both count against the same budget. Permits are acquired by the thread issuing the
+   *     request, which blocks until one is available.
+   */
+  public void setRateLimiter(RateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+  }
+
+  public PSResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  /**
+   * @param responseCache Cache of the blocking client talking to the same shop, entries of a
+   *     resource type are invalidated when this client modifies resources of this type. Responses
+   *     of this client are never cached.
+   */
+  public void setResponseCache(PSResponseCache responseCache) {
+    this.responseCache = responseCache;
+  }
+
+  public PSMetricsRegistry getMetricsRegistry() {
+    return metricsRegistry;
+  }
+
+  /** @param metricsRegistry Registry recording requests, retries and XML processing times. */
+  public void setMetricsRegistry(PSMetricsRegistry metricsRegistry) {
+    this.metricsRegistry = metricsRegistry;
+  }
+
+  /**
+   * Fetches a single resource by its ID.
+   *
+   * @param resourceType Type of resource
+   * @param id Id of the resource to fetch
+   * @return A future of the requested resource, completed with null if it does not exist.
+   */
+  public <T extends PrestashopContainerEntity> CompletableFuture<T> fetch(
+      final PrestashopResourceType resourceType, final int id) {
+    Options options = new Options();
+    options.setResourceType(resourceType);
+    options.setRequestedId(id);
+
+    final CompletableFuture<T> entity = get(options, this::unmarshalContent);
+    return entity.exceptionally(
+        e -> {
+          final Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+          if (cause instanceof PrestashopHttpException
+              && ((PrestashopHttpException) cause).getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+            return null;
+          }
+          throw e instanceof CompletionException
+              ? (CompletionException) e
+              : new CompletionException(e);
+        });
+  }
+
+  /**
+   * Fetches all entities of a given type, along with their attributes.
+   *
+   * @param resourceType Type of entity to fetch.
+   * @return A future of a possibly empty list containing all entities.
+   */
+  public <T extends PrestashopContainerEntity> CompletableFuture<List<T>> fetchAll(
+      final PrestashopResourceType resourceType) {
+    return fetch(resourceType, Collections.emptyMap(), Collections.emptyList());
+  }
+
+  /**
+   * Fetches a list of entities based on the given filter. Entities will have all their attributes
+   * set.
+   *
+   * @param resourceType Type of resource to fetch.
+   * @param filter Filter to apply (depends on entity)
+   * @param sort Entities sort criteria (<code>null</code> for no sorting)
+   * @return A future of a (possibly empty) list of entities
+   */
+  public <T extends PrestashopContainerEntity> CompletableFuture<List<T>> fetch(
+      final PrestashopResourceType resourceType,
+      final Map<String, String> filter,
+      final List<String> sort) {
+    Options options = new Options();
+    options.setResourceType(resourceType);
+    options.setFilter(filter);
+    options.setDisplay(Collections.singletonList("full"));
+    options.setSort(sort);
+
+    return get(
+        options,
+        response -> {
+          final ListContainer<T> container = unmarshalContent(response);
+          return container.getEntities();
+        });
+  }
+
+  /**
+   * Creates or updates the given entity, depending on whether it has an ID.
+   *
+   * @return A future of the entity as saved by the shop.
+   */
+  public <T extends PrestashopIdentifiableEntity> CompletableFuture<T> save(
+      final PrestashopResourceType resourceType, final T entity) {
+    Options options = new Options();
+    options.setResourceType(resourceType);
+    options.setRequestedId(entity.getId());
+
+    final HttpEntityEnclosingRequestBase request;
+    try {
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      Prestashop envelop = new Prestashop();
+      envelop.setContent(entity);
+      final long start = System.nanoTime();
+      jaxbContext.createMarshaller().marshal(envelop, bos);
+      metricsRegistry.recordTime(
+          PSMetricsRegistry.JAXB_MARSHAL, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+      final String uri = PSWebServiceClient.buildUri(url, options);
+      request = entity.getId() == null ? new HttpPost(uri) : new HttpPut(uri);
+      request.setEntity(new ByteArrayEntity(bos.toByteArray(), XML_CONTENT_TYPE));
+    } catch (JAXBException e) {
+      return failed(
+          new PrestaShopWebserviceException(
+              "Error while marshalling class " + entity.getClass(), e));
+    } catch (PrestaShopWebserviceException e) {
+      return failed(e);
+    }
+
+    invalidateCache(resourceType);
+    return execute(request, this::unmarshalContent);
+  }
+
+  /** @return A future completed once the entity has been deleted. */
+  public <T extends PrestashopIdentifiableEntity> CompletableFuture<Void> delete(
+      final PrestashopResourceType resourceType, final T entity) {
+    Options options = new Options();
+    options.setResourceType(resourceType);
+    options.setRequestedId(entity.getId());
+
+    try {
+      final HttpDelete request = new HttpDelete(PSWebServiceClient.buildUri(url, options));
+      invalidateCache(resourceType);
+      return execute(request, response -> null);
+    } catch (PrestaShopWebserviceException e) {
+      return failed(e);
+    }
+  }
+
+  /**
+   * Add an image to the given entity.
+   *
+   * @param resourceType Type of resource the image is bound to.
+   * @param boundEntity Entity the image is bound to.
+   * @param imageFile File holding image data. It is read before this method returns, so it can be
+   *     deleted as soon as it does.
+   * @return A future of information about the added image (eg. its Id)
+   */
+  public CompletableFuture<PrestashopImage> addImage(
+      final PrestashopResourceType resourceType,
+      final PrestashopIdentifiableEntity boundEntity,
+      final Path imageFile) {
+    final HttpEntity multipart =
+        MultipartEntityBuilder.create()
+            .setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
+            .addPart(
+                "image", new FileBody(imageFile.toFile(), ContentType.DEFAULT_BINARY, "image.jpg"))
+            .build();
+    // Multipart entities cannot be streamed by the non-blocking client, serialize it beforehand
+    final ByteArrayOutputStream bos =
+        new ByteArrayOutputStream((int) Math.max(multipart.getContentLength(), 0));
+    try {
+      multipart.writeTo(bos);
+    } catch (IOException e) {
+      return failed(
+          new PrestaShopWebserviceException("An error occured while reading source image", e));
+    }
+
+    HttpPost request =
+        new HttpPost(
+            String.format(
+                "%s/api/images/%s/%d", this.url, resourceType.getLabel(), boundEntity.getId()));
+    request.setEntity(
+        new ByteArrayEntity(
+            bos.toByteArray(), ContentType.parse(multipart.getContentType().getValue())));
+
+    invalidateCache(resourceType);
+    return execute(request, this::unmarshalContent);
+  }
+
+  private void invalidateCache(final PrestashopResourceType resourceType) {
+    final PSResponseCache cache = responseCache;
+    if (cache != null) cache.invalidate(resourceType);
+  }
+
+  private <R> CompletableFuture<R> get(final Options options, final ResponseHandler<R> handler) {
+    try {
+      return execute(new HttpGet(PSWebServiceClient.buildUri(url, options)), handler);
+    } catch (PrestaShopWebserviceException e) {
+      return failed(e);
+    }
+  }
+
+  /** Converts a successful response to the value a future is completed with. */
+  @FunctionalInterface
+  private interface ResponseHandler<R> {
+    R handle(HttpResponse response) throws PrestaShopWebserviceException;
+  }
+
+  private <R> CompletableFuture<R> execute(
+      final HttpUriRequest request, final ResponseHandler<R> handler) {
+    final CompletableFuture<R> future = new CompletableFuture<>();
+    execute(request, handler, future, 0);
+    return future;
+  }
+
+  /**
+   * Sends an attempt of the given request, once the rate limiter allows it. Called by the thread
+   * issuing the request for the first attempt, by a callback thread for retries.
+   */
+  private <R> void execute(
+      final HttpUriRequest request,
+      final ResponseHandler<R> handler,
+      final CompletableFuture<R> future,
+      final int attempt) {
+    final RateLimiter limiter = rateLimiter;
+    if (limiter != null) limiter.acquire();
+
+    try {
+      request.setHeader(new BasicScheme().authenticate(credentials, request, null));
+    } catch (AuthenticationException e) {
+      future.completeExceptionally(
+          new PrestaShopWebserviceException("Error while processing request", e));
+      return;
+    }
+
+    final long start = System.nanoTime();
+    httpclient.execute(
+        request,
+        new FutureCallback<HttpResponse>() {
+          @Override
+          public void completed(HttpResponse response) {
+            // Response is fully buffered at this point, leave I/O thread right away
+            dispatch(() -> handle(response));
+          }
+
+          @Override
+          public void failed(Exception ex) {
+            PSWebServiceClient.recordRequest(metricsRegistry, request, start, "IO_ERROR");
+            final PrestaShopWebserviceException e =
+                new PrestaShopWebserviceException("Error while processing request", ex);
+            if (ex instanceof IOException) {
+              retry(retryPolicy.getRetryDelay(request.getMethod(), attempt, (IOException) ex), e);
+            } else {
+              future.completeExceptionally(e);
+            }
+          }
+
+          @Override
+          public void cancelled() {
+            future.cancel(false);
+          }
+
+          private void handle(HttpResponse response) {
+            PSWebServiceClient.recordRequest(
+                metricsRegistry, request, start, response.getStatusLine().getStatusCode());
+            try {
+              PSWebServiceClient.checkStatus(response);
+            } catch (PrestashopHttpException e) {
+              final Header retryAfter = response.getFirstHeader(RETRY_AFTER);
+              retry(
+                  retryPolicy.getRetryDelay(
+                      request.getMethod(),
+                      attempt,
+                      e.getStatusCode(),
+                      retryAfter == null ? null : retryAfter.getValue()),
+                  e);
+              return;
+            }
+            try {
+              future.complete(handler.handle(response));
+            } catch (PrestaShopWebserviceException | RuntimeException e) {
+              future.completeExceptionally(e);
+            }
+          }
+
+          private void retry(long delay, PrestaShopWebserviceException e) {
+            if (delay < 0 || future.isDone()) {
+              future.completeExceptionally(e);
+              return;
+            }
+            PSWebServiceClient.recordRetry(
+                metricsRegistry,
+                request,
+                e instanceof PrestashopHttpException
+                    ? String.valueOf(((PrestashopHttpException) e).getStatusCode())
+                    : e.getCause().getClass().getSimpleName());
+            log.debug(
+                "{} {} failed ({}), retrying",
+                request.getMethod(),
+                request.getURI(),
+                e.getMessage());
+            // Scheduler only waits, waiting for a permit and sending are done by callback threads
+            RETRY_SCHEDULER.schedule(
+                () -> dispatch(() -> execute(request, handler, future, attempt + 1)),
+                delay,
+                TimeUnit.MILLISECONDS);
+          }
+
+          private void dispatch(Runnable task) {
+            try {
+              callbackExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+              future.completeExceptionally(
+                  new PrestaShopWebserviceException("Client has been closed", e));
+            }
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends PrestashopContainerEntity> T unmarshalContent(HttpResponse response)
+      throws PrestaShopWebserviceException {
+    final long start = System.nanoTime();
+    try {
+      return ((Prestashop)
+              jaxbContext.createUnmarshaller().unmarshal(response.getEntity().getContent()))
+          .getContent();
+    } catch (JAXBException | IOException e) {
+      throw new PrestaShopWebserviceException("Error while unmarshalling response", e);
+    } finally {
+      metricsRegistry.recordTime(
+          PSMetricsRegistry.JAXB_UNMARSHAL, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private static <R> CompletableFuture<R> failed(PrestaShopWebserviceException e) {
+    final CompletableFuture<R> future = new CompletableFuture<>();
+    future.completeExceptionally(e);
+    return future;
+  }
+}
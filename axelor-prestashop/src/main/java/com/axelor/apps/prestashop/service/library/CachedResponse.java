@@ -0,0 +1,78 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+
+/**
+ * Raw body of a webservice response kept by a {@link PSResponseCache}. Body is stored rather than
+ * unmarshalled entities so each read gets its own copy that callers are free to modify.
+ */
+public class CachedResponse {
+  private final PrestashopResourceType resourceType;
+  private final byte[] content;
+  private final String etag;
+  private final String lastModified;
+  private volatile long expiresAt;
+
+  public CachedResponse(
+      PrestashopResourceType resourceType,
+      byte[] content,
+      String etag,
+      String lastModified,
+      long expiresAt) {
+    this.resourceType = resourceType;
+    this.content = content;
+    this.etag = etag;
+    this.lastModified = lastModified;
+    this.expiresAt = expiresAt;
+  }
+
+  /** @return Resource type, <code>null</code> for the API root listing. */
+  public PrestashopResourceType getResourceType() {
+    return resourceType;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+
+  /** @return Value of ETag header sent by the shop, if any. */
+  public String getEtag() {
+    return etag;
+  }
+
+  /** @return Value of Last-Modified header sent by the shop, if any. */
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  /** @return Whether response can be revalidated through a conditional request once expired. */
+  public boolean isRevalidable() {
+    return etag != null || lastModified != null;
+  }
+
+  public boolean isExpired(long now) {
+    return now >= expiresAt;
+  }
+
+  /** Extends response's lifetime, once shop confirmed it has not been modified. */
+  public void setExpiresAt(long expiresAt) {
+    this.expiresAt = expiresAt;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics registry keeping meters in memory for the lifetime of the application. Meters are created
+ * on first use and can be listed with {@link #getMeters()}.
+ */
+public class InMemoryMetricsRegistry implements PSMetricsRegistry {
+  private final Map<String, Meter> meters = new ConcurrentHashMap<>();
+
+  @Override
+  public void recordTime(String name, long duration, TimeUnit unit, String... tags) {
+    getMeter(name, tags).record(unit.toNanos(duration));
+  }
+
+  @Override
+  public void increment(String name, long amount, String... tags) {
+    getMeter(name, tags).increment(amount);
+  }
+
+  @Override
+  public void setGauge(String name, double value, String... tags) {
+    getMeter(name, tags).value = value;
+  }
+
+  /** @return All meters, sorted by identifier. */
+  public List<Meter> getMeters() {
+    final List<Meter> result = new ArrayList<>(meters.values());
+    result.sort(Comparator.comparing(Meter::getId));
+    return result;
+  }
+
+  /**
+   * Gets the meter with the given name and tags, creating it if needed.
+   *
+   * @param name Name of the meter
+   * @param tags Tag keys and values, alternately.
+   */
+  public Meter getMeter(String name, String... tags) {
+    if (tags.length % 2 != 0) {
+      throw new IllegalArgumentException("Tags must be given as key/value pairs");
+    }
+    final StringBuilder id = new StringBuilder(name);
+    for (int i = 0; i < tags.length; i += 2) {
+      id.append(',').append(tags[i]).append('=').append(tags[i + 1]);
+    }
+    final Meter meter = meters.get(id.toString());
+    if (meter != null) return meter;
+    return meters.computeIfAbsent(
+        id.toString(),
+        key -> {
+          final Meter created = new Meter(key, name, tags);
+          meterCreated(created);
+          return created;
+        });
+  }
+
+  /** Called once for each new meter, before it is made available. */
+  protected void meterCreated(Meter meter) {}
+
+  /** Management interface of meters, attributes which do not apply to a meter are left to zero. */
+  public interface MeterMXBean {
+    /** @return Number of recorded durations for timers, current value for counters. */
+    long getCount();
+
+    double getTotalTimeMillis();
+
+    double getMeanTimeMillis();
+
+    double getMaxTimeMillis();
+
+    /** @return Current value for gauges. */
+    double getValue();
+  }
+
+  /**
+   * Single meter, acting as a timer, a counter or a gauge depending on how it is updated. Updates
+   * do not block each other.
+   */
+  public static class Meter implements MeterMXBean {
+    private final String id;
+    private final String name;
+    private final Map<String, String> tags;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private volatile double value;
+
+    private Meter(String id, String name, String... tags) {
+      this.id = id;
+      this.name = name;
+      final Map<String, String> tagMap = new LinkedHashMap<>();
+      for (int i = 0; i < tags.length; i += 2) {
+        tagMap.put(tags[i], String.valueOf(tags[i + 1]));
+      }
+      this.tags = Collections.unmodifiableMap(tagMap);
+    }
+
+    private void record(long nanos) {
+      count.increment();
+      totalNanos.add(nanos);
+      maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private void increment(long amount) {
+      count.add(amount);
+    }
+
+    /** @return Name followed by tags, unique within a registry. */
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Map<String, String> getTags() {
+      return tags;
+    }
+
+    @Override
+    public long getCount() {
+      return count.sum();
+    }
+
+    @Override
+    public double getTotalTimeMillis() {
+      return totalNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getMeanTimeMillis() {
+      final long samples = count.sum();
+      return samples == 0 ? 0 : totalNanos.sum() / 1e6 / samples;
+    }
+
+    @Override
+    public double getMaxTimeMillis() {
+      return maxNanos.get() / 1e6;
+    }
+
+    @Override
+    public double getValue() {
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return id;
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Response cache kept in memory for the lifetime of the client. By default only reference data
+ * (languages, order statuses, countries, currencies, categories), schemas and API root listing are
+ * cached, use {@link #setTimeToLive(PrestashopResourceType, long)} to change this.
+ */
+public class InMemoryResponseCache implements PSResponseCache {
+  private final Map<String, CachedResponse> responses = new ConcurrentHashMap<>();
+  private final Map<PrestashopResourceType, Long> timesToLive =
+      new EnumMap<>(PrestashopResourceType.class);
+  private final long defaultTimeToLive;
+
+  /** @param defaultTimeToLive Time to live of cached responses, in milliseconds. */
+  public InMemoryResponseCache(long defaultTimeToLive) {
+    this.defaultTimeToLive = defaultTimeToLive;
+    for (PrestashopResourceType resourceType :
+        new PrestashopResourceType[] {
+          PrestashopResourceType.LANGUAGES,
+          PrestashopResourceType.ORDER_STATUSES,
+          PrestashopResourceType.COUNTRIES,
+          PrestashopResourceType.CURRENCIES,
+          PrestashopResourceType.PRODUCT_CATEGORIES
+        }) {
+      timesToLive.put(resourceType, defaultTimeToLive);
+    }
+  }
+
+  /**
+   * Sets time to live of the given resource type entities.
+   *
+   * @param resourceType Resource type
+   * @param timeToLive Time to live in milliseconds, 0 to disable cache for this type.
+   * @return This instance, for chaining.
+   */
+  public synchronized InMemoryResponseCache setTimeToLive(
+      PrestashopResourceType resourceType, long timeToLive) {
+    timesToLive.put(resourceType, timeToLive);
+    invalidate(resourceType);
+    return this;
+  }
+
+  @Override
+  public synchronized long getTimeToLive(PrestashopResourceType resourceType, boolean schema) {
+    if (resourceType == null || schema) return defaultTimeToLive;
+    final Long timeToLive = timesToLive.get(resourceType);
+    return timeToLive == null ? 0 : timeToLive;
+  }
+
+  @Override
+  public CachedResponse get(String uri) {
+    return responses.get(uri);
+  }
+
+  @Override
+  public void put(String uri, CachedResponse response) {
+    responses.put(uri, response);
+  }
+
+  @Override
+  public void invalidate(PrestashopResourceType resourceType) {
+    responses.values().removeIf(r -> Objects.equals(r.getResourceType(), resourceType));
+  }
+
+  @Override
+  public void clear() {
+    responses.clear();
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands out PrestaShop invoice numbers from a local counter, highest remote number being read once
+ * instead of once per invoice. Remote numbers are checked again every {@link #getVerifyInterval()}
+ * numbers: if invoices have been created meanwhile by someone else (eg. from back-office), counter
+ * skips their numbers and duplicates are reported, see {@link #takeDuplicates()}.
+ *
+ * <p>Allocator is thread safe, so it can be shared by concurrent exports using the same shop.
+ */
+public class InvoiceNumberAllocator {
+  public static final int DEFAULT_VERIFY_INTERVAL = 50;
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  private final PSWebServiceClient ws;
+  private final int verifyInterval;
+
+  /** Next number to hand out, 0 until highest remote number has been read. */
+  private int next;
+  /** First number handed out since last verification. */
+  private int firstUnverified;
+  /** Duplicates found by verifications and not taken yet. */
+  private final SortedSet<Integer> duplicates = new TreeSet<>();
+
+  public InvoiceNumberAllocator(PSWebServiceClient ws) {
+    this(ws, DEFAULT_VERIFY_INTERVAL);
+  }
+
+  /**
+   * @param ws Client bound to the shop whose invoices are numbered.
+   * @param verifyInterval Number of invoice numbers handed out between two remote checks.
+   */
+  public InvoiceNumberAllocator(PSWebServiceClient ws, int verifyInterval) {
+    this.ws = ws;
+    this.verifyInterval = Math.max(1, verifyInterval);
+  }
+
+  /** @return Number of invoice numbers handed out between two remote checks. */
+  public int getVerifyInterval() {
+    return verifyInterval;
+  }
+
+  /**
+   * @return Next invoice number, never handed out twice by this allocator.
+   * @throws PrestaShopWebserviceException If highest remote number could not be read.
+   */
+  public synchronized int next() throws PrestaShopWebserviceException {
+    if (next == 0) {
+      next = ws.getNextInvoiceNumber();
+      firstUnverified = next;
+    } else if (next - firstUnverified >= verifyInterval) {
+      verify();
+    }
+    return next++;
+  }
+
+  /**
+   * Checks numbers handed out since last verification against remote invoices. Numbers used by
+   * invoices created outside of this allocator are reported as duplicates, and counter moves past
+   * the highest remote number.
+   *
+   * @return Numbers handed out since last verification that are used by several remote invoices.
+   * @throws PrestaShopWebserviceException
+   */
+  public synchronized SortedSet<Integer> verify() throws PrestaShopWebserviceException {
+    final SortedSet<Integer> found = new TreeSet<>();
+    if (next == 0 || next == firstUnverified) return found;
+
+    // Someone else may have numbered invoices meanwhile, even if no number beyond ours is used
+    final Map<Integer, Integer> countByNumber = new HashMap<>();
+    for (PrestashopProjection invoice :
+        ws.fetchProjection(
+            PrestashopResourceType.ORDER_INVOICES,
+            Collections.singletonList("number"),
+            Collections.singletonMap(
+                "number", String.format("[%d,%d]", firstUnverified, next - 1)))) {
+      countByNumber.merge(Integer.valueOf(invoice.get("number")), 1, Integer::sum);
+    }
+    for (Map.Entry<Integer, Integer> e : countByNumber.entrySet()) {
+      if (e.getValue() > 1) found.add(e.getKey());
+    }
+    if (found.isEmpty() == false) {
+      log.warn(
+          "Invoice numbers {} have been used both by this export and by another source",
+          Arrays.toString(found.toArray()));
+      duplicates.addAll(found);
+    }
+
+    final int remoteNext = ws.getNextInvoiceNumber();
+    if (remoteNext > next) {
+      log.debug("Invoices have been created remotely, skipping to number {}", remoteNext);
+      next = remoteNext;
+    }
+    firstUnverified = next;
+    return found;
+  }
+
+  /**
+   * Gets duplicates found by all verifications since last call, including those run by {@link
+   * #next()}, so that invoices using these numbers can be fixed.
+   *
+   * @return Numbers handed out by this allocator that are used by several remote invoices.
+   */
+  public synchronized SortedSet<Integer> takeDuplicates() {
+    final SortedSet<Integer> taken = new TreeSet<>(duplicates);
+    duplicates.clear();
+    return taken;
+  }
+
+  /** @return Whether verifications found duplicates that have not been taken yet. */
+  public synchronized boolean hasDuplicates() {
+    return duplicates.isEmpty() == false;
+  }
+}
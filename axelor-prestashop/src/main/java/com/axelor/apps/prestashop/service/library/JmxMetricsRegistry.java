@@ -0,0 +1,68 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.google.inject.Singleton;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory metrics registry whose meters are also exposed through JMX, in the <code>
+ * com.axelor.apps.prestashop</code> domain, so they can be browsed with any JMX console while a
+ * batch runs.
+ */
+@Singleton
+public class JmxMetricsRegistry extends InMemoryMetricsRegistry {
+  public static final String DOMAIN = "com.axelor.apps.prestashop";
+
+  private final Logger log = LoggerFactory.getLogger(getClass());
+  private final MBeanServer server;
+
+  public JmxMetricsRegistry() {
+    this(ManagementFactory.getPlatformMBeanServer());
+  }
+
+  public JmxMetricsRegistry(MBeanServer server) {
+    this.server = server;
+  }
+
+  @Override
+  protected void meterCreated(Meter meter) {
+    try {
+      server.registerMBean(meter, getObjectName(meter));
+    } catch (JMException e) {
+      // Meter is still usable, it just won't be visible
+      log.warn("Unable to expose meter {} through JMX", meter, e);
+    }
+  }
+
+  /** @return Name of the MBean of the given meter, tags are added as key properties. */
+  public static ObjectName getObjectName(Meter meter) throws JMException {
+    final StringBuilder name = new StringBuilder(DOMAIN);
+    name.append(":type=Metrics,name=").append(ObjectName.quote(meter.getName()));
+    for (Map.Entry<String, String> tag : meter.getTags().entrySet()) {
+      name.append(',').append(tag.getKey()).append('=').append(ObjectName.quote(tag.getValue()));
+    }
+    return new ObjectName(name.toString());
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects timers, counters and gauges about synchronization, so slow batches can be investigated
+ * without a profiler. Meters are identified by their name and tags, tags being given as key/value
+ * pairs. Implementations must be thread safe and cheap enough to be called on each request.
+ */
+public interface PSMetricsRegistry {
+  /** Webservice requests, timed per attempt; tags: resource, method, status. */
+  String WS_REQUESTS = "prestashop.ws.requests";
+  /** Webservice requests performed again; tags: resource, method, cause. */
+  String WS_RETRIES = "prestashop.ws.retries";
+  /** Conversion of entities to XML. */
+  String JAXB_MARSHAL = "prestashop.jaxb.marshal";
+  /** Conversion of XML to entities, includes reading of the response if it is streamed. */
+  String JAXB_UNMARSHAL = "prestashop.jaxb.unmarshal";
+  /** Duration of the stages of a batch; tags: batch, stage, outcome. */
+  String BATCH_STAGES = "prestashop.batch.stages";
+  /** Synchronized records; tags: resource, status. */
+  String SYNC_RECORDS = "prestashop.sync.records";
+  /** Records synchronized per second by the last step run; tags: resource. */
+  String SYNC_THROUGHPUT = "prestashop.sync.throughput";
+
+  /** Registry discarding everything. */
+  PSMetricsRegistry NONE =
+      new PSMetricsRegistry() {
+        @Override
+        public void recordTime(String name, long duration, TimeUnit unit, String... tags) {}
+
+        @Override
+        public void increment(String name, long amount, String... tags) {}
+
+        @Override
+        public void setGauge(String name, double value, String... tags) {}
+      };
+
+  /**
+   * Records a duration in a timer.
+   *
+   * @param name Name of the timer
+   * @param duration Measured duration
+   * @param unit Unit of the duration
+   * @param tags Tag keys and values, alternately.
+   */
+  void recordTime(String name, long duration, TimeUnit unit, String... tags);
+
+  /**
+   * Increments a counter.
+   *
+   * @param name Name of the counter
+   * @param amount Amount to add
+   * @param tags Tag keys and values, alternately.
+   */
+  void increment(String name, long amount, String... tags);
+
+  /**
+   * Sets current value of a gauge.
+   *
+   * @param name Name of the gauge
+   * @param value New value
+   * @param tags Tag keys and values, alternately.
+   */
+  void setGauge(String name, double value, String... tags);
+}
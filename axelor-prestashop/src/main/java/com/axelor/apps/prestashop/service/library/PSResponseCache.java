@@ -0,0 +1,48 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+
+/**
+ * Cache of raw webservice responses, plugged into a {@link PSWebServiceClient} to avoid fetching
+ * reference data again and again. Implementations must be thread safe.
+ */
+public interface PSResponseCache {
+  /**
+   * Tells for how long responses can be reused without contacting the shop.
+   *
+   * @param resourceType Type of fetched resource, <code>null</code> for the API root listing.
+   * @param schema Whether request fetches resource's schema rather than entities.
+   * @return Time to live in milliseconds, zero or negative if such responses must not be cached.
+   */
+  long getTimeToLive(PrestashopResourceType resourceType, boolean schema);
+
+  /**
+   * @param uri Full URI of the request
+   * @return Cached response, possibly expired, or <code>null</code>
+   */
+  CachedResponse get(String uri);
+
+  void put(String uri, CachedResponse response);
+
+  /** Drops cached responses for the given resource type, called when such a resource is written. */
+  void invalidate(PrestashopResourceType resourceType);
+
+  void clear();
+}
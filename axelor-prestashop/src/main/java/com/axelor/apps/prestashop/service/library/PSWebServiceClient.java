@@ -24,17 +24,36 @@ import com.axelor.apps.prestashop.entities.PrestashopIdentifiableEntity;
 import com.axelor.apps.prestashop.entities.PrestashopImage;
 import com.axelor.apps.prestashop.entities.PrestashopOrderInvoice;
 import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.google.common.util.concurrent.RateLimiter;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
+import javax.xml.bind.JAXBIntrospector;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.httpclient.HttpStatus;
@@ -43,11 +62,11 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.http.Consts;
 import org.apache.http.Header;
-import org.apache.http.auth.AuthScope;
+import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthenticationException;
 import org.apache.http.auth.Credentials;
 import org.apache.http.auth.UsernamePasswordCredentials;
-import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
@@ -60,29 +79,56 @@ import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class PSWebServiceClient {
+public class PSWebServiceClient implements Closeable {
   // HttpClient default content types are ISO-8859-1 encoded (except for JSON)
   private static final ContentType XML_CONTENT_TYPE = ContentType.create("text/xml", Consts.UTF_8);
   /** Header containing the API version of webservices */
   private static final String VERSION_HEADER = "PSWS-Version";
 
+  private static final String ETAG = "ETag";
+  private static final String LAST_MODIFIED = "Last-Modified";
+  private static final String IF_NONE_MATCH = "If-None-Match";
+  private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+  private static final String RETRY_AFTER = "Retry-After";
+
+  public static final int DEFAULT_MAX_CONNECTIONS = 10;
+  public static final int DEFAULT_KEEP_ALIVE = 30;
+  public static final int DEFAULT_REQUEST_TIMEOUT = 60;
+  public static final int DEFAULT_PAGE_SIZE = 500;
+  /** Maximum number of values sent in a single filter, keeps URLs reasonably short. */
+  public static final int MAX_FILTER_VALUES = 100;
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+  /** JAXB contexts are thread safe and expensive to build, share a single one */
+  private static volatile JAXBContext sharedJaxbContext;
+
   private final Logger log = LoggerFactory.getLogger(getClass());
-  private JAXBContext jaxbContext;
+  private final JAXBContext jaxbContext;
 
   /** Shop URL */
   protected String url;
 
   private final CloseableHttpClient httpclient;
   private final Credentials credentials;
-  private String wsVersion;
+  private volatile String wsVersion;
+  private volatile PSResponseCache responseCache;
+  private volatile RetryPolicy retryPolicy =
+      new RetryPolicy(
+          RetryPolicy.DEFAULT_MAX_RETRIES,
+          RetryPolicy.DEFAULT_BASE_DELAY,
+          RetryPolicy.DEFAULT_MAX_DELAY);
+  private volatile RateLimiter rateLimiter;
+  private volatile PSMetricsRegistry metricsRegistry = PSMetricsRegistry.NONE;
 
   /**
    * PrestaShopWebservice constructor. <code>
@@ -103,20 +149,105 @@ public class PSWebServiceClient {
    * @param key Authentification key
    */
   public PSWebServiceClient(String url, String key) {
+    this(
+        url,
+        key,
+        createHttpClient(DEFAULT_MAX_CONNECTIONS, DEFAULT_KEEP_ALIVE, DEFAULT_REQUEST_TIMEOUT));
+  }
+
+  /**
+   * Builds a client on top of the given HTTP client. Client will be closed along with this
+   * instance.
+   *
+   * @param url Root URL for the shop
+   * @param key Authentification key
+   * @param httpclient HTTP client used to perform calls, should be backed by a pooling connection
+   *     manager if instance is to be shared between threads.
+   * @see #createHttpClient(int, int, int)
+   */
+  public PSWebServiceClient(String url, String key, CloseableHttpClient httpclient) {
     this.url = url;
     credentials = new UsernamePasswordCredentials(key, null);
-    CredentialsProvider credsProvider = new BasicCredentialsProvider();
-    credsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(key, ""));
-    this.httpclient = HttpClients.createDefault();
+    this.httpclient = httpclient;
+    this.jaxbContext = getJaxbContext();
+  }
 
-    try {
-      jaxbContext =
-          JAXBContext.newInstance(
-              "com.axelor.apps.prestashop.entities:com.axelor.apps.prestashop.entities.xlink");
-    } catch (JAXBException e) {
-      log.error("Unable to create jaxb context", e);
-      throw new RuntimeException("Unable to create JAXB context", e);
+  private static XMLInputFactory createXmlInputFactory() {
+    final XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+
+  static JAXBContext getJaxbContext() {
+    JAXBContext context = sharedJaxbContext;
+    if (context == null) {
+      synchronized (PSWebServiceClient.class) {
+        context = sharedJaxbContext;
+        if (context == null) {
+          try {
+            context =
+                JAXBContext.newInstance(
+                    "com.axelor.apps.prestashop.entities:com.axelor.apps.prestashop.entities.xlink");
+          } catch (JAXBException e) {
+            LoggerFactory.getLogger(PSWebServiceClient.class)
+                .error("Unable to create jaxb context", e);
+            throw new RuntimeException("Unable to create JAXB context", e);
+          }
+          sharedJaxbContext = context;
+        }
+      }
     }
+    return context;
+  }
+
+  /**
+   * Creates an HTTP client suitable to be shared between threads and to perform several calls
+   * against the same shop.
+   *
+   * @param maxConnections Maximum number of simultaneous connections to the shop.
+   * @param keepAlive Maximum duration (in seconds) an idle connection is kept open, unless server
+   *     asks for a shorter one.
+   * @param requestTimeout Connection and socket timeout, in seconds.
+   * @return A new HTTP client backed by a pooling connection manager.
+   */
+  public static CloseableHttpClient createHttpClient(
+      int maxConnections, int keepAlive, int requestTimeout) {
+    final PoolingHttpClientConnectionManager connectionManager =
+        new PoolingHttpClientConnectionManager();
+    // All calls are made against the same host
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnections);
+    connectionManager.setValidateAfterInactivity(2000);
+
+    final long keepAliveMillis = keepAlive * 1000L;
+    final int timeoutMillis = requestTimeout * 1000;
+
+    return HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setKeepAliveStrategy(
+            (response, context) -> {
+              final long duration =
+                  DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(
+                      response, context);
+              return duration > 0 ? Math.min(duration, keepAliveMillis) : keepAliveMillis;
+            })
+        .setDefaultRequestConfig(
+            RequestConfig.custom()
+                .setConnectTimeout(timeoutMillis)
+                .setConnectionRequestTimeout(timeoutMillis)
+                .setSocketTimeout(timeoutMillis)
+                .build())
+        .evictIdleConnections(keepAliveMillis, TimeUnit.MILLISECONDS)
+        // Retries are handled by our own retry policy
+        .disableAutomaticRetries()
+        .build();
+  }
+
+  /** Releases underlying HTTP client along with all its pooled connections. */
+  @Override
+  public void close() throws IOException {
+    httpclient.close();
   }
 
   /**
@@ -127,6 +258,10 @@ public class PSWebServiceClient {
    */
   protected void checkStatusCode(CloseableHttpResponse response)
       throws PrestaShopWebserviceException {
+    checkStatus(response);
+  }
+
+  static void checkStatus(HttpResponse response) throws PrestashopHttpException {
     final int statusCode = response.getStatusLine().getStatusCode();
     if (statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_CREATED) return;
     String body = null;
@@ -147,7 +282,8 @@ public class PSWebServiceClient {
   }
 
   /**
-   * Handles request to PrestaShop Webservice. Can throw exception.
+   * Handles request to PrestaShop Webservice. Can throw exception. Failed requests are performed
+   * again as long as retry policy allows it, requests are throttled by rate limiter if any.
    *
    * @param url Resource name
    * @param request
@@ -156,27 +292,123 @@ public class PSWebServiceClient {
    */
   protected RequestResult executeRequest(HttpUriRequest request)
       throws PrestaShopWebserviceException {
-    final RequestResult result = new RequestResult();
-    try {
-      request.addHeader(new BasicScheme().authenticate(credentials, request, null));
-      result.response = httpclient.execute(request);
-      checkStatusCode(result.response);
-      result.content = result.response.getEntity().getContent();
-      Header versionHeader = result.response.getFirstHeader(VERSION_HEADER);
-      if (versionHeader != null) {
-        wsVersion = versionHeader.getValue();
+    return executeRequest(request, false);
+  }
+
+  /**
+   * @param conditional Whether request is conditional, so a 304 (not modified) status is expected.
+   * @see #executeRequest(HttpUriRequest)
+   */
+  private RequestResult executeRequest(HttpUriRequest request, boolean conditional)
+      throws PrestaShopWebserviceException {
+    for (int attempt = 0; ; ++attempt) {
+      final RateLimiter limiter = rateLimiter;
+      if (limiter != null) limiter.acquire();
+
+      final RequestResult result = new RequestResult();
+      final long start = System.nanoTime();
+      long retryDelay;
+      try {
+        request.setHeader(new BasicScheme().authenticate(credentials, request, null));
+        result.response = httpclient.execute(request);
+        final int statusCode = result.response.getStatusLine().getStatusCode();
+        recordRequest(metricsRegistry, request, start, statusCode);
+        if (conditional == false || statusCode != HttpStatus.SC_NOT_MODIFIED) {
+          checkStatusCode(result.response);
+        }
+        if (result.response.getEntity() != null) {
+          result.content = result.response.getEntity().getContent();
+        }
+        Header versionHeader = result.response.getFirstHeader(VERSION_HEADER);
+        if (versionHeader != null) {
+          wsVersion = versionHeader.getValue();
+        }
+
+        return result;
+      } catch (IOException e) {
+        IOUtils.closeQuietly(result.response);
+        if (result.response == null) recordRequest(metricsRegistry, request, start, "IO_ERROR");
+        retryDelay = retryPolicy.getRetryDelay(request.getMethod(), attempt, e);
+        if (retryDelay < 0) {
+          throw new PrestaShopWebserviceException("Error while processing request", e);
+        }
+        recordRetry(metricsRegistry, request, e.getClass().getSimpleName());
+        log.debug("{} {} failed ({}), retrying", request.getMethod(), request.getURI(), e);
+      } catch (UnsupportedOperationException | AuthenticationException e) {
+        IOUtils.closeQuietly(result.response);
+        throw new PrestaShopWebserviceException("Error while processing request", e);
+      } catch (PrestashopHttpException e) {
+        final Header retryAfter = result.response.getFirstHeader(RETRY_AFTER);
+        IOUtils.closeQuietly(result.response);
+        retryDelay =
+            retryPolicy.getRetryDelay(
+                request.getMethod(),
+                attempt,
+                e.getStatusCode(),
+                retryAfter == null ? null : retryAfter.getValue());
+        if (retryDelay < 0) throw e;
+        recordRetry(metricsRegistry, request, String.valueOf(e.getStatusCode()));
+        log.debug(
+            "{} {} failed with status {}, retrying",
+            request.getMethod(),
+            request.getURI(),
+            e.getStatusCode());
+      } catch (PrestaShopWebserviceException e) {
+        IOUtils.closeQuietly(result.response);
+        throw e;
       }
 
-      return result;
-    } catch (UnsupportedOperationException | IOException | AuthenticationException e) {
-      IOUtils.closeQuietly(result.response);
-      throw new PrestaShopWebserviceException("Error while processing request", e);
-    } catch (PrestaShopWebserviceException e) {
-      IOUtils.closeQuietly(result.response);
-      throw e;
+      try {
+        Thread.sleep(retryDelay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PrestaShopWebserviceException("Interrupted while waiting to retry request", e);
+      }
     }
   }
 
+  /** Records time taken by an attempt to perform the given request. */
+  static void recordRequest(
+      PSMetricsRegistry metricsRegistry, HttpUriRequest request, long start, Object status) {
+    metricsRegistry.recordTime(
+        PSMetricsRegistry.WS_REQUESTS,
+        System.nanoTime() - start,
+        TimeUnit.NANOSECONDS,
+        "resource",
+        getResourceName(request),
+        "method",
+        request.getMethod(),
+        "status",
+        String.valueOf(status));
+  }
+
+  /** Records that the given request is about to be performed again. */
+  static void recordRetry(PSMetricsRegistry metricsRegistry, HttpUriRequest request, String cause) {
+    metricsRegistry.increment(
+        PSMetricsRegistry.WS_RETRIES,
+        1,
+        "resource",
+        getResourceName(request),
+        "method",
+        request.getMethod(),
+        "cause",
+        cause);
+  }
+
+  /**
+   * @return Name of the resource targeted by the given request (eg. <code>products</code> or <code>
+   *     images</code>), <code>api</code> for the API root listing.
+   */
+  private static String getResourceName(HttpUriRequest request) {
+    final String path = request.getURI().getPath();
+    final int start = path == null ? -1 : path.indexOf("/api/");
+    if (start < 0) return "api";
+    final String resource = path.substring(start + "/api/".length());
+    final int end = resource.indexOf('/');
+    if (end == 0 || resource.isEmpty()) return "api";
+    return end < 0 ? resource : resource.substring(0, end);
+  }
+
   /**
    * Fetches a single resource by its ID.
    *
@@ -192,20 +424,13 @@ public class PSWebServiceClient {
     options.setResourceType(resourceType);
     options.setRequestedId(id);
 
-    HttpGet httpget = new HttpGet(buildUri(options));
-    RequestResult result = null;
-
     try {
-      result = executeRequest(httpget);
-      return ((Prestashop) jaxbContext.createUnmarshaller().unmarshal(result.content)).getContent();
+      return get(buildUri(options), resourceType, false).getContent();
     } catch (PrestashopHttpException e) {
       if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) return null;
       throw e;
     } catch (JAXBException e) {
       throw new PrestaShopWebserviceException("Error while unmarshalling respoinse from fetch", e);
-    } finally {
-      log.trace("Closing connection");
-      if (result != null) IOUtils.closeQuietly(result.response);
     }
   }
 
@@ -224,18 +449,11 @@ public class PSWebServiceClient {
     options.setResourceType(resourceType);
     options.setSchemaType("blank");
 
-    HttpGet httpget = new HttpGet(buildUri(options));
-    RequestResult result = null;
-
     try {
-      result = executeRequest(httpget);
-      return ((Prestashop) jaxbContext.createUnmarshaller().unmarshal(result.content)).getContent();
+      return get(buildUri(options), resourceType, true).getContent();
     } catch (JAXBException e) {
       throw new PrestaShopWebserviceException(
           "Error while unmarshalling respoinse from fetchDefault", e);
-    } finally {
-      log.trace("Closing connection");
-      if (result != null) IOUtils.closeQuietly(result.response);
     }
   }
 
@@ -301,6 +519,33 @@ public class PSWebServiceClient {
     return entities.get(0);
   }
 
+  /**
+   * Fetches entities whose field has any of the given values, using as few requests as possible:
+   * values are sent by batches of {@link #MAX_FILTER_VALUES}, using <code>[a|b|c]</code> filter
+   * syntax. Entities will have all their attributes set.
+   *
+   * @param resourceType Type of resource to fetch.
+   * @param field Name of the field to filter on (eg. id_order)
+   * @param values Accepted values
+   * @return A (possibly empty) list of entities
+   * @throws PrestaShopWebserviceException
+   */
+  public <T extends PrestashopContainerEntity> List<T> fetchAny(
+      final PrestashopResourceType resourceType, final String field, final Collection<?> values)
+      throws PrestaShopWebserviceException {
+    final List<?> distinctValues = new ArrayList<>(new LinkedHashSet<>(values));
+    final List<T> entities = new ArrayList<>();
+    for (int i = 0; i < distinctValues.size(); i += MAX_FILTER_VALUES) {
+      final List<?> batch =
+          distinctValues.subList(i, Math.min(i + MAX_FILTER_VALUES, distinctValues.size()));
+      entities.addAll(
+          this.<T>fetch(
+              resourceType,
+              Collections.singletonMap(field, "[" + StringUtils.join(batch, "|") + "]")));
+    }
+    return entities;
+  }
+
   /**
    * Fetches a list of entities based on the given filter. Entities will have all their attributes
    * set.
@@ -311,7 +556,6 @@ public class PSWebServiceClient {
    * @return A (possibly empty) list of entities
    * @throws PrestaShopWebserviceException
    */
-  @SuppressWarnings("unchecked")
   public <T extends PrestashopContainerEntity> List<T> fetch(
       final PrestashopResourceType resourceType,
       final Map<String, String> filter,
@@ -323,23 +567,266 @@ public class PSWebServiceClient {
     options.setDisplay(Collections.singletonList("full"));
     options.setSort(sort);
 
+    return fetchList(options);
+  }
+
+  /**
+   * Fetches all entities of a given type, one page at a time.
+   *
+   * @param resourceType Type of resource to fetch.
+   * @param pageSize Number of entities fetched per call.
+   * @return A lazy iterator over entities, see {@link #fetchPaged(PrestashopResourceType, Map,
+   *     List, int)}.
+   */
+  public <T extends PrestashopContainerEntity> Iterator<T> fetchPaged(
+      final PrestashopResourceType resourceType, final int pageSize) {
+    return fetchPaged(resourceType, Collections.emptyMap(), Collections.emptyList(), pageSize);
+  }
+
+  /**
+   * Fetches a list of entities based on the given filter, one page at a time. Only one page is held
+   * in memory, next one is requested when the current one has been fully consumed. Entities are
+   * always sorted by ID (after the given sort criteria if any) so pages do not overlap.
+   *
+   * <p>As {@link Iterator} cannot throw checked exceptions, webservices errors are reported through
+   * an {@link UncheckedPrestaShopWebserviceException}.
+   *
+   * @param resourceType Type of resource to fetch.
+   * @param filter Filter to apply (depends on entity)
+   * @param sort Entities sort criteria (<code>null</code> for no sorting)
+   * @param pageSize Number of entities fetched per call.
+   * @return A lazy iterator over entities.
+   */
+  public <T extends PrestashopContainerEntity> Iterator<T> fetchPaged(
+      final PrestashopResourceType resourceType,
+      final Map<String, String> filter,
+      final List<String> sort,
+      final int pageSize) {
+    if (pageSize <= 0) {
+      throw new IllegalArgumentException("Page size must be strictly positive");
+    }
+    final List<String> pageSort = new ArrayList<>();
+    if (sort != null) pageSort.addAll(sort);
+    if (pageSort.contains("id_ASC") == false && pageSort.contains("id_DESC") == false) {
+      pageSort.add("id_ASC");
+    }
+
+    Options options = new Options();
+    options.setResourceType(resourceType);
+    options.setFilter(filter);
+    options.setDisplay(Collections.singletonList("full"));
+    options.setSort(pageSort);
+    options.setLimit(pageSize);
+
+    return new PagedIterator<>(options, pageSize);
+  }
+
+  /**
+   * Fetches all entities of a given type and hands them one at a time to the given consumer, see
+   * {@link #fetchEach(PrestashopResourceType, Map, List, Consumer)}.
+   *
+   * @param resourceType Type of resource to fetch.
+   * @param consumer Callback receiving each entity.
+   * @throws PrestaShopWebserviceException
+   */
+  public <T extends PrestashopContainerEntity> void fetchEach(
+      final PrestashopResourceType resourceType, final Consumer<? super T> consumer)
+      throws PrestaShopWebserviceException {
+    fetchEach(resourceType, Collections.emptyMap(), Collections.emptyList(), consumer);
+  }
+
+  /**
+   * Fetches a list of entities based on the given filter and hands them one at a time to the given
+   * consumer. Response is parsed while it is received, entities are unmarshalled one by one and
+   * never collected in a list, so peak memory stays that of a single entity whatever the response
+   * size.
+   *
+   * @param resourceType Type of resource to fetch.
+   * @param filter Filter to apply (depends on entity)
+   * @param sort Entities sort criteria (<code>null</code> for no sorting)
+   * @param consumer Callback receiving each entity, in response order.
+   * @throws PrestaShopWebserviceException
+   */
+  public <T extends PrestashopContainerEntity> void fetchEach(
+      final PrestashopResourceType resourceType,
+      final Map<String, String> filter,
+      final List<String> sort,
+      final Consumer<? super T> consumer)
+      throws PrestaShopWebserviceException {
+    Options options = new Options();
+    options.setResourceType(resourceType);
+    options.setFilter(filter);
+    options.setDisplay(Collections.singletonList("full"));
+    options.setSort(sort);
+
+    final Unmarshaller unmarshaller;
+    try {
+      unmarshaller = jaxbContext.createUnmarshaller();
+    } catch (JAXBException e) {
+      throw new PrestaShopWebserviceException("Error while unmarshalling response from fetch", e);
+    }
+    streamList(
+        options,
+        reader -> {
+          final long start = System.nanoTime();
+          @SuppressWarnings("unchecked")
+          final T entity = (T) JAXBIntrospector.getValue(unmarshaller.unmarshal(reader));
+          metricsRegistry.recordTime(
+              PSMetricsRegistry.JAXB_UNMARSHAL, System.nanoTime() - start, TimeUnit.NANOSECONDS);
+          consumer.accept(entity);
+        });
+  }
+
+  /**
+   * Fetches only the given fields of all entities of a given type, see {@link
+   * #fetchProjection(PrestashopResourceType, List, Map)}.
+   *
+   * @param resourceType Type of resource to fetch.
+   * @param fields Names of the fields to fetch, as used by PrestaShop (eg. <code>date_upd</code>).
+   * @return A possibly empty list of projections, in response order.
+   * @throws PrestaShopWebserviceException
+   */
+  public List<PrestashopProjection> fetchProjection(
+      final PrestashopResourceType resourceType, final List<String> fields)
+      throws PrestaShopWebserviceException {
+    return fetchProjection(resourceType, fields, Collections.emptyMap());
+  }
+
+  /**
+   * Fetches only the given fields of entities matching the given filter. This is meant for loads
+   * only used to build lookup tables (id, reference…): payload is a fraction of a <code>
+   * display=full</code> one and no entity gets unmarshalled. Full entities can then be fetched one
+   * by one through {@link #fetch(PrestashopResourceType, int)} for those that actually need it.
+   *
+   * <p>Only scalar fields are supported, translatable fields and associations are returned as
+   * <code>null</code>. Entity ID is always fetched.
+   *
+   * @param resourceType Type of resource to fetch.
+   * @param fields Names of the fields to fetch, as used by PrestaShop (eg. <code>date_upd</code>).
+   * @param filter Filter to apply (depends on entity)
+   * @return A possibly empty list of projections, in response order.
+   * @throws PrestaShopWebserviceException
+   */
+  public List<PrestashopProjection> fetchProjection(
+      final PrestashopResourceType resourceType,
+      final List<String> fields,
+      final Map<String, String> filter)
+      throws PrestaShopWebserviceException {
+    final List<String> display = new ArrayList<>(fields.size() + 1);
+    display.add("id");
+    for (String field : fields) {
+      if (display.contains(field) == false) display.add(field);
+    }
+
+    Options options = new Options();
+    options.setResourceType(resourceType);
+    options.setFilter(filter);
+    options.setDisplay(display);
+
+    final List<PrestashopProjection> projections = new ArrayList<>();
+    streamList(options, reader -> projections.add(readProjection(reader)));
+    return projections;
+  }
+
+  /** Reads fields of entity whose start tag reader is positioned on. */
+  private PrestashopProjection readProjection(final XMLStreamReader reader)
+      throws XMLStreamException {
+    final Map<String, String> values = new HashMap<>();
+    int depth = 0;
+    String field = null;
+    StringBuilder value = null;
+    while (reader.hasNext()) {
+      final int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        ++depth;
+        if (depth == 1) {
+          field = reader.getLocalName();
+          value = new StringBuilder();
+        } else {
+          // Nested elements (translations, associations) are not supported
+          value = null;
+        }
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth == 0) break;
+        if (depth == 1 && value != null && value.length() > 0) {
+          values.put(field, value.toString());
+        }
+        --depth;
+      } else if (depth == 1
+          && value != null
+          && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+        value.append(reader.getText());
+      }
+    }
+    // Leave reader after entity's end tag, as JAXB unmarshaller does
+    reader.next();
+
+    final String id = values.remove("id");
+    return new PrestashopProjection(StringUtils.isEmpty(id) ? null : Integer.valueOf(id), values);
+  }
+
+  /** Handles entities of a list response, see {@link PSWebServiceClient#streamList}. */
+  @FunctionalInterface
+  private interface ListElementHandler {
+    /** Reads the entity element reader is positioned on, reader must be left after its end tag. */
+    void handle(XMLStreamReader reader) throws JAXBException, XMLStreamException;
+  }
+
+  /**
+   * Requests a list of entities and parses response while it is received, handing each entity
+   * element to the given handler.
+   */
+  private void streamList(final Options options, final ListElementHandler handler)
+      throws PrestaShopWebserviceException {
     HttpGet httpget = new HttpGet(buildUri(options));
     RequestResult result = null;
+    XMLStreamReader reader = null;
 
     try {
       result = executeRequest(httpget);
-      return ((ListContainer<T>)
-              ((Prestashop) jaxbContext.createUnmarshaller().unmarshal(result.content))
-                  .getContent())
-          .getEntities();
-    } catch (JAXBException e) {
+      reader = XML_INPUT_FACTORY.createXMLStreamReader(result.content);
+      // Entities are the children of the list element: <prestashop><products><product>
+      int depth = 0;
+      while (reader.hasNext()) {
+        final int event = reader.getEventType();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          if (depth == 2) {
+            handler.handle(reader);
+            continue;
+          }
+          ++depth;
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          --depth;
+        }
+        reader.next();
+      }
+    } catch (JAXBException | XMLStreamException e) {
       throw new PrestaShopWebserviceException("Error while unmarshalling response from fetch", e);
     } finally {
       log.trace("Closing connection");
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (XMLStreamException e) {
+          log.trace("Unable to close XML reader", e);
+        }
+      }
       if (result != null) IOUtils.closeQuietly(result.response);
     }
   }
 
+  @SuppressWarnings("unchecked")
+  private <T extends PrestashopContainerEntity> List<T> fetchList(final Options options)
+      throws PrestaShopWebserviceException {
+    try {
+      return ((ListContainer<T>)
+              get(buildUri(options), options.resourceType, options.schemaType != null).getContent())
+          .getEntities();
+    } catch (JAXBException e) {
+      throw new PrestaShopWebserviceException("Error while unmarshalling response from fetch", e);
+    }
+  }
+
   /**
    * Fetches a container entity from relative URI. Used for non-resource types URI (eg. /api)
    *
@@ -349,20 +836,163 @@ public class PSWebServiceClient {
    */
   public <T extends PrestashopContainerEntity> T fetch(final String relativeUri)
       throws PrestaShopWebserviceException {
-    HttpGet httpget = new HttpGet(String.format("%s/%s", this.url, relativeUri));
-    RequestResult result = null;
-
     try {
-      result = executeRequest(httpget);
-      return ((Prestashop) jaxbContext.createUnmarshaller().unmarshal(result.content)).getContent();
+      return get(String.format("%s/%s", this.url, relativeUri), null, false).getContent();
     } catch (JAXBException e) {
       throw new PrestaShopWebserviceException("Error while unmarshalling response from fetch", e);
+    }
+  }
+
+  /**
+   * Performs a GET request and unmarshalls its response, going through response cache if any. Fresh
+   * cached responses are used without contacting the shop, expired ones are revalidated through a
+   * conditional request when the shop sent an ETag or a Last-Modified date.
+   *
+   * @param uri Full URI to fetch
+   * @param resourceType Fetched resource type, <code>null</code> for the API root listing
+   * @param schema Whether a schema is fetched
+   */
+  private Prestashop get(
+      final String uri, final PrestashopResourceType resourceType, final boolean schema)
+      throws PrestaShopWebserviceException, JAXBException {
+    final PSResponseCache cache = responseCache;
+    final long timeToLive = cache == null ? 0 : cache.getTimeToLive(resourceType, schema);
+    final HttpGet httpget = new HttpGet(uri);
+    RequestResult result = null;
+
+    if (timeToLive <= 0) {
+      try {
+        result = executeRequest(httpget);
+        return unmarshal(result.content);
+      } finally {
+        log.trace("Closing connection");
+        if (result != null) IOUtils.closeQuietly(result.response);
+      }
+    }
+
+    CachedResponse cached = cache.get(uri);
+    final long now = System.currentTimeMillis();
+    if (cached != null && cached.isExpired(now) == false) {
+      log.trace("Using cached response for {}", uri);
+    } else {
+      final boolean conditional = cached != null && cached.isRevalidable();
+      if (conditional) {
+        if (cached.getEtag() != null) httpget.addHeader(IF_NONE_MATCH, cached.getEtag());
+        if (cached.getLastModified() != null) {
+          httpget.addHeader(IF_MODIFIED_SINCE, cached.getLastModified());
+        }
+      }
+      try {
+        result = executeRequest(httpget, conditional);
+        // Only accepted in response to a conditional request, so there is a cached response
+        if (result.response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+          log.trace("Cached response for {} is still valid", uri);
+          cached.setExpiresAt(now + timeToLive);
+        } else {
+          final Header etag = result.response.getFirstHeader(ETAG);
+          final Header lastModified = result.response.getFirstHeader(LAST_MODIFIED);
+          cached =
+              new CachedResponse(
+                  resourceType,
+                  IOUtils.toByteArray(result.content),
+                  etag == null ? null : etag.getValue(),
+                  lastModified == null ? null : lastModified.getValue(),
+                  now + timeToLive);
+          cache.put(uri, cached);
+        }
+      } catch (IOException e) {
+        throw new PrestaShopWebserviceException("Error while reading response", e);
+      } finally {
+        log.trace("Closing connection");
+        if (result != null) IOUtils.closeQuietly(result.response);
+      }
+    }
+    // Unmarshalling on each read gives callers their own copy of cached entities
+    return unmarshal(new ByteArrayInputStream(cached.getContent()));
+  }
+
+  /** Unmarshals a whole response, recording time spent in metrics registry. */
+  private Prestashop unmarshal(InputStream content) throws JAXBException {
+    final long start = System.nanoTime();
+    try {
+      return (Prestashop) jaxbContext.createUnmarshaller().unmarshal(content);
     } finally {
-      log.trace("Closing connection");
-      if (result != null) IOUtils.closeQuietly(result.response);
+      metricsRegistry.recordTime(
+          PSMetricsRegistry.JAXB_UNMARSHAL, System.nanoTime() - start, TimeUnit.NANOSECONDS);
     }
   }
 
+  /**
+   * Creates a non-blocking client talking to the same shop, sharing the rate limiter, retry policy,
+   * response cache and metrics registry of this client.
+   *
+   * @param maxConnections Maximum number of requests sent to the shop at the same time.
+   * @param requestTimeout Connection and socket timeout, in seconds.
+   * @return A new started client, it is up to the caller to close it.
+   */
+  public AsyncPSWebServiceClient createAsyncClient(int maxConnections, int requestTimeout) {
+    final AsyncPSWebServiceClient client =
+        new AsyncPSWebServiceClient(
+            url,
+            credentials.getUserPrincipal().getName(),
+            AsyncPSWebServiceClient.createHttpClient(maxConnections, requestTimeout));
+    client.setRetryPolicy(retryPolicy);
+    client.setRateLimiter(rateLimiter);
+    client.setResponseCache(responseCache);
+    client.setMetricsRegistry(metricsRegistry);
+    return client;
+  }
+
+  /**
+   * Drops cached responses for the given resource type, so next fetches will contact the shop. This
+   * is done automatically when resources are written through this client.
+   */
+  public void invalidateCache(final PrestashopResourceType resourceType) {
+    final PSResponseCache cache = responseCache;
+    if (cache != null) cache.invalidate(resourceType);
+  }
+
+  public RetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * @param retryPolicy Policy applied to failed requests, {@link RetryPolicy#NONE} to never retry
+   */
+  public void setRetryPolicy(RetryPolicy retryPolicy) {
+    this.retryPolicy = retryPolicy;
+  }
+
+  public PSMetricsRegistry getMetricsRegistry() {
+    return metricsRegistry;
+  }
+
+  /** @param metricsRegistry Registry recording requests, retries and XML processing times. */
+  public void setMetricsRegistry(PSMetricsRegistry metricsRegistry) {
+    this.metricsRegistry = metricsRegistry;
+  }
+
+  public RateLimiter getRateLimiter() {
+    return rateLimiter;
+  }
+
+  /**
+   * @param rateLimiter Limiter each request has to acquire a permit from before being sent, <code>
+   *     null</code> to send requests as fast as possible.
+   */
+  public void setRateLimiter(RateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+  }
+
+  public PSResponseCache getResponseCache() {
+    return responseCache;
+  }
+
+  /** @param responseCache Cache for GET responses, <code>null</code> to always contact the shop. */
+  public void setResponseCache(PSResponseCache responseCache) {
+    this.responseCache = responseCache;
+  }
+
   public <T extends PrestashopIdentifiableEntity> void delete(
       final PrestashopResourceType resourceType, final T entity)
       throws PrestaShopWebserviceException {
@@ -374,6 +1004,7 @@ public class PSWebServiceClient {
     RequestResult result = null;
 
     try {
+      invalidateCache(resourceType);
       result = executeRequest(httpdelete);
       // Maybe we should decode response…
     } finally {
@@ -395,7 +1026,10 @@ public class PSWebServiceClient {
     try {
       Prestashop envelop = new Prestashop();
       envelop.setContent(entity);
+      final long start = System.nanoTime();
       jaxbContext.createMarshaller().marshal(envelop, bos);
+      metricsRegistry.recordTime(
+          PSMetricsRegistry.JAXB_MARSHAL, System.nanoTime() - start, TimeUnit.NANOSECONDS);
     } catch (JAXBException e) {
       throw new PrestaShopWebserviceException(
           "Error while marshalling class " + entity.getClass(), e);
@@ -413,14 +1047,10 @@ public class PSWebServiceClient {
 
     String content = null;
     try {
+      invalidateCache(resourceType);
       result = executeRequest(request);
       content = IOUtils.toString(result.content, Consts.UTF_8);
-      return (T)
-          ((Prestashop)
-                  jaxbContext
-                      .createUnmarshaller()
-                      .unmarshal(new ByteArrayInputStream(content.getBytes())))
-              .getContent();
+      return (T) unmarshal(new ByteArrayInputStream(content.getBytes())).getContent();
     } catch (JAXBException | IOException e) {
       throw new PrestaShopWebserviceException("Error while unmarshalling response from save", e);
     } finally {
@@ -435,26 +1065,21 @@ public class PSWebServiceClient {
    * @param resourceType Type of resource the image is bound to. Currently only products is really
    *     well-tested.
    * @param boundEntity Entity the image is bound to.
-   * @param imageData Stream allowing to get image data.
+   * @param imageFile File holding image data, streamed to the shop.
    * @return Information about the added image (eg. its Id)
    * @throws PrestaShopWebserviceException
    */
   public PrestashopImage addImage(
       final PrestashopResourceType resourceType,
       final PrestashopIdentifiableEntity boundEntity,
-      final InputStream imageData)
+      final Path imageFile)
       throws PrestaShopWebserviceException {
-    // Using the imputstream directly fails ($_FILES is empty on remote end…)
-    byte[] imageBytes = null;
-    try {
-      imageBytes = IOUtils.toByteArray(imageData);
-    } catch (IOException e) {
-      throw new PrestaShopWebserviceException("An error occured while reading source image");
-    }
+    // PHP leaves $_FILES empty for chunked uploads, file part gives the request a Content-Length
+    // and is repeatable so request can be retried
     MultipartEntityBuilder builder = MultipartEntityBuilder.create();
     builder.setMode(HttpMultipartMode.BROWSER_COMPATIBLE);
     builder.addPart(
-        "image", new ByteArrayBody(imageBytes, ContentType.DEFAULT_BINARY, "image.jpg"));
+        "image", new FileBody(imageFile.toFile(), ContentType.DEFAULT_BINARY, "image.jpg"));
 
     HttpPost request =
         new HttpPost(
@@ -465,9 +1090,9 @@ public class PSWebServiceClient {
     RequestResult result = null;
 
     try {
+      invalidateCache(resourceType);
       result = executeRequest(request);
-      return (PrestashopImage)
-          ((Prestashop) jaxbContext.createUnmarshaller().unmarshal(result.content)).getContent();
+      return (PrestashopImage) unmarshal(result.content).getContent();
     } catch (Exception e) {
       throw new PrestaShopWebserviceException(
           "An error occured while processing image add response", e);
@@ -476,10 +1101,21 @@ public class PSWebServiceClient {
     }
   }
 
-  public byte[] fetchImage(
+  /**
+   * Downloads an image to the given file. Image is streamed to a temporary file next to the target
+   * which then replaces it, so target is left untouched if download fails.
+   *
+   * @param resourceType Type of resource the image is bound to.
+   * @param boundEntity Entity the image is bound to.
+   * @param imageId ID of the image to fetch.
+   * @param target File to write image to, overwritten if it exists.
+   * @throws PrestaShopWebserviceException
+   */
+  public void fetchImage(
       final PrestashopResourceType resourceType,
       final PrestashopIdentifiableEntity boundEntity,
-      final int imageId)
+      final int imageId,
+      final Path target)
       throws PrestaShopWebserviceException {
     HttpGet request =
         new HttpGet(
@@ -488,20 +1124,33 @@ public class PSWebServiceClient {
                 this.url, resourceType.getLabel(), boundEntity.getId(), imageId));
 
     RequestResult result = null;
+    Path tmp = null;
     try {
       result = executeRequest(request);
-      return IOUtils.toByteArray(result.content);
-    } catch (Exception e) {
+      final Path directory = target.toAbsolutePath().getParent();
+      tmp = Files.createTempFile(directory, ".prestashop-image-", ".tmp");
+      Files.copy(result.content, tmp, StandardCopyOption.REPLACE_EXISTING);
+      Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+      tmp = null;
+    } catch (IOException e) {
       throw new PrestaShopWebserviceException("An error occured while fetching image", e);
     } finally {
       if (result != null) IOUtils.closeQuietly(result.response);
+      if (tmp != null) {
+        try {
+          Files.deleteIfExists(tmp);
+        } catch (IOException e) {
+          log.warn("Unable to delete temporary file {}", tmp, e);
+        }
+      }
     }
   }
 
   /**
    * Since Prestashop is unable to assign a correct invoice number, let's "compute" it… This is not
    * concurrency safe, but a quick glance at prestashop's code tells me than it isn't on prestashop
-   * side anyway…
+   * side anyway… Exports numbering many invoices should use an {@link InvoiceNumberAllocator}
+   * rather than calling this for each invoice.
    *
    * @return The next number to be assigned
    * @throws PrestaShopWebserviceException
@@ -520,9 +1169,7 @@ public class PSWebServiceClient {
       result = executeRequest(httpget);
       @SuppressWarnings("unchecked")
       List<PrestashopOrderInvoice> invoices =
-          ((ListContainer<PrestashopOrderInvoice>)
-                  ((Prestashop) jaxbContext.createUnmarshaller().unmarshal(result.content))
-                      .getContent())
+          ((ListContainer<PrestashopOrderInvoice>) unmarshal(result.content).getContent())
               .getEntities();
       if (invoices.size() == 0) return 1;
       return invoices.get(0).getNumber() + 1;
@@ -535,14 +1182,23 @@ public class PSWebServiceClient {
   }
 
   private String buildUri(Options options) throws PrestaShopWebserviceException {
+    return buildUri(this.url, options);
+  }
+
+  /**
+   * @param shopUrl Root URL of the shop
+   * @param options Request options
+   * @return Full URI of the request described by options
+   */
+  static String buildUri(String shopUrl, Options options) throws PrestaShopWebserviceException {
     final String url;
     if (StringUtils.isEmpty(options.fullUrl)) {
       if (options.entityId == null) {
-        url = String.format("%s/api/%s", this.url, options.resourceType.getLabel());
+        url = String.format("%s/api/%s", shopUrl, options.resourceType.getLabel());
       } else {
         url =
             String.format(
-                "%s/api/%s/%d", this.url, options.resourceType.getLabel(), options.entityId);
+                "%s/api/%s/%d", shopUrl, options.resourceType.getLabel(), options.entityId);
       }
     } else {
       url = options.fullUrl;
@@ -558,9 +1214,13 @@ public class PSWebServiceClient {
       uriBuilder.addParameter("schema", options.schemaType);
     }
     if (MapUtils.isNotEmpty(options.filter)) {
+      boolean dateFilter = false;
       for (Map.Entry<String, String> e : options.filter.entrySet()) {
         uriBuilder.addParameter(String.format("filter[%s]", e.getKey()), e.getValue());
+        dateFilter |= e.getKey().startsWith("date_");
       }
+      // PrestaShop ignores filters on date fields unless explicitly asked for
+      if (dateFilter) uriBuilder.addParameter("date", "1");
     }
     if (CollectionUtils.isNotEmpty(options.display)) {
       // you've to use display=full or display=[fields,…], display=[full] or display=field wont work
@@ -692,6 +1352,43 @@ public class PSWebServiceClient {
     }
   }
 
+  private class PagedIterator<T extends PrestashopContainerEntity> implements Iterator<T> {
+    private final Options options;
+    private final int pageSize;
+    private int offset = 0;
+    private Iterator<T> page = Collections.emptyIterator();
+    private boolean lastPage = false;
+
+    PagedIterator(final Options options, final int pageSize) {
+      this.options = options;
+      this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (page.hasNext() == false && lastPage == false) {
+        options.setOffset(offset);
+        final List<T> entities;
+        try {
+          entities = fetchList(options);
+        } catch (PrestaShopWebserviceException e) {
+          throw new UncheckedPrestaShopWebserviceException(e);
+        }
+        log.trace("Fetched {} entities at offset {}", entities.size(), offset);
+        offset += entities.size();
+        lastPage = entities.size() < pageSize;
+        page = entities.iterator();
+      }
+      return page.hasNext();
+    }
+
+    @Override
+    public T next() {
+      if (hasNext() == false) throw new NoSuchElementException();
+      return page.next();
+    }
+  }
+
   private static class RequestResult {
     CloseableHttpResponse response;
     InputStream content;
@@ -0,0 +1,83 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.base.db.AppPrestashop;
+
+/**
+ * Gives access to webservice clients. Clients are expensive to build (connection pool, TLS
+ * handshakes…) and thread safe, so a single one is kept per configuration. Batches acquire the
+ * client they use so it is not closed under their feet if settings change while they run.
+ */
+public interface PSWebServiceClientProvider {
+  /**
+   * Get the shared client bound to the given configuration. If connection settings changed since
+   * the client was built, a new one is created and previous client is closed as soon as it is no
+   * longer acquired. Within a batch which acquired a client, including tasks it propagated to other
+   * threads, the acquired client is returned so the whole batch talks to the same shop.
+   *
+   * @param appConfig Prestashop module's configuration
+   * @return A client that must not be closed by caller.
+   */
+  PSWebServiceClient getClient(AppPrestashop appConfig);
+
+  /**
+   * Get the shared client bound to the given configuration and keep it open until it is released,
+   * even if it is replaced meanwhile. When called from a batch, the client is also returned by
+   * {@link #getClient(AppPrestashop)} to that batch until it is released.
+   *
+   * @param appConfig Prestashop module's configuration
+   * @return A client that must be released by caller, see {@link
+   *     #releaseClient(PSWebServiceClient)}.
+   */
+  PSWebServiceClient acquireClient(AppPrestashop appConfig);
+
+  /**
+   * Releases a client obtained from {@link #acquireClient(AppPrestashop)}, closing it if it has
+   * been replaced and is no longer acquired by anyone.
+   *
+   * @param client Client to release.
+   */
+  void releaseClient(PSWebServiceClient client);
+
+  /**
+   * Creates a standalone client, not shared with anyone else. Mostly useful to test a configuration
+   * that has not been saved yet.
+   *
+   * @param appConfig Configuration to use
+   * @return A new client, it is up to the caller to close it.
+   */
+  PSWebServiceClient createClient(AppPrestashop appConfig);
+
+  /**
+   * Creates a standalone non-blocking client, sharing the rate limiter, retry policy and cache of
+   * the client returned by {@link #getClient(AppPrestashop)} so both count against the same request
+   * budget.
+   *
+   * @param appConfig Configuration to use
+   * @param maxConnections Maximum number of requests sent to the shop at the same time.
+   * @return A new started client, it is up to the caller to close it.
+   */
+  AsyncPSWebServiceClient createAsyncClient(AppPrestashop appConfig, int maxConnections);
+
+  /**
+   * Close all shared clients which are not acquired, others are closed once released. Clients will
+   * be rebuilt on next call to {@link #getClient}.
+   */
+  void evictAll();
+}
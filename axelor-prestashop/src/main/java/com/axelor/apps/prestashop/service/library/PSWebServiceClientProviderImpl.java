@@ -0,0 +1,228 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.base.db.AppPrestashop;
+import com.axelor.apps.prestashop.batch.PrestaShopBatchRunner;
+import com.axelor.event.Observes;
+import com.axelor.events.ShutdownEvent;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+@Singleton
+public class PSWebServiceClientProviderImpl implements PSWebServiceClientProvider {
+  private final Logger log = LoggerFactory.getLogger(getClass());
+
+  /** Current client by configuration ID, guarded by this instance's lock. */
+  private final Map<Long, SharedClient> clients = new HashMap<>();
+  /** Acquired clients, guarded by this instance's lock. */
+  private final Map<PSWebServiceClient, SharedClient> acquired = new IdentityHashMap<>();
+  /** Client acquired by each running batch, by batch ID, guarded by this instance's lock. */
+  private final Map<Long, BatchLease> batchLeases = new HashMap<>();
+
+  private final PSMetricsRegistry metricsRegistry;
+  private final PrestaShopBatchRunner batchRunner;
+
+  @Inject
+  public PSWebServiceClientProviderImpl(
+      PSMetricsRegistry metricsRegistry, PrestaShopBatchRunner batchRunner) {
+    this.metricsRegistry = metricsRegistry;
+    this.batchRunner = batchRunner;
+  }
+
+  @Override
+  public synchronized PSWebServiceClient getClient(AppPrestashop appConfig) {
+    final BatchLease lease = getBatchLease();
+    if (lease != null) return lease.shared.client;
+    return getSharedClient(appConfig).client;
+  }
+
+  @Override
+  public synchronized PSWebServiceClient acquireClient(AppPrestashop appConfig) {
+    final Long batchId = batchRunner.getCurrentBatchId();
+    BatchLease lease = batchId == null ? null : batchLeases.get(batchId);
+    final SharedClient shared = lease == null ? getSharedClient(appConfig) : lease.shared;
+    ++shared.leases;
+    acquired.put(shared.client, shared);
+    if (batchId != null) {
+      if (lease == null) {
+        lease = new BatchLease(shared);
+        batchLeases.put(batchId, lease);
+      }
+      ++lease.count;
+    }
+    return shared.client;
+  }
+
+  @Override
+  public synchronized void releaseClient(PSWebServiceClient client) {
+    final SharedClient shared = acquired.get(client);
+    if (shared == null) {
+      throw new IllegalStateException("Client has not been acquired");
+    }
+    final Long batchId = batchRunner.getCurrentBatchId();
+    final BatchLease lease = batchId == null ? null : batchLeases.get(batchId);
+    if (lease != null && lease.shared == shared && --lease.count == 0) {
+      batchLeases.remove(batchId);
+    }
+    if (--shared.leases == 0) {
+      acquired.remove(client);
+      if (shared.retired) {
+        log.debug("Closing replaced PrestaShop client, no longer in use");
+        IOUtils.closeQuietly(client);
+      }
+    }
+  }
+
+  @Override
+  public PSWebServiceClient createClient(AppPrestashop appConfig) {
+    final PSWebServiceClient client =
+        new PSWebServiceClient(
+            appConfig.getPrestaShopUrl(),
+            appConfig.getPrestaShopKey(),
+            PSWebServiceClient.createHttpClient(
+                positiveOrDefault(
+                    appConfig.getMaxConnections(), PSWebServiceClient.DEFAULT_MAX_CONNECTIONS),
+                positiveOrDefault(
+                    appConfig.getConnectionKeepAlive(), PSWebServiceClient.DEFAULT_KEEP_ALIVE),
+                positiveOrDefault(
+                    appConfig.getRequestTimeout(), PSWebServiceClient.DEFAULT_REQUEST_TIMEOUT)));
+    if (appConfig.getReferenceDataCacheDuration() != null
+        && appConfig.getReferenceDataCacheDuration() > 0) {
+      client.setResponseCache(
+          new InMemoryResponseCache(
+              TimeUnit.SECONDS.toMillis(appConfig.getReferenceDataCacheDuration())));
+    }
+    client.setRetryPolicy(createRetryPolicy(appConfig));
+    if (appConfig.getMaxRequestsPerSecond() != null && appConfig.getMaxRequestsPerSecond() > 0) {
+      client.setRateLimiter(RateLimiter.create(appConfig.getMaxRequestsPerSecond()));
+    }
+    client.setMetricsRegistry(metricsRegistry);
+    return client;
+  }
+
+  @Override
+  public synchronized AsyncPSWebServiceClient createAsyncClient(
+      AppPrestashop appConfig, int maxConnections) {
+    // Built from the batch's client if any, so it talks to the same shop
+    return getClient(appConfig)
+        .createAsyncClient(
+            maxConnections,
+            positiveOrDefault(
+                appConfig.getRequestTimeout(), PSWebServiceClient.DEFAULT_REQUEST_TIMEOUT));
+  }
+
+  @Override
+  public synchronized void evictAll() {
+    for (SharedClient shared : clients.values()) {
+      retire(shared);
+    }
+    clients.clear();
+  }
+
+  /** Close shared clients along with the application. */
+  public void onShutdown(@Observes ShutdownEvent event) {
+    evictAll();
+  }
+
+  private SharedClient getSharedClient(AppPrestashop appConfig) {
+    final String signature = computeSignature(appConfig);
+    final SharedClient current = clients.get(appConfig.getId());
+    if (current != null) {
+      if (current.signature.equals(signature)) return current;
+      log.debug("PrestaShop connection settings changed, discarding previous client");
+      retire(current);
+    }
+    final SharedClient shared = new SharedClient(signature, createClient(appConfig));
+    clients.put(appConfig.getId(), shared);
+    return shared;
+  }
+
+  private BatchLease getBatchLease() {
+    final Long batchId = batchRunner.getCurrentBatchId();
+    return batchId == null ? null : batchLeases.get(batchId);
+  }
+
+  /** Closes a client which is no longer shared, or defers it until it is released. */
+  private void retire(SharedClient shared) {
+    shared.retired = true;
+    if (shared.leases == 0) {
+      IOUtils.closeQuietly(shared.client);
+    }
+  }
+
+  private String computeSignature(AppPrestashop appConfig) {
+    return String.join(
+        "|",
+        Objects.toString(appConfig.getPrestaShopUrl()),
+        Objects.toString(appConfig.getPrestaShopKey()),
+        Objects.toString(appConfig.getMaxConnections()),
+        Objects.toString(appConfig.getConnectionKeepAlive()),
+        Objects.toString(appConfig.getRequestTimeout()),
+        Objects.toString(appConfig.getReferenceDataCacheDuration()),
+        Objects.toString(appConfig.getMaxRetries()),
+        Objects.toString(appConfig.getMaxRequestsPerSecond()));
+  }
+
+  private RetryPolicy createRetryPolicy(AppPrestashop appConfig) {
+    return new RetryPolicy(
+        appConfig.getMaxRetries() == null
+            ? RetryPolicy.DEFAULT_MAX_RETRIES
+            : appConfig.getMaxRetries(),
+        RetryPolicy.DEFAULT_BASE_DELAY,
+        RetryPolicy.DEFAULT_MAX_DELAY);
+  }
+
+  private static int positiveOrDefault(Integer value, int defaultValue) {
+    return value == null || value <= 0 ? defaultValue : value;
+  }
+
+  private static class SharedClient {
+    final String signature;
+    final PSWebServiceClient client;
+    /** Number of times client has been acquired and not yet released. */
+    int leases;
+    /** Whether client has been replaced, so it must be closed once no longer acquired. */
+    boolean retired;
+
+    SharedClient(String signature, PSWebServiceClient client) {
+      this.signature = signature;
+      this.client = client;
+    }
+  }
+
+  /** Client a batch works with, so all of its stages talk to the same shop. */
+  private static class BatchLease {
+    final SharedClient shared;
+    /** Number of times batch acquired the client and has not released it yet. */
+    int count;
+
+    BatchLease(SharedClient shared) {
+      this.shared = shared;
+    }
+  }
+}
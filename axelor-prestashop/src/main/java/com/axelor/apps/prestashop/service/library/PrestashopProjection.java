@@ -0,0 +1,58 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import java.util.Collections;
+import java.util.Map;
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+/**
+ * Lightweight view of a remote entity holding only a few of its fields, as returned by {@link
+ * PSWebServiceClient#fetchProjection(com.axelor.apps.prestashop.entities.PrestashopResourceType,
+ * java.util.List)}. Values are kept as raw strings, it is up to the caller to convert them.
+ */
+public class PrestashopProjection {
+  private final Integer id;
+  private final Map<String, String> values;
+
+  PrestashopProjection(Integer id, Map<String, String> values) {
+    this.id = id;
+    this.values = Collections.unmodifiableMap(values);
+  }
+
+  public Integer getId() {
+    return id;
+  }
+
+  /**
+   * @param field Name of the field, as used by PrestaShop (eg. <code>date_upd</code>)
+   * @return Raw value of the field, or <code>null</code> if it has not been requested or is empty
+   */
+  public String get(String field) {
+    return values.get(field);
+  }
+
+  public Map<String, String> getValues() {
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    return new ToStringBuilder(this).append("id", id).append("values", values).toString();
+  }
+}
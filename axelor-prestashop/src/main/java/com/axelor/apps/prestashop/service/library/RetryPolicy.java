@@ -0,0 +1,167 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectTimeoutException;
+
+/**
+ * Tells whether and when a failed webservice call should be performed again. Delays grow
+ * exponentially with each attempt and are randomized so concurrent callers do not retry all at
+ * once. Retry-After header sent along with 429/503 responses is honoured.
+ */
+public class RetryPolicy {
+  /** Which failures a request can be retried on, depends on its HTTP method. */
+  public enum Mode {
+    /** Never retry */
+    NEVER,
+    /**
+     * Only retry when connection to the shop could not be established, ie. when the request has
+     * surely not been received. Suitable for non-idempotent requests.
+     */
+    CONNECTION_FAILURE,
+    /** Retry on any I/O error and on responses telling the shop is temporarily unavailable. */
+    TRANSIENT_FAILURE
+  }
+
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  public static final long DEFAULT_BASE_DELAY = 500;
+  public static final long DEFAULT_MAX_DELAY = 30000;
+
+  /** Policy that never retries anything. */
+  public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0);
+
+  private final int maxRetries;
+  private final long baseDelay;
+  private final long maxDelay;
+  private final Map<String, Mode> modes = new HashMap<>();
+
+  /**
+   * Builds a policy retrying idempotent requests (GET, HEAD, PUT, DELETE) on transient failures and
+   * other ones (POST) on connection failures only.
+   *
+   * @param maxRetries Maximum number of retries for a single request.
+   * @param baseDelay Delay before first retry, in milliseconds. Doubled on each new attempt.
+   * @param maxDelay Maximum delay between two attempts, in milliseconds. Calls asked to wait longer
+   *     than this through a Retry-After header are not retried.
+   */
+  public RetryPolicy(int maxRetries, long baseDelay, long maxDelay) {
+    this.maxRetries = maxRetries;
+    this.baseDelay = baseDelay;
+    this.maxDelay = maxDelay;
+    for (String method : new String[] {"GET", "HEAD", "PUT", "DELETE"}) {
+      modes.put(method, Mode.TRANSIENT_FAILURE);
+    }
+  }
+
+  /**
+   * Changes which failures requests using the given method are retried on.
+   *
+   * @return This instance, for chaining.
+   */
+  public RetryPolicy setMode(String method, Mode mode) {
+    modes.put(method.toUpperCase(), mode);
+    return this;
+  }
+
+  public Mode getMode(String method) {
+    return modes.getOrDefault(method.toUpperCase(), Mode.CONNECTION_FAILURE);
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Computes delay before retrying a request that failed with an I/O error.
+   *
+   * @param method HTTP method of the request
+   * @param attempt Number of retries already performed for this request
+   * @param e Failure cause
+   * @return Delay in milliseconds, or a negative value if request must not be retried.
+   */
+  public long getRetryDelay(String method, int attempt, IOException e) {
+    if (attempt >= maxRetries) return -1;
+    switch (getMode(method)) {
+      case TRANSIENT_FAILURE:
+        return computeDelay(attempt);
+      case CONNECTION_FAILURE:
+        return e instanceof ConnectException || e instanceof ConnectTimeoutException
+            ? computeDelay(attempt)
+            : -1;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Computes delay before retrying a request the shop answered with an error status.
+   *
+   * @param method HTTP method of the request
+   * @param attempt Number of retries already performed for this request
+   * @param statusCode Status code of the response
+   * @param retryAfter Value of the Retry-After header of the response, if any
+   * @return Delay in milliseconds, or a negative value if request must not be retried.
+   */
+  public long getRetryDelay(String method, int attempt, int statusCode, String retryAfter) {
+    if (attempt >= maxRetries || getMode(method) != Mode.TRANSIENT_FAILURE) return -1;
+    if (statusCode != 429
+        && statusCode != HttpStatus.SC_BAD_GATEWAY
+        && statusCode != HttpStatus.SC_SERVICE_UNAVAILABLE
+        && statusCode != HttpStatus.SC_GATEWAY_TIMEOUT) {
+      return -1;
+    }
+    final long delay = computeDelay(attempt);
+    final long requested = parseRetryAfter(retryAfter);
+    if (requested > maxDelay) return -1;
+    return Math.max(delay, requested);
+  }
+
+  /** Exponential backoff with jitter: a random duration between half and full delay. */
+  private long computeDelay(int attempt) {
+    final long delay = Math.min(maxDelay, baseDelay << Math.min(attempt, 30));
+    if (delay <= 1) return Math.max(delay, 0);
+    return delay / 2 + ThreadLocalRandom.current().nextLong(delay - delay / 2 + 1);
+  }
+
+  /**
+   * @param retryAfter Header value, either a number of seconds or an HTTP date
+   * @return Requested delay in milliseconds, 0 if none (or invalid)
+   */
+  static long parseRetryAfter(String retryAfter) {
+    if (StringUtils.isBlank(retryAfter)) return 0;
+    retryAfter = retryAfter.trim();
+    if (StringUtils.isNumeric(retryAfter)) {
+      try {
+        return Math.multiplyExact(Long.parseLong(retryAfter), 1000L);
+      } catch (NumberFormatException | ArithmeticException e) {
+        return Long.MAX_VALUE;
+      }
+    }
+    final Date date = DateUtils.parseDate(retryAfter);
+    return date == null ? 0 : Math.max(0, date.getTime() - System.currentTimeMillis());
+  }
+}
@@ -21,12 +21,14 @@ import com.axelor.apps.base.db.AppPrestashop;
 import com.axelor.apps.prestashop.app.AppPrestaShopService;
 import com.axelor.apps.prestashop.imports.service.ImportMetaDataService;
 import com.axelor.apps.prestashop.service.library.PSWebServiceClient;
+import com.axelor.apps.prestashop.service.library.PSWebServiceClientProvider;
 import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
 import com.axelor.i18n.I18n;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import javax.xml.transform.TransformerException;
@@ -42,6 +44,8 @@ public class AppPrestaShopController {
 
   @Inject private ImportMetaDataService metadataService;
 
+  @Inject private PSWebServiceClientProvider clientProvider;
+
   /**
    * Test connection with prestashop
    *
@@ -71,12 +75,10 @@ public class AppPrestaShopController {
 
   public void importMetadata(ActionRequest request, ActionResponse response) {
     AppPrestashop appConfig = request.getContext().asType(AppPrestashop.class);
-    PSWebServiceClient ws =
-        new PSWebServiceClient(appConfig.getPrestaShopUrl(), appConfig.getPrestaShopKey());
-    try {
+    try (PSWebServiceClient ws = clientProvider.createClient(appConfig)) {
       metadataService.importLanguages(ws);
       metadataService.importOrderStatuses(appConfig.getTextsLanguage(), ws);
-    } catch (PrestaShopWebserviceException e) {
+    } catch (PrestaShopWebserviceException | IOException e) {
       response.setError(
           String.format(
               I18n.get("Error while fetching metadata, please perform a connection check: %s"),
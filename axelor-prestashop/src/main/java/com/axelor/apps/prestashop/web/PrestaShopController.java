@@ -18,73 +18,130 @@
 package com.axelor.apps.prestashop.web;
 
 import com.axelor.apps.base.db.Batch;
-import com.axelor.apps.prestashop.batch.PrestaShopBatchService;
+import com.axelor.apps.base.db.repo.BatchRepository;
+import com.axelor.apps.prestashop.batch.PrestaShopBatchRunner;
+import com.axelor.apps.prestashop.batch.PrestaShopBatchRunner.Progress;
+import com.axelor.apps.prestashop.batch.PrestaShopBatchRunner.RecordCounter;
 import com.axelor.apps.prestashop.db.PrestaShopBatch;
 import com.axelor.apps.prestashop.db.repo.PrestaShopBatchRepository;
-import com.axelor.apps.prestashop.service.library.PrestaShopWebserviceException;
+import com.axelor.apps.prestashop.exception.IExceptionMessage;
+import com.axelor.apps.prestashop.service.exports.batch.ExportPrestaShop;
+import com.axelor.apps.prestashop.service.exports.batch.SyncStockPrestaShop;
+import com.axelor.apps.prestashop.service.imports.batch.ImportPrestaShop;
+import com.axelor.exception.AxelorException;
+import com.axelor.i18n.I18n;
+import com.axelor.inject.Beans;
 import com.axelor.rpc.ActionRequest;
 import com.axelor.rpc.ActionResponse;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.text.ParseException;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
-import org.xml.sax.SAXException;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Singleton
 public class PrestaShopController {
 
-  @Inject private PrestaShopBatchService prestaShopBatchService;
+  @Inject private PrestaShopBatchRunner batchRunner;
 
   @Inject private PrestaShopBatchRepository prestaShopBatchRepo;
 
+  @Inject private BatchRepository batchRepo;
+
   /**
-   * Import objects/resources from prestashop to ABS
+   * Import objects/resources from prestashop to ABS. Batch is run in background, see {@link
+   * #showProgress(ActionRequest, ActionResponse)}.
    *
    * @param request
    * @param response
-   * @throws PrestaShopWebserviceException
-   * @throws ParseException
-   * @throws TransformerException
    */
-  public void importPrestShop(ActionRequest request, ActionResponse response)
-      throws PrestaShopWebserviceException, ParseException, TransformerException {
-
-    PrestaShopBatch prestaShopBatch = request.getContext().asType(PrestaShopBatch.class);
-    Batch batch =
-        prestaShopBatchService.importPrestaShop(prestaShopBatchRepo.find(prestaShopBatch.getId()));
-    response.setValue("prestaShopBatchLog", batch.getPrestaShopBatchLog());
+  public void importPrestShop(ActionRequest request, ActionResponse response) {
+    submit(request, response, b -> Beans.get(ImportPrestaShop.class).run(b));
+  }
 
-    if (batch != null) response.setFlash(batch.getComments());
-    response.setReload(true);
+  /**
+   * Export objects/resources from ABS to prestashop. Batch is run in background, see {@link
+   * #showProgress(ActionRequest, ActionResponse)}.
+   *
+   * @param request
+   * @param response
+   */
+  public void exportPrestShop(ActionRequest request, ActionResponse response) {
+    submit(request, response, b -> Beans.get(ExportPrestaShop.class).run(b));
   }
 
   /**
-   * Export objects/resources from ABS to prestashop
+   * Export stock quantities from ABS to prestashop. Batch is run in background, see {@link
+   * #showProgress(ActionRequest, ActionResponse)}.
    *
    * @param request
    * @param response
-   * @throws PrestaShopWebserviceException
-   * @throws TransformerException
-   * @throws NumberFormatException
-   * @throws MalformedURLException
-   * @throws IOException
-   * @throws SAXException
-   * @throws ParserConfigurationException
    */
-  public void exportPrestShop(ActionRequest request, ActionResponse response)
-      throws PrestaShopWebserviceException, TransformerException, NumberFormatException,
-          MalformedURLException, IOException, SAXException, ParserConfigurationException {
+  public void syncStockPrestaShop(ActionRequest request, ActionResponse response) {
+    submit(request, response, b -> Beans.get(SyncStockPrestaShop.class).run(b));
+  }
 
+  /**
+   * Displays the progress of the running batch, if any, along with the number of records
+   * synchronized so far for each resource type. Called when form is loaded and by the progress
+   * button, which also reloads the form once batch is over.
+   *
+   * @param request
+   * @param response
+   */
+  public void showProgress(ActionRequest request, ActionResponse response) {
     PrestaShopBatch prestaShopBatch = request.getContext().asType(PrestaShopBatch.class);
+    Progress progress = batchRunner.getProgress(prestaShopBatch.getId());
+
+    if (progress == null) {
+      response.setValue("$progress", I18n.get(IExceptionMessage.PRESTASHOP_BATCH_IDLE));
+      // Reloading on form load would loop
+      if ("progress".equals(request.getContext().get("_signal"))) {
+        response.setReload(true);
+      }
+      return;
+    }
 
-    Batch batch =
-        prestaShopBatchService.exportPrestaShop(prestaShopBatchRepo.find(prestaShopBatch.getId()));
-    response.setValue("prestaShopBatchLog", batch.getPrestaShopBatchLog());
+    Batch batch = progress.getBatchId() == null ? null : batchRepo.find(progress.getBatchId());
+    StringBuilder text =
+        new StringBuilder(
+            String.format(
+                I18n.get(IExceptionMessage.PRESTASHOP_BATCH_PROGRESS),
+                progress.getBatchId() == null ? "-" : progress.getBatchId(),
+                progress.getStages().isEmpty()
+                    ? "-"
+                    : progress.getStages().stream()
+                        .map(I18n::get)
+                        .collect(Collectors.joining(", ")),
+                batch == null || batch.getDone() == null ? 0 : batch.getDone(),
+                batch == null || batch.getAnomaly() == null ? 0 : batch.getAnomaly()));
+    for (Map.Entry<String, RecordCounter> entry : progress.getRecordCounters().entrySet()) {
+      RecordCounter counter = entry.getValue();
+      text.append('\n')
+          .append(
+              String.format(
+                  I18n.get(IExceptionMessage.PRESTASHOP_BATCH_PROGRESS_RECORDS),
+                  entry.getKey(),
+                  counter.getSuccess(),
+                  counter.getWarning(),
+                  counter.getError()));
+    }
+    response.setValue("$progress", text.toString());
+  }
+
+  private void submit(
+      ActionRequest request, ActionResponse response, Function<PrestaShopBatch, Batch> job) {
+    PrestaShopBatch prestaShopBatch = request.getContext().asType(PrestaShopBatch.class);
 
-    if (batch != null) response.setFlash(batch.getComments());
+    try {
+      Long batchId = batchRunner.submit(prestaShopBatchRepo.find(prestaShopBatch.getId()), job);
+      response.setFlash(
+          String.format(
+              I18n.get(IExceptionMessage.PRESTASHOP_BATCH_STARTED),
+              batchId == null ? "-" : batchId));
+    } catch (AxelorException e) {
+      response.setError(e.getMessage());
+    }
     response.setReload(true);
   }
 }
@@ -0,0 +1,134 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.batch;
+
+import com.axelor.apps.prestashop.batch.BatchLogWriter.Level;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BatchLogWriterTest {
+  private BatchLogWriter writer;
+
+  @After
+  public void tearDown() throws IOException {
+    if (writer != null) writer.delete();
+  }
+
+  private String finish() throws IOException {
+    final Path result = writer.finish();
+    try (InputStream in =
+        writer.getFileName().endsWith(".gz")
+            ? new GZIPInputStream(Files.newInputStream(result))
+            : Files.newInputStream(result)) {
+      return IOUtils.toString(in, StandardCharsets.UTF_8).replace("\r\n", "\n");
+    }
+  }
+
+  @Test
+  public void testSamplingPerRecord() throws IOException {
+    writer = new BatchLogWriter("log.txt", false, 0).sample(Level.SUCCESS, 2);
+    writer.write("==== ORDERS ====\n");
+    for (int i = 1; i <= 3; ++i) {
+      writer.write(String.format("Order %d [SUCCESS]%n\tExporting lines:%n", i));
+      writer.write(String.format("\tLine %d [SUCCESS]%n", i));
+    }
+    writer.write("==== END ====\n");
+
+    final String log = finish();
+    Assert.assertTrue(log.startsWith("==== ORDERS ====\nOrder 1 [SUCCESS]\n"));
+    Assert.assertTrue(log.contains("\tLine 1 [SUCCESS]\n"));
+    // Second record is skipped along with its indented lines
+    Assert.assertFalse(log.contains("Order 2"));
+    Assert.assertFalse(log.contains("Line 2"));
+    Assert.assertTrue(log.contains("Order 3 [SUCCESS]\n\tExporting lines:\n\tLine 3 [SUCCESS]\n"));
+    Assert.assertTrue(log.contains("==== END ====\n"));
+    Assert.assertTrue(log.contains("3 lines were not written to this log (sampling)"));
+  }
+
+  @Test
+  public void testRecordLevelIsMostSevere() throws IOException {
+    writer = new BatchLogWriter("log.txt", false, 0).sample(Level.SUCCESS, 0);
+    writer.write("Order 1 [SUCCESS]\n\tLine 1 [ERROR] price missing\n");
+    writer.write("Order 2 [SUCCESS]\n\tLine 2 [SUCCESS]\n");
+
+    final String log = finish();
+    Assert.assertTrue(log.startsWith("Order 1 [SUCCESS]\n\tLine 1 [ERROR] price missing\n"));
+    Assert.assertFalse(log.contains("Order 2"));
+    Assert.assertTrue(log.contains("2 lines were not written"));
+  }
+
+  @Test
+  public void testPartRotation() throws IOException {
+    writer = new BatchLogWriter("log.txt", false, 400);
+    for (int i = 0; i < 100; ++i) {
+      writer.write(String.format("Record %03d [SUCCESS]%n", i));
+    }
+
+    final String log = finish();
+    Assert.assertTrue(log.startsWith("[WARNING] Log size limit reached"));
+    Assert.assertFalse(log.contains("Record 000"));
+    Assert.assertTrue(log.endsWith("Record 099 [SUCCESS]\n"));
+    // At most 4 parts of a bit more than 100 characters are kept, plus the notice
+    Assert.assertTrue(log.length() < 4 * 130 + 100);
+  }
+
+  @Test
+  public void testCompressedParts() throws IOException {
+    writer = new BatchLogWriter("log.txt", true, 400);
+    Assert.assertEquals("log.txt.gz", writer.getFileName());
+    for (int i = 0; i < 100; ++i) {
+      writer.write(String.format("Record %03d [SUCCESS]%n", i));
+    }
+
+    // Notice and parts are separate gzip members read as a single stream
+    final String log = finish();
+    Assert.assertTrue(log.startsWith("[WARNING] Log size limit reached"));
+    Assert.assertTrue(log.contains("Record 098 [SUCCESS]\nRecord 099 [SUCCESS]\n"));
+    Assert.assertFalse(log.contains("Record 000"));
+  }
+
+  @Test
+  public void testForkAppend() throws IOException {
+    writer = new BatchLogWriter("log.txt", false, 0).sample(Level.SUCCESS, 0);
+    writer.write("==== MAIN ====\n");
+    final BatchLogWriter fork = writer.fork();
+    fork.write("Product 1 [ERROR]\n\tno reference\n");
+    fork.write("Product 2 [SUCCESS]\n");
+    writer.write("Main record [WARNING]\n");
+    writer.append(fork);
+    writer.write("==== END ====\n");
+
+    final String log = finish();
+    // Fork content comes in one block, after what has been written to main log before appending
+    Assert.assertTrue(
+        log.startsWith(
+            "==== MAIN ====\nMain record [WARNING]\nProduct 1 [ERROR]\n\tno reference\n"
+                + "==== END ====\n"));
+    // Fork shares main log sampling and its skipped lines are counted
+    Assert.assertFalse(log.contains("Product 2"));
+    Assert.assertTrue(log.contains("1 lines were not written"));
+  }
+}
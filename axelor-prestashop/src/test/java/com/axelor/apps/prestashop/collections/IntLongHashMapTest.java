@@ -0,0 +1,81 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.collections;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IntLongHashMapTest {
+
+  @Test
+  public void testPutGet() {
+    IntLongHashMap map = new IntLongHashMap();
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertEquals(IntLongHashMap.NO_VALUE, map.get(1));
+
+    Assert.assertEquals(IntLongHashMap.NO_VALUE, map.put(1, 10L));
+    Assert.assertEquals(IntLongHashMap.NO_VALUE, map.put(0, 20L));
+    Assert.assertEquals(IntLongHashMap.NO_VALUE, map.put(-5, 30L));
+    Assert.assertEquals(10L, map.put(1, 11L));
+
+    Assert.assertEquals(3, map.size());
+    Assert.assertEquals(11L, map.get(1));
+    Assert.assertEquals(20L, map.get(0));
+    Assert.assertEquals(30L, map.get(-5));
+    Assert.assertFalse(map.containsKey(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testZeroValueRejected() {
+    new IntLongHashMap().put(1, IntLongHashMap.NO_VALUE);
+  }
+
+  @Test
+  public void testAgainstHashMap() {
+    final Random random = new Random(42);
+    final IntLongHashMap map = new IntLongHashMap(4);
+    final Map<Integer, Long> reference = new HashMap<>();
+
+    for (int i = 0; i < 100000; ++i) {
+      // Narrow key range so that removals actually hit existing entries
+      final int key = random.nextInt(5000);
+      if (random.nextInt(3) == 0) {
+        Long expected = reference.remove(key);
+        Assert.assertEquals(expected == null ? IntLongHashMap.NO_VALUE : expected, map.remove(key));
+      } else {
+        final long value = random.nextInt(Integer.MAX_VALUE) + 1L;
+        Long expected = reference.put(key, value);
+        Assert.assertEquals(
+            expected == null ? IntLongHashMap.NO_VALUE : expected, map.put(key, value));
+      }
+    }
+
+    Assert.assertEquals(reference.size(), map.size());
+    for (int key = 0; key < 5000; ++key) {
+      Long expected = reference.get(key);
+      Assert.assertEquals(expected == null ? IntLongHashMap.NO_VALUE : expected, map.get(key));
+    }
+
+    map.clear();
+    Assert.assertTrue(map.isEmpty());
+    Assert.assertEquals(IntLongHashMap.NO_VALUE, map.get(reference.keySet().iterator().next()));
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.prestashop.entities.PrestashopCurrency;
+import com.axelor.apps.prestashop.entities.PrestashopImage;
+import com.axelor.apps.prestashop.entities.PrestashopProduct;
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.google.common.util.concurrent.RateLimiter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncPSWebServiceClientTest {
+  private HttpServer server;
+  private ExecutorService serverExecutor;
+  private AsyncPSWebServiceClient client;
+  private final AtomicInteger unavailableResponses = new AtomicInteger();
+  private final AtomicInteger requests = new AtomicInteger();
+  /** When set, requests are held until it is released. */
+  private volatile CountDownLatch gate;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    serverExecutor = Executors.newFixedThreadPool(8);
+    server.setExecutor(serverExecutor);
+    server.createContext("/api/currencies", this::handleCurrencies);
+    server.createContext("/api/images", this::handleImages);
+    server.start();
+
+    client =
+        new AsyncPSWebServiceClient(
+            "http://127.0.0.1:" + server.getAddress().getPort(),
+            "KEY",
+            AsyncPSWebServiceClient.createHttpClient(4, 10));
+    client.setRetryPolicy(new RetryPolicy(3, 10, 100));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    server.stop(0);
+    serverExecutor.shutdownNow();
+  }
+
+  private void handleCurrencies(HttpExchange exchange) throws IOException {
+    requests.incrementAndGet();
+    final CountDownLatch latch = gate;
+    if (latch != null) {
+      try {
+        latch.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (unavailableResponses.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+      exchange.getResponseHeaders().add("Retry-After", "0");
+      respond(exchange, 503, null);
+      return;
+    }
+    final String path = exchange.getRequestURI().getPath();
+    if ("POST".equals(exchange.getRequestMethod())) {
+      final String body = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+      respond(exchange, body.contains("Test currency") ? 201 : 400, "currency.xml");
+    } else if (path.endsWith("/currencies")) {
+      respond(exchange, 200, "currencies.xml");
+    } else if (path.endsWith("/currencies/1")) {
+      respond(exchange, 200, "currency.xml");
+    } else {
+      respond(exchange, 404, null);
+    }
+  }
+
+  private void handleImages(HttpExchange exchange) throws IOException {
+    final String body = IOUtils.toString(exchange.getRequestBody(), "ISO-8859-1");
+    final boolean valid =
+        "POST".equals(exchange.getRequestMethod())
+            && exchange.getRequestURI().getPath().endsWith("/api/images/products/1")
+            && exchange.getRequestHeaders().getFirst("Content-Length") != null
+            && body.contains("name=\"image\"; filename=\"image.jpg\"")
+            && body.contains("not really a JPEG");
+    respond(exchange, valid ? 200 : 400, "image.xml");
+  }
+
+  private void respond(HttpExchange exchange, int status, String resource) throws IOException {
+    final byte[] body;
+    if (resource == null) {
+      body = new byte[0];
+    } else {
+      try (InputStream is =
+          getClass().getResourceAsStream("/com/axelor/apps/prestashop/" + resource)) {
+        body = IOUtils.toByteArray(is);
+      }
+    }
+    exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) exchange.getResponseBody().write(body);
+    exchange.close();
+  }
+
+  @Test
+  public void testFetch() throws InterruptedException, ExecutionException {
+    final List<PrestashopCurrency> currencies =
+        client.<PrestashopCurrency>fetchAll(PrestashopResourceType.CURRENCIES).get();
+    Assert.assertEquals(166, currencies.size());
+    Assert.assertEquals("euro", currencies.get(0).getName());
+
+    final PrestashopCurrency currency =
+        client.<PrestashopCurrency>fetch(PrestashopResourceType.CURRENCIES, 1).get();
+    Assert.assertEquals(Integer.valueOf(1), currency.getId());
+    Assert.assertNull(client.fetch(PrestashopResourceType.CURRENCIES, 2).get());
+  }
+
+  @Test
+  public void testSave() throws InterruptedException, ExecutionException {
+    final PrestashopCurrency currency = new PrestashopCurrency();
+    currency.setName("Test currency");
+    Assert.assertEquals(
+        Integer.valueOf(1), client.save(PrestashopResourceType.CURRENCIES, currency).get().getId());
+  }
+
+  @Test
+  public void testRetry() throws InterruptedException, ExecutionException {
+    unavailableResponses.set(2);
+    Assert.assertNotNull(client.fetch(PrestashopResourceType.CURRENCIES, 1).get());
+    Assert.assertEquals(3, requests.get());
+
+    unavailableResponses.set(10);
+    try {
+      client.fetch(PrestashopResourceType.CURRENCIES, 1).get();
+      Assert.fail("Request should have failed once retries are exhausted");
+    } catch (ExecutionException e) {
+      Assert.assertEquals(503, ((PrestashopHttpException) e.getCause()).getStatusCode());
+    }
+  }
+
+  @Test
+  public void testCallbacksRunOffIoThreads() throws InterruptedException, ExecutionException {
+    gate = new CountDownLatch(1);
+    final CompletableFuture<String> thread =
+        client
+            .fetch(PrestashopResourceType.CURRENCIES, 1)
+            .thenApply(currency -> Thread.currentThread().getName());
+    gate.countDown();
+    Assert.assertTrue(thread.get().startsWith("prestashop-async-"));
+  }
+
+  @Test
+  public void testRateLimiter() throws InterruptedException, ExecutionException {
+    client.setRateLimiter(RateLimiter.create(10));
+    final long start = System.nanoTime();
+    final List<CompletableFuture<PrestashopCurrency>> futures = new ArrayList<>();
+    for (int i = 0; i < 6; ++i) {
+      futures.add(client.fetch(PrestashopResourceType.CURRENCIES, 1));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+    // First permit is immediate, following ones are 100ms apart
+    Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 450);
+  }
+
+  @Test
+  public void testAddImage() throws IOException, InterruptedException, ExecutionException {
+    final Path imageFile = Files.createTempFile("image", ".jpg");
+    try {
+      Files.write(imageFile, "not really a JPEG".getBytes(StandardCharsets.UTF_8));
+      final PrestashopProduct product = new PrestashopProduct();
+      product.setId(1);
+      final PrestashopImage image =
+          client.addImage(PrestashopResourceType.PRODUCTS, product, imageFile).get();
+      Assert.assertEquals(Integer.valueOf(29), image.getId());
+    } finally {
+      Files.delete(imageFile);
+    }
+  }
+
+  @Test
+  public void testManyRequestsInFlight() throws InterruptedException, ExecutionException {
+    final List<CompletableFuture<PrestashopCurrency>> futures = new ArrayList<>();
+    for (int i = 0; i < 200; ++i) {
+      futures.add(client.fetch(PrestashopResourceType.CURRENCIES, 1));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+    for (CompletableFuture<PrestashopCurrency> future : futures) {
+      Assert.assertEquals(Integer.valueOf(1), future.get().getId());
+    }
+  }
+}
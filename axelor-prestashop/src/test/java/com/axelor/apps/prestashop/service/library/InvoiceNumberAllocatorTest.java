@@ -0,0 +1,138 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class InvoiceNumberAllocatorTest {
+  /** Client serving invoice numbers from memory instead of a remote shop. */
+  private static class StubClient extends PSWebServiceClient {
+    private final List<Integer> numbers = new ArrayList<>();
+    private int projectionCalls;
+
+    StubClient(Integer... numbers) {
+      super("http://localhost", "KEY");
+      this.numbers.addAll(Arrays.asList(numbers));
+    }
+
+    @Override
+    public int getNextInvoiceNumber() {
+      return numbers.stream().mapToInt(Integer::intValue).max().orElse(0) + 1;
+    }
+
+    @Override
+    public List<PrestashopProjection> fetchProjection(
+        PrestashopResourceType resourceType, List<String> fields, Map<String, String> filter) {
+      Assert.assertEquals(PrestashopResourceType.ORDER_INVOICES, resourceType);
+      ++projectionCalls;
+      final String[] bounds = filter.get("number").replaceAll("[\\[\\]]", "").split(",");
+      final int min = Integer.parseInt(bounds[0]);
+      final int max = Integer.parseInt(bounds[1]);
+      final List<PrestashopProjection> result = new ArrayList<>();
+      for (Integer number : numbers) {
+        if (number >= min && number <= max) {
+          result.add(
+              new PrestashopProjection(
+                  null, Collections.singletonMap("number", number.toString())));
+        }
+      }
+      return result;
+    }
+  }
+
+  private StubClient ws;
+
+  @Before
+  public void setUp() {
+    ws = new StubClient(1, 2, 3);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    ws.close();
+  }
+
+  @Test
+  public void testSequentialNumbers() throws PrestaShopWebserviceException {
+    final InvoiceNumberAllocator allocator = new InvoiceNumberAllocator(ws, 10);
+    for (int i = 4; i < 10; ++i) {
+      final int number = allocator.next();
+      Assert.assertEquals(i, number);
+      ws.numbers.add(number);
+    }
+    Assert.assertTrue(allocator.verify().isEmpty());
+    Assert.assertEquals(1, ws.projectionCalls);
+    Assert.assertEquals(10, allocator.next());
+  }
+
+  @Test
+  public void testDuplicateWithoutRemoteAdvance() throws PrestaShopWebserviceException {
+    final InvoiceNumberAllocator allocator = new InvoiceNumberAllocator(ws, 10);
+    Assert.assertEquals(4, allocator.next());
+    Assert.assertEquals(5, allocator.next());
+    // Another source took number 4 before our invoice got saved, highest number is still ours
+    ws.numbers.add(4);
+    ws.numbers.add(4);
+    ws.numbers.add(5);
+    Assert.assertEquals(Collections.singleton(4), allocator.verify());
+    Assert.assertEquals(6, allocator.next());
+  }
+
+  @Test
+  public void testSkipRemoteNumbers() throws PrestaShopWebserviceException {
+    final InvoiceNumberAllocator allocator = new InvoiceNumberAllocator(ws, 2);
+    Assert.assertEquals(4, allocator.next());
+    ws.numbers.add(4);
+    ws.numbers.add(5);
+    ws.numbers.add(6);
+    Assert.assertEquals(5, allocator.next());
+    ws.numbers.add(5);
+    // Interval reached, counter moves past numbers created remotely
+    Assert.assertEquals(7, allocator.next());
+    Assert.assertEquals(1, ws.projectionCalls);
+    // Duplicate found by automatic verification is kept until taken
+    Assert.assertTrue(allocator.hasDuplicates());
+    Assert.assertEquals(Collections.singleton(5), allocator.takeDuplicates());
+    Assert.assertFalse(allocator.hasDuplicates());
+    Assert.assertTrue(allocator.takeDuplicates().isEmpty());
+    // Our number 7 has not been taken meanwhile
+    ws.numbers.add(7);
+    Assert.assertTrue(allocator.verify().isEmpty());
+    Assert.assertEquals(8, allocator.next());
+  }
+
+  @Test
+  public void testNothingToVerify() throws PrestaShopWebserviceException {
+    final InvoiceNumberAllocator allocator = new InvoiceNumberAllocator(ws, 10);
+    Assert.assertTrue(allocator.verify().isEmpty());
+    allocator.next();
+    allocator.verify();
+    Assert.assertTrue(allocator.verify().isEmpty());
+    Assert.assertEquals(1, ws.projectionCalls);
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import com.axelor.apps.prestashop.entities.PrestashopCurrency;
+import com.axelor.apps.prestashop.entities.PrestashopResourceType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Runs list parsing against the XML fixtures used by UnmarshalTest, served by a local server. */
+public class PSWebServiceClientTest {
+  private static final String FIXTURES = "/com/axelor/apps/prestashop/";
+  private static final Pattern CURRENCY =
+      Pattern.compile("<currency>.*?</currency>", Pattern.DOTALL);
+  private static final Pattern LIMIT = Pattern.compile("limit=(\\d+),(\\d+)");
+
+  private HttpServer server;
+  private PSWebServiceClient client;
+  private String currenciesFixture = "currencies.xml";
+  private final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+  /** Requests received for currency #1, as method and If-None-Match header. */
+  private final List<String> currencyRequests = Collections.synchronizedList(new ArrayList<>());
+  /** Whether currency #1 is answered with 304 even to unconditional requests. */
+  private volatile boolean alwaysNotModified;
+
+  @Before
+  public void setUp() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/currencies", this::handleCurrencies);
+    server.createContext("/api/currencies/1", this::handleCurrency);
+    server.createContext(
+        "/api/orders", exchange -> respond(exchange, readFixture("orders-projection.xml")));
+    server.start();
+    client = new PSWebServiceClient("http://127.0.0.1:" + server.getAddress().getPort(), "KEY");
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    server.stop(0);
+  }
+
+  private void handleCurrencies(HttpExchange exchange) throws IOException {
+    final String query = exchange.getRequestURI().getQuery();
+    queries.add(query);
+    final String fixture = readFixture(currenciesFixture);
+    final Matcher limit = LIMIT.matcher(query == null ? "" : query);
+    if (limit.find() == false) {
+      respond(exchange, fixture);
+      return;
+    }
+    // Serve the requested page out of the full list
+    final List<String> entities = new ArrayList<>();
+    final Matcher currency = CURRENCY.matcher(fixture);
+    while (currency.find()) entities.add(currency.group());
+    final int offset = Math.min(Integer.parseInt(limit.group(1)), entities.size());
+    final int end = Math.min(offset + Integer.parseInt(limit.group(2)), entities.size());
+    respond(
+        exchange,
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<prestashop xmlns:xlink=\"http://www.w3.org/1999/xlink\"><currencies>"
+            + String.join("\n", entities.subList(offset, end))
+            + "</currencies></prestashop>");
+  }
+
+  private void handleCurrency(HttpExchange exchange) throws IOException {
+    final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+    currencyRequests.add(exchange.getRequestMethod() + " " + ifNoneMatch);
+    IOUtils.toByteArray(exchange.getRequestBody());
+    exchange.getResponseHeaders().add("ETag", "\"v1\"");
+    if (alwaysNotModified || "\"v1\"".equals(ifNoneMatch)) {
+      exchange.sendResponseHeaders(304, -1);
+      exchange.close();
+      return;
+    }
+    respond(exchange, readFixture("currency.xml"));
+  }
+
+  private String readFixture(String name) throws IOException {
+    try (InputStream in = getClass().getResourceAsStream(FIXTURES + name)) {
+      return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+  }
+
+  private void respond(HttpExchange exchange, String body) throws IOException {
+    final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().add("Content-Type", "text/xml;charset=utf-8");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  @Test
+  public void testCacheFreshHit() throws PrestaShopWebserviceException {
+    client.setResponseCache(new InMemoryResponseCache(60_000));
+    final PrestashopCurrency first = client.fetch(PrestashopResourceType.CURRENCIES, 1);
+    final PrestashopCurrency second = client.fetch(PrestashopResourceType.CURRENCIES, 1);
+
+    Assert.assertEquals(Collections.singletonList("GET null"), currencyRequests);
+    Assert.assertEquals(first.getId(), second.getId());
+    // Each read gets its own copy
+    Assert.assertNotSame(first, second);
+  }
+
+  @Test
+  public void testCacheRevalidation() throws PrestaShopWebserviceException, InterruptedException {
+    client.setResponseCache(new InMemoryResponseCache(50));
+    client.fetch(PrestashopResourceType.CURRENCIES, 1);
+    Thread.sleep(100);
+    final PrestashopCurrency currency = client.fetch(PrestashopResourceType.CURRENCIES, 1);
+
+    Assert.assertEquals(Arrays.asList("GET null", "GET \"v1\""), currencyRequests);
+    Assert.assertEquals(Integer.valueOf(1), currency.getId());
+    Assert.assertEquals("euro", currency.getName());
+    // Revalidated response is fresh again
+    client.fetch(PrestashopResourceType.CURRENCIES, 1);
+    Assert.assertEquals(2, currencyRequests.size());
+  }
+
+  @Test
+  public void testCacheInvalidatedOnSave() throws PrestaShopWebserviceException {
+    client.setResponseCache(new InMemoryResponseCache(60_000));
+    final PrestashopCurrency currency = client.fetch(PrestashopResourceType.CURRENCIES, 1);
+    client.save(PrestashopResourceType.CURRENCIES, currency);
+    client.fetch(PrestashopResourceType.CURRENCIES, 1);
+
+    Assert.assertEquals(Arrays.asList("GET null", "PUT null", "GET null"), currencyRequests);
+  }
+
+  @Test
+  public void testUnexpectedNotModified() throws PrestaShopWebserviceException {
+    client.setResponseCache(new InMemoryResponseCache(60_000));
+    alwaysNotModified = true;
+    try {
+      client.fetch(PrestashopResourceType.CURRENCIES, 1);
+      Assert.fail("304 in response to an unconditional request must be reported");
+    } catch (PrestashopHttpException e) {
+      Assert.assertEquals(304, e.getStatusCode());
+    }
+  }
+
+  @Test
+  public void testFetchEach() throws PrestaShopWebserviceException {
+    final List<PrestashopCurrency> currencies = new ArrayList<>();
+    client.<PrestashopCurrency>fetchEach(PrestashopResourceType.CURRENCIES, currencies::add);
+
+    Assert.assertEquals(166, currencies.size());
+    final PrestashopCurrency euro = currencies.get(0);
+    Assert.assertEquals(Integer.valueOf(1), euro.getId());
+    Assert.assertEquals("euro", euro.getName());
+    Assert.assertEquals("EUR", euro.getCode());
+    Assert.assertEquals("dirham des Émirats arabes unis", currencies.get(1).getName());
+    for (int i = 0; i < currencies.size(); ++i) {
+      Assert.assertEquals(Integer.valueOf(i + 1), currencies.get(i).getId());
+    }
+  }
+
+  @Test
+  public void testFetchEachEmpty() throws PrestaShopWebserviceException {
+    currenciesFixture = "currencies-empty.xml";
+    final List<PrestashopCurrency> currencies = new ArrayList<>();
+    client.<PrestashopCurrency>fetchEach(PrestashopResourceType.CURRENCIES, currencies::add);
+    Assert.assertTrue(currencies.isEmpty());
+  }
+
+  @Test
+  public void testFetchPaged() {
+    final Iterator<PrestashopCurrency> it =
+        client.fetchPaged(PrestashopResourceType.CURRENCIES, 50);
+    int count = 0;
+    while (it.hasNext()) {
+      Assert.assertEquals(Integer.valueOf(++count), it.next().getId());
+    }
+    Assert.assertEquals(166, count);
+    // 3 full pages, then a partial one ends iteration
+    Assert.assertEquals(4, queries.size());
+    Assert.assertTrue(queries.get(3).contains("limit=150,50"));
+    Assert.assertTrue(queries.get(0).contains("sort=[id_ASC]"));
+  }
+
+  @Test
+  public void testFetchPagedEmpty() {
+    currenciesFixture = "currencies-empty.xml";
+    final Iterator<PrestashopCurrency> it =
+        client.fetchPaged(PrestashopResourceType.CURRENCIES, 50);
+    Assert.assertFalse(it.hasNext());
+    Assert.assertEquals(1, queries.size());
+  }
+
+  @Test
+  public void testFetchProjection() throws PrestaShopWebserviceException {
+    final List<PrestashopProjection> orders =
+        client.fetchProjection(
+            PrestashopResourceType.ORDERS, Arrays.asList("reference", "date_upd"));
+
+    Assert.assertEquals(3, orders.size());
+    Assert.assertEquals(Integer.valueOf(1), orders.get(0).getId());
+    Assert.assertEquals("XKBKNABJK", orders.get(0).get("reference"));
+    Assert.assertEquals("2018-01-29 14:08:29", orders.get(0).get("date_upd"));
+
+    // Empty and missing fields
+    Assert.assertEquals(Integer.valueOf(2), orders.get(1).getId());
+    Assert.assertNull(orders.get(1).get("reference"));
+    Assert.assertNull(orders.get(1).get("date_upd"));
+    Assert.assertTrue(orders.get(1).getValues().isEmpty());
+
+    // Nested elements are skipped without disturbing the following fields
+    Assert.assertEquals(Integer.valueOf(3), orders.get(2).getId());
+    Assert.assertEquals("OHSATSERP", orders.get(2).get("reference"));
+    Assert.assertEquals("2018-01-30 09:12:45", orders.get(2).get("date_upd"));
+    Assert.assertNull(orders.get(2).get("associations"));
+  }
+
+  @Test
+  public void testFetchProjectionEmpty() throws PrestaShopWebserviceException {
+    currenciesFixture = "currencies-empty.xml";
+    Assert.assertTrue(
+        client
+            .fetchProjection(
+                PrestashopResourceType.CURRENCIES, Collections.singletonList("iso_code"))
+            .isEmpty());
+  }
+}
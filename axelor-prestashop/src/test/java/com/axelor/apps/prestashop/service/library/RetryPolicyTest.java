@@ -0,0 +1,140 @@
+/*
+ * Axelor Business Solutions
+ *
+ * Copyright (C) 2018 Axelor (<http://axelor.com>).
+ *
+ * This program is free software: you can redistribute it and/or  modify
+ * it under the terms of the GNU Affero General Public License, version 3,
+ * as published by the Free Software Foundation.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.axelor.apps.prestashop.service.library;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+import org.apache.http.client.utils.DateUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+  private static void assertBetween(long min, long max, long actual) {
+    Assert.assertTrue(
+        String.format("%d not in [%d, %d]", actual, min, max), actual >= min && actual <= max);
+  }
+
+  @Test
+  public void testDelay() {
+    final RetryPolicy policy = new RetryPolicy(50, 100, 1000);
+    final IOException e = new SocketTimeoutException();
+    for (int i = 0; i < 20; ++i) {
+      assertBetween(50, 100, policy.getRetryDelay("GET", 0, e));
+      assertBetween(100, 200, policy.getRetryDelay("GET", 1, e));
+      assertBetween(200, 400, policy.getRetryDelay("GET", 2, e));
+      // Capped by maximum delay, even once shifting would overflow
+      assertBetween(500, 1000, policy.getRetryDelay("GET", 4, e));
+      assertBetween(500, 1000, policy.getRetryDelay("GET", 40, e));
+    }
+  }
+
+  @Test
+  public void testMaxRetries() {
+    final RetryPolicy policy = new RetryPolicy(2, 100, 1000);
+    final IOException e = new SocketTimeoutException();
+    Assert.assertTrue(policy.getRetryDelay("GET", 1, e) >= 0);
+    Assert.assertTrue(policy.getRetryDelay("GET", 2, e) < 0);
+    Assert.assertTrue(policy.getRetryDelay("GET", 2, 503, null) < 0);
+    Assert.assertTrue(RetryPolicy.NONE.getRetryDelay("GET", 0, e) < 0);
+    Assert.assertTrue(RetryPolicy.NONE.getRetryDelay("GET", 0, 503, null) < 0);
+  }
+
+  @Test
+  public void testParseRetryAfterSeconds() {
+    Assert.assertEquals(0, RetryPolicy.parseRetryAfter(null));
+    Assert.assertEquals(0, RetryPolicy.parseRetryAfter(" "));
+    Assert.assertEquals(0, RetryPolicy.parseRetryAfter("soon"));
+    Assert.assertEquals(0, RetryPolicy.parseRetryAfter("0"));
+    Assert.assertEquals(120000, RetryPolicy.parseRetryAfter("120"));
+    Assert.assertEquals(5000, RetryPolicy.parseRetryAfter(" 5 "));
+  }
+
+  @Test
+  public void testParseRetryAfterDate() {
+    final long now = System.currentTimeMillis();
+    // HTTP dates have a one second precision
+    assertBetween(
+        55000, 60000, RetryPolicy.parseRetryAfter(DateUtils.formatDate(new Date(now + 60000))));
+    Assert.assertEquals(
+        0, RetryPolicy.parseRetryAfter(DateUtils.formatDate(new Date(now - 60000))));
+    Assert.assertEquals(0, RetryPolicy.parseRetryAfter("Wed, 32 Foo 2018 25:00:00 GMT"));
+  }
+
+  @Test
+  public void testParseRetryAfterOverflow() {
+    // Too large for a long
+    Assert.assertEquals(Long.MAX_VALUE, RetryPolicy.parseRetryAfter("99999999999999999999"));
+    // Fits in a long, but not once converted to milliseconds
+    Assert.assertEquals(Long.MAX_VALUE, RetryPolicy.parseRetryAfter("10000000000000000"));
+  }
+
+  @Test
+  public void testStatus() {
+    final RetryPolicy policy = new RetryPolicy(3, 100, 30000);
+    for (int status : new int[] {429, 502, 503, 504}) {
+      assertBetween(50, 100, policy.getRetryDelay("GET", 0, status, null));
+    }
+    for (int status : new int[] {400, 401, 404, 500}) {
+      Assert.assertTrue(policy.getRetryDelay("GET", 0, status, null) < 0);
+    }
+    // Retry-After is honoured unless it asks to wait longer than maximum delay
+    Assert.assertEquals(2000, policy.getRetryDelay("GET", 0, 503, "2"));
+    Assert.assertTrue(policy.getRetryDelay("GET", 0, 503, "60") < 0);
+    Assert.assertTrue(policy.getRetryDelay("GET", 0, 429, "10000000000000000") < 0);
+  }
+
+  @Test
+  public void testIdempotentMode() {
+    final RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+    for (String method : new String[] {"GET", "HEAD", "PUT", "DELETE"}) {
+      Assert.assertEquals(RetryPolicy.Mode.TRANSIENT_FAILURE, policy.getMode(method));
+      Assert.assertTrue(policy.getRetryDelay(method, 0, new SocketTimeoutException()) >= 0);
+      Assert.assertTrue(policy.getRetryDelay(method, 0, new ConnectException()) >= 0);
+      Assert.assertTrue(policy.getRetryDelay(method, 0, 503, null) >= 0);
+    }
+    Assert.assertEquals(RetryPolicy.Mode.TRANSIENT_FAILURE, policy.getMode("get"));
+  }
+
+  @Test
+  public void testNonIdempotentMode() {
+    final RetryPolicy policy = new RetryPolicy(3, 100, 1000);
+    for (String method : new String[] {"POST", "PATCH"}) {
+      Assert.assertEquals(RetryPolicy.Mode.CONNECTION_FAILURE, policy.getMode(method));
+      // Request may have been received, it must not be performed twice
+      Assert.assertTrue(policy.getRetryDelay(method, 0, new SocketTimeoutException()) < 0);
+      Assert.assertTrue(policy.getRetryDelay(method, 0, 503, null) < 0);
+      // Request surely has not been received
+      Assert.assertTrue(policy.getRetryDelay(method, 0, new ConnectException()) >= 0);
+    }
+  }
+
+  @Test
+  public void testSetMode() {
+    final RetryPolicy policy =
+        new RetryPolicy(3, 100, 1000)
+            .setMode("post", RetryPolicy.Mode.TRANSIENT_FAILURE)
+            .setMode("GET", RetryPolicy.Mode.NEVER);
+    Assert.assertTrue(policy.getRetryDelay("POST", 0, new SocketTimeoutException()) >= 0);
+    Assert.assertTrue(policy.getRetryDelay("POST", 0, 503, null) >= 0);
+    Assert.assertTrue(policy.getRetryDelay("GET", 0, new ConnectException()) < 0);
+    Assert.assertTrue(policy.getRetryDelay("GET", 0, 503, null) < 0);
+  }
+}